@@ -0,0 +1,35 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.bench;
+
+/**
+ * A single micro-benchmark, run by BenchmarkRunner.
+ */
+public abstract class Benchmark {
+
+	private final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Prepare for an iteration. Called before every iteration, and not timed.
+	 */
+	public void setUp() throws Exception {
+		// Nothing by default
+	}
+
+	/**
+	 * Do the operation being measured, ops times.
+	 * @return Something computed from the results, so the JIT can't throw the
+	 * work away.
+	 */
+	public abstract long run(int ops) throws Exception;
+
+}
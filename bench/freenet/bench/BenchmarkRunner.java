@@ -0,0 +1,127 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.bench;
+
+import java.text.DecimalFormat;
+
+/**
+ * Runs micro-benchmarks, in the manner of JMH: for each benchmark, find how
+ * many operations fill an iteration, run some warmup iterations so the JIT has
+ * done its work, then time the measurement iterations and report the mean time
+ * per operation with its error (99.9% confidence interval).
+ *
+ * Usage: BenchmarkRunner [-w warmup iterations] [-i iterations] [-t ms per
+ * iteration] [name filter ...]. Only benchmarks whose suite class or name
+ * contains one of the filters are run; with no filters, all of them are.
+ *
+ * Run with "ant bench", which passes ${bench.args}.
+ */
+public class BenchmarkRunner {
+
+	static final String[] SUITES = new String[] {
+		"freenet.support.RandomGrabArrayBenchmark",
+		"freenet.support.LRUBenchmark",
+		"freenet.support.LinkedListBenchmark",
+		"freenet.support.CodecBenchmark",
+		"freenet.support.SimpleFieldSetBenchmark",
+		"freenet.io.comm.MessageBenchmark",
+		"freenet.keys.ClientCHKBlockBenchmark"
+	};
+
+	/** Where run() results go, so they are never dead code */
+	static volatile long sink;
+
+	private int warmupIterations = 5;
+	private int iterations = 10;
+	private long iterationTime = 1000;
+
+	/** One iteration: returns the time taken, in milliseconds. */
+	private long iterate(Benchmark b, int ops) throws Exception {
+		b.setUp();
+		long start = System.currentTimeMillis();
+		sink += b.run(ops);
+		return System.currentTimeMillis() - start;
+	}
+
+	/** Find roughly how many operations take iterationTime. */
+	private int calibrate(Benchmark b) throws Exception {
+		int ops = 1;
+		while(true) {
+			long time = iterate(b, ops);
+			if(time >= iterationTime / 10 || ops >= Integer.MAX_VALUE / 2) {
+				long scaled = ops * iterationTime / Math.max(1, time);
+				return (int) Math.max(1, Math.min(Integer.MAX_VALUE, scaled));
+			}
+			ops *= 2;
+		}
+	}
+
+	void run(Benchmark b, String suiteName) throws Exception {
+		int ops = calibrate(b);
+		for(int i=0;i<warmupIterations;i++)
+			iterate(b, ops);
+		double[] nsPerOp = new double[iterations];
+		for(int i=0;i<iterations;i++)
+			nsPerOp[i] = iterate(b, ops) * 1000000.0 / ops;
+		double mean = 0.0;
+		for(int i=0;i<nsPerOp.length;i++)
+			mean += nsPerOp[i];
+		mean /= nsPerOp.length;
+		double variance = 0.0;
+		for(int i=0;i<nsPerOp.length;i++)
+			variance += (nsPerOp[i] - mean) * (nsPerOp[i] - mean);
+		double error = 0.0;
+		if(nsPerOp.length > 1) {
+			variance /= (nsPerOp.length - 1);
+			// Normal approximation to the 99.9% interval
+			error = 3.29 * Math.sqrt(variance / nsPerOp.length);
+		}
+		DecimalFormat format = new DecimalFormat("0.000");
+		String name = suiteName.substring(suiteName.lastIndexOf('.') + 1) + '.' + b.getName();
+		System.out.println(pad(name, 64) + pad(Integer.toString(iterations), 6) +
+				pad(format.format(mean), 16) + " +- " + pad(format.format(error), 14) + " ns/op");
+	}
+
+	private static String pad(String s, int width) {
+		StringBuffer sb = new StringBuffer(s);
+		while(sb.length() < width)
+			sb.append(' ');
+		return sb.toString();
+	}
+
+	private static boolean matches(String[] filters, int count, String suite, String name) {
+		if(count == 0) return true;
+		for(int i=0;i<count;i++) {
+			if(suite.indexOf(filters[i]) >= 0 || name.indexOf(filters[i]) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		String[] filters = new String[args.length];
+		int filterCount = 0;
+		for(int i=0;i<args.length;i++) {
+			if(args[i].equals("-w") && i+1 < args.length)
+				runner.warmupIterations = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-i") && i+1 < args.length)
+				runner.iterations = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-t") && i+1 < args.length)
+				runner.iterationTime = Long.parseLong(args[++i]);
+			else if(args[i].length() > 0)
+				filters[filterCount++] = args[i];
+		}
+		System.out.println(pad("Benchmark", 64) + pad("Cnt", 6) + pad("Score", 16) + "    " + pad("Error", 14) + " Units");
+		for(int i=0;i<SUITES.length;i++) {
+			BenchmarkSuite suite = (BenchmarkSuite) Class.forName(SUITES[i]).newInstance();
+			Benchmark[] benchmarks = suite.getBenchmarks();
+			for(int j=0;j<benchmarks.length;j++) {
+				if(!matches(filters, filterCount, SUITES[i], benchmarks[j].getName())) continue;
+				runner.run(benchmarks[j], SUITES[i]);
+			}
+		}
+	}
+
+}
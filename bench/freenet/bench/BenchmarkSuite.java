@@ -0,0 +1,14 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.bench;
+
+/**
+ * A group of related benchmarks, e.g. for one class. Must have a public no-arg
+ * constructor, and be listed in BenchmarkRunner.SUITES.
+ */
+public interface BenchmarkSuite {
+
+	public Benchmark[] getBenchmarks();
+
+}
@@ -0,0 +1,57 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.io.comm;
+
+import java.util.Random;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+import freenet.keys.CHKEncodeException;
+import freenet.keys.ClientCHK;
+import freenet.keys.ClientCHKBlock;
+import freenet.keys.NodeCHK;
+
+/**
+ * Benchmarks for encoding and decoding a typical message: a CHK request,
+ * with a sub-message-free payload of a routing key, UID, HTL and location.
+ */
+public class MessageBenchmark implements BenchmarkSuite {
+
+	static Message makeMessage() {
+		byte[] data = new byte[1024];
+		Random r = new Random(0);
+		r.nextBytes(data);
+		NodeCHK key;
+		try {
+			key = ((ClientCHK) ClientCHKBlock.encode(data, false, true, (short)-1, data.length).getClientKey()).getNodeCHK();
+		} catch (CHKEncodeException e) {
+			throw new Error(e);
+		}
+		return DMT.createFNPCHKDataRequest(r.nextLong(), (short)10, key, r.nextDouble());
+	}
+
+	public Benchmark[] getBenchmarks() {
+		final Message message = makeMessage();
+		final byte[] encoded = message.encodeToPacket(null);
+		return new Benchmark[] {
+			new Benchmark("encode") {
+				public long run(int ops) {
+					long total = 0;
+					for(int i=0;i<ops;i++)
+						total += message.encodeToPacket(null).length;
+					return total;
+				}
+			},
+			new Benchmark("decode") {
+				public long run(int ops) {
+					long total = 0;
+					for(int i=0;i<ops;i++)
+						total += Message.decodeMessageFromPacket(encoded, 0, encoded.length, null, 0).getLong(DMT.UID);
+					return total;
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,75 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.keys;
+
+import java.util.Random;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+
+/**
+ * Benchmarks for encoding and decoding full 32KiB CHK blocks, both of random
+ * (incompressible) data, which is the common case for splitfile blocks, and of
+ * compressible text.
+ */
+public class ClientCHKBlockBenchmark implements BenchmarkSuite {
+
+	static byte[] makeRandomData() {
+		byte[] data = new byte[CHKBlock.DATA_LENGTH];
+		new Random(0).nextBytes(data);
+		return data;
+	}
+
+	static byte[] makeTextData() {
+		byte[] data = new byte[CHKBlock.DATA_LENGTH];
+		byte[] line = "The quick brown fox jumps over the lazy dog. ".getBytes();
+		for(int i=0;i<data.length;i++)
+			data[i] = line[i % line.length];
+		return data;
+	}
+
+	private static Benchmark encode(String name, final byte[] data, final boolean dontCompress) {
+		return new Benchmark(name) {
+			public long run(int ops) throws CHKEncodeException {
+				long total = 0;
+				for(int i=0;i<ops;i++)
+					total += ClientCHKBlock.encode(data, false, dontCompress, (short)-1, data.length).getHeaders()[0];
+				return total;
+			}
+		};
+	}
+
+	private static Benchmark decode(String name, byte[] data) {
+		final ClientCHKBlock block;
+		try {
+			block = ClientCHKBlock.encode(data, false, false, (short)-1, data.length);
+		} catch (CHKEncodeException e) {
+			throw new Error(e);
+		}
+		final ClientCHK key = (ClientCHK) block.getClientKey();
+		final byte[] encData = block.getData();
+		final byte[] headers = block.getHeaders();
+		return new Benchmark(name) {
+			public long run(int ops) throws Exception {
+				long total = 0;
+				for(int i=0;i<ops;i++)
+					total += new ClientCHKBlock(encData, headers, key, true).memoryDecode().length;
+				return total;
+			}
+		};
+	}
+
+	public Benchmark[] getBenchmarks() {
+		byte[] random = makeRandomData();
+		byte[] text = makeTextData();
+		return new Benchmark[] {
+			encode("encodeRandom", random, false),
+			encode("encodeRandomDontCompress", random, true),
+			encode("encodeText", text, false),
+			decode("decodeRandom", random),
+			decode("decodeText", text)
+		};
+	}
+
+}
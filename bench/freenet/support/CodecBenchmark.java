@@ -0,0 +1,83 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support;
+
+import java.util.Random;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+
+/**
+ * Benchmarks for Base64 and HexUtil, on key-sized (32 byte) and 1KiB inputs.
+ */
+public class CodecBenchmark implements BenchmarkSuite {
+
+	private static byte[] makeData(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private static Benchmark base64Encode(final int length) {
+		return new Benchmark("base64Encode" + length) {
+			private final byte[] data = makeData(length);
+
+			public long run(int ops) {
+				long total = 0;
+				for(int i=0;i<ops;i++)
+					total += Base64.encode(data).length();
+				return total;
+			}
+		};
+	}
+
+	private static Benchmark base64Decode(final int length) {
+		return new Benchmark("base64Decode" + length) {
+			private final String encoded = Base64.encode(makeData(length));
+
+			public long run(int ops) throws IllegalBase64Exception {
+				long total = 0;
+				for(int i=0;i<ops;i++)
+					total += Base64.decode(encoded).length;
+				return total;
+			}
+		};
+	}
+
+	private static Benchmark hexEncode(final int length) {
+		return new Benchmark("hexEncode" + length) {
+			private final byte[] data = makeData(length);
+
+			public long run(int ops) {
+				long total = 0;
+				for(int i=0;i<ops;i++)
+					total += HexUtil.bytesToHex(data).length();
+				return total;
+			}
+		};
+	}
+
+	private static Benchmark hexDecode(final int length) {
+		return new Benchmark("hexDecode" + length) {
+			private final String encoded = HexUtil.bytesToHex(makeData(length));
+
+			public long run(int ops) {
+				long total = 0;
+				for(int i=0;i<ops;i++)
+					total += HexUtil.hexToBytes(encoded).length;
+				return total;
+			}
+		};
+	}
+
+	public Benchmark[] getBenchmarks() {
+		return new Benchmark[] {
+			base64Encode(32), base64Encode(1024),
+			base64Decode(32), base64Decode(1024),
+			hexEncode(32), hexEncode(1024),
+			hexDecode(32), hexDecode(1024)
+		};
+	}
+
+}
@@ -0,0 +1,87 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support;
+
+import java.util.Random;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+
+/**
+ * Benchmarks for LRUHashtable and LRUQueue used as bounded caches, with a
+ * working set twice the size of the cache, so about half of lookups miss.
+ */
+public class LRUBenchmark implements BenchmarkSuite {
+
+	/** Cache size */
+	static final int SIZE = 10000;
+
+	private static Object[] makeKeys() {
+		Object[] keys = new Object[SIZE * 2];
+		for(int i=0;i<keys.length;i++)
+			keys[i] = new Long(i * 0x9E3779B97F4A7C15L);
+		return keys;
+	}
+
+	/** Random indexes into the keys, so key choice isn't timed */
+	private static int[] makeAccessPattern() {
+		Random r = new Random(0);
+		int[] pattern = new int[65536];
+		for(int i=0;i<pattern.length;i++)
+			pattern[i] = r.nextInt(SIZE * 2);
+		return pattern;
+	}
+
+	public Benchmark[] getBenchmarks() {
+		return new Benchmark[] {
+			new Benchmark("lruHashtableGetOrPush") {
+				private final Object[] keys = makeKeys();
+				private final int[] pattern = makeAccessPattern();
+				private LRUHashtable table;
+
+				public void setUp() {
+					table = new LRUHashtable();
+					for(int i=0;i<SIZE;i++)
+						table.push(keys[i], keys[i]);
+				}
+
+				public long run(int ops) {
+					long hits = 0;
+					for(int i=0;i<ops;i++) {
+						Object key = keys[pattern[i & 0xFFFF]];
+						if(table.get(key) != null) {
+							hits++;
+						} else {
+							table.push(key, key);
+							if(table.size() > SIZE) table.popKey();
+						}
+					}
+					return hits;
+				}
+			},
+			new Benchmark("lruQueuePushAndPop") {
+				private final Object[] keys = makeKeys();
+				private final int[] pattern = makeAccessPattern();
+				private LRUQueue queue;
+
+				public void setUp() {
+					queue = new LRUQueue();
+					for(int i=0;i<SIZE;i++)
+						queue.push(keys[i]);
+				}
+
+				public long run(int ops) {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						queue.push(keys[pattern[i & 0xFFFF]]);
+						if(queue.size() > SIZE)
+							total += queue.pop().hashCode();
+					}
+					return total;
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,134 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support;
+
+import java.util.Random;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+
+/**
+ * Benchmarks for DoublyLinkedListImpl and UpdatableSortedLinkedList.
+ */
+public class LinkedListBenchmark implements BenchmarkSuite {
+
+	/** Items in a DoublyLinkedListImpl */
+	static final int LIST_SIZE = 10000;
+	/** Items in an UpdatableSortedLinkedList; it is O(n) to update, so kept small as in real use */
+	static final int SORTED_SIZE = 1000;
+
+	static class SortedItem extends UpdatableSortedLinkedListItemImpl {
+		long value;
+		private DoublyLinkedList parent;
+
+		SortedItem(long value) {
+			this.value = value;
+		}
+
+		public int compareTo(Object o) {
+			long other = ((SortedItem) o).value;
+			if(value < other) return -1;
+			if(value > other) return 1;
+			return 0;
+		}
+
+		public DoublyLinkedList getParent() {
+			return parent;
+		}
+
+		public DoublyLinkedList setParent(DoublyLinkedList l) {
+			DoublyLinkedList old = parent;
+			parent = l;
+			return old;
+		}
+	}
+
+	public Benchmark[] getBenchmarks() {
+		return new Benchmark[] {
+			new Benchmark("doublyLinkedListPushShift") {
+				private DoublyLinkedListImpl list;
+
+				public void setUp() {
+					list = new DoublyLinkedListImpl();
+					for(int i=0;i<LIST_SIZE;i++)
+						list.push(new DoublyLinkedListImpl.Item());
+				}
+
+				public long run(int ops) {
+					for(int i=0;i<ops;i++)
+						list.push(list.shift());
+					return list.size();
+				}
+			},
+			new Benchmark("doublyLinkedListRemoveAndPush") {
+				private final Random random = new Random(0);
+				private DoublyLinkedListImpl list;
+				private DoublyLinkedListImpl.Item[] items;
+
+				public void setUp() {
+					list = new DoublyLinkedListImpl();
+					items = new DoublyLinkedListImpl.Item[LIST_SIZE];
+					for(int i=0;i<LIST_SIZE;i++) {
+						items[i] = new DoublyLinkedListImpl.Item();
+						list.push(items[i]);
+					}
+				}
+
+				public long run(int ops) {
+					for(int i=0;i<ops;i++) {
+						DoublyLinkedListImpl.Item item = items[random.nextInt(LIST_SIZE)];
+						list.remove(item);
+						list.push(item);
+					}
+					return list.size();
+				}
+			},
+			new Benchmark("updatableSortedLinkedListUpdate") {
+				private final Random random = new Random(0);
+				private UpdatableSortedLinkedList list;
+				private SortedItem[] items;
+
+				public void setUp() throws UpdatableSortedLinkedListKilledException {
+					list = new UpdatableSortedLinkedList();
+					items = new SortedItem[SORTED_SIZE];
+					for(int i=0;i<SORTED_SIZE;i++) {
+						items[i] = new SortedItem(random.nextLong());
+						list.add(items[i]);
+					}
+				}
+
+				public long run(int ops) throws UpdatableSortedLinkedListKilledException {
+					for(int i=0;i<ops;i++) {
+						SortedItem item = items[random.nextInt(SORTED_SIZE)];
+						item.value = random.nextLong();
+						list.update(item);
+					}
+					return list.size();
+				}
+			},
+			new Benchmark("updatableSortedLinkedListAddRemoveLowest") {
+				private final Random random = new Random(0);
+				private UpdatableSortedLinkedList list;
+
+				public void setUp() throws UpdatableSortedLinkedListKilledException {
+					list = new UpdatableSortedLinkedList();
+					for(int i=0;i<SORTED_SIZE;i++)
+						list.add(new SortedItem(random.nextLong()));
+				}
+
+				public long run(int ops) throws UpdatableSortedLinkedListKilledException {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						SortedItem item = (SortedItem) list.removeLowest();
+						total += item.value;
+						item.value = random.nextLong();
+						list.add(item);
+					}
+					return total;
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,203 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+import freenet.crypt.DummyRandomSource;
+import freenet.crypt.RandomSource;
+
+/**
+ * Benchmarks for RandomGrabArray and SectoredRandomGrabArray, at about the
+ * size of a busy node's request queue.
+ */
+public class RandomGrabArrayBenchmark implements BenchmarkSuite {
+
+	/** Items queued */
+	static final int SIZE = 10000;
+	/** Clients, for SectoredRandomGrabArray */
+	static final int CLIENTS = 100;
+	/** Threads for the concurrent benchmarks */
+	static final int THREADS = 4;
+
+	static class Item implements RandomGrabArrayItem {
+		final Object client;
+		private RandomGrabArray parent;
+
+		Item(Object client) {
+			this.client = client;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		public boolean canRemove() {
+			return true;
+		}
+
+		public boolean knowsParentGrabArray() {
+			return true;
+		}
+
+		public void setParentGrabArray(RandomGrabArray parent) {
+			this.parent = parent;
+		}
+
+		public RandomGrabArray getParentGrabArray() {
+			return parent;
+		}
+	}
+
+	private static Item[] makeItems() {
+		Item[] items = new Item[SIZE];
+		for(int i=0;i<SIZE;i++)
+			items[i] = new Item(new Integer(i % CLIENTS));
+		return items;
+	}
+
+	/** Something we can grab from and add to */
+	private interface Grabber {
+		RandomGrabArrayItem removeRandom();
+		void add(Item item);
+	}
+
+	/**
+	 * THREADS threads each removing a random item and adding it back, ops times
+	 * between them: the pattern of request starters picking requests while
+	 * requests are registered.
+	 */
+	private static Benchmark concurrent(String name, final boolean sectored) {
+		return new Benchmark(name) {
+			private final RandomSource random = new DummyRandomSource();
+			private Grabber grabber;
+
+			public void setUp() {
+				if(sectored) {
+					final SectoredRandomGrabArray srga = new SectoredRandomGrabArray(random);
+					grabber = new Grabber() {
+						public RandomGrabArrayItem removeRandom() {
+							return srga.removeRandom();
+						}
+						public void add(Item item) {
+							srga.add(item.client, item);
+						}
+					};
+				} else {
+					final RandomGrabArray rga = new RandomGrabArray(random);
+					grabber = new Grabber() {
+						public RandomGrabArrayItem removeRandom() {
+							return rga.removeRandom();
+						}
+						public void add(Item item) {
+							rga.add(item);
+						}
+					};
+				}
+				Item[] items = makeItems();
+				for(int i=0;i<items.length;i++)
+					grabber.add(items[i]);
+			}
+
+			public long run(final int ops) throws InterruptedException {
+				final long[] totals = new long[THREADS];
+				Thread[] threads = new Thread[THREADS];
+				for(int i=0;i<THREADS;i++) {
+					final int threadNo = i;
+					threads[i] = new Thread() {
+						public void run() {
+							long total = 0;
+							for(int j=threadNo;j<ops;j+=THREADS) {
+								Item item = (Item) grabber.removeRandom();
+								total += item.hashCode();
+								grabber.add(item);
+							}
+							totals[threadNo] = total;
+						}
+					};
+					threads[i].start();
+				}
+				long total = 0;
+				for(int i=0;i<THREADS;i++) {
+					threads[i].join();
+					total += totals[i];
+				}
+				return total;
+			}
+		};
+	}
+
+	public Benchmark[] getBenchmarks() {
+		return new Benchmark[] {
+			new Benchmark("removeRandomAndAdd") {
+				private final RandomSource random = new DummyRandomSource();
+				private RandomGrabArray rga;
+
+				public void setUp() {
+					rga = new RandomGrabArray(random);
+					Item[] items = makeItems();
+					for(int i=0;i<items.length;i++)
+						rga.add(items[i]);
+				}
+
+				public long run(int ops) {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						RandomGrabArrayItem item = rga.removeRandom();
+						total += item.hashCode();
+						rga.add(item);
+					}
+					return total;
+				}
+			},
+			new Benchmark("fillAndDrain") {
+				private final RandomSource random = new DummyRandomSource();
+				private final Item[] items = makeItems();
+				private RandomGrabArray rga;
+
+				public void setUp() {
+					rga = new RandomGrabArray(random);
+				}
+
+				public long run(int ops) {
+					long total = 0;
+					int done = 0;
+					while(done < ops) {
+						int n = Math.min(SIZE, (ops - done + 1) / 2);
+						for(int i=0;i<n;i++)
+							rga.add(items[i]);
+						for(int i=0;i<n;i++)
+							total += rga.removeRandom().hashCode();
+						done += Math.max(1, n * 2);
+					}
+					return total;
+				}
+			},
+			new Benchmark("sectoredRemoveRandomAndAdd") {
+				private final RandomSource random = new DummyRandomSource();
+				private SectoredRandomGrabArray srga;
+
+				public void setUp() {
+					srga = new SectoredRandomGrabArray(random);
+					Item[] items = makeItems();
+					for(int i=0;i<items.length;i++)
+						srga.add(items[i].client, items[i]);
+				}
+
+				public long run(int ops) {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						Item item = (Item) srga.removeRandom();
+						total += item.hashCode();
+						srga.add(item.client, item);
+					}
+					return total;
+				}
+			},
+			concurrent("concurrentRemoveRandomAndAdd", false),
+			concurrent("concurrentSectoredRemoveRandomAndAdd", true)
+		};
+	}
+
+}
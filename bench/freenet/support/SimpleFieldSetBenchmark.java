@@ -0,0 +1,124 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import freenet.bench.Benchmark;
+import freenet.bench.BenchmarkSuite;
+import freenet.support.io.LineReadingInputStream;
+
+/**
+ * Benchmarks for parsing and writing a SimpleFieldSet the size and shape of a
+ * node reference.
+ */
+public class SimpleFieldSetBenchmark implements BenchmarkSuite {
+
+	private static String randomHex(Random r, int bytes) {
+		byte[] buf = new byte[bytes];
+		r.nextBytes(buf);
+		return HexUtil.bytesToHex(buf);
+	}
+
+	private static String randomBase64(Random r, int bytes) {
+		byte[] buf = new byte[bytes];
+		r.nextBytes(buf);
+		return Base64.encode(buf);
+	}
+
+	/** Something like a darknet noderef */
+	static SimpleFieldSet makeNodeRef() {
+		Random r = new Random(0);
+		SimpleFieldSet fs = new SimpleFieldSet(false);
+		fs.putSingle("identity", randomBase64(r, 32));
+		fs.putSingle("myName", "Benchmark node");
+		fs.putSingle("location", Double.toString(r.nextDouble()));
+		fs.putSingle("version", "Fred,0.7,1.0,1056");
+		fs.putSingle("lastGoodVersion", "Fred,0.7,1.0,1050");
+		fs.putSingle("testnet", "false");
+		fs.putSingle("opennet", "false");
+		fs.putSingle("physical.udp", "192.168.1.1:12345");
+		fs.putSingle("auth.negTypes", "1;2");
+		fs.putSingle("ark.number", "42");
+		fs.putSingle("ark.pubURI", "SSK@"+randomBase64(r, 32)+","+randomBase64(r, 32)+",AQACAAE/ark");
+		fs.putSingle("dsaGroup.p", randomHex(r, 128));
+		fs.putSingle("dsaGroup.q", randomHex(r, 32));
+		fs.putSingle("dsaGroup.g", randomHex(r, 128));
+		fs.putSingle("dsaPubKey.y", randomHex(r, 128));
+		fs.putSingle("sig", randomHex(r, 32)+","+randomHex(r, 32));
+		for(int i=0;i<10;i++)
+			fs.putSingle("metadata.peer"+i, Double.toString(r.nextDouble()));
+		return fs;
+	}
+
+	public Benchmark[] getBenchmarks() {
+		final SimpleFieldSet nodeRef = makeNodeRef();
+		final String text = nodeRef.toOrderedString();
+		byte[] utf8;
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		try {
+			utf8 = text.getBytes("UTF-8");
+			nodeRef.writeBinaryTo(new DataOutputStream(binary));
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+		final byte[] textBytes = utf8;
+		final byte[] binaryBytes = binary.toByteArray();
+		return new Benchmark[] {
+			new Benchmark("parseString") {
+				public long run(int ops) throws IOException {
+					long total = 0;
+					for(int i=0;i<ops;i++)
+						total += new SimpleFieldSet(text, false, true).get("identity").length();
+					return total;
+				}
+			},
+			new Benchmark("parseStream") {
+				public long run(int ops) throws IOException {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						LineReadingInputStream lis = new LineReadingInputStream(new ByteArrayInputStream(textBytes));
+						total += new SimpleFieldSet(lis, 4096, 128, true, true, false, true).get("identity").length();
+					}
+					return total;
+				}
+			},
+			new Benchmark("readBinary") {
+				public long run(int ops) throws IOException {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						DataInputStream dis = new DataInputStream(new ByteArrayInputStream(binaryBytes));
+						total += SimpleFieldSet.readBinary(dis, 1024, 4096, true).get("identity").length();
+					}
+					return total;
+				}
+			},
+			new Benchmark("toOrderedString") {
+				public long run(int ops) {
+					long total = 0;
+					for(int i=0;i<ops;i++)
+						total += nodeRef.toOrderedString().length();
+					return total;
+				}
+			},
+			new Benchmark("writeBinary") {
+				public long run(int ops) throws IOException {
+					long total = 0;
+					for(int i=0;i<ops;i++) {
+						ByteArrayOutputStream baos = new ByteArrayOutputStream(binaryBytes.length);
+						nodeRef.writeBinaryTo(new DataOutputStream(baos));
+						total += baos.size();
+					}
+					return total;
+				}
+			}
+		};
+	}
+
+}
@@ -36,6 +36,9 @@ import freenet.support.io.TempFileBucket;
 public class ArchiveManager {
 
 	public static final String METADATA_NAME = ".metadata";
+	/** Name under which a whole archive is cached, if we extract files from it on demand.
+	 * Can't clash with a file in the archive, as directories are not cached. */
+	static final String CONTAINER_NAME = "/";
 	private static boolean logMINOR;
 	
 	final RandomSource random;
@@ -130,6 +133,7 @@ public class ArchiveManager {
 	 */
 	public Bucket getCached(FreenetURI key, String filename) throws ArchiveFailureException {
 		if(logMINOR) Logger.minor(this, "Fetch cached: "+key+ ' ' +filename);
+		if(filename.equals(CONTAINER_NAME)) return null;
 		ArchiveKey k = new ArchiveKey(key, filename);
 		ArchiveStoreItem asi = null;
 		synchronized (this) {
@@ -208,6 +212,18 @@ public class ArchiveManager {
 		if(archiveType != Metadata.ARCHIVE_ZIP)
 			throw new ArchiveFailureException("Unknown or unsupported archive algorithm "+archiveType);
 		
+		ZipArchiveIndex index;
+		try {
+			index = ZipArchiveIndex.read(data);
+		} catch (IOException e) {
+			throw new ArchiveFailureException("Error reading archive: "+e.getMessage(), e);
+		}
+		if(index != null) {
+			cacheContainer(key, data, ctx, index, element, callback, throwAtExit);
+			return;
+		}
+		if(logMINOR) Logger.minor(this, "No usable central directory, extracting everything from "+key);
+		
 		ZipInputStream zis = null;
 		try {
 			zis = new ZipInputStream(data.getInputStream());
@@ -282,6 +298,115 @@ outer:		while(true) {
 		}
 	}
 
+	/**
+	 * Cache a whole archive along with the index of its contents, rather than extracting
+	 * every file in it. Files are then extracted one at a time by extractFromContainer()
+	 * as they are asked for.
+	 * @param data The archive. We take ownership of it.
+	 */
+	private void cacheContainer(FreenetURI key, Bucket data, ArchiveStoreContext ctx, ZipArchiveIndex index, String element, ArchiveExtractCallback callback, boolean throwAtExit) throws ArchiveFailureException, ArchiveRestartException {
+		if(logMINOR) Logger.minor(this, "Caching container "+key+" : "+index.size()+" files");
+		ContainerArchiveStoreItem container = new ContainerArchiveStoreItem(ctx, key, data, index);
+		// Get our own reader before trimming, so it isn't freed under us
+		Bucket reader = container.getReaderBucket();
+		try {
+			ArchiveStoreItem oldItem;
+			synchronized (this) {
+				oldItem = (ArchiveStoreItem) storedData.get(container.key);
+				storedData.push(container.key, container);
+				cachedData += container.spaceUsed();
+				if(oldItem != null) {
+					cachedData -= oldItem.spaceUsed();
+					oldItem.close();
+				}
+			}
+			trimStoredData();
+			if(throwAtExit) throw new ArchiveRestartException("Archive changed on re-fetch");
+			if(element == null) return;
+			Bucket out = extractFromContainer(ctx, key, element, container, reader);
+			if(out != null)
+				callback.gotBucket(out);
+			else
+				callback.notInArchive();
+		} finally {
+			reader.free();
+		}
+	}
+
+	/**
+	 * Extract a single file from a cached archive, and add it to the cache.
+	 * @param ctx The ArchiveStoreContext for the archive.
+	 * @param key The key the archive was fetched from.
+	 * @param name The name of the file within the archive.
+	 * @return A Bucket containing the file, or null if the archive is not cached (as a
+	 * whole) or the file is not in it.
+	 * @throws ArchiveFailureException If the file could not be extracted, or is too big.
+	 */
+	Bucket extractFromContainer(ArchiveStoreContext ctx, FreenetURI key, String name) throws ArchiveFailureException {
+		ArchiveKey k = new ArchiveKey(key, CONTAINER_NAME);
+		ContainerArchiveStoreItem container;
+		synchronized (this) {
+			container = (ContainerArchiveStoreItem) storedData.get(k);
+			if(container == null) return null;
+			// Promote to top of LRU
+			storedData.push(k, container);
+		}
+		Bucket reader = container.getReaderBucket();
+		if(reader == null) return null; // Dropped in the meantime
+		try {
+			return extractFromContainer(ctx, key, name, container, reader);
+		} finally {
+			reader.free();
+		}
+	}
+
+	private Bucket extractFromContainer(ArchiveStoreContext ctx, FreenetURI key, String name, ContainerArchiveStoreItem container, Bucket reader) throws ArchiveFailureException {
+		ZipArchiveIndex index = container.index;
+		MutableBoolean gotElement = new MutableBoolean();
+		ArchiveBucketCallback cb = new ArchiveBucketCallback();
+		if(!index.contains(name)) {
+			// If no metadata, generate some
+			if(!name.equals(METADATA_NAME)) return null;
+			generateMetadata(ctx, key, index.getNames(), gotElement, name, cb);
+			trimStoredData();
+			return cb.bucket;
+		}
+		long size = index.getSize(name);
+		if(size > maxArchivedFileSize) {
+			addErrorElement(ctx, key, name, "File too big: "+size+" greater than current archived file size limit "+maxArchivedFileSize);
+			throw new ArchiveFailureException("File too big: "+size+" greater than current archived file size limit "+maxArchivedFileSize);
+		}
+		if(logMINOR) Logger.minor(this, "Extracting "+name+" from "+key+" : "+size+" bytes");
+		TempStoreElement temp = makeTempStoreBucket(size);
+		try {
+			OutputStream out = temp.bucket.getOutputStream();
+			try {
+				index.extract(reader, name, out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			temp.close();
+			throw new ArchiveFailureException("Error reading archive: "+e.getMessage(), e);
+		}
+		addStoreElement(ctx, key, name, temp, gotElement, name, cb);
+		trimStoredData();
+		return cb.bucket;
+	}
+
+	/** Just remembers the bucket it was given. */
+	private static class ArchiveBucketCallback implements ArchiveExtractCallback {
+		Bucket bucket;
+
+		public void gotBucket(Bucket data) {
+			bucket = data;
+		}
+
+		public void notInArchive() {
+			// Ignore
+		}
+	}
+
 	/**
 	 * Generate fake metadata for an archive which doesn't have any.
 	 * @param ctx The context object.
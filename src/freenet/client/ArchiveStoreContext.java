@@ -75,7 +75,8 @@ public class ArchiveStoreContext implements ArchiveHandler {
 			return data;
 		}	
 		
-		return null;
+		// Extract it from the archive, if that is cached
+		return manager.extractFromContainer(this, key, internalName);
 	}
 
 	/** Returns the size of the archive last time we fetched it, or -1 */
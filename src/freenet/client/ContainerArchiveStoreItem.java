@@ -0,0 +1,49 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.client;
+
+import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
+import freenet.support.io.MultiReaderBucket;
+
+/**
+ * A whole archive in the cache, along with the index of its contents, so that files
+ * can be extracted from it one at a time as they are asked for.
+ */
+class ContainerArchiveStoreItem extends ArchiveStoreItem {
+
+	final ZipArchiveIndex index;
+	private final MultiReaderBucket mb;
+	private final Bucket bucket;
+	private final long spaceUsed;
+
+	/**
+	 * @param data The archive. We take ownership of it, and free it when we are dropped
+	 * from the cache and nobody is reading it.
+	 */
+	ContainerArchiveStoreItem(ArchiveStoreContext ctx, FreenetURI key, Bucket data, ZipArchiveIndex index) {
+		super(new ArchiveKey(key, ArchiveManager.CONTAINER_NAME), ctx);
+		this.index = index;
+		mb = new MultiReaderBucket(data);
+		bucket = mb.getReaderBucket();
+		spaceUsed = data.size();
+	}
+
+	long spaceUsed() {
+		return spaceUsed;
+	}
+
+	void innerClose() {
+		bucket.free();
+	}
+
+	Bucket getDataOrThrow() throws ArchiveFailureException {
+		return bucket;
+	}
+
+	/** @return A bucket to read the archive from, or null if it has already been dropped. */
+	Bucket getReaderBucket() {
+		return mb.getReaderBucket();
+	}
+}
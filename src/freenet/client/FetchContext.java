@@ -53,6 +53,18 @@ public class FetchContext implements Cloneable {
 	/** If set, contains a set of blocks to be consulted before checking the datastore. */
 	public BlockSet blocks;
 	public Set allowedMIMETypes;
+	/** If true, the data will be read as it arrives (e.g. from a ProgressiveBucket), so
+	 * fetch the start of a splitfile before the rest. */
+	public boolean streaming;
+	/** If positive, fetch at most this many segments of a splitfile at a time, starting
+	 * the next one when one finishes, rather than queueing all of them at once. */
+	public int maxActiveSegments;
+	/** Number of segments after the active ones to queue as well, at a lower priority, so
+	 * they have started by the time they become active. Only used if maxActiveSegments is
+	 * positive. */
+	public int prefetchSegments;
+	/** If set, metadata fetched from CHKs is cached here, and looked up before fetching a CHK. */
+	public MetadataCache metadataCache;
 	public final Ticker ticker;
 	public final Executor executor;
 	
@@ -104,6 +116,10 @@ public class FetchContext implements Cloneable {
 		this.ignoreTooManyPathComponents = ctx.ignoreTooManyPathComponents;
 		this.blocks = ctx.blocks;
 		this.allowedMIMETypes = ctx.allowedMIMETypes;
+		this.streaming = ctx.streaming;
+		this.maxActiveSegments = ctx.maxActiveSegments;
+		this.prefetchSegments = ctx.prefetchSegments;
+		this.metadataCache = ctx.metadataCache;
 		if(maskID == IDENTICAL_MASK) {
 			this.maxOutputLength = ctx.maxOutputLength;
 			this.maxMetadataSize = ctx.maxMetadataSize;
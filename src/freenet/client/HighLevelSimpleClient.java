@@ -5,8 +5,11 @@ package freenet.client;
 
 import java.util.HashMap;
 
+import freenet.client.async.ClientCallback;
+import freenet.client.async.ClientGetter;
 import freenet.client.events.ClientEventListener;
 import freenet.keys.FreenetURI;
+import freenet.support.api.Bucket;
 
 public interface HighLevelSimpleClient {
 
@@ -36,6 +39,17 @@ public interface HighLevelSimpleClient {
 	 */
 	public FetchResult fetch(FreenetURI uri, long maxSize, Object context) throws FetchException;
 	
+	/**
+	 * Non-blocking fetch of a URI.
+	 * @param callback Told when the fetch succeeds or fails.
+	 * @param returnBucket The bucket to write the data to. Can be null.
+	 * @param streaming If true, fetch a splitfile's segments roughly in order, and write
+	 * each one to returnBucket as soon as it and all the ones before it are done, so the
+	 * data can be read while the fetch is still running; see ProgressiveBucket.
+	 * @return The request, which has already been started.
+	 */
+	public ClientGetter fetch(FreenetURI uri, long maxSize, Object context, ClientCallback callback, Bucket returnBucket, boolean streaming) throws FetchException;
+	
 	/**
 	 * Blocking insert.
 	 * @param filenameHint If set, insert a single-file manifest containing only this file, under the given filename.
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.util.HashMap;
 
 import freenet.client.async.BackgroundBlockEncoder;
+import freenet.client.async.ClientCallback;
 import freenet.client.async.ClientGetter;
 import freenet.client.async.ClientPutter;
 import freenet.client.async.HealingQueue;
@@ -75,6 +76,11 @@ public class HighLevelSimpleClientImpl implements HighLevelSimpleClient {
 	static final int MAX_SPLITFILE_CHECK_BLOCKS_PER_SEGMENT = 1536;
 	static final int SPLITFILE_BLOCKS_PER_SEGMENT = 128;
 	static final int SPLITFILE_CHECK_BLOCKS_PER_SEGMENT = 64;
+	/** Segments of a splitfile to fetch at once. Limits the number of blocks queued for
+	 * a huge splitfile, and gets segments finished (and decoded) sooner. */
+	static final int SPLITFILE_ACTIVE_SEGMENTS = 8;
+	/** Segments to queue at a lower priority after the active ones */
+	static final int SPLITFILE_PREFETCH_SEGMENTS = 2;
 	
 	
 	public HighLevelSimpleClientImpl(NodeClientCore node, ArchiveManager mgr, BucketFactory bf, RandomSource r, boolean cacheLocalRequests, short priorityClass, boolean forceDontIgnoreTooManyPathComponents) {
@@ -129,6 +135,15 @@ public class HighLevelSimpleClientImpl implements HighLevelSimpleClient {
 		return fw.waitForCompletion();
 	}
 	
+	public ClientGetter fetch(FreenetURI uri, long overrideMaxSize, Object clientContext, ClientCallback callback, Bucket returnBucket, boolean streaming) throws FetchException {
+		if(uri == null) throw new NullPointerException();
+		FetchContext context = getFetchContext(overrideMaxSize);
+		context.streaming = streaming;
+		ClientGetter get = new ClientGetter(callback, core.requestStarters.chkFetchScheduler, core.requestStarters.sskFetchScheduler, uri, context, priorityClass, clientContext, returnBucket, null);
+		get.start();
+		return get;
+	}
+	
 	public FreenetURI insert(InsertBlock insert, boolean getCHKOnly, String filenameHint) throws InsertException {
 		return insert(insert, getCHKOnly, filenameHint, false);
 	}
@@ -183,7 +198,7 @@ public class HighLevelSimpleClientImpl implements HighLevelSimpleClient {
 			maxLength = overrideMaxSize;
 			maxTempLength = overrideMaxSize;
 		} 
-		return 			
+		FetchContext ctx =
 			new FetchContext(maxLength, maxTempLength, curMaxMetadataLength, 
 				MAX_RECURSION, MAX_ARCHIVE_RESTARTS, MAX_ARCHIVE_LEVELS, DONT_ENTER_IMPLICIT_ARCHIVES, 
 				SPLITFILE_THREADS, SPLITFILE_BLOCK_RETRIES, NON_SPLITFILE_RETRIES,
@@ -192,6 +207,10 @@ public class HighLevelSimpleClientImpl implements HighLevelSimpleClient {
 				random, archiveManager, bucketFactory, globalEventProducer, 
 				cacheLocalRequests, core.uskManager, healingQueue, 
 				forceDontIgnoreTooManyPathComponents ? false : core.ignoreTooManyPathComponents, core.getTicker(), core.getExecutor());
+		ctx.maxActiveSegments = SPLITFILE_ACTIVE_SEGMENTS;
+		ctx.prefetchSegments = SPLITFILE_PREFETCH_SEGMENTS;
+		ctx.metadataCache = core.metadataCache;
+		return ctx;
 	}
 
 	public InsertContext getInsertContext(boolean forceNonPersistent) {
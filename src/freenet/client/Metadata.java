@@ -116,9 +116,14 @@ public class Metadata implements Cloneable {
 
 	ClientMetadata clientMetadata;
 
+	/** Shallow copy, except that the ClientMetadata is copied too, so that
+	 * setArchiveManifest() on the copy does not change the original. */
 	public Object clone() {
 		try {
-			return super.clone();
+			Metadata m = (Metadata) super.clone();
+			if(clientMetadata != null)
+				m.clientMetadata = (ClientMetadata) clientMetadata.clone();
+			return m;
 		} catch (CloneNotSupportedException e) {
 			throw new Error("Yes it is!");
 		}
@@ -0,0 +1,95 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.client;
+
+import freenet.keys.FreenetURI;
+import freenet.support.LRUHashtable;
+import freenet.support.Logger;
+
+/**
+ * Cache of recently parsed Metadata, keyed by the URI of the CHK it was fetched from,
+ * so that going back into a big manifest neither refetches the block nor reparses it.
+ * Only metadata from CHKs may be cached, as the key fixes the content. The cached
+ * objects are shared, so nobody must modify them; clone() first.
+ * 
+ * Bounded by the number of entries and by the total size of the metadata as it was
+ * encoded, which is roughly proportional to the memory used by the parsed form.
+ */
+public class MetadataCache {
+
+	/** Maximum number of cached Metadata's */
+	final int maxEntries;
+	/** Maximum total encoded size of cached Metadata's, in bytes */
+	final long maxBytes;
+	/** Currently cached bytes */
+	private long cachedBytes;
+	/** Map from FreenetURI to Entry */
+	private final LRUHashtable cache;
+
+	private static class Entry {
+		final Metadata metadata;
+		final long size;
+
+		Entry(Metadata metadata, long size) {
+			this.metadata = metadata;
+			this.size = size;
+		}
+	}
+
+	public MetadataCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		cache = new LRUHashtable();
+	}
+
+	/**
+	 * Get cached metadata.
+	 * @param key The URI of the CHK the metadata came from, including any meta-strings
+	 * needed to get to it within that key.
+	 * @param maxSize The largest (encoded) metadata the caller will accept.
+	 * @return The Metadata, which must not be modified, or null.
+	 */
+	public synchronized Metadata get(FreenetURI key, long maxSize) {
+		Entry e = (Entry) cache.get(key);
+		if(e == null || e.size > maxSize) return null;
+		// Promote to top of LRU
+		cache.push(key, e);
+		return e.metadata;
+	}
+
+	/**
+	 * Cache some metadata.
+	 * @param key The URI of the CHK the metadata came from. Ignored if it is not a CHK.
+	 * @param metadata The parsed metadata. Must not be modified afterwards.
+	 * @param size The size of the metadata as it was encoded.
+	 */
+	public synchronized void put(FreenetURI key, Metadata metadata, long size) {
+		if(!key.getKeyType().equals("CHK")) return;
+		if(size > maxBytes) return;
+		Entry e = new Entry(metadata, size);
+		Entry old = (Entry) cache.get(key);
+		cache.push(key, e);
+		cachedBytes += size;
+		if(old != null) cachedBytes -= old.size;
+		while(cachedBytes > maxBytes || cache.size() > maxEntries) {
+			Entry dropped = (Entry) cache.popValue();
+			if(dropped == null) {
+				Logger.error(this, "Cache is empty but still over limit: cachedBytes="+cachedBytes+" / "+maxBytes);
+				cachedBytes = 0;
+				return;
+			}
+			cachedBytes -= dropped.size;
+		}
+		if(Logger.shouldLog(Logger.MINOR, this))
+			Logger.minor(this, "Cached metadata for "+key+" : "+size+" bytes, now "+cache.size()+" entries "+cachedBytes+" bytes");
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized long bytesUsed() {
+		return cachedBytes;
+	}
+}
@@ -0,0 +1,333 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import freenet.support.Logger;
+import freenet.support.api.Bucket;
+
+/**
+ * Index of the files in a ZIP archive, read from its central directory, so that any one
+ * of them can be extracted without reading through (and inflating) everything before it.
+ * Only the simple case is supported: no ZIP64, no spanning, and no data before the
+ * archive; read() returns null for anything else, and the caller should fall back to
+ * reading the archive sequentially.
+ */
+class ZipArchiveIndex {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int LOCAL_HEADER_LENGTH = 30;
+	private static final int CENTRAL_HEADER_LENGTH = 46;
+	private static final int END_LENGTH = 22;
+	private static final int MAX_COMMENT_LENGTH = 65535;
+	static final int METHOD_STORED = 0;
+	static final int METHOD_DEFLATED = 8;
+
+	/** Names of the files, not including directories, sorted. Other fields are in the same order. */
+	private final String[] names;
+	private final int[] methods;
+	/** Offsets of the local headers */
+	private final long[] offsets;
+	private final long[] compressedSizes;
+	private final long[] sizes;
+	private final int[] crcs;
+
+	private ZipArchiveIndex(int count) {
+		names = new String[count];
+		methods = new int[count];
+		offsets = new long[count];
+		compressedSizes = new long[count];
+		sizes = new long[count];
+		crcs = new int[count];
+	}
+
+	private static class Entry {
+		String name;
+		int method;
+		long offset;
+		long compressedSize;
+		long size;
+		int crc;
+	}
+
+	private static final Comparator ENTRY_COMPARATOR = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((Entry) o1).name.compareTo(((Entry) o2).name);
+		}
+	};
+
+	/**
+	 * Read the central directory of a ZIP archive.
+	 * @return The index, or null if the archive has no central directory that we can use.
+	 * @throws IOException If the data could not be read.
+	 */
+	static ZipArchiveIndex read(Bucket data) throws IOException {
+		long length = data.size();
+		if(length < END_LENGTH) return null;
+		int tailLength = (int) Math.min(length, END_LENGTH + MAX_COMMENT_LENGTH);
+		long tailStart = length - tailLength;
+		byte[] tail = new byte[tailLength];
+		InputStream is = data.getInputStream();
+		try {
+			skipFully(is, tailStart);
+			readFully(is, tail, tailLength);
+		} finally {
+			is.close();
+		}
+		// Find the end of central directory record, searching back over the comment
+		int end = -1;
+		for(int i=tailLength-END_LENGTH;i>=0;i--) {
+			if(getInt(tail, i) == END_SIGNATURE &&
+					i + END_LENGTH + getShort(tail, i+20) <= tailLength) {
+				end = i;
+				break;
+			}
+		}
+		if(end < 0) return null;
+		int disk = getShort(tail, end+4);
+		int centralDisk = getShort(tail, end+6);
+		int diskEntries = getShort(tail, end+8);
+		int totalEntries = getShort(tail, end+10);
+		long centralSize = getInt(tail, end+12) & 0xFFFFFFFFL;
+		long centralOffset = getInt(tail, end+16) & 0xFFFFFFFFL;
+		if(disk != 0 || centralDisk != 0 || diskEntries != totalEntries) return null; // Spanned
+		if(totalEntries == 0xFFFF || centralSize == 0xFFFFFFFFL || centralOffset == 0xFFFFFFFFL) return null; // ZIP64
+		if(centralOffset + centralSize != tailStart + end) return null; // Data before the archive, or corrupt
+		if(centralSize < (long) totalEntries * CENTRAL_HEADER_LENGTH) return null;
+
+		byte[] central = new byte[(int) centralSize];
+		is = data.getInputStream();
+		try {
+			skipFully(is, centralOffset);
+			readFully(is, central, central.length);
+		} finally {
+			is.close();
+		}
+
+		ArrayList entries = new ArrayList(totalEntries);
+		HashSet seen = new HashSet();
+		int ptr = 0;
+		for(int i=0;i<totalEntries;i++) {
+			if(ptr + CENTRAL_HEADER_LENGTH > central.length) return null;
+			if(getInt(central, ptr) != CENTRAL_HEADER_SIGNATURE) return null;
+			int nameLength = getShort(central, ptr+28);
+			int extraLength = getShort(central, ptr+30);
+			int commentLength = getShort(central, ptr+32);
+			int next = ptr + CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+			if(next > central.length) return null;
+			String name = decodeName(central, ptr + CENTRAL_HEADER_LENGTH, nameLength);
+			if(!name.endsWith("/")) {
+				if(!seen.add(name)) {
+					Logger.error(ZipArchiveIndex.class, "Duplicate key "+name+" in archive");
+				} else {
+					Entry e = new Entry();
+					e.name = name;
+					e.method = getShort(central, ptr+10);
+					e.crc = getInt(central, ptr+16);
+					e.compressedSize = getInt(central, ptr+20) & 0xFFFFFFFFL;
+					e.size = getInt(central, ptr+24) & 0xFFFFFFFFL;
+					e.offset = getInt(central, ptr+42) & 0xFFFFFFFFL;
+					if(e.offset + LOCAL_HEADER_LENGTH + e.compressedSize > centralOffset) return null;
+					entries.add(e);
+				}
+			}
+			ptr = next;
+		}
+
+		Entry[] sorted = (Entry[]) entries.toArray(new Entry[entries.size()]);
+		Arrays.sort(sorted, ENTRY_COMPARATOR);
+		ZipArchiveIndex index = new ZipArchiveIndex(sorted.length);
+		for(int i=0;i<sorted.length;i++) {
+			Entry e = sorted[i];
+			index.names[i] = e.name;
+			index.methods[i] = e.method;
+			index.offsets[i] = e.offset;
+			index.compressedSizes[i] = e.compressedSize;
+			index.sizes[i] = e.size;
+			index.crcs[i] = e.crc;
+		}
+		return index;
+	}
+
+	private static String decodeName(byte[] buf, int offset, int length) {
+		try {
+			// Same as java.util.zip
+			return new String(buf, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+	/** The number of files in the archive */
+	int size() {
+		return names.length;
+	}
+
+	/** The names of the files in the archive, excluding directories */
+	HashSet getNames() {
+		HashSet set = new HashSet(names.length * 2);
+		for(int i=0;i<names.length;i++)
+			set.add(names[i]);
+		return set;
+	}
+
+	private int indexOf(String name) {
+		int lo = 0;
+		int hi = names.length - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = names[mid].compareTo(name);
+			if(cmp < 0) lo = mid + 1;
+			else if(cmp > 0) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	boolean contains(String name) {
+		return indexOf(name) >= 0;
+	}
+
+	/** The uncompressed size of a file, according to the central directory, or -1 if there is no such file. */
+	long getSize(String name) {
+		int i = indexOf(name);
+		if(i < 0) return -1;
+		return sizes[i];
+	}
+
+	/**
+	 * Extract a file from the archive.
+	 * @param data The archive this index was read from.
+	 * @param name The name of the file.
+	 * @param os The stream to write it to.
+	 * @return False if there is no such file.
+	 * @throws IOException If the data could not be read, or it is corrupt.
+	 */
+	boolean extract(Bucket data, String name, OutputStream os) throws IOException {
+		int i = indexOf(name);
+		if(i < 0) return false;
+		int method = methods[i];
+		if(method != METHOD_STORED && method != METHOD_DEFLATED)
+			throw new IOException("Unsupported compression method "+method+" for "+name);
+		InputStream is = data.getInputStream();
+		Inflater inflater = null;
+		try {
+			skipFully(is, offsets[i]);
+			byte[] header = new byte[LOCAL_HEADER_LENGTH];
+			readFully(is, header, LOCAL_HEADER_LENGTH);
+			if(getInt(header, 0) != LOCAL_HEADER_SIGNATURE)
+				throw new IOException("Bad local header for "+name);
+			// The local extra field may differ from the central one
+			skipFully(is, getShort(header, 26) + getShort(header, 28));
+			InputStream in;
+			if(method == METHOD_DEFLATED) {
+				inflater = new Inflater(true);
+				in = new InflaterInputStream(new EntryInputStream(is, compressedSizes[i], true), inflater, 4096);
+			} else {
+				in = new EntryInputStream(is, compressedSizes[i], false);
+			}
+			CRC32 crc = new CRC32();
+			byte[] buf = new byte[4096];
+			long written = 0;
+			int x;
+			while((x = in.read(buf)) > 0) {
+				written += x;
+				if(written > sizes[i])
+					throw new IOException("File "+name+" is longer than its directory entry says");
+				crc.update(buf, 0, x);
+				os.write(buf, 0, x);
+			}
+			if(written != sizes[i])
+				throw new IOException("File "+name+" is shorter than its directory entry says");
+			if((int) crc.getValue() != crcs[i])
+				throw new IOException("CRC mismatch for "+name);
+			return true;
+		} finally {
+			if(inflater != null) inflater.end();
+			is.close();
+		}
+	}
+
+	/** Reads the compressed data of one entry, optionally followed by the dummy byte that
+	 * Inflater needs in nowrap mode. */
+	private static class EntryInputStream extends InputStream {
+
+		private final InputStream in;
+		private long remaining;
+		private boolean dummy;
+
+		EntryInputStream(InputStream in, long length, boolean dummy) {
+			this.in = in;
+			this.remaining = length;
+			this.dummy = dummy;
+		}
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			if(read(b, 0, 1) <= 0) return -1;
+			return b[0] & 0xFF;
+		}
+
+		public int read(byte[] buf, int offset, int length) throws IOException {
+			if(length == 0) return 0;
+			if(remaining == 0) {
+				if(!dummy) return -1;
+				dummy = false;
+				buf[offset] = 0;
+				return 1;
+			}
+			int x = in.read(buf, offset, (int) Math.min(length, remaining));
+			if(x <= 0) throw new IOException("Archive truncated");
+			remaining -= x;
+			return x;
+		}
+
+		public void close() {
+			// Don't close the underlying stream
+		}
+	}
+
+	private static void skipFully(InputStream is, long length) throws IOException {
+		while(length > 0) {
+			long x = is.skip(length);
+			if(x <= 0) {
+				if(is.read() < 0) throw new IOException("Archive truncated");
+				x = 1;
+			}
+			length -= x;
+		}
+	}
+
+	private static void readFully(InputStream is, byte[] buf, int length) throws IOException {
+		int read = 0;
+		while(read < length) {
+			int x = is.read(buf, read, length - read);
+			if(x <= 0) throw new IOException("Archive truncated");
+			read += x;
+		}
+	}
+
+	private static int getShort(byte[] buf, int offset) {
+		return (buf[offset] & 0xFF) | ((buf[offset+1] & 0xFF) << 8);
+	}
+
+	private static int getInt(byte[] buf, int offset) {
+		return (buf[offset] & 0xFF) | ((buf[offset+1] & 0xFF) << 8) |
+			((buf[offset+2] & 0xFF) << 16) | ((buf[offset+3] & 0xFF) << 24);
+	}
+
+}
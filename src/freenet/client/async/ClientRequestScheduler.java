@@ -101,6 +101,12 @@ public class ClientRequestScheduler implements RequestScheduler {
 	 * itself. */
 	private final HashMap /* <Key, SendableGet[]> */ pendingKeys;
 	
+	/** Gets waiting for their keys to be looked up in the datastore before they are registered,
+	 * by priority class. Operations on this are synchronized on itself. */
+	private final LinkedList[] storeChecks;
+	/** Is storeChecker running, or about to? Protected by storeChecks. */
+	private boolean storeCheckerRunning;
+	
 	public static final String PRIORITY_NONE = "NONE";
 	public static final String PRIORITY_SOFT = "SOFT";
 	public static final String PRIORITY_HARD = "HARD";
@@ -166,10 +172,15 @@ public class ClientRequestScheduler implements RequestScheduler {
 		this.isSSKScheduler = forSSKs;
 		priorities = new SortedVectorByNumber[RequestStarter.NUMBER_OF_PRIORITY_CLASSES];
 		allRequestsByClientRequest = new HashMap();
-		if(forInserts)
+		if(forInserts) {
 			pendingKeys = null;
-		else
+			storeChecks = null;
+		} else {
 			pendingKeys = new HashMap();
+			storeChecks = new LinkedList[RequestStarter.NUMBER_OF_PRIORITY_CLASSES];
+			for(int i=0;i<storeChecks.length;i++)
+				storeChecks[i] = new LinkedList();
+		}
 		
 		this.name = name;
 		sc.register(name+"_priority_policy", PRIORITY_HARD, name.hashCode(), true, false,
@@ -197,48 +208,108 @@ public class ClientRequestScheduler implements RequestScheduler {
 		if(req instanceof SendableGet) {
 			SendableGet getter = (SendableGet)req;
 			if(!getter.ignoreStore()) {
-				boolean anyValid = false;
-				int[] keyTokens = getter.allKeys();
-				for(int i=0;i<keyTokens.length;i++) {
-					int tok = keyTokens[i];
-					ClientKeyBlock block = null;
-					try {
-						ClientKey key = getter.getKey(tok);
-						if(key == null) {
-							if(logMINOR)
-								Logger.minor(this, "No key for "+tok+" for "+getter+" - already finished?");
-							continue;
-						} else {
-							if(getter.getContext().blocks != null)
-								block = getter.getContext().blocks.get(key);
-							if(block == null)
-								block = node.fetchKey(key, getter.dontCache());
-							if(block == null) {
-								addPendingKey(key, getter);
-							}
+				// Look the keys up in the store off the caller's thread: a splitfile segment
+				// may have hundreds of them.
+				queueStoreCheck(getter);
+				return;
+			}
+		}
+		innerRegister(req);
+		synchronized(starter) {
+			starter.notifyAll();
+		}
+	}
+	
+	private void queueStoreCheck(SendableGet getter) {
+		short priorityClass = getter.getPriorityClass();
+		if(!RequestStarter.isValidPriorityClass(priorityClass))
+			throw new IllegalStateException("Invalid priority: "+priorityClass+" - range is "+RequestStarter.MAXIMUM_PRIORITY_CLASS+" (most important) to "+RequestStarter.MINIMUM_PRIORITY_CLASS+" (least important)");
+		synchronized(storeChecks) {
+			storeChecks[priorityClass].addLast(getter);
+			if(storeCheckerRunning) return;
+			storeCheckerRunning = true;
+		}
+		node.executor.execute(storeChecker, name+" datastore checker");
+	}
+	
+	/** Checks the store for each queued get, most important first, then registers
+	 * whatever we didn't find. Only one runs at a time, so a big splitfile only
+	 * costs us one thread. */
+	private final Runnable storeChecker = new Runnable() {
+		public void run() {
+			while(true) {
+				SendableGet getter = null;
+				synchronized(storeChecks) {
+					for(int i=0;i<storeChecks.length;i++) {
+						if(!storeChecks[i].isEmpty()) {
+							getter = (SendableGet) storeChecks[i].removeFirst();
+							break;
 						}
-					} catch (KeyVerifyException e) {
-						// Verify exception, probably bogus at source;
-						// verifies at low-level, but not at decode.
-						if(logMINOR)
-							Logger.minor(this, "Decode failed: "+e, e);
-						getter.onFailure(new LowLevelGetException(LowLevelGetException.DECODE_FAILED), tok);
+					}
+					if(getter == null) {
+						storeCheckerRunning = false;
 						return;
 					}
-					if(block != null) {
-						if(logMINOR) Logger.minor(this, "Can fulfill "+req+" ("+tok+") immediately from store");
-						getter.onSuccess(block, true, tok);
-					} else {
-						anyValid = true;
+				}
+				try {
+					if(getter.isCancelled()) {
+						if(logMINOR) Logger.minor(ClientRequestScheduler.this, "Cancelled before checking the store: "+getter);
+						continue;
+					}
+					if(!checkStore(getter)) continue;
+					innerRegister(getter);
+					synchronized(starter) {
+						starter.notifyAll();
 					}
+				} catch (Throwable t) {
+					Logger.error(ClientRequestScheduler.this, "Caught "+t+" checking the store for "+getter, t);
 				}
-				if(!anyValid) return;
 			}
 		}
-		innerRegister(req);
-		synchronized(starter) {
-			starter.notifyAll();
+	};
+	
+	/**
+	 * Look up all of a get's keys in the store, completing those we find there, and
+	 * adding the rest to pendingKeys.
+	 * @return True if there are keys left to fetch, so the get should be registered.
+	 */
+	private boolean checkStore(SendableGet getter) {
+		boolean anyValid = false;
+		int[] keyTokens = getter.allKeys();
+		for(int i=0;i<keyTokens.length;i++) {
+			int tok = keyTokens[i];
+			ClientKeyBlock block = null;
+			try {
+				ClientKey key = getter.getKey(tok);
+				if(key == null) {
+					if(logMINOR)
+						Logger.minor(this, "No key for "+tok+" for "+getter+" - already finished?");
+					continue;
+				} else {
+					if(getter.getContext().blocks != null)
+						block = getter.getContext().blocks.get(key);
+					if(block == null)
+						block = node.fetchKey(key, getter.dontCache());
+					if(block == null) {
+						addPendingKey(key, getter);
+					}
+				}
+			} catch (KeyVerifyException e) {
+				// Verify exception, probably bogus at source;
+				// verifies at low-level, but not at decode.
+				if(logMINOR)
+					Logger.minor(this, "Decode failed: "+e, e);
+				getter.onFailure(new LowLevelGetException(LowLevelGetException.DECODE_FAILED), tok);
+				return false;
+			}
+			if(block != null) {
+				if(logMINOR) Logger.minor(this, "Can fulfill "+getter+" ("+tok+") immediately from store");
+				getter.onSuccess(block, true, tok);
+			} else {
+				anyValid = true;
+			}
 		}
+		return anyValid;
 	}
 	
 	private void addPendingKey(ClientKey key, SendableGet getter) {
@@ -301,12 +372,16 @@ public class ClientRequestScheduler implements RequestScheduler {
 			if(logMINOR) Logger.minor(this, "Registering retry count "+rc+" with prioclass "+priorityClass);
 		}
 		// Request
-		SectoredRandomGrabArrayWithObject requestGrabber = (SectoredRandomGrabArrayWithObject) clientGrabber.getGrabber(client);
-		if(requestGrabber == null) {
-			requestGrabber = new SectoredRandomGrabArrayWithObject(client, random);
-			clientGrabber.addGrabber(client, requestGrabber);
+		// removeRandom() doesn't take the grabbers' locks unless it is removing an empty
+		// grabber, which it checks with the parent's lock held; so add with it held.
+		synchronized(clientGrabber) {
+			SectoredRandomGrabArrayWithObject requestGrabber = (SectoredRandomGrabArrayWithObject) clientGrabber.getGrabber(client);
+			if(requestGrabber == null) {
+				requestGrabber = new SectoredRandomGrabArrayWithObject(client, random);
+				clientGrabber.addGrabber(client, requestGrabber);
+			}
+			requestGrabber.add(cr, req);
 		}
-		requestGrabber.add(cr, req);
 	}
 
 	/**
@@ -321,16 +396,17 @@ public class ClientRequestScheduler implements RequestScheduler {
 		return Math.max(0, retryCount-MIN_RETRY_COUNT);
 	}
 
-	private int removeFirstAccordingToPriorities(){
+	private synchronized short getInitialFuzz() {
+		if(PRIORITY_HARD.equals(choosenPriorityScheduler))
+			return 0;
+		else
+			return -1;
+	}
+	
+	private int removeFirstAccordingToPriorities(short fuzz){
 		SortedVectorByNumber result = null;
 		
-		short fuzz = -1, iteration = 0, priority;
-		synchronized (this) {
-			if(PRIORITY_SOFT.equals(choosenPriorityScheduler))
-				fuzz = -1;
-			else if(PRIORITY_HARD.equals(choosenPriorityScheduler))
-				fuzz = 0;	
-		}
+		short iteration = 0, priority;
 		// we loop to ensure we try every possibilities ( n + 1)
 		//
 		// PRIO will do 0,1,2,3,4,5,6,0
@@ -352,14 +428,39 @@ public class ClientRequestScheduler implements RequestScheduler {
 	}
 	
 	public SendableRequest removeFirst() {
-		// Priorities start at 0
-		if(logMINOR) Logger.minor(this, "removeFirst()");
-		int choosenPriorityClass = removeFirstAccordingToPriorities();
-		if(choosenPriorityClass == -1) {
-			if(logMINOR)
-				Logger.minor(this, "Nothing to do");
-			return null;
+		SendableRequest[] reqs = new SendableRequest[1];
+		if(removeFirst(reqs) == 0) return null;
+		return reqs[0];
+	}
+	
+	/**
+	 * Holds the scheduler lock for the whole batch, so we take it once rather than
+	 * several times per request. Takes the grab arrays' locks inside ours, as
+	 * addToGrabArray() does.
+	 */
+	public synchronized int removeFirst(SendableRequest[] reqs) {
+		if(logMINOR) Logger.minor(this, "removeFirst("+reqs.length+ ')');
+		short fuzz = getInitialFuzz();
+		int count = 0;
+		while(count < reqs.length) {
+			// Choose the priority for each request separately, so a batch is
+			// spread across the priorities just as single requests would be.
+			int choosenPriorityClass = removeFirstAccordingToPriorities(fuzz);
+			if(choosenPriorityClass == -1) {
+				if(logMINOR)
+					Logger.minor(this, "Nothing to do");
+				break;
+			}
+			SendableRequest req = removeFirst(choosenPriorityClass);
+			if(req == null) break;
+			reqs[count++] = req;
 		}
+		return count;
+	}
+	
+	/** Caller must hold the lock on this. */
+	private SendableRequest removeFirst(int choosenPriorityClass) {
+		// Priorities start at 0
 		SortedVectorByNumber s = priorities[choosenPriorityClass];
 		if(s != null){
 			while(true) {
@@ -385,17 +486,17 @@ public class ClientRequestScheduler implements RequestScheduler {
 					// Reinsert it : shouldn't happen if we are calling reregisterAll,
 					// maybe we should ask people to report that error if seen
 					Logger.normal(this, "In wrong priority class: "+req+" (req.prio="+req.getPriorityClass()+" but chosen="+choosenPriorityClass+ ')');
+					// Take it out of the old grab array first, or we might keep finding it there.
+					req.unregister();
 					innerRegister(req);
 					continue;
 				}
 				
 				RandomGrabArray altRGA = null;
-				synchronized(this) {
-					if(!recentSuccesses.isEmpty()) {
-						if(random.nextBoolean()) {
-							WeakReference ref = (WeakReference) (recentSuccesses.removeLast());
-							altRGA = (RandomGrabArray) ref.get();
-						}
+				if(!recentSuccesses.isEmpty()) {
+					if(random.nextBoolean()) {
+						WeakReference ref = (WeakReference) (recentSuccesses.removeLast());
+						altRGA = (RandomGrabArray) ref.get();
 					}
 				}
 				if(altRGA != null) {
@@ -409,9 +510,7 @@ public class ClientRequestScheduler implements RequestScheduler {
 						req = altReq;
 					} else {
 						if(altReq != null) {
-							synchronized(this) {
-								recentSuccesses.addLast(new WeakReference(altRGA));
-							}
+							recentSuccesses.addLast(new WeakReference(altRGA));
 							if(logMINOR)
 								Logger.minor(this, "Chosen req "+req+" is better, reregistering recently succeeded "+altReq);
 							innerRegister(altReq);
@@ -527,6 +626,22 @@ public class ClientRequestScheduler implements RequestScheduler {
 		}
 	}
 
+	/**
+	 * Re-register some requests, e.g. because their priority has changed. Requests which are
+	 * not queued at the moment, e.g. because they are running, are left alone.
+	 */
+	public void reregister(SendableRequest[] reqs) {
+		for(int i=0;i<reqs.length;i++) {
+			SendableRequest req = reqs[i];
+			if(req.getParentGrabArray() == null) continue;
+			req.unregister();
+			innerRegister(req);
+		}
+		synchronized(starter) {
+			starter.notifyAll();
+		}
+	}
+
 	public String getChoosenPriorityScheduler() {
 		return choosenPriorityScheduler;
 	}
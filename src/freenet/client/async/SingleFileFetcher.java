@@ -45,6 +45,9 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 	final ClientMetadata clientMetadata;
 	private Metadata metadata;
 	private Metadata archiveMetadata;
+	/** The metadata in our own block, as parsed or from the cache. If metadata is still
+	 * this, it can be cached under our key. */
+	private Metadata blockMetadata;
 	final ArchiveContext actx;
 	/** Archive handler. We can only have one archive handler at a time. */
 	private ArchiveStoreContext ah;
@@ -160,10 +163,46 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 				onFailure(new FetchException(FetchException.BUCKET_ERROR, e));
 				return;
 			}
+			blockMetadata = metadata;
+			if(useMetadataCache() && key instanceof ClientCHK)
+				ctx.metadataCache.put(key.getURI(), metadata, data.size());
 			wrapHandleMetadata(false);
 		}
 	}
 
+	/**
+	 * If our key is a CHK whose metadata is in the metadata cache, handle that rather than
+	 * fetching and parsing the block again.
+	 */
+	public void schedule() {
+		if(useMetadataCache() && ctx.followRedirects && key instanceof ClientCHK) {
+			final Metadata m = ctx.metadataCache.get(key.getURI(), ctx.maxMetadataSize);
+			if(m != null) {
+				if(logMINOR) Logger.minor(this, "Using cached metadata for "+key+" on "+this);
+				parent.completedBlock(true);
+				ctx.ticker.queueTimedJob(new Runnable() {
+					public void run() {
+						synchronized(SingleFileFetcher.this) {
+							metadata = m;
+							blockMetadata = m;
+						}
+						wrapHandleMetadata(false);
+					}
+				}, 0);
+				return;
+			}
+		}
+		super.schedule();
+	}
+
+	/** Whether to use the metadata cache. Not if we have to fetch everything, e.g. for a
+	 * binary blob. */
+	private boolean useMetadataCache() {
+		if(ctx.metadataCache == null || ctx.ignoreStore) return false;
+		if(parent instanceof ClientGetter && ((ClientGetter)parent).collectingBinaryBlob()) return false;
+		return true;
+	}
+
 	protected void onSuccess(FetchResult result) {
 		unregister();
 		if(parent.isCancelled()) {
@@ -252,6 +291,8 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 				if(logMINOR) Logger.minor(this, "Is archive manifest");
 				if(metaStrings.isEmpty() && ctx.returnZIPManifests) {
 					// Just return the archive, whole.
+					// Don't change the original, it may be cached.
+					metadata = (Metadata) metadata.clone();
 					metadata.setSimpleRedirect();
 					continue;
 				}
@@ -264,6 +305,15 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 							(parent instanceof ClientGetter ? ((ClientGetter)parent).collectingBinaryBlob() : false));
 				archiveMetadata = metadata;
 				// ah is set. This means we are currently handling an archive.
+				final FreenetURI metadataKey = thisKey.pushMetaString(ArchiveManager.METADATA_NAME);
+				if(useMetadataCache()) {
+					Metadata m = ctx.metadataCache.get(metadataKey, ctx.maxMetadataSize);
+					if(m != null) {
+						if(logMINOR) Logger.minor(this, "Using cached archive metadata for "+thisKey);
+						metadata = m;
+						continue;
+					}
+				}
 				Bucket metadataBucket;
 				metadataBucket = ah.getMetadata(actx, null, recursionLevel+1, true);
 				if(metadataBucket != null) {
@@ -273,11 +323,15 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 						// Bucket error?
 						throw new FetchException(FetchException.BUCKET_ERROR, e);
 					}
+					if(useMetadataCache())
+						ctx.metadataCache.put(metadataKey, metadata, metadataBucket.size());
 				} else {
 					fetchArchive(false, archiveMetadata, ArchiveManager.METADATA_NAME, new ArchiveExtractCallback() {
 						public void gotBucket(Bucket data) {
 							try {
 								metadata = Metadata.construct(data);
+								if(useMetadataCache())
+									ctx.metadataCache.put(metadataKey, metadata, data.size());
 							} catch (MetadataParseException e) {
 								// Invalid metadata
 								onFailure(new FetchException(FetchException.INVALID_METADATA, e));
@@ -369,7 +423,9 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 				// Fetch on a second SingleFileFetcher, like with archives.
 				Metadata newMeta = (Metadata) metadata.clone();
 				newMeta.setSimpleRedirect();
-				final SingleFileFetcher f = new SingleFileFetcher(this, newMeta, new MultiLevelMetadataCallback(), ctx);
+				// If this is our own block's metadata, cache the result in its place
+				FreenetURI cacheKey = (metadata == blockMetadata && key instanceof ClientCHK) ? key.getURI() : null;
+				final SingleFileFetcher f = new SingleFileFetcher(this, newMeta, new MultiLevelMetadataCallback(cacheKey), ctx);
 				ctx.ticker.queueTimedJob(new Runnable() {
 					public void run() {
 						f.wrapHandleMetadata(true);
@@ -383,6 +439,8 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 				String mimeType = clientMetadata.getMIMETypeNoParams();
 				if(mimeType != null && ArchiveManager.isUsableArchiveType(mimeType) && metaStrings.size() > 0) {
 					// Looks like an implicit archive, handle as such
+					// Don't change the original, it may be cached.
+					metadata = (Metadata) metadata.clone();
 					metadata.setArchiveManifest();
 					// Pick up MIME type from inside archive
 					clientMetadata.clear();
@@ -446,6 +504,8 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 				String mimeType = clientMetadata.getMIMETypeNoParams();
 				if(mimeType != null && ArchiveManager.isUsableArchiveType(mimeType) && metaStrings.size() > 0) {
 					// Looks like an implicit archive, handle as such
+					// Don't change the original, it may be cached.
+					metadata = (Metadata) metadata.clone();
 					metadata.setArchiveManifest();
 					// Pick up MIME type from inside archive
 					clientMetadata.clear();
@@ -607,9 +667,18 @@ public class SingleFileFetcher extends SimpleSingleFileFetcher {
 
 	class MultiLevelMetadataCallback implements GetCompletionCallback {
 		
+		/** If not null, the key to cache the metadata under */
+		private final FreenetURI cacheKey;
+		
+		MultiLevelMetadataCallback(FreenetURI cacheKey) {
+			this.cacheKey = cacheKey;
+		}
+		
 		public void onSuccess(FetchResult result, ClientGetState state) {
 			try {
 				metadata = Metadata.construct(result.asBucket());
+				if(cacheKey != null && useMetadataCache())
+					ctx.metadataCache.put(cacheKey, metadata, result.size());
 			} catch (MetadataParseException e) {
 				SingleFileFetcher.this.onFailure(new FetchException(FetchException.INVALID_METADATA, e));
 				return;
@@ -5,6 +5,7 @@ package freenet.client.async;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 
 import freenet.client.ArchiveContext;
@@ -16,19 +17,28 @@ import freenet.client.Metadata;
 import freenet.client.MetadataParseException;
 import freenet.keys.CHKBlock;
 import freenet.keys.ClientCHK;
+import freenet.node.RequestStarter;
 import freenet.support.Fields;
 import freenet.support.Logger;
 import freenet.support.OOMHandler;
 import freenet.support.api.Bucket;
-import freenet.support.compress.CompressionOutputSizeException;
+import freenet.support.compress.CompressionOutputSizeIOException;
 import freenet.support.compress.Compressor;
 
 /**
  * Fetch a splitfile, decompress it if need be, and return it to the GetCompletionCallback.
  * Most of the work is done by the segments, and we do not need a thread.
+ * Segments are written out, through the decompressors, as soon as they and all the segments
+ * before them have finished, so assembly overlaps with fetching and we don't need to keep
+ * a copy of the whole file for each stage.
  */
 public class SplitFileFetcher implements ClientGetState {
 
+	/** When streaming, this many segments after those already written out are fetched at the
+	 * request's priority, and the rest at the next priority down, so the data arrives
+	 * roughly in order. */
+	static final int STREAMING_HEAD_SEGMENTS = 2;
+
 	final FetchContext fetchContext;
 	final ArchiveContext archiveContext;
 	final LinkedList decompressors;
@@ -55,6 +65,24 @@ public class SplitFileFetcher implements ClientGetState {
 	/** Preferred bucket to return data in */
 	private final Bucket returnBucket;
 	private boolean finished;
+	/** Length of the data before decompression */
+	private final long finalLength;
+	/** Lock for writing the segments out. Protects the fields below. */
+	private final Object assemblyLock = new Object();
+	/** Number of segments written to outputStream so far. Read without the lock to
+	 * decide segments' priorities. */
+	private volatile int segmentsWritten;
+	/** Bytes written to outputStream so far */
+	private long bytesWritten;
+	/** The bucket the data ends up in, after decompression */
+	private Bucket output;
+	/** The stream we write the segments to: output, behind a decompressor for each compressor */
+	private OutputStream outputStream;
+	/** If set, we failed to write the segments out, e.g. because the data was too big */
+	private FetchException assemblyFailure;
+	/** Segments before this have been scheduled. With a sliding window (see
+	 * FetchContext.maxActiveSegments), the rest are scheduled as earlier ones finish. */
+	private int segmentsScheduled;
 	private long token;
 	
 	public SplitFileFetcher(Metadata metadata, GetCompletionCallback rcb, ClientRequester parent2,
@@ -85,6 +113,7 @@ public class SplitFileFetcher implements ClientGetState {
 				throw new FetchException(FetchException.INVALID_METADATA, "Splitfile is "+finalLength+" but length is "+finalLength);
 			finalLength = overrideLength;
 		}
+		this.finalLength = finalLength;
 		
 		long eventualLength = Math.max(overrideLength, metadata.uncompressedDataLength());
 		if(eventualLength > 0 && newCtx.maxOutputLength > 0 && eventualLength > newCtx.maxOutputLength)
@@ -124,7 +153,7 @@ public class SplitFileFetcher implements ClientGetState {
 			if(splitfileCheckBlocks.length > 0)
 				System.arraycopy(splitfileCheckBlocks, 0, newSplitfileCheckBlocks, 0, splitfileCheckBlocks.length);
 			segments[0] = new SplitFileFetcherSegment(splitfileType, newSplitfileDataBlocks, newSplitfileCheckBlocks, 
-					this, archiveContext, fetchContext, maxTempLength, recursionLevel);
+					this, 0, archiveContext, fetchContext, maxTempLength, recursionLevel);
 		} else {
 			int dataBlocksPtr = 0;
 			int checkBlocksPtr = 0;
@@ -140,7 +169,7 @@ public class SplitFileFetcher implements ClientGetState {
 					System.arraycopy(splitfileCheckBlocks, checkBlocksPtr, checkBlocks, 0, copyCheckBlocks);
 				dataBlocksPtr += copyDataBlocks;
 				checkBlocksPtr += copyCheckBlocks;
-				segments[i] = new SplitFileFetcherSegment(splitfileType, dataBlocks, checkBlocks, this, archiveContext, 
+				segments[i] = new SplitFileFetcherSegment(splitfileType, dataBlocks, checkBlocks, this, i, archiveContext, 
 						fetchContext, maxTempLength, recursionLevel+1);
 			}
 		}
@@ -149,58 +178,106 @@ public class SplitFileFetcher implements ClientGetState {
 		parent.addMustSucceedBlocks(splitfileDataBlocks.length);
 	}
 
-	/** Return the final status of the fetch. Throws an exception, or returns a 
-	 * Bucket containing the fetched data.
-	 * @throws FetchException If the fetch failed for some reason.
+	/**
+	 * Write any segments which have finished, after those already written, to the output,
+	 * decompressing as we go, and free them. Called whenever a segment finishes.
+	 * @return True if this failed just now, e.g. because the data is too big once decompressed,
+	 * so the caller should cancel the fetch.
 	 */
-	private Bucket finalStatus() throws FetchException {
-		long finalLength = 0;
-		for(int i=0;i<segments.length;i++) {
-			SplitFileFetcherSegment s = segments[i];
-			if(!s.isFinished()) throw new IllegalStateException("Not all finished");
-			s.throwError();
-			// If still here, it succeeded
-			finalLength += s.decodedLength();
-			// Healing is done by Segment
+	private boolean writeFinishedSegments() {
+		boolean logMINOR = Logger.shouldLog(Logger.MINOR, this);
+		int oldWritten;
+		int newWritten;
+		synchronized(assemblyLock) {
+			if(assemblyFailure != null) return false;
+			oldWritten = segmentsWritten;
+			try {
+				while(segmentsWritten < segments.length) {
+					SplitFileFetcherSegment s = segments[segmentsWritten];
+					if(!s.hasDecodedData()) break;
+					if(outputStream == null) openOutput();
+					long max = (finalLength < 0 ? 0 : (finalLength - bytesWritten));
+					bytesWritten += s.writeDecodedDataTo(outputStream, max);
+					s.freeDecodedData();
+					segmentsWritten++;
+					if(logMINOR) Logger.minor(this, "Written segment "+segmentsWritten+" of "+segments.length+" for "+this);
+				}
+				// Let anyone reading the output as it arrives see it.
+				if(segmentsWritten > oldWritten && segmentsWritten < segments.length)
+					outputStream.flush();
+			} catch (CompressionOutputSizeIOException e) {
+				assemblyFailure = new FetchException(FetchException.TOO_BIG, e.estimatedSize, false /* FIXME */, clientMetadata.getMIMEType());
+			} catch (IOException e) {
+				assemblyFailure = new FetchException(FetchException.BUCKET_ERROR, e);
+			}
+			if(assemblyFailure != null) {
+				if(logMINOR) Logger.minor(this, "Failed to write segments for "+this+" : "+assemblyFailure);
+				return true;
+			}
+			newWritten = segmentsWritten;
 		}
-		if(finalLength > overrideLength) {
-			if(finalLength - overrideLength > CHKBlock.DATA_LENGTH)
-				throw new FetchException(FetchException.INVALID_METADATA, "Splitfile is "+finalLength+" but length is "+finalLength);
-			finalLength = overrideLength;
+		if(fetchContext.streaming) {
+			// Segments which have just moved to the head of the queue need to be re-registered
+			// at their new priority.
+			int start = Math.max(oldWritten + STREAMING_HEAD_SEGMENTS, newWritten);
+			int end = Math.min(newWritten + STREAMING_HEAD_SEGMENTS, segments.length);
+			for(int i=start;i<end;i++)
+				segments[i].reregister();
 		}
-		
-		long bytesWritten = 0;
-		OutputStream os = null;
-		Bucket output;
-		try {
-			if((returnBucket != null) && decompressors.isEmpty())
-				output = returnBucket;
-			else
-				output = fetchContext.bucketFactory.makeBucket(finalLength);
-			os = output.getOutputStream();
-			for(int i=0;i<segments.length;i++) {
-				SplitFileFetcherSegment s = segments[i];
-				long max = (finalLength < 0 ? 0 : (finalLength - bytesWritten));
-				bytesWritten += s.writeDecodedDataTo(os, max);
-			}
-		} catch (IOException e) {
-			throw new FetchException(FetchException.BUCKET_ERROR, e);
-		} finally {
-			if(os != null) {
+		return false;
+	}
+
+	/**
+	 * Get the priority class for a segment's requests. Normally this is the request's
+	 * priority, but prefetched segments get the next priority down, and when streaming,
+	 * only the first few segments not yet written out get the request's priority.
+	 */
+	short getPriorityClass(SplitFileFetcherSegment segment) {
+		short prio = parent.getPriorityClass();
+		if(prio >= RequestStarter.MINIMUM_PRIORITY_CLASS) return prio;
+		if(fetchContext.streaming) {
+			if(segment.segNum < segmentsWritten + STREAMING_HEAD_SEGMENTS) return prio;
+		} else if(!segment.prefetching) return prio;
+		return (short) (prio + 1);
+	}
+
+	/** Create the output bucket, and the stream to write the segments to. */
+	private void openOutput() throws IOException {
+		if(returnBucket != null)
+			output = returnBucket;
+		else
+			output = fetchContext.bucketFactory.makeBucket(decompressors.isEmpty() ? finalLength : -1);
+		OutputStream os = output.getOutputStream();
+		long maxLen = Math.max(fetchContext.maxTempLength, fetchContext.maxOutputLength);
+		// The last compressor on the list must be undone first, so goes outermost.
+		for(int i=0;i<decompressors.size();i++) {
+			Compressor c = (Compressor) decompressors.get(i);
+			os = c.decompressingOutputStream(os, maxLen, maxLen * 4);
+		}
+		outputStream = os;
+	}
+
+	/** Close the output after a failure, and free it unless it was given to us. */
+	private void abortOutput() {
+		synchronized(assemblyLock) {
+			if(outputStream != null) {
 				try {
-					os.close();
+					outputStream.close();
 				} catch (IOException e) {
-					// If it fails to close it may return corrupt data.
-					throw new FetchException(FetchException.BUCKET_ERROR, e);
+					// Ignore, we are failing anyway
 				}
+				outputStream = null;
 			}
+			if((output != null) && (output != returnBucket))
+				output.free();
+			output = null;
 		}
-		return output;
 	}
 
 	public void segmentFinished(SplitFileFetcherSegment segment) {
 		boolean logMINOR = Logger.shouldLog(Logger.MINOR, this);
 		if(logMINOR) Logger.minor(this, "Finished segment: "+segment);
+		boolean failed = writeFinishedSegments();
 		boolean finish = false;
 		synchronized(this) {
 			boolean allDone = true;
@@ -220,6 +297,65 @@ public class SplitFileFetcher implements ClientGetState {
 			notifyAll();
 		}
 		if(finish) finish();
+		// No point fetching the rest. finish() will report the failure.
+		else if(failed) cancel();
+		else updateWindow(segment);
+	}
+
+	/**
+	 * Move the sliding window on after a segment has finished: make the first prefetched
+	 * segments active, and schedule more, so that maxActiveSegments are active and up to
+	 * prefetchSegments more are prefetching. If the segment failed, the splitfile will fail,
+	 * so cancel the segments we haven't scheduled yet rather than leaving them waiting.
+	 */
+	private void updateWindow(SplitFileFetcherSegment segment) {
+		int maxActive = fetchContext.maxActiveSegments;
+		if(maxActive <= 0) return;
+		int maxQueued = maxActive + Math.max(0, fetchContext.prefetchSegments);
+		ArrayList promote = new ArrayList();
+		ArrayList start = new ArrayList();
+		int abandonFrom = segments.length;
+		synchronized(this) {
+			if(segment.hasFailed() || parent.isCancelled()) {
+				abandonFrom = segmentsScheduled;
+				segmentsScheduled = segments.length;
+			} else {
+				int active = 0;
+				int queued = 0;
+				for(int i=0;i<segmentsScheduled;i++) {
+					SplitFileFetcherSegment s = segments[i];
+					if(s.isFinishing()) continue;
+					queued++;
+					if(!s.prefetching) active++;
+				}
+				for(int i=0;i<segmentsScheduled && active < maxActive;i++) {
+					SplitFileFetcherSegment s = segments[i];
+					if(s.prefetching && !s.isFinishing()) {
+						s.prefetching = false;
+						promote.add(s);
+						active++;
+					}
+				}
+				while(segmentsScheduled < segments.length && queued < maxQueued) {
+					SplitFileFetcherSegment s = segments[segmentsScheduled++];
+					s.prefetching = active >= maxActive;
+					if(!s.prefetching) active++;
+					queued++;
+					start.add(s);
+				}
+			}
+		}
+		if(Logger.shouldLog(Logger.MINOR, this))
+			Logger.minor(this, "Window for "+this+" : promoting "+promote.size()+" starting "+start.size()+
+					" abandoning "+(segments.length - abandonFrom)+" scheduled "+segmentsScheduled+" of "+segments.length);
+		for(int i=abandonFrom;i<segments.length;i++)
+			segments[i].cancel();
+		for(int i=0;i<promote.size();i++)
+			((SplitFileFetcherSegment) promote.get(i)).reregister();
+		for(int i=0;i<start.size();i++) {
+			((SplitFileFetcherSegment) start.get(i)).schedule();
+			parent.notifyClients();
+		}
 	}
 
 	private void finish() {
@@ -231,37 +367,59 @@ public class SplitFileFetcher implements ClientGetState {
 				}
 				finished = true;
 			}
-			Bucket data = finalStatus();
-			// Decompress
-			while(!decompressors.isEmpty()) {
-				Compressor c = (Compressor) decompressors.removeLast();
-				long maxLen = Math.max(fetchContext.maxTempLength, fetchContext.maxOutputLength);
+			for(int i=0;i<segments.length;i++) {
+				SplitFileFetcherSegment s = segments[i];
+				if(!s.isFinished()) throw new IllegalStateException("Not all finished");
+				s.throwError();
+				// If still here, it succeeded
+				// Healing is done by Segment
+			}
+			// Another thread may have been writing when the last segment finished.
+			writeFinishedSegments();
+			Bucket data;
+			synchronized(assemblyLock) {
+				if(assemblyFailure != null) throw assemblyFailure;
+				if(segmentsWritten < segments.length)
+					throw new IllegalStateException("Only written "+segmentsWritten+" of "+segments.length+" segments");
 				try {
-					Bucket out = returnBucket;
-					if(!decompressors.isEmpty()) out = null;
-					data = c.decompress(data, fetchContext.bucketFactory, maxLen, maxLen * 4, out);
+					outputStream.close();
+				} catch (CompressionOutputSizeIOException e) {
+					throw new FetchException(FetchException.TOO_BIG, e.estimatedSize, false /* FIXME */, clientMetadata.getMIMEType());
 				} catch (IOException e) {
-					cb.onFailure(new FetchException(FetchException.BUCKET_ERROR, e), this);
-					return;
-				} catch (CompressionOutputSizeException e) {
-					cb.onFailure(new FetchException(FetchException.TOO_BIG, e.estimatedSize, false /* FIXME */, clientMetadata.getMIMEType()), this);
-					return;
+					// If it fails to close it may return corrupt data.
+					throw new FetchException(FetchException.BUCKET_ERROR, e);
+				} finally {
+					outputStream = null;
 				}
+				data = output;
 			}
 			cb.onSuccess(new FetchResult(clientMetadata, data), this);
 		} catch (FetchException e) {
+			abortOutput();
 			cb.onFailure(e, this);
 		} catch (OutOfMemoryError e) {
 			OOMHandler.handleOOM(e);
 			System.err.println("Failing above attempted fetch...");
+			abortOutput();
 			cb.onFailure(new FetchException(FetchException.INTERNAL_ERROR, e), this);
 		} catch (Throwable t) {
+			abortOutput();
 			cb.onFailure(new FetchException(FetchException.INTERNAL_ERROR, t), this);
 		}
 	}
 
 	public void schedule() {
-		for(int i=0;i<segments.length;i++) {
+		int count = segments.length;
+		int maxActive = fetchContext.maxActiveSegments;
+		synchronized(this) {
+			if(maxActive > 0) {
+				count = Math.min(count, maxActive + Math.max(0, fetchContext.prefetchSegments));
+				for(int i=maxActive;i<count;i++)
+					segments[i].prefetching = true;
+			}
+			segmentsScheduled = count;
+		}
+		for(int i=0;i<count;i++) {
 			segments[i].schedule();
 			// Update after each segment is scheduled.
 			// The client may get updates from individual fetches anyway; make it more predictable.
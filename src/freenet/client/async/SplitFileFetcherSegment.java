@@ -44,6 +44,10 @@ public class SplitFileFetcherSegment implements StandardOnionFECCodecEncoderCall
 	final Vector subSegments;
 	final int minFetched;
 	final SplitFileFetcher parentFetcher;
+	/** Our position in the splitfile */
+	final int segNum;
+	/** Queued ahead of the active segments, at a lower priority. Set by the SplitFileFetcher. */
+	volatile boolean prefetching;
 	final ArchiveContext archiveContext;
 	final FetchContext fetchContext;
 	final long maxBlockLength;
@@ -65,9 +69,10 @@ public class SplitFileFetcherSegment implements StandardOnionFECCodecEncoderCall
 	
 	private FECCodec codec;
 	
-	public SplitFileFetcherSegment(short splitfileType, ClientCHK[] splitfileDataKeys, ClientCHK[] splitfileCheckKeys, SplitFileFetcher fetcher, ArchiveContext archiveContext, FetchContext fetchContext, long maxTempLength, int recursionLevel) throws MetadataParseException, FetchException {
+	public SplitFileFetcherSegment(short splitfileType, ClientCHK[] splitfileDataKeys, ClientCHK[] splitfileCheckKeys, SplitFileFetcher fetcher, int segNum, ArchiveContext archiveContext, FetchContext fetchContext, long maxTempLength, int recursionLevel) throws MetadataParseException, FetchException {
 		logMINOR = Logger.shouldLog(Logger.MINOR, this);
 		this.parentFetcher = fetcher;
+		this.segNum = segNum;
 		this.errors = new FailureCodeTracker(false);
 		this.archiveContext = archiveContext;
 		this.splitfileType = splitfileType;
@@ -109,15 +114,20 @@ public class SplitFileFetcherSegment implements StandardOnionFECCodecEncoderCall
 		return isFinished() || finishing;
 	}
 	
+	/** Has the segment failed? */
+	public synchronized boolean hasFailed() {
+		return failureException != null;
+	}
+	
 	/** Throw a FetchException, if we have one. Else do nothing. */
 	public synchronized void throwError() throws FetchException {
 		if(failureException != null)
 			throw failureException;
 	}
 	
-	/** Decoded length? */
-	public long decodedLength() {
-		return decodedData.size();
+	/** Has the segment been fetched and decoded, and its data not yet freed? */
+	public synchronized boolean hasDecodedData() {
+		return finished && (failureException == null) && (decodedData != null);
 	}
 
 	/** Write the decoded segment's data to an OutputStream */
@@ -129,6 +139,13 @@ public class SplitFileFetcherSegment implements StandardOnionFECCodecEncoderCall
 		return len;
 	}
 
+	/** Free the decoded data, once it has been written out */
+	public synchronized void freeDecodedData() {
+		if(decodedData == null) return;
+		decodedData.free();
+		decodedData = null;
+	}
+
 	/** How many blocks have failed due to running out of retries? */
 	public synchronized int failedBlocks() {
 		return failedBlocks;
@@ -471,6 +488,16 @@ public class SplitFileFetcherSegment implements StandardOnionFECCodecEncoderCall
 		else return null;
 	}
 
+	/** Re-register our requests, because their priority has changed */
+	void reregister() {
+		SplitFileFetcherSubSegment[] segs;
+		synchronized(this) {
+			segs = (SplitFileFetcherSubSegment[]) subSegments.toArray(new SplitFileFetcherSubSegment[subSegments.size()]);
+		}
+		if(segs.length > 0)
+			parentFetcher.parent.chkScheduler.reregister(segs);
+	}
+
 	public synchronized void removeSeg(SplitFileFetcherSubSegment segment) {
 		for(int i=0;i<subSegments.size();i++) {
 			if(segment.equals(subSegments.get(i))) {
@@ -213,7 +213,7 @@ public class SplitFileFetcherSubSegment extends SendableGet {
 	}
 
 	public short getPriorityClass() {
-		return segment.parentFetcher.parent.priorityClass;
+		return segment.parentFetcher.getPriorityClass(segment);
 	}
 
 	public int getRetryCount() {
@@ -0,0 +1,280 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.client.async;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import freenet.keys.USK;
+import freenet.support.Executor;
+import freenet.support.LRUHashtable;
+import freenet.support.Logger;
+import freenet.support.io.CountedInputStream;
+
+/**
+ * On-disk table of the latest known edition of each USK, so that USKManager
+ * does not have to rediscover every edition after a restart.
+ *
+ * The file is an append-only log of compact records: every time an edition goes
+ * up we append one record, rather than rewriting the file. When loading we
+ * keep the highest edition for each USK; if the log has grown much larger than
+ * the number of distinct USKs, we rewrite it with one record per USK.
+ *
+ * Each record is the USK's raw binary key (see USK.writeRawBinaryKey()) followed
+ * by the edition number. A truncated record at the end of the file (e.g. from a
+ * crash mid-write) is discarded.
+ *
+ * We only keep the MAX_USKS most recently updated USKs; older ones are dropped
+ * the next time the file is compacted. Records are written by a job on the
+ * executor, so callers never wait for the disk.
+ */
+class USKEditionStore {
+
+	private static final long MAGIC = 0x4a5fc8e217d0b3a6L;
+	private static final int VERSION = 1;
+	/** Don't bother to compact unless there are at least this many stale records. */
+	private static final int MIN_STALE_RECORDS = 256;
+	/** Maximum number of USKs to remember */
+	static final int MAX_USKS = 4096;
+
+	private final File filename;
+	private final File tempFilename;
+	private final Executor executor;
+	private DataOutputStream dos;
+	/** Latest edition (Long) by clear USK, least recently updated first. What is in the file,
+	 * apart from USKs dropped since it was last compacted. */
+	private final LRUHashtable editions = new LRUHashtable();
+	/** Number of records in the file, including superseded ones. */
+	private int recordCount;
+	private boolean broken;
+	private boolean closed;
+	
+	/** Editions waiting to be written, by clear USK. Protected by itself. */
+	private HashMap pending = new HashMap();
+	/** Is writer queued or running? Protected by pending. */
+	private boolean writerQueued;
+
+	USKEditionStore(File filename, Executor executor) {
+		this.filename = filename;
+		this.tempFilename = new File(filename.getPath()+".tmp");
+		this.executor = executor;
+	}
+
+	/**
+	 * Read the file, returning the latest edition by clear USK (edition 0) as a
+	 * map of USK to Long. Must be called once, before any calls to write().
+	 */
+	synchronized HashMap load() {
+		long goodLength = 0;
+		boolean exists = filename.exists();
+		if(exists) {
+			DataInputStream dis = null;
+			try {
+				CountedInputStream cis = new CountedInputStream(new BufferedInputStream(new FileInputStream(filename)));
+				dis = new DataInputStream(cis);
+				if(dis.readLong() != MAGIC || dis.readInt() != VERSION)
+					throw new IOException("Bad magic or version");
+				goodLength = cis.count();
+				while(true) {
+					USK usk;
+					long edition;
+					try {
+						usk = USK.readRawBinaryKey(dis);
+						edition = dis.readLong();
+					} catch (EOFException e) {
+						break;
+					}
+					goodLength = cis.count();
+					recordCount++;
+					Long old = (Long) editions.get(usk);
+					if(old == null || old.longValue() < edition)
+						editions.push(usk, new Long(edition));
+				}
+			} catch (IOException e) {
+				Logger.error(this, "Unable to read USK editions from "+filename+" : "+e, e);
+				if(goodLength == 0) {
+					while(!editions.isEmpty())
+						editions.popKey();
+					recordCount = 0;
+				}
+			} finally {
+				if(dis != null) {
+					try {
+						dis.close();
+					} catch (IOException e) {
+						// Ignore
+					}
+				}
+			}
+		}
+		boolean trimmed = trim();
+		if(Logger.shouldLog(Logger.MINOR, this))
+			Logger.minor(this, "Loaded "+editions.size()+" USK editions from "+recordCount+" records in "+filename);
+		try {
+			if(!exists || goodLength == 0 || trimmed || tooManyStaleRecords())
+				rewrite();
+			else
+				openForAppend(goodLength);
+		} catch (IOException e) {
+			Logger.error(this, "Unable to write USK editions to "+filename+" : "+e+" - editions will not be saved", e);
+			broken = true;
+		}
+		HashMap ret = new HashMap();
+		for(Enumeration e = editions.keys(); e.hasMoreElements();) {
+			Object usk = e.nextElement();
+			ret.put(usk, editions.get(usk));
+		}
+		return ret;
+	}
+
+	/**
+	 * Record a new latest edition for a USK. Doesn't touch the disk: the record is
+	 * written soon after by a job on the executor.
+	 */
+	void write(USK clear, long edition) {
+		synchronized(pending) {
+			Long old = (Long) pending.get(clear);
+			if(old == null || old.longValue() < edition)
+				pending.put(clear, new Long(edition));
+			if(writerQueued) return;
+			writerQueued = true;
+		}
+		executor.execute(writer, "USK edition writer for "+filename);
+	}
+
+	private final Runnable writer = new Runnable() {
+		public void run() {
+			while(true) {
+				HashMap toWrite;
+				synchronized(pending) {
+					if(pending.isEmpty()) {
+						writerQueued = false;
+						return;
+					}
+					toWrite = pending;
+					pending = new HashMap();
+				}
+				writePending(toWrite);
+			}
+		}
+	};
+
+	private synchronized void writePending(HashMap toWrite) {
+		if(broken || closed) return;
+		try {
+			for(Iterator i = toWrite.entrySet().iterator(); i.hasNext();) {
+				Map.Entry e = (Map.Entry) i.next();
+				USK clear = (USK) e.getKey();
+				Long edition = (Long) e.getValue();
+				Long old = (Long) editions.get(clear);
+				if(old != null && old.longValue() >= edition.longValue()) continue;
+				editions.push(clear, edition);
+				writeRecord(dos, clear, edition.longValue());
+				recordCount++;
+			}
+			if(trim() || tooManyStaleRecords())
+				rewrite();
+			else
+				dos.flush();
+		} catch (IOException e) {
+			Logger.error(this, "Unable to write USK edition to "+filename+" : "+e+" - editions will no longer be saved", e);
+			broken = true;
+			closeFile();
+		}
+	}
+
+	/** Drop the least recently updated USKs if we have too many.
+	 * @return True if we dropped any, in which case the file should be compacted. */
+	private boolean trim() {
+		boolean trimmed = false;
+		while(editions.size() > MAX_USKS) {
+			editions.popKey();
+			trimmed = true;
+		}
+		return trimmed;
+	}
+
+	private boolean tooManyStaleRecords() {
+		int uskCount = editions.size();
+		return recordCount - uskCount > Math.max(MIN_STALE_RECORDS, uskCount);
+	}
+
+	/** Write anything still waiting, and close the file. Further writes are ignored. */
+	void close() {
+		HashMap toWrite;
+		synchronized(pending) {
+			toWrite = pending;
+			pending = new HashMap();
+		}
+		writePending(toWrite);
+		synchronized(this) {
+			closed = true;
+			closeFile();
+		}
+	}
+
+	private void closeFile() {
+		if(dos == null) return;
+		try {
+			dos.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+		dos = null;
+	}
+
+	private void rewrite() throws IOException {
+		closeFile();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFilename)));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			// Least recently updated first, so they are loaded in the same order
+			for(Enumeration e = editions.keys(); e.hasMoreElements();) {
+				USK usk = (USK) e.nextElement();
+				writeRecord(out, usk, ((Long) editions.get(usk)).longValue());
+			}
+		} finally {
+			out.close();
+		}
+		if(!tempFilename.renameTo(filename)) {
+			filename.delete();
+			if(!tempFilename.renameTo(filename))
+				throw new IOException("Could not rename "+tempFilename+" to "+filename);
+		}
+		recordCount = editions.size();
+		openForAppend(filename.length());
+	}
+
+	private void openForAppend(long length) throws IOException {
+		if(filename.length() != length) {
+			// Chop off the incomplete record
+			RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+			try {
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+		}
+		dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename.getPath(), true), 1024));
+	}
+
+	private static void writeRecord(DataOutputStream out, USK usk, long edition) throws IOException {
+		usk.writeRawBinaryKey(out);
+		out.writeLong(edition);
+	}
+
+}
@@ -3,6 +3,7 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package freenet.client.async;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Vector;
 
@@ -23,6 +24,9 @@ public class USKManager {
 	/** Latest version by blanked-edition-number USK */
 	final HashMap latestVersionByClearUSK;
 	
+	/** Persists latestVersionByClearUSK across restarts */
+	private final USKEditionStore editionStore;
+	
 	/** Subscribers by clear USK */
 	final HashMap subscribersByClearUSK;
 	
@@ -45,13 +49,18 @@ public class USKManager {
 	final Ticker ticker;
 
 	
-	public USKManager(NodeClientCore core) {
+	/**
+	 * @param editionsFile File to persist the latest known edition of each USK to,
+	 * so that we don't have to find them all again after a restart.
+	 */
+	public USKManager(NodeClientCore core, File editionsFile) {
 		backgroundFetchContext = core.makeClient(RequestStarter.UPDATE_PRIORITY_CLASS).getFetchContext();
 		backgroundFetchContext.followRedirects = false;
 		backgroundFetchContext.uskManager = this;
 		this.chkRequestScheduler = core.requestStarters.chkFetchScheduler;
 		this.sskRequestScheduler = core.requestStarters.sskFetchScheduler;
-		latestVersionByClearUSK = new HashMap();
+		editionStore = new USKEditionStore(editionsFile, core.getExecutor());
+		latestVersionByClearUSK = editionStore.load();
 		subscribersByClearUSK = new HashMap();
 		fetchersByUSK = new HashMap();
 		checkersByUSK = new HashMap();
@@ -138,12 +147,12 @@ public class USKManager {
 			Long l = (Long) latestVersionByClearUSK.get(clear);
 			if(logMINOR) Logger.minor(this, "Old value: "+l);
 			if((l == null) || (number > l.longValue())) {
-				l = new Long(number);
-				latestVersionByClearUSK.put(clear, l);
+				latestVersionByClearUSK.put(clear, new Long(number));
 				if(logMINOR) Logger.minor(this, "Put "+number);
 			} else return;
 			callbacks = (USKCallback[]) subscribersByClearUSK.get(clear);
 		}
+		editionStore.write(clear, number);
 		if(callbacks != null) {
 			// Run off-thread, because of locking, and because client callbacks may take some time
 			ticker.queueTimedJob(new Runnable() {
@@ -263,6 +272,14 @@ public class USKManager {
 		unsubscribe(origUSK, ret, runBackgroundFetch);
 	}
 	
+	/**
+	 * Write out any edition numbers not yet saved and close the editions file.
+	 * Called on shutdown.
+	 */
+	public void stop() {
+		editionStore.close();
+	}
+
 	// REMOVE: DO NOT Synchronize! ... debugging only.
 	/**
 	 * The result of that method will be displayed on the Statistic Toadlet : it will help catching #1147 
@@ -150,7 +150,7 @@ public class BookmarkEditorToadlet extends Toadlet {
 			} catch (URLEncodedFormatException e) {
 				HTMLNode errorBox = content.addChild(ctx.getPageMaker().getInfobox("infobox-error", error));
 				errorBox.addChild("#", L10n.getString("BookmarkEditorToadlet.urlDecodeError"));
-				writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+				writeHTMLReply(ctx, 200, "OK", pageNode);
 				return;
 			}
 			Bookmark bookmark;
@@ -163,7 +163,7 @@ public class BookmarkEditorToadlet extends Toadlet {
 			if(bookmark == null) {
 				HTMLNode errorBox = content.addChild(ctx.getPageMaker().getInfobox("infobox-error", error));
 				errorBox.addChild("#", L10n.getString("BookmarkEditorToadlet.bookmarkDoesNotExist", new String[] { "bookmark" }, new String[] { bookmarkPath }));
-				this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+				this.writeHTMLReply(ctx, 200, "OK", pageNode);
 				return;
 			} else {
 
@@ -241,7 +241,7 @@ public class BookmarkEditorToadlet extends Toadlet {
 		HTMLNode bookmarksBox = content.addChild(ctx.getPageMaker().getInfobox("infobox-normal", L10n.getString("BookmarkEditorToadlet.myBookmarksTitle")));
 		bookmarksBox.addChild(getBookmarksList());
 
-		this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+		this.writeHTMLReply(ctx, 200, "OK", pageNode);
 	}
 
 
@@ -318,7 +318,7 @@ public class BookmarkEditorToadlet extends Toadlet {
 		HTMLNode bookmarksBox = content.addChild(ctx.getPageMaker().getInfobox("infobox-normal", L10n.getString("BookmarkEditorToadlet.myBookmarksTitle")));
 		bookmarksBox.addChild(getBookmarksList());
 
-		this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+		this.writeHTMLReply(ctx, 200, "OK", pageNode);
 	}
 
 	public String supportedMethods()
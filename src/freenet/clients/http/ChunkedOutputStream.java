@@ -0,0 +1,42 @@
+package freenet.clients.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes HTTP/1.1 chunked transfer encoding to the underlying stream. Each write()
+ * is sent as one chunk. close() sends the last chunk and flushes, but does not close
+ * the underlying stream, as the connection may be kept alive for further requests.
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+
+	private boolean closed;
+
+	ChunkedOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	public void write(byte[] buf, int offset, int length) throws IOException {
+		if(closed) throw new IOException("Already closed");
+		if(length == 0) return; // A zero-length chunk would end the reply
+		out.write((Integer.toHexString(length)+"\r\n").getBytes("US-ASCII"));
+		out.write(buf, offset, length);
+		out.write(CRLF);
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		out.write(LAST_CHUNK);
+		out.flush();
+	}
+
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = new byte[] { '0', '\r', '\n', '\r', '\n' };
+
+}
@@ -106,7 +106,7 @@ public class ConfigToadlet extends Toadlet {
 		content.addChild("br");
 		addHomepageLink(content);
 
-		writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+		writeHTMLReply(ctx, 200, "OK", pageNode);
 		
 	}
 	
@@ -191,7 +191,7 @@ public class ConfigToadlet extends Toadlet {
 		formNode.addChild("input", new String[] { "type", "value" }, new String[] { "submit", l10n("apply")});
 		formNode.addChild("input", new String[] { "type", "value" }, new String[] { "reset",  l10n("reset")});
 		
-		this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+		this.writeHTMLReply(ctx, 200, "OK", pageNode);
 	}
 	
 	public String supportedMethods() {
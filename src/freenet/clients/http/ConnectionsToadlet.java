@@ -471,7 +471,7 @@ public abstract class ConnectionsToadlet extends Toadlet {
 			// ignore
 		}
 		
-		this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+		this.writeHTMLReply(ctx, 200, "OK", pageNode);
 	}
 
 	protected abstract boolean acceptRefPosts();
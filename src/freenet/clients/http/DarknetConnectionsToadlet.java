@@ -159,7 +159,7 @@ public class DarknetConnectionsToadlet extends ConnectionsToadlet {
 				}
 			}
 			N2NTMToadlet.createN2NTMSendForm( pageNode, contentNode, ctx, peers);
-			writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+			writeHTMLReply(ctx, 200, "OK", pageNode);
 			return;
 		} else if (request.isPartSet("doAction") && request.getPartAsString("action",25).equals("update_notes")) {
 			//int hashcode = Integer.decode(request.getParam("node")).intValue();
@@ -329,7 +329,7 @@ public class DarknetConnectionsToadlet extends ConnectionsToadlet {
 						removeForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "submit", "remove", l10n("remove") });
 						removeForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "hidden", "forceit", l10n("forceRemove") });
 
-						writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+						writeHTMLReply(ctx, 200, "OK", pageNode);
 						return; // FIXME: maybe it breaks multi-node removing
 					}				
 				} else {
@@ -3,6 +3,7 @@ package freenet.clients.http;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.BindException;
 import java.net.MalformedURLException;
 import java.net.SocketException;
@@ -12,7 +13,9 @@ import java.net.URISyntaxException;
 import freenet.client.DefaultMIMETypes;
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
+import freenet.client.FetchWaiter;
 import freenet.client.HighLevelSimpleClient;
+import freenet.client.async.ClientGetter;
 import freenet.clients.http.filter.ContentFilter;
 import freenet.clients.http.filter.UnsafeContentTypeException;
 import freenet.clients.http.filter.ContentFilter.FilterOutput;
@@ -35,6 +38,7 @@ import freenet.support.URLEncoder;
 import freenet.support.api.Bucket;
 import freenet.support.api.BucketFactory;
 import freenet.support.api.HTTPRequest;
+import freenet.support.io.ProgressiveBucket;
 
 public class FProxyToadlet extends Toadlet {
 	
@@ -355,7 +359,7 @@ public class FProxyToadlet extends Toadlet {
 			errorContent.addChild("br");
 			addHomepageLink(errorContent);
 
-			this.writeHTMLReply(ctx, 400, l10n("invalidKeyTitle"), pageNode.generate());
+			this.writeHTMLReply(ctx, 400, l10n("invalidKeyTitle"), pageNode);
 			return;
 		}
 		String requestedMimeType = httprequest.getParam("type", null);
@@ -363,6 +367,11 @@ public class FProxyToadlet extends Toadlet {
 		try {
 			if(Logger.shouldLog(Logger.MINOR, this))
 				Logger.minor(this, "FProxy fetching "+key+" ("+maxSize+ ')');
+			if(httprequest.isParameterSet("forcedownload") && httprequest.isParameterSet("stream")) {
+				// Not filtered, so we can send it as it arrives
+				streamDownload(ctx, key, maxSize, httprequest);
+				return;
+			}
 			FetchResult result = fetch(key, maxSize, httprequest /* fixme replace if HTTPRequest ever becomes comparable */); 
 			
 			// Now, is it safe?
@@ -403,6 +412,12 @@ public class FProxyToadlet extends Toadlet {
 				HTMLNode optionForm = option.addChild("form", new String[] { "action", "method" }, new String[] {'/' + key.toString(), "get" });
 				optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "hidden", "max-size", String.valueOf(e.expectedSize == -1 ? Long.MAX_VALUE : e.expectedSize*2) });
 				optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "submit", "fetch", l10n("fetchLargeFileAnywayAndDisplay") });
+				option = optionList.addChild("li");
+				optionForm = option.addChild("form", new String[] { "action", "method" }, new String[] {'/' + key.toString(), "get" });
+				optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "hidden", "max-size", String.valueOf(e.expectedSize == -1 ? Long.MAX_VALUE : e.expectedSize*2) });
+				optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "hidden", "forcedownload", "true" });
+				optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "hidden", "stream", "true" });
+				optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "submit", "fetch", l10n("fetchLargeFileAnywayAndStream") });
 				if(ctx.isAllowedFullAccess()) {
 					option = optionList.addChild("li");
 					optionForm = ctx.addFormChild(option, "/queue/", "tooBigQueueForm");
@@ -416,7 +431,7 @@ public class FProxyToadlet extends Toadlet {
 				}
 				optionList.addChild("li").addChild("a", new String[] { "href", "title" }, new String[] { "/", "FProxy home page" }, l10n("abortToHomepage"));
 
-				writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+				writeHTMLReply(ctx, 200, "OK", pageNode);
 			} else {
 				HTMLNode pageNode = ctx.getPageMaker().getPageNode(FetchException.getShortMessage(e.mode), ctx);
 				HTMLNode contentNode = ctx.getPageMaker().getContentNode(pageNode);
@@ -465,8 +480,11 @@ public class FProxyToadlet extends Toadlet {
 				option.addChild(ctx.getPageMaker().createBackLink(ctx, l10n("goBackToPrev")));
 				
 				this.writeHTMLReply(ctx, 500 /* close enough - FIXME probably should depend on status code */,
-						"Internal Error", pageNode.generate());
+						"Internal Error", pageNode);
 			}
+		} catch (StreamTruncatedException e) {
+			// Too late for an error page, just drop the connection.
+			throw e;
 		} catch (SocketException e) {
 			// Probably irrelevant
 			if(e.getMessage().equals("Broken pipe")) {
@@ -481,6 +499,81 @@ public class FProxyToadlet extends Toadlet {
 		}
 	}
 
+	/** Thrown when a streamed download fails after the headers have been sent. */
+	private static class StreamTruncatedException extends IOException {
+		private static final long serialVersionUID = -1;
+
+		StreamTruncatedException(String message) {
+			super(message);
+		}
+	}
+
+	/** Frees the data if the fetch fails, so that anything reading it wakes up. */
+	private static class StreamingFetchWaiter extends FetchWaiter {
+		private final Bucket data;
+
+		StreamingFetchWaiter(Bucket data) {
+			this.data = data;
+		}
+
+		public void onFailure(FetchException e, ClientGetter state) {
+			super.onFailure(e, state);
+			data.free();
+		}
+	}
+
+	/**
+	 * Send a download to the browser as it is fetched, rather than waiting for all of it.
+	 * Only for forced downloads, since the content filter needs the whole file. If the
+	 * fetch fails before any data arrives, throws the FetchException so the usual error
+	 * page is shown; after that, all we can do is drop the connection.
+	 */
+	private void streamDownload(ToadletContext ctx, FreenetURI key, long maxSize, HTTPRequest httprequest) throws FetchException, ToadletContextClosedException, IOException {
+		ProgressiveBucket data = new ProgressiveBucket(ctx.getBucketFactory());
+		StreamingFetchWaiter fw = new StreamingFetchWaiter(data);
+		ClientGetter getter = fetchStreaming(key, maxSize, httprequest, fw, data);
+		InputStream is = null;
+		boolean sent = false;
+		try {
+			is = data.getInputStream();
+			byte[] buf = new byte[32768];
+			int read;
+			try {
+				read = is.read(buf);
+			} catch (IOException e) {
+				// Probably freed because the fetch failed, in which case we can still show an error page.
+				fw.waitForCompletion();
+				throw e;
+			}
+			if(read == -1) {
+				// Either an empty file, or a failure.
+				fw.waitForCompletion();
+			}
+			MultiValueTable headers = new MultiValueTable();
+			headers.put("Content-Disposition", "attachment; filename=\"" + key.getPreferredFilename() + '"');
+			OutputStream os = ctx.sendReplyHeadersStreaming(200, "OK", headers, "application/x-msdownload");
+			while(read != -1) {
+				os.write(buf, 0, read);
+				try {
+					read = is.read(buf);
+				} catch (IOException e) {
+					throw new StreamTruncatedException("Failed to read "+key+" while streaming: "+e.getMessage());
+				}
+			}
+			try {
+				fw.waitForCompletion();
+			} catch (FetchException e) {
+				throw new StreamTruncatedException("Fetch failed while streaming "+key+" : "+e.getMessage());
+			}
+			os.close();
+			sent = true;
+		} finally {
+			if(is != null) is.close();
+			if(!sent) getter.cancel();
+			data.free();
+		}
+	}
+
 	private String writeSizeAndMIME(HTMLNode fileInformationList, FetchException e) {
 		boolean finalized = e.finalizedSize();
 		if(e.expectedSize > 0) {
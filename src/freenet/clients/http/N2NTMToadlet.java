@@ -74,14 +74,13 @@ public class N2NTMToadlet extends Toadlet {
 				contentNode.addChild(createPeerInfobox("infobox-error",
 						l10n("peerNotFoundTitle"), l10n("peerNotFoundWithHash",
 								"hash", input_hashcode_string)));
-				this.writeHTMLReply(ctx, 200, "OK", pageNode
-						.generate());
+				this.writeHTMLReply(ctx, 200, "OK", pageNode);
 				return;
 			}
 			HashMap peers = new HashMap();
 			peers.put(input_hashcode_string, peernode_name);
 			createN2NTMSendForm(pageNode, contentNode, ctx, peers);
-			this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+			this.writeHTMLReply(ctx, 200, "OK", pageNode);
 			return;
 		}
 		MultiValueTable headers = new MultiValueTable();
@@ -152,7 +151,7 @@ public class N2NTMToadlet extends Toadlet {
 				if(!(filename.exists() && filename.canRead())) {
 					peerTableInfobox.addChild("#", l10n("noSuchFileOrCannotRead"));
 					Toadlet.addHomepageLink(peerTableInfobox);
-					this.writeHTMLReply(ctx, 400, "OK", pageNode.generate());
+					this.writeHTMLReply(ctx, 400, "OK", pageNode);
 					return;
 				}
 			}
@@ -173,7 +172,7 @@ public class N2NTMToadlet extends Toadlet {
 						} catch (IOException e) {
 							peerTableInfobox.addChild("#", l10n("noSuchFileOrCannotRead"));
 							Toadlet.addHomepageLink(peerTableInfobox);
-							this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+							this.writeHTMLReply(ctx, 200, "OK", pageNode);
 							return;
 						}
 					} else {
@@ -223,7 +222,7 @@ public class N2NTMToadlet extends Toadlet {
 			list.addChild("li").addChild("a", new String[] { "href", "title" },
 					new String[] { "/friends/", l10n("returnToFriends") },
 					l10n("friends"));
-			this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+			this.writeHTMLReply(ctx, 200, "OK", pageNode);
 			return;
 		}
 		MultiValueTable headers = new MultiValueTable();
@@ -37,6 +37,15 @@ public class PageMaker {
 	/** Cache for themes read from the JAR file. */
 	private List jarThemesCache = null;
 	
+	/** Pre-rendered style sheet links for the page head. Only cached when the theme list
+	 * is, i.e. when running from a JAR. Cleared when the theme changes. */
+	private String styleLinksCache;
+	/** Pre-rendered navigation bars, by whether it is for full access and which of the
+	 * links with a callback are enabled. Cleared when the links or the translation change. */
+	private final Map navbarCache = new HashMap();
+	/** L10n generation the navigation bars were rendered with */
+	private int navbarCacheGeneration;
+	
 	public PageMaker(String t) {
 		setTheme(t);
 	}
@@ -46,18 +55,19 @@ public class PageMaker {
 	}
 	
 	void setTheme(String theme) {
-		if (theme == null) {
-			this.theme = DEFAULT_THEME;
-		} else {
+		if (theme != null) {
 			URL themeurl = getClass().getResource("staticfiles/themes/" + theme + "/theme.css");
 			if (themeurl == null)
-				this.theme = DEFAULT_THEME;
-			else
-				this.theme = theme;
+				theme = null;
+		}
+		synchronized(this) {
+			this.theme = (theme == null) ? DEFAULT_THEME : theme;
+			styleLinksCache = null;
 		}
 	}
 	
-	public void addNavigationLink(String path, String name, String title, boolean fullOnly, LinkEnabledCallback cb) {
+	public synchronized void addNavigationLink(String path, String name, String title, boolean fullOnly, LinkEnabledCallback cb) {
+		navbarCache.clear();
 		navigationLinkTexts.add(name);
 		if(!fullOnly)
 			navigationLinkTextsNonFull.add(name);
@@ -67,7 +77,8 @@ public class PageMaker {
 			navigationLinkCallbacks.put(name, cb);
 	}
 	
-	public void removeNavigationLink(String name) {
+	public synchronized void removeNavigationLink(String name) {
+		navbarCache.clear();
 		navigationLinkTexts.remove(name);
 		navigationLinkTextsNonFull.remove(name);
 		navigationLinkTitles.remove(name);
@@ -94,37 +105,90 @@ public class PageMaker {
 		headNode.addChild("title", title + " - Freenet");
 		headNode.addChild("meta", new String[] { "http-equiv", "content" }, new String[] { "Content-Type", "text/html; charset=utf-8" });
 		if(override == null)
-			headNode.addChild("link", new String[] { "rel", "href", "type", "title" }, new String[] { "stylesheet", "/static/themes/" + theme + "/theme.css", "text/css", theme });
-		else
+			headNode.addChild("%", getStyleLinks());
+		else {
 			headNode.addChild(getOverrideContent());
-		List themes = getThemes();
-		for (Iterator themesIterator = themes.iterator(); themesIterator.hasNext();) {
-			String themeName = (String) themesIterator.next();
-			headNode.addChild("link", new String[] { "rel", "href", "type", "media", "title" }, new String[] { "alternate stylesheet", "/static/themes/" + themeName + "/theme.css", "text/css", "screen", themeName });
+			headNode.addChild("%", renderAlternateStyleLinks(getThemes()));
 		}
 		
 		HTMLNode bodyNode = htmlNode.addChild("body");
 		HTMLNode pageDiv = bodyNode.addChild("div", "id", "page");
 		HTMLNode topBarDiv = pageDiv.addChild("div", "id", "topbar");
 		topBarDiv.addChild("h1", title);
-		if (renderNavigationLinks) {
-			HTMLNode navbarDiv = pageDiv.addChild("div", "id", "navbar");
-			HTMLNode navbarUl = navbarDiv.addChild("ul", "id", "navlist");
-			for (Iterator navigationLinkIterator = fullAccess ? navigationLinkTexts.iterator() : navigationLinkTextsNonFull.iterator(); navigationLinkIterator.hasNext();) {
-				String navigationLink = (String) navigationLinkIterator.next();
-				LinkEnabledCallback cb = (LinkEnabledCallback) navigationLinkCallbacks.get(navigationLink);
-				if(cb != null && !cb.isEnabled()) continue;
-				String navigationTitle = (String) navigationLinkTitles.get(navigationLink);
-				String navigationPath = (String) navigationLinks.get(navigationLink);
-				HTMLNode listItem = navbarUl.addChild("li");
-				listItem.addChild("a", new String[] { "href", "title" }, new String[] { navigationPath, L10n.getString(navigationTitle) }, L10n.getString(navigationLink));
-			}
-		}
+		if (renderNavigationLinks)
+			pageDiv.addChild("%", getNavbar(fullAccess));
 		HTMLNode contentDiv = pageDiv.addChild("div", "id", "content");
 		contentNodes.put(pageNode, contentDiv);
 		return pageNode;
 	}
 	
+	/**
+	 * Returns the theme's style sheet link and the alternate style sheet links, rendered.
+	 * The same for every page, so cached unless the theme list itself isn't.
+	 */
+	private String getStyleLinks() {
+		String currentTheme;
+		synchronized(this) {
+			if(styleLinksCache != null) return styleLinksCache;
+			currentTheme = theme;
+		}
+		List themes = getThemes();
+		HTMLNode linkNode = new HTMLNode("link", new String[] { "rel", "href", "type", "title" }, new String[] { "stylesheet", "/static/themes/" + currentTheme + "/theme.css", "text/css", currentTheme }, null);
+		String links = linkNode.generate() + renderAlternateStyleLinks(themes);
+		synchronized(this) {
+			if(themes == jarThemesCache && currentTheme == theme)
+				styleLinksCache = links;
+		}
+		return links;
+	}
+	
+	private String renderAlternateStyleLinks(List themes) {
+		StringBuffer links = new StringBuffer();
+		for (Iterator themesIterator = themes.iterator(); themesIterator.hasNext();) {
+			String themeName = (String) themesIterator.next();
+			HTMLNode linkNode = new HTMLNode("link", new String[] { "rel", "href", "type", "media", "title" }, new String[] { "alternate stylesheet", "/static/themes/" + themeName + "/theme.css", "text/css", "screen", themeName }, null);
+			linkNode.generate(links);
+		}
+		return links.toString();
+	}
+	
+	/**
+	 * Returns the navigation bar, rendered. Only changes when a link is added or removed,
+	 * the translation changes, or a link's callback changes its mind, so we keep one for
+	 * each combination we have seen.
+	 */
+	private synchronized String getNavbar(boolean fullAccess) {
+		int generation = L10n.getGeneration();
+		if(generation != navbarCacheGeneration) {
+			navbarCache.clear();
+			navbarCacheGeneration = generation;
+		}
+		List links = fullAccess ? navigationLinkTexts : navigationLinkTextsNonFull;
+		StringBuffer key = new StringBuffer(fullAccess ? "F" : "N");
+		boolean[] enabled = new boolean[links.size()];
+		for (int i = 0; i < enabled.length; i++) {
+			LinkEnabledCallback cb = (LinkEnabledCallback) navigationLinkCallbacks.get(links.get(i));
+			enabled[i] = cb == null || cb.isEnabled();
+			if(cb != null) key.append(enabled[i] ? '1' : '0');
+		}
+		String cacheKey = key.toString();
+		String navbar = (String) navbarCache.get(cacheKey);
+		if(navbar != null) return navbar;
+		HTMLNode navbarDiv = new HTMLNode("div", "id", "navbar");
+		HTMLNode navbarUl = navbarDiv.addChild("ul", "id", "navlist");
+		for (int i = 0; i < enabled.length; i++) {
+			if(!enabled[i]) continue;
+			String navigationLink = (String) links.get(i);
+			String navigationTitle = (String) navigationLinkTitles.get(navigationLink);
+			String navigationPath = (String) navigationLinks.get(navigationLink);
+			HTMLNode listItem = navbarUl.addChild("li");
+			listItem.addChild("a", new String[] { "href", "title" }, new String[] { navigationPath, L10n.getString(navigationTitle) }, L10n.getString(navigationLink));
+		}
+		navbar = navbarDiv.generate();
+		navbarCache.put(cacheKey, navbar);
+		return navbar;
+	}
+	
 	/**
 	 * Returns the content node that belongs to the specified page node.
 	 * <p>
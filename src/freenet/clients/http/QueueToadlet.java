@@ -63,8 +63,6 @@ public class QueueToadlet extends Toadlet {
 	private NodeClientCore core;
 	final FCPServer fcp;
 	
-	private boolean isReversed = false;
-	
 	public QueueToadlet(NodeClientCore core, FCPServer fcp, HighLevelSimpleClient client) {
 		super(client);
 		this.core = core;
@@ -302,7 +300,7 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 									optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "hidden", "forceDownload", String.valueOf(System.currentTimeMillis()) });
 									optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "submit", "get", "Download anyway" });
 									optionForm.addChild("input", new String[] { "type", "name", "value" }, new String[] { "submit", "return", "Return to queue page" });
-									writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+									writeHTMLReply(ctx, 200, "OK", pageNode);
 									return;
 								}
 							}
@@ -330,7 +328,7 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 		HTMLNode infoboxContent = pageMaker.getContentNode(infobox);
 		infoboxContent.addChild("#", message);
 		infoboxContent.addChild("div").addChildren(new HTMLNode[] { new HTMLNode("#", "Return to "), new HTMLNode("a", "href", "/queue/", "queue page"), new HTMLNode("#", ".") });
-		writeHTMLReply(context, 400, "Bad request", pageNode.generate());
+		writeHTMLReply(context, 400, "Bad request", pageNode);
 	}
 
 	public void handleGet(URI uri, final HTTPRequest request, ToadletContext ctx) 
@@ -400,7 +398,7 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode infoboxContent = pageMaker.getContentNode(infobox);
 			infoboxContent.addChild("#", L10n.getString("QueueToadlet.noTaskOnGlobalQueue"));
 			contentNode.addChild(createInsertBox(pageMaker, ctx));
-			writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+			writeHTMLReply(ctx, 200, "OK", pageNode);
 			return;
 		}
 
@@ -442,47 +440,8 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			}
 		}
 		
-		Comparator jobComparator = new Comparator() {
-			public int compare(Object first, Object second) {
-				ClientRequest firstRequest = (ClientRequest) first;
-				ClientRequest secondRequest = (ClientRequest) second;
-
-				int result = 0;
-				boolean isSet = true;
-				
-				if(request.isParameterSet("sortBy")){
-					final String sortBy = request.getParam("sortBy"); 
-
-					if(sortBy.equals("id")){
-						result = firstRequest.getIdentifier().compareToIgnoreCase(secondRequest.getIdentifier());
-					}else if(sortBy.equals("size")){
-						result = (firstRequest.getTotalBlocks() - secondRequest.getTotalBlocks()) < 0 ? -1 : 1;
-					}else if(sortBy.equals("progress")){
-						result = firstRequest.getSuccessFraction() - secondRequest.getSuccessFraction() < 0 ? -1 : 1;
-					}else
-						isSet=false;
-				}else
-					isSet=false;
-				
-				if(!isSet){
-					int priorityDifference =  firstRequest.getPriority() - secondRequest.getPriority(); 
-					if (priorityDifference != 0) 
-						result = (priorityDifference < 0 ? -1 : 1);
-					else
-						result = firstRequest.getIdentifier().compareTo(secondRequest.getIdentifier());
-				}
-
-				if(result == 0){
-					return 0;
-				}else if(request.isParameterSet("reversed")){
-					isReversed = true;
-					return result > 0 ? -1 : 1;
-				}else{
-					isReversed = false;
-					return result < 0 ? -1 : 1;
-				}
-			}
-		};
+		QueueView view = new QueueView(request);
+		Comparator jobComparator = new RequestComparator(view.sortBy, view.reversed);
 		
 		Collections.sort(completedDownloadToDisk, jobComparator);
 		Collections.sort(completedDownloadToTemp, jobComparator);
@@ -586,9 +545,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode completedDownloadsTempInfobox = contentNode.addChild(pageMaker.getInfobox("completed_requests", L10n.getString("QueueToadlet.completedDinTempDirectory", new String[]{ "size" }, new String[]{ String.valueOf(completedDownloadToTemp.size()) })));
 			HTMLNode completedDownloadsToTempContent = pageMaker.getContentNode(completedDownloadsTempInfobox);
 			if (advancedModeEnabled) {
-				completedDownloadsToTempContent.addChild(createRequestTable(pageMaker, ctx, completedDownloadToTemp, new int[] { LIST_IDENTIFIER, LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedDownloadsToTempContent, pageMaker, ctx, completedDownloadToTemp, new int[] { LIST_IDENTIFIER, LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedDownloadToTemp");
 			} else {
-				completedDownloadsToTempContent.addChild(createRequestTable(pageMaker, ctx, completedDownloadToTemp, new int[] { LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedDownloadsToTempContent, pageMaker, ctx, completedDownloadToTemp, new int[] { LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedDownloadToTemp");
 			}
 		}
 		
@@ -597,9 +556,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode completedToDiskInfobox = contentNode.addChild(pageMaker.getInfobox("completed_requests", L10n.getString("QueueToadlet.completedDinDownloadDirectory", new String[]{ "size" }, new String[]{ String.valueOf(completedDownloadToDisk.size()) })));
 			HTMLNode completedToDiskInfoboxContent = pageMaker.getContentNode(completedToDiskInfobox);
 			if (advancedModeEnabled) {
-				completedToDiskInfoboxContent.addChild(createRequestTable(pageMaker, ctx, completedDownloadToDisk, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedToDiskInfoboxContent, pageMaker, ctx, completedDownloadToDisk, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedDownloadToDisk");
 			} else {
-				completedToDiskInfoboxContent.addChild(createRequestTable(pageMaker, ctx, completedDownloadToDisk, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedToDiskInfoboxContent, pageMaker, ctx, completedDownloadToDisk, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_DOWNLOAD, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedDownloadToDisk");
 			}
 		}
 
@@ -608,9 +567,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode completedUploadInfobox = contentNode.addChild(pageMaker.getInfobox("completed_requests", L10n.getString("QueueToadlet.completedU", new String[]{ "size" }, new String[]{ String.valueOf(completedUpload.size()) })));
 			HTMLNode completedUploadInfoboxContent = pageMaker.getContentNode(completedUploadInfobox);
 			if (advancedModeEnabled) {
-				completedUploadInfoboxContent.addChild(createRequestTable(pageMaker, ctx, completedUpload, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedUploadInfoboxContent, pageMaker, ctx, completedUpload, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedUpload");
 			} else  {
-				completedUploadInfoboxContent.addChild(createRequestTable(pageMaker, ctx, completedUpload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedUploadInfoboxContent, pageMaker, ctx, completedUpload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedUpload");
 			}
 		}
 		
@@ -619,9 +578,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode completedUploadDirInfobox = contentNode.addChild(pageMaker.getInfobox("completed_requests", L10n.getString("QueueToadlet.completedUDirectory", new String[]{ "size" }, new String[]{ String.valueOf(completedDirUpload.size()) })));
 			HTMLNode completedUploadDirContent = pageMaker.getContentNode(completedUploadDirInfobox);
 			if (advancedModeEnabled) {
-				completedUploadDirContent.addChild(createRequestTable(pageMaker, ctx, completedDirUpload, new int[] { LIST_IDENTIFIER, LIST_FILES, LIST_TOTAL_SIZE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedUploadDirContent, pageMaker, ctx, completedDirUpload, new int[] { LIST_IDENTIFIER, LIST_FILES, LIST_TOTAL_SIZE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedDirUpload");
 			} else {
-				completedUploadDirContent.addChild(createRequestTable(pageMaker, ctx, completedDirUpload, new int[] { LIST_FILES, LIST_TOTAL_SIZE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(completedUploadDirContent, pageMaker, ctx, completedDirUpload, new int[] { LIST_FILES, LIST_TOTAL_SIZE, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "completedDirUpload");
 			}
 		}
 				
@@ -630,9 +589,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode failedInfobox = contentNode.addChild(pageMaker.getInfobox("failed_requests", L10n.getString("QueueToadlet.failedD", new String[]{ "size" }, new String[]{ String.valueOf(failedDownload.size()) })));
 			HTMLNode failedContent = pageMaker.getContentNode(failedInfobox);
 			if (advancedModeEnabled) {
-				failedContent.addChild(createRequestTable(pageMaker, ctx, failedDownload, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(failedContent, pageMaker, ctx, failedDownload, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "failedDownload");
 			} else {
-				failedContent.addChild(createRequestTable(pageMaker, ctx, failedDownload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(failedContent, pageMaker, ctx, failedDownload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "failedDownload");
 			}
 		}
 		
@@ -641,9 +600,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode failedInfobox = contentNode.addChild(pageMaker.getInfobox("failed_requests", L10n.getString("QueueToadlet.failedU", new String[]{ "size" }, new String[]{ String.valueOf(failedUpload.size()) })));
 			HTMLNode failedContent = pageMaker.getContentNode(failedInfobox);
 			if (advancedModeEnabled) {
-				failedContent.addChild(createRequestTable(pageMaker, ctx, failedUpload, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(failedContent, pageMaker, ctx, failedUpload, new int[] { LIST_IDENTIFIER, LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "failedUpload");
 			} else {
-				failedContent.addChild(createRequestTable(pageMaker, ctx, failedUpload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(failedContent, pageMaker, ctx, failedUpload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "failedUpload");
 			}
 		}
 		
@@ -652,9 +611,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode failedInfobox = contentNode.addChild(pageMaker.getInfobox("failed_requests", L10n.getString("QueueToadlet.failedU", new String[]{ "size" }, new String[]{ String.valueOf(failedDirUpload.size()) })));
 			HTMLNode failedContent = pageMaker.getContentNode(failedInfobox);
 			if (advancedModeEnabled) {
-				failedContent.addChild(createRequestTable(pageMaker, ctx, failedDirUpload, new int[] { LIST_IDENTIFIER, LIST_FILES, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(failedContent, pageMaker, ctx, failedDirUpload, new int[] { LIST_IDENTIFIER, LIST_FILES, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "failedDirUpload");
 			} else {
-				failedContent.addChild(createRequestTable(pageMaker, ctx, failedDirUpload, new int[] { LIST_FILES, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(failedContent, pageMaker, ctx, failedDirUpload, new int[] { LIST_FILES, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_REASON, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "failedDirUpload");
 			}
 		}
 		
@@ -663,9 +622,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode uncompletedInfobox = contentNode.addChild(pageMaker.getInfobox("requests_in_progress", L10n.getString("QueueToadlet.wipD", new String[]{ "size" }, new String[]{ String.valueOf(uncompletedDownload.size()) })));
 			HTMLNode uncompletedContent = pageMaker.getContentNode(uncompletedInfobox);
 			if (advancedModeEnabled) {
-				uncompletedContent.addChild(createRequestTable(pageMaker, ctx, uncompletedDownload, new int[] { LIST_IDENTIFIER, LIST_PRIORITY, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_FILENAME, LIST_KEY }, priorityClasses));
+				addRequestTable(uncompletedContent, pageMaker, ctx, uncompletedDownload, new int[] { LIST_IDENTIFIER, LIST_PRIORITY, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_FILENAME, LIST_KEY }, priorityClasses, view, "uncompletedDownload");
 			} else {
-				uncompletedContent.addChild(createRequestTable(pageMaker, ctx, uncompletedDownload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(uncompletedContent, pageMaker, ctx, uncompletedDownload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "uncompletedDownload");
 			}
 		}
 		
@@ -674,9 +633,9 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode uncompletedInfobox = contentNode.addChild(pageMaker.getInfobox("requests_in_progress", L10n.getString("QueueToadlet.wipU", new String[]{ "size" }, new String[]{ String.valueOf(uncompletedUpload.size()) })));
 			HTMLNode uncompletedContent = pageMaker.getContentNode(uncompletedInfobox);
 			if (advancedModeEnabled) {
-				uncompletedContent.addChild(createRequestTable(pageMaker, ctx, uncompletedUpload, new int[] { LIST_IDENTIFIER, LIST_PRIORITY, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_FILENAME, LIST_KEY }, priorityClasses));
+				addRequestTable(uncompletedContent, pageMaker, ctx, uncompletedUpload, new int[] { LIST_IDENTIFIER, LIST_PRIORITY, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_FILENAME, LIST_KEY }, priorityClasses, view, "uncompletedUpload");
 			} else {
-				uncompletedContent.addChild(createRequestTable(pageMaker, ctx, uncompletedUpload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(uncompletedContent, pageMaker, ctx, uncompletedUpload, new int[] { LIST_FILENAME, LIST_SIZE, LIST_MIME_TYPE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "uncompletedUpload");
 			}
 		}
 		
@@ -685,14 +644,14 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			HTMLNode uncompletedInfobox = contentNode.addChild(pageMaker.getInfobox("requests_in_progress", L10n.getString("QueueToadlet.wipDU", new String[]{ "size" }, new String[]{ String.valueOf(uncompletedDirUpload.size()) })));
 			HTMLNode uncompletedContent = pageMaker.getContentNode(uncompletedInfobox);
 			if (advancedModeEnabled) {
-				uncompletedContent.addChild(createRequestTable(pageMaker, ctx, uncompletedDirUpload, new int[] { LIST_IDENTIFIER, LIST_FILES, LIST_PRIORITY, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(uncompletedContent, pageMaker, ctx, uncompletedDirUpload, new int[] { LIST_IDENTIFIER, LIST_FILES, LIST_PRIORITY, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "uncompletedDirUpload");
 			} else {
-				uncompletedContent.addChild(createRequestTable(pageMaker, ctx, uncompletedDirUpload, new int[] { LIST_FILES, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses));
+				addRequestTable(uncompletedContent, pageMaker, ctx, uncompletedDirUpload, new int[] { LIST_FILES, LIST_TOTAL_SIZE, LIST_PROGRESS, LIST_PERSISTENCE, LIST_KEY }, priorityClasses, view, "uncompletedDirUpload");
 			}
 		}
 		
 		MultiValueTable pageHeaders = new MultiValueTable();
-		writeHTMLReply(ctx, 200, "OK", pageHeaders, pageNode.generate());
+		writeHTMLReply(ctx, 200, "OK", pageHeaders, pageNode);
 	}
 
 	
@@ -887,17 +846,25 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 		return insertBox;
 	}
 	
-	private HTMLNode createRequestTable(PageMaker pageMaker, ToadletContext ctx, List requests, int[] columns, String[] priorityClasses) {
-		HTMLNode table = new HTMLNode("table", "class", "requests");
+	/**
+	 * Add a table of requests, showing only the requested page of them, with links to
+	 * the other pages.
+	 */
+	private void addRequestTable(HTMLNode parent, PageMaker pageMaker, ToadletContext ctx, List requests, int[] columns, String[] priorityClasses, QueueView view, String section) {
+		int pages = (requests.size() + view.perPage - 1) / view.perPage;
+		int page = view.getPage(section, pages);
+		if(pages > 1)
+			addPageLinks(parent, view, section, page, pages);
+		HTMLNode table = parent.addChild("table", "class", "requests");
 		HTMLNode headerRow = table.addChild("tr", "class", "table-header");
 		headerRow.addChild("th");
 
 		for (int columnIndex = 0, columnCount = columns.length; columnIndex < columnCount; columnIndex++) {
 			int column = columns[columnIndex];
 			if (column == LIST_IDENTIFIER) {
-				headerRow.addChild("th").addChild("a", "href", (isReversed ? "?sortBy=id" : "?sortBy=id&reversed")).addChild("#", L10n.getString("QueueToadlet.identifier"));
+				headerRow.addChild("th").addChild("a", "href", view.sortLink("id", section)).addChild("#", L10n.getString("QueueToadlet.identifier"));
 			} else if (column == LIST_SIZE) {
-				headerRow.addChild("th").addChild("a", "href", (isReversed ? "?sortBy=size" : "?sortBy=size&reversed")).addChild("#", L10n.getString("QueueToadlet.size"));
+				headerRow.addChild("th").addChild("a", "href", view.sortLink("size", section)).addChild("#", L10n.getString("QueueToadlet.size"));
 			} else if (column == LIST_DOWNLOAD) {
 				headerRow.addChild("th", L10n.getString("QueueToadlet.download"));
 			} else if (column == LIST_MIME_TYPE) {
@@ -909,18 +876,20 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 			} else if (column == LIST_FILENAME) {
 				headerRow.addChild("th", L10n.getString("QueueToadlet.fileName"));
 			} else if (column == LIST_PRIORITY) {
-				headerRow.addChild("th").addChild("a", "href", (isReversed ? "?sortBy=priority" : "?sortBy=priority&reversed")).addChild("#", L10n.getString("QueueToadlet.priority"));
+				headerRow.addChild("th").addChild("a", "href", view.sortLink("priority", section)).addChild("#", L10n.getString("QueueToadlet.priority"));
 			} else if (column == LIST_FILES) {
 				headerRow.addChild("th", L10n.getString("QueueToadlet.files"));
 			} else if (column == LIST_TOTAL_SIZE) {
 				headerRow.addChild("th", L10n.getString("QueueToadlet.totalSize"));
 			} else if (column == LIST_PROGRESS) {
-				headerRow.addChild("th").addChild("a", "href", (isReversed ? "?sortBy=progress" : "?sortBy=progress&reversed")).addChild("#", L10n.getString("QueueToadlet.progress"));
+				headerRow.addChild("th").addChild("a", "href", view.sortLink("progress", section)).addChild("#", L10n.getString("QueueToadlet.progress"));
 			} else if (column == LIST_REASON) {
 				headerRow.addChild("th", L10n.getString("QueueToadlet.reason"));
 			}
 		}
-		for (Iterator requestItems = requests.iterator(); requestItems.hasNext(); ) {
+		int start = page * view.perPage;
+		int end = Math.min(start + view.perPage, requests.size());
+		for (Iterator requestItems = requests.subList(start, end).iterator(); requestItems.hasNext(); ) {
 			ClientRequest clientRequest = (ClientRequest) requestItems.next();
 			HTMLNode requestRow = table.addChild("tr", "class", "priority" + clientRequest.getPriority());
 			
@@ -978,7 +947,134 @@ loop:				for (int requestIndex = 0, requestCount = clientRequests.length; reques
 				}
 			}
 		}
-		return table;
+		if(pages > 1)
+			addPageLinks(parent, view, section, page, pages);
+	}
+
+	/** Maximum number of links to individual pages either side of the current page */
+	private static final int PAGE_LINKS = 5;
+
+	private void addPageLinks(HTMLNode parent, QueueView view, String section, int page, int pages) {
+		HTMLNode pageLinks = parent.addChild("div", "class", "queue-pages");
+		if(page > 0)
+			pageLinks.addChild("a", "href", view.pageLink(section, page - 1), L10n.getString("QueueToadlet.previousPage"));
+		pageLinks.addChild("#", " ");
+		int first = Math.max(0, page - PAGE_LINKS);
+		int last = Math.min(pages - 1, page + PAGE_LINKS);
+		if(first > 0) {
+			pageLinks.addChild("a", "href", view.pageLink(section, 0), "1");
+			if(first > 1) pageLinks.addChild("#", " \u2026");
+			pageLinks.addChild("#", " ");
+		}
+		for(int i=first;i<=last;i++) {
+			if(i == page)
+				pageLinks.addChild("span", "class", "queue-page-current", L10n.getString("QueueToadlet.pageOf", new String[] { "page", "pages" }, new String[] { String.valueOf(i + 1), String.valueOf(pages) }));
+			else
+				pageLinks.addChild("a", "href", view.pageLink(section, i), String.valueOf(i + 1));
+			pageLinks.addChild("#", " ");
+		}
+		if(last < pages - 1) {
+			if(last < pages - 2) pageLinks.addChild("#", "\u2026 ");
+			pageLinks.addChild("a", "href", view.pageLink(section, pages - 1), String.valueOf(pages));
+			pageLinks.addChild("#", " ");
+		}
+		if(page < pages - 1)
+			pageLinks.addChild("a", "href", view.pageLink(section, page + 1), L10n.getString("QueueToadlet.nextPage"));
+	}
+
+	/** Default number of requests shown on each page of a table */
+	static final int DEFAULT_PER_PAGE = 100;
+	static final int MAX_PER_PAGE = 1000;
+
+	/**
+	 * How the tables on the queue page are sorted and split into pages, from the
+	 * parameters of the request for it.
+	 */
+	private static class QueueView {
+
+		/** id, size, progress, priority, or null for the default order */
+		final String sortBy;
+		final boolean reversed;
+		final int perPage;
+		private final HTTPRequest request;
+
+		QueueView(HTTPRequest request) {
+			this.request = request;
+			String s = request.getParam("sortBy", null);
+			if(s != null && !(s.equals("id") || s.equals("size") || s.equals("progress") || s.equals("priority")))
+				s = null;
+			sortBy = s;
+			reversed = request.isParameterSet("reversed");
+			int p = request.getIntParam("perPage", DEFAULT_PER_PAGE);
+			if(p < 1) p = DEFAULT_PER_PAGE;
+			if(p > MAX_PER_PAGE) p = MAX_PER_PAGE;
+			perPage = p;
+		}
+
+		/** The page of a table to show, from 0 */
+		int getPage(String section, int pages) {
+			int page = request.getIntParam(section + "-page", 0);
+			if(page >= pages) page = pages - 1;
+			if(page < 0) page = 0;
+			return page;
+		}
+
+		/** Link to sort by a column: reversed if it is already sorted by it, otherwise not. */
+		String sortLink(String column, String section) {
+			return link(column, column.equals(sortBy) && !reversed, section, 0);
+		}
+
+		String pageLink(String section, int page) {
+			return link(sortBy, reversed, section, page);
+		}
+
+		private String link(String sort, boolean rev, String section, int page) {
+			StringBuffer sb = new StringBuffer("?");
+			if(sort != null) sb.append("sortBy=").append(sort).append('&');
+			if(rev) sb.append("reversed&");
+			if(perPage != DEFAULT_PER_PAGE) sb.append("perPage=").append(perPage).append('&');
+			if(page > 0) sb.append(section).append("-page=").append(page).append('&');
+			sb.setLength(sb.length() - 1);
+			sb.append('#').append(section);
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Sorts requests by the column given, then by priority, then by identifier.
+	 */
+	private static class RequestComparator implements Comparator {
+
+		private final String sortBy;
+		private final boolean reversed;
+
+		RequestComparator(String sortBy, boolean reversed) {
+			this.sortBy = sortBy;
+			this.reversed = reversed;
+		}
+
+		public int compare(Object first, Object second) {
+			ClientRequest firstRequest = (ClientRequest) first;
+			ClientRequest secondRequest = (ClientRequest) second;
+			int result = 0;
+			if("id".equals(sortBy))
+				result = firstRequest.getIdentifier().compareToIgnoreCase(secondRequest.getIdentifier());
+			else if("size".equals(sortBy))
+				result = compare(firstRequest.getTotalBlocks(), secondRequest.getTotalBlocks());
+			else if("progress".equals(sortBy))
+				result = compare(firstRequest.getSuccessFraction(), secondRequest.getSuccessFraction());
+			if(result == 0)
+				result = firstRequest.getPriority() - secondRequest.getPriority();
+			if(result == 0)
+				result = firstRequest.getIdentifier().compareTo(secondRequest.getIdentifier());
+			return reversed ? -result : result;
+		}
+
+		private static int compare(double a, double b) {
+			if(a < b) return -1;
+			if(a > b) return 1;
+			return 0;
+		}
 	}
 
 	public String supportedMethods() {
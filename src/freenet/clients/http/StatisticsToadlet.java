@@ -24,11 +24,13 @@ import freenet.node.NodeStats;
 import freenet.node.PeerManager;
 import freenet.node.PeerNodeStatus;
 import freenet.node.RequestStarterGroup;
+import freenet.node.SSKVerifier;
 import freenet.node.Version;
 import freenet.support.HTMLNode;
 import freenet.support.SizeUtil;
 import freenet.support.TimeUtil;
 import freenet.support.api.HTTPRequest;
+import freenet.support.io.TempBucketFactory;
 
 public class StatisticsToadlet extends Toadlet {
 
@@ -186,6 +188,11 @@ public class StatisticsToadlet extends Toadlet {
 			
 			drawStoreSizeBox(storeSizeInfobox, nodeUptimeSeconds);
 			
+			// temp bucket box
+			HTMLNode tempBucketInfobox = nextTableCell.addChild("div", "class", "infobox");
+			
+			drawTempBucketBox(tempBucketInfobox);
+			
 			if(numberOfConnected + numberOfRoutingBackedOff > 0) {
 				// Load balancing box
 				// Include overall window, and RTTs for each
@@ -289,7 +296,7 @@ public class StatisticsToadlet extends Toadlet {
 			addNodeCircle(nodeCircleTable);
 		}
 
-		this.writeHTMLReply(ctx, 200, "OK", pageNode.generate());
+		this.writeHTMLReply(ctx, 200, "OK", pageNode);
 	}
 
 	private void drawRejectReasonsBox(HTMLNode nextTableCell) {
@@ -415,6 +422,32 @@ public class StatisticsToadlet extends Toadlet {
 		
 	}
 
+	private void drawTempBucketBox(HTMLNode tempBucketInfobox) {
+		
+		tempBucketInfobox.addChild("div", "class", "infobox-header", "Temporary buckets");
+		HTMLNode tempBucketInfoboxContent = tempBucketInfobox.addChild("div", "class", "infobox-content");
+		HTMLNode tempBucketList = tempBucketInfoboxContent.addChild("ul");
+		
+		TempBucketFactory factory = core.getTempBucketFactoryForStats();
+		long ramUsed = factory.getRAMUsed();
+		long maxRAMUsed = factory.getMaxRAMUsed();
+		long created = factory.getBucketsCreated();
+		long migrations = factory.getMigrations();
+		
+		tempBucketList.addChild("li", 
+				"RAM used:\u00a0" + SizeUtil.formatSize(ramUsed, true) + 
+				"\u00a0/\u00a0" + SizeUtil.formatSize(maxRAMUsed, true) +
+				(maxRAMUsed > 0 ? "\u00a0(" + ((ramUsed*100)/maxRAMUsed) + "%)" : ""));
+		
+		tempBucketList.addChild("li", 
+				"Buckets created:\u00a0" + thousendPoint.format(created));
+		
+		tempBucketList.addChild("li", 
+				"Moved to disk:\u00a0" + thousendPoint.format(migrations) +
+				(created > 0 ? "\u00a0(" + ((migrations*100)/created) + "%)" : ""));
+		
+	}
+
 	private void drawUnclaimedFIFOMessageCountsBox(HTMLNode unclaimedFIFOMessageCountsInfobox) {
 		
 		unclaimedFIFOMessageCountsInfobox.addChild("div", "class", "infobox-header", "unclaimedFIFO Message Counts");
@@ -609,6 +642,12 @@ public class StatisticsToadlet extends Toadlet {
 			activityList.addChild("li", "FetcherByUSKSize:\u00a0" + node.clientCore.uskManager.getFetcherByUSKSize());
 			activityList.addChild("li", "BackgroundFetcherByUSKSize:\u00a0" + node.clientCore.uskManager.getBackgroundFetcherByUSKSize());
 			activityList.addChild("li", "temporaryBackgroundFetchersLRUSize:\u00a0" + node.clientCore.uskManager.getTemporaryBackgroundFetchersLRU());
+			SSKVerifier verifier = node.nodeStats.sskVerifier;
+			activityList.addChild("li", "SSK\u00a0verify\u00a0queue:\u00a0" + verifier.getQueueLength() + 
+					"\u00a0(" + verifier.getThreads() + "\u00a0threads, avg.\u00a0" + 
+					TimeUtil.formatTime((long) verifier.getAverageLatency(), 2, true) + ", " + 
+					thousendPoint.format(verifier.getVerifiedCount()) + "\u00a0verified, " + 
+					thousendPoint.format(verifier.getVerifiedInlineCount()) + "\u00a0inline)");
 		}
 		
 	}
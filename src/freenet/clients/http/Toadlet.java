@@ -3,10 +3,13 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package freenet.clients.http;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URI;
 
 import freenet.client.FetchException;
@@ -14,6 +17,8 @@ import freenet.client.FetchResult;
 import freenet.client.HighLevelSimpleClient;
 import freenet.client.InsertBlock;
 import freenet.client.InsertException;
+import freenet.client.async.ClientCallback;
+import freenet.client.async.ClientGetter;
 import freenet.keys.FreenetURI;
 import freenet.l10n.L10n;
 import freenet.support.HTMLEncoder;
@@ -117,6 +122,15 @@ public abstract class Toadlet {
 		return client.fetch(uri, maxSize, clientContext);
 	}
 
+	/**
+	 * Start a Freenet request without blocking, streaming the data into returnBucket
+	 * as it arrives, so the caller can send it on while the request is still running.
+	 * @param callback Told when the request finishes.
+	 */
+	ClientGetter fetchStreaming(FreenetURI uri, long maxSize, Object clientContext, ClientCallback callback, Bucket returnBucket) throws FetchException {
+		return client.fetch(uri, maxSize, clientContext, callback, returnBucket, true);
+	}
+
 	FreenetURI insert(InsertBlock insert, String filenameHint, boolean getCHKOnly) throws InsertException {
 		// For now, just run it blocking.
 		insert.desiredURI.checkInsertURI();
@@ -159,6 +173,20 @@ public abstract class Toadlet {
 		writeReply(ctx, code, "text/html; charset=utf-8", desc, headers, reply);
 	}
 	
+	protected void writeHTMLReply(ToadletContext ctx, int code, String desc, HTMLNode pageNode) throws ToadletContextClosedException, IOException {
+		writeHTMLReply(ctx, code, desc, null, pageNode);
+	}
+	
+	/**
+	 * Write a page straight to the client as it is generated, rather than building the
+	 * whole page in memory first.
+	 */
+	protected void writeHTMLReply(ToadletContext ctx, int code, String desc, MultiValueTable headers, HTMLNode pageNode) throws ToadletContextClosedException, IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(ctx.sendReplyHeadersStreaming(code, desc, headers, "text/html; charset=utf-8"), "UTF-8"), 8192);
+		pageNode.generate(writer);
+		writer.close();
+	}
+	
 	protected void writeTextReply(ToadletContext ctx, int code, String desc, MultiValueTable headers, String reply) throws ToadletContextClosedException, IOException {
 		writeReply(ctx, code, "text/plain; charset=utf-8", desc, headers, reply);
 	}
@@ -235,7 +263,7 @@ public abstract class Toadlet {
 		infoboxContent.addChild("a", "href", ".", l10n("returnToPrevPage"));
 		addHomepageLink(infoboxContent);
 		
-		writeHTMLReply(ctx, code, desc, pageNode.generate());
+		writeHTMLReply(ctx, code, desc, pageNode);
 	}
 
 	/**
@@ -266,7 +294,7 @@ public abstract class Toadlet {
 		infoboxContent.addChild("a", "href", ".", l10n("returnToPrevPage"));
 		addHomepageLink(infoboxContent);
 		
-		writeHTMLReply(ctx, 500, desc, pageNode.generate());
+		writeHTMLReply(ctx, 500, desc, pageNode);
 	}
 
 	protected void writeInternalError(Throwable t, ToadletContext ctx) throws ToadletContextClosedException, IOException {
@@ -1,6 +1,7 @@
 package freenet.clients.http;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import freenet.support.HTMLNode;
 import freenet.support.MultiValueTable;
@@ -23,6 +24,20 @@ public interface ToadletContext {
 	 */
 	void sendReplyHeaders(int code, String desc, MultiValueTable mvt, String mimeType, long length) throws ToadletContextClosedException, IOException;
 
+	/**
+	 * Write reply headers for a reply whose length is not known in advance, and return
+	 * a stream to write the body to. The body is sent with chunked transfer encoding, or
+	 * for an HTTP/1.0 client, raw followed by closing the connection. Close the stream
+	 * when the reply is complete. If it cannot be completed, throw an IOException from
+	 * the Toadlet instead, so the connection is dropped and the client can tell that the
+	 * reply was truncated.
+	 * @param code HTTP code.
+	 * @param desc HTTP code description.
+	 * @param mvt Any extra headers.
+	 * @param mimeType The MIME type of the reply.
+	 */
+	OutputStream sendReplyHeadersStreaming(int code, String desc, MultiValueTable mvt, String mimeType) throws ToadletContextClosedException, IOException;
+
 	/**
 	 * Write data. Note you must send reply headers first.
 	 */
@@ -1,6 +1,7 @@
 package freenet.clients.http;
 
 import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -49,6 +50,8 @@ public class ToadletContextImpl implements ToadletContext {
 	 */
 	private boolean closed;
 	private boolean shouldDisconnect;
+	/** Did the client send an HTTP/1.0 request? If so it can't take chunked replies. */
+	private boolean isHTTP10;
 	
 	public ToadletContextImpl(Socket sock, MultiValueTable headers, String CSSName, BucketFactory bf, PageMaker pageMaker, ToadletContainer container) throws IOException {
 		this.headers = headers;
@@ -126,6 +129,27 @@ public class ToadletContextImpl implements ToadletContext {
 		sendReplyHeaders(sockOutputStream, replyCode, replyDescription, mvt, mimeType, contentLength, shouldDisconnect);
 	}
 	
+	public OutputStream sendReplyHeadersStreaming(int replyCode, String replyDescription, MultiValueTable mvt, String mimeType) throws ToadletContextClosedException, IOException {
+		if(closed) throw new ToadletContextClosedException();
+		if(mvt == null) mvt = new MultiValueTable();
+		if(isHTTP10) {
+			// No chunked encoding, so the only way to mark the end is to disconnect.
+			shouldDisconnect = true;
+			sendReplyHeaders(sockOutputStream, replyCode, replyDescription, mvt, mimeType, -1, true);
+			return new FilterOutputStream(sockOutputStream) {
+				public void write(byte[] buf, int offset, int length) throws IOException {
+					out.write(buf, offset, length);
+				}
+				public void close() throws IOException {
+					out.flush();
+				}
+			};
+		}
+		mvt.put("transfer-encoding", "chunked");
+		sendReplyHeaders(sockOutputStream, replyCode, replyDescription, mvt, mimeType, -1, shouldDisconnect);
+		return new ChunkedOutputStream(sockOutputStream);
+	}
+	
 	public PageMaker getPageMaker() {
 		return pagemaker;
 	}
@@ -270,10 +294,12 @@ public class ToadletContextImpl implements ToadletContext {
 					headers.put(before, after);
 				}
 				
-				boolean shouldDisconnect = shouldDisconnectAfterHandled(split[2].equals("HTTP/1.0"), headers);
+				boolean isHTTP10 = split[2].equals("HTTP/1.0");
+				boolean shouldDisconnect = shouldDisconnectAfterHandled(isHTTP10, headers);
 				
 				ToadletContextImpl ctx = new ToadletContextImpl(sock, headers, container.getCSSName(), bf, pageMaker, container);
 				ctx.shouldDisconnect = shouldDisconnect;
+				ctx.isHTTP10 = isHTTP10;
 				
 				/*
 				 * if we're handling a POST, copy the data into a bucket now,
@@ -350,7 +376,8 @@ public class ToadletContextImpl implements ToadletContext {
 						ctx.close();
 					}
 				}
-				if(shouldDisconnect) {
+				// A streamed reply may have decided to disconnect
+				if(ctx.shouldDisconnect) {
 					sock.close();
 					return;
 				}
@@ -369,6 +396,13 @@ public class ToadletContextImpl implements ToadletContext {
 				// Ignore
 			}
 		} catch (IOException e) {
+			// Includes a streamed reply which failed part way through: the client must see
+			// the connection close, rather than a truncated reply that looks complete.
+			try {
+				sock.close();
+			} catch (IOException e1) {
+				// Ignore
+			}
 			return;
 		} catch (ToadletContextClosedException e) {
 			Logger.error(ToadletContextImpl.class, "ToadletContextClosedException while handling connection!");
@@ -0,0 +1,99 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.crypt;
+
+import freenet.crypt.ciphers.Rijndael;
+
+/**
+ * Counter mode. The keystream for each cipher block is the encryption of the
+ * IV followed by the (big-endian, 64-bit) index of the block. Unlike PCFB,
+ * any position can be encrypted or decrypted without processing the data before
+ * it, so we can work on whole arrays at once, seek in O(1), and separate parts
+ * of the data can be processed independently (e.g. in parallel, with one
+ * CTRMode each).
+ *
+ * Encryption and decryption are the same operation. NEVER use the same key and
+ * IV for two different plaintexts.
+ *
+ * Not thread-safe: use one CTRMode per stream.
+ */
+public class CTRMode {
+
+	private final BlockCipher c;
+	private final byte[] iv;
+	/** IV followed by the block counter */
+	private final byte[] counter;
+	/** Keystream for the block in keystreamBlock */
+	private final byte[] keystream;
+	private long keystreamBlock;
+	/** Temporary arrays for Rijndael, to avoid allocation */
+	private final int[] a, t;
+
+	/**
+	 * @param c The cipher, already initialized with the key.
+	 * @param iv The IV. Must be lengthIV(c) bytes.
+	 */
+	public CTRMode(BlockCipher c, byte[] iv) {
+		this.c = c;
+		int blockSize = c.getBlockSize() >> 3;
+		if(iv.length != lengthIV(c))
+			throw new IllegalArgumentException("IV wrong length: "+iv.length+" should be "+lengthIV(c));
+		this.iv = (byte[]) iv.clone();
+		counter = new byte[blockSize];
+		keystream = new byte[blockSize];
+		keystreamBlock = -1;
+		if(c instanceof Rijndael) {
+			int tempSize = ((Rijndael)c).getTempArraySize();
+			a = new int[tempSize];
+			t = new int[tempSize];
+		} else {
+			a = t = null;
+		}
+	}
+
+	/**
+	 * @return The length of the IV for the given cipher. The last 8 bytes of each
+	 * counter block are the block index.
+	 */
+	public static int lengthIV(BlockCipher c) {
+		return (c.getBlockSize() >> 3) - 8;
+	}
+
+	/**
+	 * Encrypt or decrypt, in place.
+	 * @param buf The buffer.
+	 * @param offset The offset of the data in the buffer.
+	 * @param length The number of bytes to process.
+	 * @param position The position of the first byte in the stream.
+	 */
+	public void process(byte[] buf, int offset, int length, long position) {
+		if(position < 0) throw new IllegalArgumentException("Negative position "+position);
+		int blockSize = keystream.length;
+		while(length > 0) {
+			long block = position / blockSize;
+			int blockOffset = (int) (position % blockSize);
+			if(block != keystreamBlock) refill(block);
+			int n = Math.min(length, blockSize - blockOffset);
+			for(int i=0;i<n;i++)
+				buf[offset+i] ^= keystream[blockOffset+i];
+			offset += n;
+			length -= n;
+			position += n;
+		}
+	}
+
+	private void refill(long block) {
+		// The cipher may overwrite its input
+		int x = iv.length;
+		System.arraycopy(iv, 0, counter, 0, x);
+		for(int i=7;i>=0;i--)
+			counter[x+i] = (byte) (block >>> (8*(7-i)));
+		if(a != null)
+			((Rijndael)c).encipher(counter, keystream, a, t);
+		else
+			c.encipher(counter, keystream);
+		keystreamBlock = block;
+	}
+
+}
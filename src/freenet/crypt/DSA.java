@@ -21,6 +21,10 @@ public class DSA {
 	static final BigInteger SIGNATURE_MASK =
 		Util.TWO.pow(255).subtract(BigInteger.ONE);
 	
+	/** Precomputed powers of the generator of Global.DSAgroupBigA, which all SSKs
+	 * use. Created on first use. */
+	private static FixedBaseModPow bigAGenerator;
+	
 	/**
 	 * Returns a DSA signature given a group, private key (x), a random nonce
 	 * (k), and the hash of the message (m).
@@ -104,7 +108,7 @@ public class DSA {
 			BigInteger w=sig.getS().modInverse(kp.getQ());
 			BigInteger u1=m.multiply(w).mod(kp.getQ());
 			BigInteger u2=sig.getR().multiply(w).mod(kp.getQ());
-			BigInteger v1=kp.getG().modPow(u1, kp.getP());
+			BigInteger v1=powG(kp.getGroup(), u1);
 			BigInteger v2=kp.getY().modPow(u2, kp.getP());
 			BigInteger v=v1.multiply(v2).mod(kp.getP()).mod(kp.getQ());
 			return v.equals(sig.getR());
@@ -117,6 +121,25 @@ public class DSA {
 		}
 	}
 
+	/**
+	 * @return g^e mod p for the group, using the precomputed table if it is
+	 * the global group and we don't have GMP, which is faster still.
+	 */
+	static BigInteger powG(DSAGroup group, BigInteger e) {
+		DSAGroup bigA = Global.DSAgroupBigA;
+		if(!NativeBigInteger.isNative() && (group == bigA || group.equals(bigA)))
+			return getBigAGenerator().pow(e);
+		return group.getG().modPow(e, group.getP());
+	}
+
+	private static synchronized FixedBaseModPow getBigAGenerator() {
+		if(bigAGenerator == null) {
+			DSAGroup g = Global.DSAgroupBigA;
+			bigAGenerator = new FixedBaseModPow(g.getG(), g.getP(), g.getQ().bitLength());
+		}
+		return bigAGenerator;
+	}
+
 	public static void main(String[] args) throws Exception {
 		//DSAGroup g=DSAGroup.readFromField(args[0]);
 		DSAGroup g = Global.DSAgroupBigA;
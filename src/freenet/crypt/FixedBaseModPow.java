@@ -0,0 +1,151 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.crypt;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Modular exponentiation with a fixed base, using a precomputed table.
+ *
+ * The exponent is split into windows of WINDOW_BITS bits. For window i, and
+ * every possible value j of the window, we store base^(j * 2^(WINDOW_BITS*i)).
+ * base^e is then just the product of one table entry per window: no squarings
+ * at all, so about maxExponentBits/WINDOW_BITS modular multiplications instead
+ * of maxExponentBits squarings plus the multiplications for modPow().
+ *
+ * Worth it for a base which is used over and over, such as the generator of
+ * the DSA group which all SSKs use. Thread-safe once constructed.
+ */
+public class FixedBaseModPow {
+
+	static final int WINDOW_BITS = 6;
+	private static final int WINDOW_MASK = (1 << WINDOW_BITS) - 1;
+
+	private final BigInteger base;
+	private final BigInteger modulus;
+	private final int maxExponentBits;
+	/** table[i][j] = base^(j * 2^(WINDOW_BITS*i)) mod modulus. table[i][0] is unused. */
+	private final BigInteger[][] table;
+
+	/**
+	 * Build the table. Takes a while: about maxExponentBits * 2^WINDOW_BITS /
+	 * WINDOW_BITS modular multiplications.
+	 * @param base The fixed base.
+	 * @param modulus The modulus.
+	 * @param maxExponentBits The largest exponent we will be asked to use, in
+	 * bits. Larger exponents fall back to modPow().
+	 */
+	public FixedBaseModPow(BigInteger base, BigInteger modulus, int maxExponentBits) {
+		this.base = base;
+		this.modulus = modulus;
+		this.maxExponentBits = maxExponentBits;
+		int windows = (maxExponentBits + WINDOW_BITS - 1) / WINDOW_BITS;
+		table = new BigInteger[windows][];
+		BigInteger windowBase = base.mod(modulus);
+		for(int i=0;i<windows;i++) {
+			BigInteger[] row = new BigInteger[WINDOW_MASK + 1];
+			row[1] = windowBase;
+			for(int j=2;j<=WINDOW_MASK;j++)
+				row[j] = row[j-1].multiply(windowBase).mod(modulus);
+			table[i] = row;
+			// Next window's base is base^(2^(WINDOW_BITS*(i+1)))
+			windowBase = row[WINDOW_MASK].multiply(windowBase).mod(modulus);
+		}
+	}
+
+	/**
+	 * @return base^exponent mod modulus.
+	 */
+	public BigInteger pow(BigInteger exponent) {
+		if(exponent.signum() < 0 || exponent.bitLength() > maxExponentBits)
+			return base.modPow(exponent, modulus);
+		BigInteger result = null;
+		int bits = exponent.bitLength();
+		for(int i=0;i*WINDOW_BITS<bits;i++) {
+			int j = 0;
+			for(int k=WINDOW_BITS-1;k>=0;k--) {
+				j <<= 1;
+				if(exponent.testBit(i*WINDOW_BITS+k)) j |= 1;
+			}
+			if(j == 0) continue;
+			if(result == null)
+				result = table[i][j];
+			else
+				result = result.multiply(table[i][j]).mod(modulus);
+		}
+		return result == null ? BigInteger.ONE.mod(modulus) : result;
+	}
+
+	public BigInteger getBase() {
+		return base;
+	}
+
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * <p>Compare modPow() against the precomputed table for the generator of the
+	 * global DSA group, and time DSA verification, 100 times (or as many as given
+	 * on the command line). Complains loudly if the results don't match.</p>
+	 */
+	public static void main(String[] args) {
+		int numRuns = 100;
+		if(args.length > 0) numRuns = Integer.parseInt(args[0]);
+		runPowTest(numRuns);
+		runVerifyTest(numRuns);
+	}
+
+	private static void runPowTest(int numRuns) {
+		DSAGroup group = Global.DSAgroupBigA;
+		long beforeTable = System.currentTimeMillis();
+		FixedBaseModPow table = new FixedBaseModPow(group.getG(), group.getP(), group.getQ().bitLength());
+		System.out.println("INFO: table built in "+(System.currentTimeMillis() - beforeTable)+"ms");
+		Random rand = new Random();
+		long tableTime = 0;
+		long modPowTime = 0;
+		int runsProcessed;
+		for(runsProcessed = 0; runsProcessed < numRuns; runsProcessed++) {
+			BigInteger e = new BigInteger(group.getQ().bitLength(), rand);
+			long beforePow = System.currentTimeMillis();
+			BigInteger myValue = table.pow(e);
+			long afterPow = System.currentTimeMillis();
+			BigInteger value = group.getG().modPow(e, group.getP());
+			long afterModPow = System.currentTimeMillis();
+			tableTime += (afterPow - beforePow);
+			modPowTime += (afterModPow - afterPow);
+			if(!myValue.equals(value)) {
+				System.err.println("ERROR: ["+runsProcessed+"]\ttable pow != modPow for exponent "+e.toString(16));
+				break;
+			}
+		}
+		if(numRuns == runsProcessed)
+			System.out.println("INFO: "+runsProcessed+" runs complete without any errors");
+		else
+			System.out.println("ERROR: "+runsProcessed+" runs until we got an error");
+		System.out.println("table run time: \t"+tableTime+"ms ("+(tableTime / (runsProcessed + 1))+"ms each)");
+		System.out.println("modPow run time: \t"+modPowTime+"ms ("+(modPowTime / (runsProcessed + 1))+"ms each)");
+	}
+
+	private static void runVerifyTest(int numRuns) {
+		DSAGroup group = Global.DSAgroupBigA;
+		DummyRandomSource r = new DummyRandomSource();
+		DSAPrivateKey priv = new DSAPrivateKey(group, r);
+		DSAPublicKey pub = new DSAPublicKey(group, priv);
+		long verifyTime = 0;
+		int failures = 0;
+		for(int i = 0; i < numRuns; i++) {
+			BigInteger m = new BigInteger(255, r);
+			DSASignature sig = DSA.sign(group, priv, m, r);
+			long beforeVerify = System.currentTimeMillis();
+			if(!DSA.verify(pub, sig, m, false)) failures++;
+			verifyTime += (System.currentTimeMillis() - beforeVerify);
+		}
+		if(failures > 0)
+			System.out.println("ERROR: "+failures+" of "+numRuns+" signatures failed to verify");
+		System.out.println("verify run time: \t"+verifyTime+"ms ("+(verifyTime / (numRuns + 1))+"ms each)");
+	}
+
+}
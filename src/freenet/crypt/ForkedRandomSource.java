@@ -0,0 +1,179 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.crypt;
+
+import java.util.Arrays;
+
+import freenet.crypt.ciphers.Rijndael;
+
+/**
+ * A RandomSource which gives each thread its own generator, so threads drawing
+ * random numbers don't contend on a single lock. Each thread's generator is AES
+ * in counter mode, keyed from the master RandomSource (normally Yarrow), and
+ * rekeyed from the master every RESEED_BYTES bytes or RESEED_INTERVAL
+ * milliseconds, whichever comes first. Entropy is passed straight through to the
+ * master.
+ */
+public class ForkedRandomSource extends RandomSource {
+
+	private static final long serialVersionUID = -1;
+	/** Rekey a thread's generator after it has produced this many bytes */
+	static final long RESEED_BYTES = 1024*1024;
+	/** Rekey a thread's generator after this long, in milliseconds */
+	static final long RESEED_INTERVAL = 60*1000;
+	/** Bytes generated at a time */
+	static final int BUFFER_SIZE = 512;
+
+	private final RandomSource master;
+	private final ThreadLocal generators;
+
+	public ForkedRandomSource(RandomSource master) {
+		this.master = master;
+		generators = new ThreadLocal() {
+			protected Object initialValue() {
+				return new Generator();
+			}
+		};
+	}
+
+	/** A single thread's generator. */
+	private class Generator {
+
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int bufferPtr = BUFFER_SIZE;
+		private CTRMode ctr;
+		private long streamPos;
+		private long reseedTime;
+
+		private void reseed() {
+			Rijndael aes;
+			try {
+				aes = new Rijndael(256, 256, false);
+			} catch (UnsupportedCipherException e) {
+				throw new Error(e);
+			}
+			byte[] key = new byte[32];
+			master.nextBytes(key);
+			aes.initialize(key);
+			Arrays.fill(key, (byte) 0);
+			byte[] iv = new byte[CTRMode.lengthIV(aes)];
+			master.nextBytes(iv);
+			ctr = new CTRMode(aes, iv);
+			streamPos = 0;
+			reseedTime = System.currentTimeMillis() + RESEED_INTERVAL;
+		}
+
+		private void refill() {
+			if(ctr == null || streamPos >= RESEED_BYTES || System.currentTimeMillis() > reseedTime)
+				reseed();
+			Arrays.fill(buffer, (byte) 0);
+			ctr.process(buffer, 0, buffer.length, streamPos);
+			streamPos += buffer.length;
+			bufferPtr = 0;
+		}
+
+		int nextInt() {
+			if(bufferPtr + 4 > buffer.length) refill();
+			int val = ((buffer[bufferPtr] & 0xff) << 24) | ((buffer[bufferPtr+1] & 0xff) << 16) |
+				((buffer[bufferPtr+2] & 0xff) << 8) | (buffer[bufferPtr+3] & 0xff);
+			// Don't leave used output lying around.
+			Arrays.fill(buffer, bufferPtr, bufferPtr+4, (byte) 0);
+			bufferPtr += 4;
+			return val;
+		}
+
+		void nextBytes(byte[] buf) {
+			int offset = 0;
+			while(offset < buf.length) {
+				if(bufferPtr == buffer.length) refill();
+				int n = Math.min(buf.length - offset, buffer.length - bufferPtr);
+				System.arraycopy(buffer, bufferPtr, buf, offset, n);
+				Arrays.fill(buffer, bufferPtr, bufferPtr+n, (byte) 0);
+				bufferPtr += n;
+				offset += n;
+			}
+		}
+	}
+
+	protected int next(int bits) {
+		return ((Generator) generators.get()).nextInt() >>> (32 - bits);
+	}
+
+	public void nextBytes(byte[] buf) {
+		((Generator) generators.get()).nextBytes(buf);
+	}
+
+	/**
+	 * @return The RandomSource we reseed from.
+	 */
+	public RandomSource getMaster() {
+		return master;
+	}
+
+	public int acceptEntropy(EntropySource source, long data, int entropyGuess) {
+		return master.acceptEntropy(source, data, entropyGuess);
+	}
+
+	public int acceptTimerEntropy(EntropySource timer) {
+		return master.acceptTimerEntropy(timer);
+	}
+
+	public int acceptTimerEntropy(EntropySource fnpTimingSource, double bias) {
+		return master.acceptTimerEntropy(fnpTimingSource, bias);
+	}
+
+	public int acceptEntropyBytes(EntropySource myPacketDataSource, byte[] buf, int offset, int length, double bias) {
+		return master.acceptEntropyBytes(myPacketDataSource, buf, offset, length, bias);
+	}
+
+	public void waitForEntropy(int bits) {
+		master.waitForEntropy(bits);
+	}
+
+	public void close() {
+		master.close();
+	}
+
+	/**
+	 * Benchmark: 16 threads drawing ints and 1K arrays from Yarrow, and from a
+	 * ForkedRandomSource on top of the same Yarrow.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int threads = 16;
+		int draws = 100000;
+		if(args.length > 0) threads = Integer.parseInt(args[0]);
+		if(args.length > 1) draws = Integer.parseInt(args[1]);
+		Yarrow yarrow = new Yarrow();
+		ForkedRandomSource forked = new ForkedRandomSource(yarrow);
+		for(int i=0;i<2;i++) {
+			runBenchmark("Yarrow", yarrow, threads, draws);
+			runBenchmark("Forked", forked, threads, draws);
+		}
+		System.exit(0);
+	}
+
+	private static void runBenchmark(String name, final RandomSource r, int threadCount, final int draws) throws InterruptedException {
+		Thread[] threads = new Thread[threadCount];
+		for(int i=0;i<threadCount;i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					byte[] buf = new byte[1024];
+					for(int j=0;j<draws;j++) {
+						r.nextInt();
+						if(j % 100 == 0) r.nextBytes(buf);
+					}
+				}
+			}, name+" benchmark #"+i);
+		}
+		long start = System.currentTimeMillis();
+		for(int i=0;i<threadCount;i++)
+			threads[i].start();
+		for(int i=0;i<threadCount;i++)
+			threads[i].join();
+		long time = Math.max(1, System.currentTimeMillis() - start);
+		long total = (long)threadCount * draws;
+		System.out.println(name+": "+threadCount+" threads, "+total+" ints and "+(total/100)+"K in "+time+"ms ("+(total*1000/time)+" ints/sec)");
+	}
+
+}
@@ -23,6 +23,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -63,9 +64,20 @@ public class NetworkInterface {
 	private int runningAcceptors = 0;
 	
 	private final Executor executor;
+	
+	/** Whether to create server sockets from ServerSocketChannel's */
+	private final boolean useChannels;
 
 	public static NetworkInterface create(int port, String bindTo, String allowedHosts, Executor executor) throws IOException {
-		NetworkInterface iface = new NetworkInterface(port, allowedHosts, executor);
+		return create(port, bindTo, allowedHosts, executor, false);
+	}
+	
+	/**
+	 * @param useChannels If true, accepted sockets will have a SocketChannel (see
+	 * Socket.getChannel()), so the caller can use NIO on them.
+	 */
+	public static NetworkInterface create(int port, String bindTo, String allowedHosts, Executor executor, boolean useChannels) throws IOException {
+		NetworkInterface iface = new NetworkInterface(port, allowedHosts, executor, useChannels);
 		try {
 			iface.setBindTo(bindTo);
 		} catch (IOException e) {
@@ -89,8 +101,9 @@ public class NetworkInterface {
 	 * @param allowedHosts
 	 *            A comma-separated list of allowed addresses
 	 */
-	private NetworkInterface(int port, String allowedHosts, Executor executor) throws IOException {
+	private NetworkInterface(int port, String allowedHosts, Executor executor, boolean useChannels) throws IOException {
 		this.port = port;
+		this.useChannels = useChannels;
 		this.allowedHosts = new AllowedHosts(allowedHosts);
 		this.executor = executor;
 	}
@@ -126,7 +139,7 @@ public class NetworkInterface {
 		}
 		acceptors.clear();
 		for (int serverSocketIndex = 0; serverSocketIndex < bindToTokenList.size(); serverSocketIndex++) {
-			ServerSocket serverSocket = new ServerSocket();
+			ServerSocket serverSocket = useChannels ? ServerSocketChannel.open().socket() : new ServerSocket();
 			serverSocket.bind(new InetSocketAddress((String) bindToTokenList.get(serverSocketIndex), port));
 			Acceptor acceptor = new Acceptor(serverSocket);
 			acceptors.add(acceptor);
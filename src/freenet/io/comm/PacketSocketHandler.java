@@ -29,4 +29,18 @@ public interface PacketSocketHandler extends SocketHandler {
 	/** Set the decryption filter to which incoming packets will be fed */
 	public void setLowLevelFilter(IncomingPacketFilter f);
 
+	/** Start receiving packets. The filter must have been set. */
+	public void start(boolean disableHangChecker);
+
+	/** Stop receiving packets. */
+	public void close(boolean exit);
+
+	/** The port number we are listening on */
+	public int getPortNumber();
+
+	public int getDropProbability();
+
+	/** If >0, drop 1 in dropProbability packets; for debugging */
+	public void setDropProbability(int dropProbability);
+
 }
@@ -0,0 +1,264 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.io.comm;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+import freenet.support.Logger;
+import freenet.support.OOMHandler;
+
+/**
+ * A simulated network for running many nodes in one JVM without real sockets.
+ * Each node gets a VirtualSocketHandler, addressed by port number on 127.0.0.1.
+ * Packets are copied into an in-memory queue and delivered by a single thread
+ * after a configurable latency, with random jitter and loss, and limited by a
+ * per-node outgoing bandwidth. One thread for the whole network, rather than a
+ * socket and a receiver thread per node, is what makes simulations with a
+ * thousand nodes feasible.
+ *
+ * Randomness comes from a seeded java.util.Random, so loss and jitter are
+ * repeatable for a given seed (thread scheduling of course is not).
+ */
+public class VirtualNetwork implements Runnable {
+
+	/** Drop packets which would have to wait longer than this for bandwidth, in milliseconds */
+	static final long MAX_QUEUE_DELAY = 2000;
+
+	final InetAddress localhost;
+	private final Random random;
+	/** Port number -> VirtualSocketHandler */
+	private final HashMap handlers;
+	/** Packets in flight, in order of delivery time */
+	private final TreeSet deliveries /* <Delivery> */;
+	private long nextSequence;
+	private Thread deliveryThread;
+	private boolean shutdown;
+
+	private int latency;
+	private int jitter;
+	private double lossProbability;
+	private int bandwidth;
+
+	private long packetsSent;
+	private long packetsDelivered;
+	private long packetsLost;
+	private long packetsUnroutable;
+	private long packetsOverflowed;
+	private long bytesDelivered;
+
+	private static boolean logMINOR;
+
+	/**
+	 * @param seed Seed for the loss and jitter RNG.
+	 */
+	public VirtualNetwork(long seed) {
+		try {
+			localhost = InetAddress.getByName("127.0.0.1");
+		} catch (UnknownHostException e) {
+			throw new Error(e);
+		}
+		random = new Random(seed);
+		handlers = new HashMap();
+		deliveries = new TreeSet();
+		logMINOR = Logger.shouldLog(Logger.MINOR, this);
+	}
+
+	/** A packet on its way to a port. */
+	private static class Delivery implements Comparable {
+		final long time;
+		final long sequence;
+		final byte[] data;
+		final int sourcePort;
+		final int destPort;
+
+		Delivery(long time, long sequence, byte[] data, int sourcePort, int destPort) {
+			this.time = time;
+			this.sequence = sequence;
+			this.data = data;
+			this.sourcePort = sourcePort;
+			this.destPort = destPort;
+		}
+
+		public int compareTo(Object o) {
+			Delivery d = (Delivery) o;
+			if(time < d.time) return -1;
+			if(time > d.time) return 1;
+			if(sequence < d.sequence) return -1;
+			if(sequence > d.sequence) return 1;
+			return 0;
+		}
+	}
+
+	/**
+	 * Create a socket handler on this network.
+	 * @param port The port number to listen on, or -1 to pick a free one.
+	 * @throws SocketException If the port is already in use.
+	 */
+	public synchronized VirtualSocketHandler createHandler(int port) throws SocketException {
+		if(port == -1) {
+			port = 1024 + random.nextInt(65535-1024);
+			while(handlers.containsKey(new Integer(port)))
+				port = 1024 + random.nextInt(65535-1024);
+		}
+		Integer key = new Integer(port);
+		if(handlers.containsKey(key))
+			throw new SocketException("Virtual port "+port+" already in use");
+		VirtualSocketHandler handler = new VirtualSocketHandler(this, port);
+		handlers.put(key, handler);
+		return handler;
+	}
+
+	synchronized void removeHandler(VirtualSocketHandler handler) {
+		Integer key = new Integer(handler.getPortNumber());
+		if(handlers.get(key) == handler)
+			handlers.remove(key);
+	}
+
+	/**
+	 * Queue a packet for delivery.
+	 * @param busyUntil When the source's outgoing link is free, in milliseconds.
+	 * @return When the source's outgoing link will next be free.
+	 */
+	synchronized long send(byte[] data, VirtualSocketHandler source, int destPort, long busyUntil) {
+		if(shutdown) return busyUntil;
+		packetsSent++;
+		long now = System.currentTimeMillis();
+		long departure = Math.max(now, busyUntil);
+		if(bandwidth > 0) {
+			if(departure - now > MAX_QUEUE_DELAY) {
+				packetsOverflowed++;
+				if(logMINOR) Logger.minor(this, "Queue overflow: "+source.getPortNumber()+" -> "+destPort);
+				return busyUntil;
+			}
+			departure += ((long)(data.length + UdpSocketHandler.UDP_HEADERS_LENGTH)) * 1000 / bandwidth;
+		}
+		if(lossProbability > 0 && random.nextDouble() < lossProbability) {
+			packetsLost++;
+			if(logMINOR) Logger.minor(this, "Lost: "+source.getPortNumber()+" -> "+destPort);
+			return departure;
+		}
+		long time = departure + latency;
+		if(jitter > 0) time += random.nextInt(jitter + 1);
+		Delivery d = new Delivery(time, nextSequence++, data, source.getPortNumber(), destPort);
+		deliveries.add(d);
+		if(deliveryThread == null) {
+			deliveryThread = new Thread(this, "Virtual network delivery thread");
+			deliveryThread.setDaemon(true);
+			deliveryThread.start();
+		} else if(deliveries.first() == d) {
+			// Due before whatever the delivery thread is waiting for
+			notifyAll();
+		}
+		return departure;
+	}
+
+	public void run() {
+		while(true) {
+			Delivery d;
+			VirtualSocketHandler dest;
+			synchronized(this) {
+				while(true) {
+					if(shutdown) {
+						deliveryThread = null;
+						return;
+					}
+					if(deliveries.isEmpty()) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// Ignore
+						}
+						continue;
+					}
+					d = (Delivery) deliveries.first();
+					long wait = d.time - System.currentTimeMillis();
+					if(wait <= 0) break;
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						// Ignore
+					}
+				}
+				deliveries.remove(d);
+				dest = (VirtualSocketHandler) handlers.get(new Integer(d.destPort));
+				if(dest == null) {
+					packetsUnroutable++;
+					if(logMINOR) Logger.minor(this, "Nobody on port "+d.destPort);
+					continue;
+				}
+				packetsDelivered++;
+				bytesDelivered += d.data.length;
+			}
+			try {
+				dest.deliver(d.data, d.sourcePort);
+			} catch (OutOfMemoryError e) {
+				OOMHandler.handleOOM(e);
+			} catch (Throwable t) {
+				Logger.error(this, "Caught "+t+" delivering to "+d.destPort, t);
+			}
+		}
+	}
+
+	/**
+	 * Stop the delivery thread. Packets still in flight, and any sent later, are
+	 * discarded.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		deliveries.clear();
+		notifyAll();
+	}
+
+	/** Set the one-way latency, in milliseconds. */
+	public synchronized void setLatency(int latency) {
+		this.latency = latency;
+	}
+
+	/** Set the maximum random extra latency added to each packet, in milliseconds. */
+	public synchronized void setJitter(int jitter) {
+		this.jitter = jitter;
+	}
+
+	/** Set the probability of losing any given packet, 0.0 to 1.0. */
+	public synchronized void setLossProbability(double lossProbability) {
+		this.lossProbability = lossProbability;
+	}
+
+	/** Set each node's outgoing bandwidth, in bytes per second, including UDP headers. 0 means unlimited. */
+	public synchronized void setBandwidth(int bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	public synchronized int getHandlerCount() {
+		return handlers.size();
+	}
+
+	public synchronized int getQueuedPackets() {
+		return deliveries.size();
+	}
+
+	public synchronized long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public synchronized long getPacketsDelivered() {
+		return packetsDelivered;
+	}
+
+	public synchronized long getBytesDelivered() {
+		return bytesDelivered;
+	}
+
+	public synchronized String toString() {
+		return "VirtualNetwork: "+handlers.size()+" nodes, latency "+latency+"ms +"+jitter+"ms, loss "+lossProbability+
+			", bandwidth "+bandwidth+"B/s: sent "+packetsSent+", delivered "+packetsDelivered+" ("+bytesDelivered+" bytes), lost "+
+			packetsLost+", overflowed "+packetsOverflowed+", unroutable "+packetsUnroutable+", in flight "+deliveries.size();
+	}
+
+}
@@ -0,0 +1,94 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.io.comm;
+
+import java.util.Random;
+
+import freenet.io.comm.Peer.LocalAddressException;
+import freenet.support.Logger;
+
+/**
+ * A PacketSocketHandler on a VirtualNetwork, for simulations. Packets are sent
+ * to whoever is listening on the destination port; the address is ignored.
+ * Incoming packets appear to come from 127.0.0.1 and the sender's port.
+ */
+public class VirtualSocketHandler implements PacketSocketHandler {
+
+	private final VirtualNetwork network;
+	private final int port;
+	private IncomingPacketFilter lowLevelFilter;
+	/** RNG for debugging, used with _dropProbability. NOT CRYPTO SAFE. */
+	private final Random dropRandom;
+	/** If >0, 1 in _dropProbability chance of dropping a packet; for debugging */
+	private int _dropProbability;
+	/** When our outgoing link is next free, for bandwidth limiting */
+	private long busyUntil;
+	private volatile boolean active;
+
+	VirtualSocketHandler(VirtualNetwork network, int port) {
+		this.network = network;
+		this.port = port;
+		dropRandom = new Random();
+	}
+
+	public void setLowLevelFilter(IncomingPacketFilter f) {
+		lowLevelFilter = f;
+	}
+
+	public void start(boolean disableHangChecker) {
+		active = true;
+	}
+
+	public void close(boolean exit) {
+		active = false;
+		network.removeHandler(this);
+	}
+
+	/** Called by the network's delivery thread. */
+	void deliver(byte[] data, int sourcePort) {
+		if(!active) return;
+		lowLevelFilter.process(data, 0, data.length, new Peer(network.localhost, sourcePort));
+	}
+
+	public void sendPacket(byte[] blockToSend, Peer destination, boolean allowLocalAddresses) throws LocalAddressException {
+		assert(blockToSend != null);
+		if (_dropProbability > 0) {
+			if (dropRandom.nextInt() % _dropProbability == 0) {
+				if(Logger.shouldLog(Logger.MINOR, this)) Logger.minor(this, "DROPPED: " + port + " -> " + destination.getPort());
+				return;
+			}
+		}
+		// The caller may reuse the buffer
+		byte[] data = new byte[blockToSend.length];
+		System.arraycopy(blockToSend, 0, data, 0, data.length);
+		synchronized(this) {
+			busyUntil = network.send(data, this, destination.getPort(), busyUntil);
+		}
+	}
+
+	public int getMaxPacketSize() {
+		return UdpSocketHandler.MAX_ALLOWED_MTU - UdpSocketHandler.UDP_HEADERS_LENGTH;
+	}
+
+	public int getHeadersLength() {
+		return UdpSocketHandler.UDP_HEADERS_LENGTH;
+	}
+
+	public int getDropProbability() {
+		return _dropProbability;
+	}
+
+	public void setDropProbability(int dropProbability) {
+		_dropProbability = dropProbability;
+	}
+
+	public int getPortNumber() {
+		return port;
+	}
+
+	public String toString() {
+		return "virtual:" + port;
+	}
+
+}
@@ -12,6 +12,8 @@ import freenet.crypt.DSAPublicKey;
 import freenet.crypt.DSASignature;
 import freenet.crypt.SHA256;
 import freenet.support.HexUtil;
+import freenet.support.ImmutableByteArrayWrapper;
+import freenet.support.LRUHashtable;
 
 /**
  * SSKBlock. Contains a full fetched key. Can do a node-level verification. Can 
@@ -62,6 +64,14 @@ public class SSKBlock implements KeyBlock {
     
     static final short ENCRYPTED_HEADERS_LENGTH = 36;
     
+    /** Number of recently verified signatures to remember */
+    static final int VERIFIED_CACHE_SIZE = 1024;
+    /** Recently verified signatures: H(routing key, overall hash, signature) -> 
+     * Boolean.TRUE. The same SSKs are seen over and over when many clients poll
+     * a USK, and DSA verification is expensive. Only successful verifications are
+     * cached, so an attacker can't add anything without a valid signature. */
+    private static final LRUHashtable verifiedCache = new LRUHashtable();
+    
     public boolean equals(Object o) {
     	if(!(o instanceof SSKBlock)) return false;
     	SSKBlock block = (SSKBlock)o;
@@ -134,12 +144,33 @@ public class SSKBlock implements KeyBlock {
 			md.update(dataHash);
 			// Makes the implicit overall hash
 			byte[] overallHash = md.digest();
-			// Now verify it
-			NativeBigInteger r = new NativeBigInteger(1, bufR);
-			NativeBigInteger s = new NativeBigInteger(1, bufS);
-			if(!(DSA.verify(pubKey, new DSASignature(r, s), new NativeBigInteger(1, overallHash), false) ||
-					(DSA.verify(pubKey, new DSASignature(r, s), new NativeBigInteger(1, overallHash), true)))) {
-				throw new SSKVerifyException("Signature verification failed for node-level SSK");
+			md.update(nodeKey.getRoutingKey());
+			md.update(overallHash);
+			md.update(bufR);
+			md.update(bufS);
+			ImmutableByteArrayWrapper cacheKey = new ImmutableByteArrayWrapper(md.digest());
+			boolean verified;
+			synchronized(verifiedCache) {
+				verified = verifiedCache.containsKey(cacheKey);
+				// Move it to the top, so popular SSKs stay in the cache
+				if(verified) verifiedCache.push(cacheKey, Boolean.TRUE);
+			}
+			if(!verified) {
+				// Now verify it
+				NativeBigInteger r = new NativeBigInteger(1, bufR);
+				NativeBigInteger s = new NativeBigInteger(1, bufS);
+				NativeBigInteger m = new NativeBigInteger(1, overallHash);
+				DSASignature sig = new DSASignature(r, s);
+				// If the hash fits in 255 bits, clipping it makes no difference, so don't verify twice.
+				if(!(DSA.verify(pubKey, sig, m, false) ||
+						(m.bitLength() > 255 && DSA.verify(pubKey, sig, m, true)))) {
+					throw new SSKVerifyException("Signature verification failed for node-level SSK");
+				}
+				synchronized(verifiedCache) {
+					verifiedCache.push(cacheKey, Boolean.TRUE);
+					while(verifiedCache.size() > VERIFIED_CACHE_SIZE)
+						verifiedCache.popKey();
+				}
 			}
 		}
 		if(!Arrays.equals(ehDocname, nodeKey.encryptedHashedDocname))
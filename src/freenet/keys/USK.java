@@ -3,6 +3,9 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package freenet.keys;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.Arrays;
 
@@ -111,6 +114,31 @@ public class USK extends BaseClientKey {
 		return copy(0);
 	}
 	
+	/**
+	 * Write a compact representation of the key, excluding the edition number.
+	 * @throws IOException If a write failed.
+	 */
+	public void writeRawBinaryKey(DataOutputStream dos) throws IOException {
+		dos.writeByte(cryptoAlgorithm);
+		dos.write(pubKeyHash);
+		dos.write(cryptoKey);
+		dos.writeUTF(siteName);
+	}
+	
+	/**
+	 * Read a key written by writeRawBinaryKey().
+	 * @return The USK, with a suggested edition of 0.
+	 */
+	public static USK readRawBinaryKey(DataInputStream dis) throws IOException {
+		byte cryptoAlgorithm = dis.readByte();
+		byte[] pubKeyHash = new byte[NodeSSK.PUBKEY_HASH_SIZE];
+		dis.readFully(pubKeyHash);
+		byte[] cryptoKey = new byte[ClientSSK.CRYPTO_KEY_LENGTH];
+		dis.readFully(cryptoKey);
+		String siteName = dis.readUTF();
+		return new USK(pubKeyHash, cryptoKey, ClientSSK.getExtraBytes(cryptoAlgorithm), siteName, 0);
+	}
+	
 	public boolean equals(Object o) {
 		if(o == null || !(o instanceof USK)) return false;
 		return equals(o, true);
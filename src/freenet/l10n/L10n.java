@@ -46,6 +46,9 @@ public class L10n {
 	
 	private static SimpleFieldSet translationOverride;
 	private static final Object sync = new Object();
+	/** Incremented whenever the language or an override changes, so callers which
+	 * cache translated strings know when to throw them away. */
+	private static int generation;
 
 	L10n(String selected) {
 		selectedLanguage = selected;
@@ -84,6 +87,7 @@ public class L10n {
 					Logger.normal(CLASS_NAME, "Changing the current language to : " + selectedLanguage);
 
 					currentClass = new L10n(selectedLanguage);	
+					generation++;
 
 					if(currentTranslation == null) {
 						currentClass = new L10n(AVAILABLE_LANGUAGES[0]);	
@@ -95,6 +99,7 @@ public class L10n {
 			}
 
 			currentClass = new L10n(AVAILABLE_LANGUAGES[0]);
+			generation++;
 			Logger.error(CLASS_NAME, "The requested translation is not available!" + selectedLanguage);
 			throw new MissingResourceException("The requested translation ("+selectedLanguage+") hasn't been found!", CLASS_NAME, selectedLanguage);
 		}
@@ -120,6 +125,8 @@ public class L10n {
 				Logger.normal("L10n", "Got a new translation key: set the Override!");
 			}
 
+			generation++;
+
 			// Save the file to disk
 			_saveTranslationFile();
 		}
@@ -322,6 +329,17 @@ public class L10n {
 		}
 	}
 	
+	/**
+	* Return a number which changes whenever the selected language or an override changes
+	*
+	* @return int
+	*/
+	public static int getGeneration() {
+		synchronized (sync) {
+			return generation;
+		}
+	}
+	
 	/**
 	* Load a translation file depending on the given name and using the prefix
 	*
@@ -44,6 +44,7 @@ import freenet.config.LongOption;
 import freenet.config.PersistentConfig;
 import freenet.config.SubConfig;
 import freenet.crypt.DSAPublicKey;
+import freenet.crypt.ForkedRandomSource;
 import freenet.crypt.RandomSource;
 import freenet.crypt.SHA256;
 import freenet.crypt.Yarrow;
@@ -56,6 +57,7 @@ import freenet.io.comm.MessageFilter;
 import freenet.io.comm.Peer;
 import freenet.io.comm.PeerParseException;
 import freenet.io.comm.ReferenceSignatureVerificationException;
+import freenet.io.comm.VirtualNetwork;
 import freenet.io.xfer.PartiallyReceivedBlock;
 import freenet.keys.CHKBlock;
 import freenet.keys.CHKVerifyException;
@@ -248,7 +250,7 @@ public class Node implements TimeSkewDetectorCallback {
 	/* These are private because must be protected by synchronized(this) */
 	private final Environment storeEnvironment;
 	private final EnvironmentMutableConfig envMutableConfig;
-	private final SemiOrderedShutdownHook storeShutdownHook;
+	final SemiOrderedShutdownHook storeShutdownHook;
 	private long databaseMaxMemory;
 	/** The CHK datastore. Long term storage; data should only be inserted here if
 	 * this node is the closest location on the chain so far, and it is on an 
@@ -372,6 +374,9 @@ public class Node implements TimeSkewDetectorCallback {
 	// Helpers
 	public final InetAddress localhostAddress;
 	public final FreenetInetAddress fLocalhostAddress;
+	/** If non-null, we are part of an in-JVM simulation, and talk to the other
+	 * nodes over this rather than over UDP */
+	final VirtualNetwork virtualNetwork;
 
 	private boolean wasTestnet;
 
@@ -520,7 +525,18 @@ public class Node implements TimeSkewDetectorCallback {
 	 * @throws NodeInitException If the node initialization fails.
 	 */
 	 Node(PersistentConfig config, RandomSource random, LoggingConfigHandler lc, NodeStarter ns, Executor executor) throws NodeInitException {
+		 this(config, random, lc, ns, executor, null);
+	 }
+	
+	/**
+	 * Create a Node from a Config object.
+	 * @param virtualNetwork If non-null, use this simulated network instead of
+	 * UDP sockets.
+	 * @throws NodeInitException If the node initialization fails.
+	 */
+	 Node(PersistentConfig config, RandomSource random, LoggingConfigHandler lc, NodeStarter ns, Executor executor, VirtualNetwork virtualNetwork) throws NodeInitException {
 		// Easy stuff
+		this.virtualNetwork = virtualNetwork;
 		logMINOR = Logger.shouldLog(Logger.MINOR, this);
 		String tmp = "Initializing Node using Freenet Build #"+Version.buildNumber()+" r"+Version.cvsRevision+" and freenet-ext Build #"+NodeStarter.extBuildNumber+" r"+NodeStarter.extRevisionNumber+" with "+System.getProperty("java.vm.vendor")+" JVM version "+System.getProperty("java.vm.version")+" running on "+System.getProperty("os.arch")+' '+System.getProperty("os.name")+' '+System.getProperty("os.version");
 		Logger.normal(this, tmp);
@@ -2277,8 +2293,13 @@ public class Node implements TimeSkewDetectorCallback {
 		config.store();
 		
 		// TODO: find a smarter way of doing it not involving any casting
-		Yarrow myRandom = (Yarrow) random;
-		myRandom.write_seed(myRandom.seedfile, true);
+		RandomSource r = random;
+		if(r instanceof ForkedRandomSource)
+			r = ((ForkedRandomSource) r).getMaster();
+		if(r instanceof Yarrow) {
+			Yarrow myRandom = (Yarrow) r;
+			myRandom.write_seed(myRandom.seedfile, true);
+		}
 	}
 
 	public NodeUpdateManager getNodeUpdater(){
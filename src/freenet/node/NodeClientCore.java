@@ -8,6 +8,7 @@ import freenet.client.ArchiveManager;
 import freenet.client.HighLevelSimpleClient;
 import freenet.client.HighLevelSimpleClientImpl;
 import freenet.client.InsertContext;
+import freenet.client.MetadataCache;
 import freenet.client.async.BackgroundBlockEncoder;
 import freenet.client.async.HealingQueue;
 import freenet.client.async.SimpleHealingQueue;
@@ -49,6 +50,7 @@ import freenet.support.Logger;
 import freenet.support.SimpleFieldSet;
 import freenet.support.api.BooleanCallback;
 import freenet.support.api.IntCallback;
+import freenet.support.api.LongCallback;
 import freenet.support.api.BucketFactory;
 import freenet.support.api.StringArrCallback;
 import freenet.support.api.StringCallback;
@@ -57,6 +59,7 @@ import freenet.support.io.FilenameGenerator;
 import freenet.support.io.PaddedEphemerallyEncryptedBucketFactory;
 import freenet.support.io.PersistentEncryptedTempBucketFactory;
 import freenet.support.io.PersistentTempBucketFactory;
+import freenet.support.io.SlabStore;
 import freenet.support.io.TempBucketFactory;
 
 /**
@@ -67,6 +70,7 @@ public class NodeClientCore implements Persistable {
 	private static boolean logMINOR;
 	public final USKManager uskManager;
 	final ArchiveManager archiveManager;
+	public final MetadataCache metadataCache;
 	public final RequestStarterGroup requestStarters;
 	private final HealingQueue healingQueue;
 	/** Must be included as a hidden field in order for any dangerous HTTP operation to complete successfully. */
@@ -80,6 +84,8 @@ public class NodeClientCore implements Persistable {
 	private boolean uploadAllowedEverywhere;
 	final FilenameGenerator tempFilenameGenerator;
 	public final BucketFactory tempBucketFactory;
+	/** The factory underneath tempBucketFactory. Only for statistics: its buckets are not encrypted! */
+	private final TempBucketFactory unencryptedTempBucketFactory;
 	final Node node;
 	final NodeStats nodeStats;
 	public final RandomSource random;
@@ -112,6 +118,8 @@ public class NodeClientCore implements Persistable {
 	static final long MAX_ARCHIVE_SIZE = 2*1024*1024; // ??? FIXME
 	static final long MAX_ARCHIVED_FILE_SIZE = 1024*1024; // arbitrary... FIXME
 	static final int MAX_CACHED_ELEMENTS = 256*1024; // equally arbitrary! FIXME hopefully we can cache many of these though
+	static final int MAX_CACHED_METADATA = 1024;
+	static final long MAX_CACHED_METADATA_BYTES = 4*1024*1024; // encoded; parsed is a few times larger
 
 	NodeClientCore(Node node, Config config, SubConfig nodeConfig, File nodeDir, int portNumber, int sortOrder, SimpleFieldSet oldThrottleFS) throws NodeInitException {
 		this.node = node;
@@ -189,7 +197,38 @@ public class NodeClientCore implements Persistable {
 			throw new NodeInitException(NodeInitException.EXIT_BAD_TEMP_DIR, msg);
 		}
 
-		tempBucketFactory = new PaddedEphemerallyEncryptedBucketFactory(new TempBucketFactory(tempFilenameGenerator), random, 1024);
+		SlabStore tempSlabStore;
+		try {
+			tempSlabStore = new SlabStore(tempDir, "temp-slab-", false);
+		} catch (IOException e) {
+			String msg = "Could not create temporary slab store: "+e;
+			throw new NodeInitException(NodeInitException.EXIT_BAD_TEMP_DIR, msg);
+		}
+		nodeConfig.register("ramBucketPoolSize", "10M", sortOrder++, true, false, "NodeClientCore.ramBucketPoolSize",
+				"NodeClientCore.ramBucketPoolSizeLong", new LongCallback() {
+					public long get() {
+						return unencryptedTempBucketFactory.getMaxRAMUsed();
+					}
+					public void set(long val) throws InvalidConfigValueException {
+						if(val < 0) throw new InvalidConfigValueException(L10n.getString("Node.mustBePositive"));
+						unencryptedTempBucketFactory.setMaxRAMUsed(val);
+					}
+		});
+		
+		nodeConfig.register("maxRAMBucketSize", "64K", sortOrder++, true, false, "NodeClientCore.maxRAMBucketSize",
+				"NodeClientCore.maxRAMBucketSizeLong", new LongCallback() {
+					public long get() {
+						return unencryptedTempBucketFactory.getMaxRAMBucketSize();
+					}
+					public void set(long val) throws InvalidConfigValueException {
+						if(val < 0) throw new InvalidConfigValueException(L10n.getString("Node.mustBePositive"));
+						unencryptedTempBucketFactory.setMaxRAMBucketSize(val);
+					}
+		});
+		
+		unencryptedTempBucketFactory = new TempBucketFactory(tempFilenameGenerator, tempSlabStore, 
+				nodeConfig.getLong("ramBucketPoolSize"), nodeConfig.getLong("maxRAMBucketSize"));
+		tempBucketFactory = new PaddedEphemerallyEncryptedBucketFactory(unencryptedTempBucketFactory, random, 1024);
 		
 		// Downloads directory
 		
@@ -267,9 +306,15 @@ public class NodeClientCore implements Persistable {
 		setUploadAllowedDirs(nodeConfig.getStringArr("uploadAllowedDirs"));
 		
 		archiveManager = new ArchiveManager(MAX_ARCHIVE_HANDLERS, MAX_CACHED_ARCHIVE_DATA, MAX_ARCHIVE_SIZE, MAX_ARCHIVED_FILE_SIZE, MAX_CACHED_ELEMENTS, random, tempFilenameGenerator);
+		metadataCache = new MetadataCache(MAX_CACHED_METADATA, MAX_CACHED_METADATA_BYTES);
 		Logger.normal(this, "Initializing USK Manager");
 		System.out.println("Initializing USK Manager");
-		uskManager = new USKManager(this);
+		uskManager = new USKManager(this, new File(nodeDir, "usk-editions-"+portNumber));
+		node.storeShutdownHook.addEarlyJob(new Thread() {
+			public void run() {
+				uskManager.stop();
+			}
+		});
 		
 		healingQueue = new SimpleHealingQueue(requestStarters.chkPutScheduler,
 				new InsertContext(tempBucketFactory, tempBucketFactory, persistentTempBucketFactory, 
@@ -1067,6 +1112,11 @@ public class NodeClientCore implements Persistable {
 		return node.executor;
 	}
 
+	/** For statistics only */
+	public TempBucketFactory getTempBucketFactoryForStats() {
+		return unencryptedTempBucketFactory;
+	}
+
 	public File getPersistentTempDir() {
 		return persistentTempBucketFactory.getDir();
 	}
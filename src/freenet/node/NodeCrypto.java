@@ -10,6 +10,7 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
+import java.net.SocketException;
 import java.security.MessageDigest;
 import java.util.zip.DeflaterOutputStream;
 
@@ -23,6 +24,7 @@ import freenet.crypt.Global;
 import freenet.crypt.RandomSource;
 import freenet.crypt.SHA256;
 import freenet.io.comm.FreenetInetAddress;
+import freenet.io.comm.PacketSocketHandler;
 import freenet.io.comm.Peer;
 import freenet.io.comm.UdpSocketHandler;
 import freenet.keys.FreenetURI;
@@ -43,7 +45,7 @@ class NodeCrypto {
 	final boolean isOpennet;
 	final RandomSource random;
 	/** The object which handles our specific UDP port, pulls messages from it, feeds them to the packet mangler for decryption etc */
-	UdpSocketHandler socket;
+	PacketSocketHandler socket;
 	public FNPPacketMangler packetMangler;
 	final FreenetInetAddress bindto;
 	// FIXME: abstract out address stuff? Possibly to something like NodeReference?
@@ -95,7 +97,7 @@ class NodeCrypto {
 		
 		bindto = config.getBindTo();
 		
-		UdpSocketHandler u = null;
+		PacketSocketHandler u = null;
 		
 		if(port > 65535) {
 			throw new NodeInitException(NodeInitException.EXIT_IMPOSSIBLE_USM_PORT, "Impossible port number: "+port);
@@ -104,7 +106,7 @@ class NodeCrypto {
 			for(int i=0;i<200000;i++) {
 				int portNo = 1024 + random.nextInt(65535-1024);
 				try {
-					u = new UdpSocketHandler(portNo, bindto.getAddress(), node);
+					u = createSocket(portNo);
 					port = u.getPortNumber();
 					break;
 				} catch (Exception e) {
@@ -118,7 +120,7 @@ class NodeCrypto {
 				throw new NodeInitException(NodeInitException.EXIT_NO_AVAILABLE_UDP_PORTS, "Could not find an available UDP port number for FNP (none specified)");
 		} else {
 			try {
-				u = new UdpSocketHandler(port, bindto.getAddress(), node);
+				u = createSocket(port);
 			} catch (Exception e) {
 				throw new NodeInitException(NodeInitException.EXIT_IMPOSSIBLE_USM_PORT, "Could not bind to port: "+port+" (node already running?)");
 			}
@@ -130,7 +132,7 @@ class NodeCrypto {
 		portNumber = port;
 		config.setPort(port);
 		
-		((UdpSocketHandler)socket).setDropProbability(config.getDropProbability());
+		socket.setDropProbability(config.getDropProbability());
 		
 		socket.setLowLevelFilter(packetMangler = new FNPPacketMangler(node, this, socket));
 		
@@ -149,6 +151,15 @@ class NodeCrypto {
 			config.maybeStarted(this);
 		}
 	}
+	/**
+	 * Bind to a port: a real UDP socket, or a virtual one if the node is part of
+	 * an in-JVM simulation.
+	 */
+	private PacketSocketHandler createSocket(int port) throws SocketException {
+		if(node.virtualNetwork != null)
+			return node.virtualNetwork.createHandler(port);
+		return new UdpSocketHandler(port, bindto.getAddress(), node);
+	}
 	
 	/**
 	 * Read the cryptographic keys etc from a SimpleFieldSet
@@ -14,8 +14,10 @@ import freenet.config.InvalidConfigValueException;
 import freenet.config.PersistentConfig;
 import freenet.config.SubConfig;
 import freenet.crypt.DiffieHellman;
+import freenet.crypt.ForkedRandomSource;
 import freenet.crypt.RandomSource;
 import freenet.crypt.Yarrow;
+import freenet.io.comm.VirtualNetwork;
 import freenet.support.Executor;
 import freenet.support.Logger;
 import freenet.support.PooledExecutor;
@@ -115,7 +117,7 @@ public class NodeStarter
     	getExtBuild();
     	
     	// Setup RNG
-    	RandomSource random = new Yarrow();
+    	RandomSource random = new ForkedRandomSource(new Yarrow());
     	
     	DiffieHellman.init(random);
     	 
@@ -283,7 +285,7 @@ public class NodeStarter
     	java.security.Security.setProperty("networkaddress.cache.negative.ttl" , "0");
     	  	
     	// Setup RNG
-    	RandomSource random = new Yarrow();
+    	RandomSource random = new ForkedRandomSource(new Yarrow());
     	
     	DiffieHellman.init(random);
    	 
@@ -332,6 +334,17 @@ public class NodeStarter
 	public static Node createTestNode(int port, String testName, boolean doClient, 
 			boolean doSwapping, boolean disableProbabilisticHTLs, short maxHTL,
 			int dropProb, RandomSource random, Executor executor) throws NodeInitException {
+		return createTestNode(port, testName, doClient, doSwapping, disableProbabilisticHTLs, maxHTL, dropProb, random, executor, null);
+	}
+	
+	/**
+	 * Create a test node on a simulated network.
+	 * @param network If non-null, the node talks to the other nodes in the JVM
+	 * over this rather than over UDP.
+	 */
+	public static Node createTestNode(int port, String testName, boolean doClient, 
+			boolean doSwapping, boolean disableProbabilisticHTLs, short maxHTL,
+			int dropProb, RandomSource random, Executor executor, VirtualNetwork network) throws NodeInitException {
 		
 		File baseDir = new File(testName);
 		File portDir = new File(baseDir, Integer.toString(port));
@@ -359,7 +372,7 @@ public class NodeStarter
 		
 		PersistentConfig config = new PersistentConfig(configFS);
 		
-		return new Node(config, random, null, null, executor);
+		return new Node(config, random, null, null, executor, network);
 	}
 	
 }
@@ -149,6 +149,9 @@ public class NodeStats implements Persistable {
 	
 	final NodePinger nodePinger;
 	
+	/** Verifies SSK blocks off the request threads */
+	public final SSKVerifier sskVerifier;
+	
 	final StringCounter preemptiveRejectReasons;
 
 	// Enable this if you run into hard to debug OOMs.
@@ -176,6 +179,7 @@ public class NodeStats implements Persistable {
 		throttledPacketSendAverage =
 			new TimeDecayingRunningAverage(1, 10*60*1000 /* should be significantly longer than a typical transfer */, 0, Long.MAX_VALUE, node);
 		nodePinger = new NodePinger(node);
+		sskVerifier = new SSKVerifier(node);
 
 		previous_input_stat = 0;
 		previous_output_stat = 0;
@@ -312,6 +316,7 @@ public class NodeStats implements Persistable {
 
 	public void start() throws NodeInitException {
 		nodePinger.start();
+		sskVerifier.start();
 		persister.start();
 		node.getTicker().queueTimedJob(throttledPacketSendAverageIdleUpdater, CHECK_THROTTLE_TIME);
 	}
@@ -361,6 +366,13 @@ public class NodeStats implements Persistable {
 			return ">threadLimit ("+threadCount+'/'+threadLimit+')';
 		}
 		
+		// SSK verification is CPU bound; don't take on more than we can verify.
+		if(isSSK && sskVerifier.isOverloaded()) {
+			pInstantRejectIncoming.report(1.0);
+			preemptiveRejectReasons.inc(">SSK verify queue");
+			return ">SSK verify queue ("+sskVerifier.getQueueLength()+')';
+		}
+		
 		double bwlimitDelayTime = throttledPacketSendAverage.currentValue();
 		
 		// If no recent reports, no packets have been sent; correct the average downwards.
@@ -664,12 +676,9 @@ public class NodeStats implements Persistable {
 		return result;
 	}
 
-	public void waitUntilNotOverloaded(boolean isInsert) {
-		while(threadLimit < getActiveThreadCount()){
-			try{
-				Thread.sleep(5000);
-			} catch (InterruptedException e) {}
-		}
+	/** Are there more threads running than the limit? If so we shouldn't start any more local requests. */
+	public boolean isOverThreadLimit() {
+		return threadLimit < getActiveThreadCount();
 	}
 
 	
@@ -889,6 +898,9 @@ public class NodeStats implements Persistable {
 		fs.put("maximumJavaMemory", maxJavaMem);
 		fs.put("availableCPUs", availableCpus);
 		fs.put("runningThreadCount", getActiveThreadCount());
+		fs.put("sskVerifyQueueLength", sskVerifier.getQueueLength());
+		fs.put("sskVerifyLatency", sskVerifier.getAverageLatency());
+		fs.put("sskVerified", sskVerifier.getVerifiedCount());
 		
 		return fs;
 	}
@@ -53,6 +53,11 @@ public class PeerManager {
     /** All the peers we are actually connected to */
     PeerNode[] connectedPeers;
     
+    /** connectedPeers sorted by location, for routing. Null if it needs to be rebuilt. */
+    private RoutingSnapshot routingSnapshot;
+    /** Incremented by invalidateRoutingSnapshot(), so we don't cache a snapshot built from stale locations. */
+    private int routingSnapshotGeneration;
+    
     private String darkFilename;
     private String openFilename;
 
@@ -245,6 +250,7 @@ public class PeerManager {
         PeerNode[] newConnectedPeers = new PeerNode[a.size()];
         newConnectedPeers = (PeerNode[]) a.toArray(newConnectedPeers);
 	    connectedPeers = newConnectedPeers;
+	    routingSnapshot = null;
         
         // removing from myPeers
         PeerNode[] newMyPeers = new PeerNode[myPeers.length-1];
@@ -280,6 +286,7 @@ public class PeerManager {
 			PeerNode[] newConnectedPeers = new PeerNode[a.size()];
 			newConnectedPeers = (PeerNode[]) a.toArray(newConnectedPeers);
 			connectedPeers = newConnectedPeers;
+			routingSnapshot = null;
 		}
 		updatePMUserAlert();
 		return true;
@@ -314,6 +321,7 @@ public class PeerManager {
         System.arraycopy(connectedPeers, 0, newConnectedPeers, 0, connectedPeers.length);
         newConnectedPeers[connectedPeers.length] = pn;
         connectedPeers = newConnectedPeers;
+        routingSnapshot = null;
         if(logMINOR) Logger.minor(this, "Connected peers: "+connectedPeers.length);
     	}
         updatePMUserAlert();
@@ -469,6 +477,7 @@ public class PeerManager {
         newConnectedPeers = (PeerNode[]) v.toArray(newConnectedPeers);
         if(logMINOR) Logger.minor(this, "Connected peers (in getRandomPeer): "+newConnectedPeers.length+" was "+connectedPeers.length);
         connectedPeers = newConnectedPeers;
+        routingSnapshot = null;
         if(lengthWithoutExcluded == 0) return null;
         return connectedPeers[node.random.nextInt(lengthWithoutExcluded)];
     }
@@ -595,65 +604,42 @@ public class PeerManager {
 	 * this array. Remove the location of the peer we pick from it.
      */
     private PeerNode _closerPeer(PeerNode pn, Set routedTo, Set notIgnored, double target, boolean ignoreSelf, boolean ignoreBackedOff, int minVersion, Vector addUnpickedLocsTo, double maxDistance) {
-        PeerNode[] peers;  
-        synchronized (this) {
-			peers = connectedPeers;
-		}
-        if(logMINOR) Logger.minor(this, "Choosing closest peer: connectedPeers="+peers.length);
-        double bestDiff = Double.MAX_VALUE;
-        double maxDiff = 0.0;
+        RoutingSnapshot snapshot = getRoutingSnapshot();
+        if(logMINOR) Logger.minor(this, "Choosing closest peer: connectedPeers="+snapshot.size());
+        double maxDiff = maxDistance;
         if(!ignoreSelf)
-            maxDiff = Location.distance(node.lm.getLocation(), target);
-        PeerNode best = null;
-        double bestLoc = -2;
-        int count = 0;
-        for(int i=0;i<peers.length;i++) {
-            PeerNode p = peers[i];
-            if(routedTo.contains(p)) {
-            	if(logMINOR) Logger.minor(this, "Skipping (already routed to): "+p.getPeer());
-            	continue;
-            }
-            if(p == pn) {
-            	if(logMINOR) Logger.minor(this, "Skipping (req came from): "+p.getPeer());
-            	continue;
-            }
-            if(!p.isRoutable()) {
-            	if(logMINOR) Logger.minor(this, "Skipping (not connected): "+p.getPeer());
-            	continue;
-            }
-            if((!ignoreBackedOff) && p.isRoutingBackedOff()) {
-            	if(logMINOR) Logger.minor(this, "Skipping (routing backed off): "+p.getPeer());
-            	continue;
-            }
-            if(minVersion > 0 && Version.getArbitraryBuildNumber(p.getVersion()) < minVersion) {
-            	if(logMINOR) Logger.minor(this, "Skipping old version: "+p.getPeer());
-            	continue;
-            }
-            count++;
-            double diff = Location.distance(p, target);
-            if(diff > maxDistance) continue;
-            if(logMINOR) Logger.minor(this, "p.loc="+p.getLocation()+", target="+target+", d="+Location.distance(p.getLocation(), target)+" usedD="+diff+" for "+p.getPeer());
-            if((!ignoreSelf) && (diff > maxDiff)) {
-            	if(logMINOR) Logger.minor(this, "Ignoring because >maxDiff="+maxDiff);
-            	continue;
-            }
-            double loc = p.getLocation();
-            if(diff < bestDiff) {
-            	bestLoc = loc;
-                best = p;
-                bestDiff = diff;
-                if(logMINOR) Logger.minor(this, "New best: "+diff+" ("+p.getLocation()+" for "+p.getPeer());
-            }
-           	if(addUnpickedLocsTo != null) {
-           		Double d = new Double(loc);
-           		// Here we can directly compare double's because they aren't processed in any way, and are finite and (probably) nonzero.
-           		if(!addUnpickedLocsTo.contains(d))
-           			addUnpickedLocsTo.add(d);
-           	}
-        }
-        if(addUnpickedLocsTo != null && bestLoc >= 0)
-        	addUnpickedLocsTo.remove(new Double(bestLoc));
-        return best;
+            maxDiff = Math.min(maxDiff, Location.distance(node.lm.getLocation(), target));
+        int best = snapshot.closest(target, pn, routedTo, ignoreBackedOff, minVersion, maxDiff, addUnpickedLocsTo);
+        if(best == -1) return null;
+        PeerNode p = snapshot.getPeer(best);
+        if(logMINOR) Logger.minor(this, "Best: "+Location.distance(p, target)+" ("+p.getLocation()+" for "+p.getPeer());
+        return p;
+    }
+
+    private RoutingSnapshot getRoutingSnapshot() {
+    	PeerNode[] peers;
+    	int generation;
+    	synchronized(this) {
+    		if(routingSnapshot != null) return routingSnapshot;
+    		peers = connectedPeers;
+    		generation = routingSnapshotGeneration;
+    	}
+    	// Don't call into PeerNode's with the lock held
+    	RoutingSnapshot snapshot = new RoutingSnapshot(peers);
+    	synchronized(this) {
+    		if(generation == routingSnapshotGeneration && peers == connectedPeers)
+    			routingSnapshot = snapshot;
+    	}
+    	return snapshot;
+    }
+    
+    /**
+     * Called when a peer's location or version changes, so we don't route
+     * according to the old one.
+     */
+    synchronized void invalidateRoutingSnapshot() {
+    	routingSnapshot = null;
+    	routingSnapshotGeneration++;
     }
 
     /**
@@ -1222,7 +1208,8 @@ public class PeerManager {
 				if(pn.isConnected()) conn.add(pn);
 			}
 			myPeers = (PeerNode[]) keep.toArray(new PeerNode[keep.size()]);
-			connectedPeers = (PeerNode[]) keep.toArray(new PeerNode[conn.size()]);
+			connectedPeers = (PeerNode[]) conn.toArray(new PeerNode[conn.size()]);
+			routingSnapshot = null;
 		}
 		updatePMUserAlert();
 	}
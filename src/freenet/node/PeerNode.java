@@ -1244,6 +1244,7 @@ public abstract class PeerNode implements PeerContext, USKRetrieverCallback {
     	synchronized(this) {
 			currentLocation = newLoc;
 		}
+    	node.peers.invalidateRoutingSnapshot();
         node.peers.writePeers();
     }
 
@@ -1681,7 +1682,10 @@ public abstract class PeerNode implements PeerContext, USKRetrieverCallback {
     private void processNewNoderef(SimpleFieldSet fs, boolean forARK) throws FSParseException {
         if(logMINOR) Logger.minor(this, "Parsing: \n"+fs);
         boolean changedAnything = innerProcessNewNoderef(fs, forARK);
-        if(changedAnything) node.peers.writePeers();
+        if(changedAnything) {
+        	node.peers.invalidateRoutingSnapshot();
+        	node.peers.writePeers();
+        }
     }
 
     /** The synchronized part of processNewNoderef 
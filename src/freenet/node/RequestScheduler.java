@@ -9,6 +9,13 @@ public interface RequestScheduler {
 
 	public SendableRequest removeFirst();
 
+	/**
+	 * Remove up to reqs.length requests in one pass, chosen just as removeFirst() would
+	 * choose them one at a time.
+	 * @return The number of requests put at the start of reqs.
+	 */
+	public int removeFirst(SendableRequest[] reqs);
+
 	/** Tell the scheduler that a request from a specific RandomGrabArray succeeded.
 	 * Definition of "succeeded" will vary, but the point is most schedulers will run another
 	 * request from the parentGrabArray in the near future on the theory that if one works,
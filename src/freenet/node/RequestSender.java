@@ -483,7 +483,7 @@ public final class RequestSender implements Runnable, ByteCounter {
 
     private void finishSSK(PeerNode next) {
     	try {
-			block = new SSKBlock(sskData, headers, (NodeSSK)key, false);
+			block = node.nodeStats.sskVerifier.verify(sskData, headers, (NodeSSK)key);
 			node.storeShallow(block);
 			if(node.random.nextInt(RANDOM_REINSERT_INTERVAL) == 0)
 				node.queueRandomReinsert(block);
@@ -530,7 +530,7 @@ public final class RequestSender implements Runnable, ByteCounter {
 				node.queueRandomReinsert(block);
     	} else if (key instanceof NodeSSK) {
     		try {
-				node.storeShallow(new SSKBlock(data, headers, (NodeSSK)key, false));
+				node.storeShallow(node.nodeStats.sskVerifier.verify(data, headers, (NodeSSK)key));
 			} catch (KeyCollisionException e) {
 				Logger.normal(this, "Collision on "+this);
 			}
@@ -13,6 +13,10 @@ import freenet.support.math.RunningAverage;
  * Nobody starts a request directly, you have to go through RequestStarter.
  * And you have to provide a RequestStarterClient. We do round robin between 
  * clients on the same priority level.
+ * 
+ * We keep up to a window's worth of requests running at once, and start another as
+ * soon as one finishes. The window grows as requests complete and shrinks when they
+ * are rejected due to overload (AIMD), so we send as fast as the network will take them.
  */
 public class RequestStarter implements Runnable {
 
@@ -40,7 +44,8 @@ public class RequestStarter implements Runnable {
 		return !((prio < MAXIMUM_PRIORITY_CLASS) || (prio > MINIMUM_PRIORITY_CLASS));
 	}
 	
-	final BaseRequestThrottle throttle;
+	/** How many requests we may have running at once */
+	final ThrottleWindowManager window;
 	final TokenBucket inputBucket;
 	final TokenBucket outputBucket;
 	final RunningAverage averageInputBytesPerRequest;
@@ -48,20 +53,21 @@ public class RequestStarter implements Runnable {
 	RequestScheduler sched;
 	final NodeClientCore core;
 	final NodeStats stats;
-	private long sentRequestTime;
-	private final boolean isInsert;
+	/** Most requests to take from the scheduler in one go */
+	static final int MAX_BATCH = 32;
+	/** Number of requests started and not yet finished */
+	private int running;
 	
-	public RequestStarter(NodeClientCore node, BaseRequestThrottle throttle, String name, TokenBucket outputBucket, TokenBucket inputBucket,
-			RunningAverage averageOutputBytesPerRequest, RunningAverage averageInputBytesPerRequest, boolean isInsert) {
+	public RequestStarter(NodeClientCore node, ThrottleWindowManager window, String name, TokenBucket outputBucket, TokenBucket inputBucket,
+			RunningAverage averageOutputBytesPerRequest, RunningAverage averageInputBytesPerRequest) {
 		this.core = node;
 		this.stats = core.nodeStats;
-		this.throttle = throttle;
+		this.window = window;
 		this.name = name;
 		this.outputBucket = outputBucket;
 		this.inputBucket = inputBucket;
 		this.averageOutputBytesPerRequest = averageOutputBytesPerRequest;
 		this.averageInputBytesPerRequest = averageInputBytesPerRequest;
-		this.isInsert = isInsert;
 	}
 
 	void setScheduler(RequestScheduler sched) {
@@ -81,56 +87,35 @@ public class RequestStarter implements Runnable {
 	}
 	
 	void realRun() {
-		SendableRequest req = null;
+		SendableRequest[] reqs = null;
+		int count = 0;
 		while(true) {
 			boolean logMINOR = Logger.shouldLog(Logger.MINOR, this);
-			if(req == null) req = sched.removeFirst();
-			if(req != null) {
-				if(logMINOR) Logger.minor(this, "Running "+req);
-				// Create a thread to handle starting the request, and the resulting feedback
-				while(true) {
-					try {
-						core.getExecutor().execute(new SenderThread(req), "RequestStarter$SenderThread for "+req);
-						if(logMINOR) Logger.minor(this, "Started "+req);
-						break;
-					} catch (OutOfMemoryError e) {
-						OOMHandler.handleOOM(e);
-						System.err.println("Will retry above failed operation...");
-						// Possibly out of threads
-						try {
-							Thread.sleep(5000);
-						} catch (InterruptedException e1) {
-							// Ignore
-						}
-					}
+			if(count == 0) {
+				int free = waitForSlots(logMINOR);
+				reqs = new SendableRequest[Math.min(free, MAX_BATCH)];
+				count = sched.removeFirst(reqs);
+			}
+			if(count > 0) {
+				if(logMINOR) Logger.minor(this, "Running "+count+" requests");
+				synchronized(this) {
+					running += count;
 				}
-				sentRequestTime = System.currentTimeMillis();
-				// Wait
-				long delay = throttle.getDelay();
-				if(logMINOR) Logger.minor(this, "Delay="+delay+" from "+throttle);
-				long sleepUntil = sentRequestTime + delay;
-				inputBucket.blockingGrab((int)(Math.max(0, averageInputBytesPerRequest.currentValue())));
-				outputBucket.blockingGrab((int)(Math.max(0, averageOutputBytesPerRequest.currentValue())));
-				long now;
-				do {
-					now = System.currentTimeMillis();
-					if(now < sleepUntil)
-						try {
-							Thread.sleep(sleepUntil - now);
-							if(logMINOR) Logger.minor(this, "Slept: "+(sleepUntil-now)+"ms");
-						} catch (InterruptedException e) {
-							// Ignore
-						}
-				} while(now < sleepUntil);
-				stats.waitUntilNotOverloaded(isInsert);
+				for(int i=0;i<count;i++)
+					startRequest(reqs[i], logMINOR);
+				// Only blocks if local requests are using more than the bandwidth limit
+				inputBucket.blockingGrab(count * (long)Math.max(0, averageInputBytesPerRequest.currentValue()));
+				outputBucket.blockingGrab(count * (long)Math.max(0, averageOutputBytesPerRequest.currentValue()));
 				return;
 			} else {
 				if(logMINOR) Logger.minor(this, "Waiting...");				
 				// Always take the lock on RequestStarter first. AFAICS we don't synchronize on RequestStarter anywhere else.
 				// Nested locks here prevent extra latency when there is a race, and therefore allow us to sleep indefinitely
 				synchronized(this) {
-					req = sched.removeFirst();
-					if(req != null) continue;
+					// Size the batch again, rather than trusting the count from before we looked.
+					reqs = new SendableRequest[Math.min(waitForSlots(logMINOR), MAX_BATCH)];
+					count = sched.removeFirst(reqs);
+					if(count > 0) continue;
 					try {
 						wait(100*1000); // as close to indefinite as I'm comfortable with! Toad
 					} catch (InterruptedException e) {
@@ -141,6 +126,60 @@ public class RequestStarter implements Runnable {
 		}
 	}
 	
+	private void startRequest(SendableRequest req, boolean logMINOR) {
+		// Create a thread to handle starting the request, and the resulting feedback
+		while(true) {
+			try {
+				core.getExecutor().execute(new SenderThread(req), "RequestStarter$SenderThread for "+req);
+				if(logMINOR) Logger.minor(this, "Started "+req);
+				return;
+			} catch (OutOfMemoryError e) {
+				OOMHandler.handleOOM(e);
+				System.err.println("Will retry above failed operation...");
+				// Possibly out of threads
+				try {
+					Thread.sleep(5000);
+				} catch (InterruptedException e1) {
+					// Ignore
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Wait until fewer requests are running than the window allows, and the node isn't
+	 * over its thread limit.
+	 * @return The number of requests we can start.
+	 */
+	private synchronized int waitForSlots(boolean logMINOR) {
+		while(true) {
+			int max = getMaxRunning();
+			boolean overThreadLimit = stats.isOverThreadLimit();
+			if(running < max && !overThreadLimit) return max - running;
+			if(logMINOR) Logger.minor(this, "Waiting for a slot: running "+running+" of "+max+(overThreadLimit ? ", over thread limit" : ""));
+			try {
+				// The window may also grow because more peers come out of backoff, so don't wait forever.
+				wait(overThreadLimit ? 5000 : 1000);
+			} catch (InterruptedException e) {
+				// Ignore
+			}
+		}
+	}
+	
+	private synchronized void requestFinished() {
+		running--;
+		notifyAll();
+	}
+	
+	/** The most requests we will have running at once, right now */
+	public int getMaxRunning() {
+		return (int) Math.max(1, window.currentValue());
+	}
+	
+	public synchronized int countRunning() {
+		return running;
+	}
+	
 	public void run() {
 		while(true) {
 			try {
@@ -162,10 +201,14 @@ public class RequestStarter implements Runnable {
 		}
 
 		public void run() {
-			if(!req.send(core, sched))
-				Logger.normal(this, "run() not able to send a request");
-			if(Logger.shouldLog(Logger.MINOR, this)) 
-				Logger.minor(this, "Finished "+req);
+			try {
+				if(!req.send(core, sched))
+					Logger.normal(this, "run() not able to send a request");
+				if(Logger.shouldLog(Logger.MINOR, this)) 
+					Logger.minor(this, "Finished "+req);
+			} finally {
+				requestFinished();
+			}
 		}
 		
 	}
@@ -44,27 +44,27 @@ public class RequestStarterGroup {
 		throttleWindowInsert = new ThrottleWindowManager(2.0, fs == null ? null : fs.subset("ThrottleWindowInsert"), node);
 		throttleWindowRequest = new ThrottleWindowManager(2.0, fs == null ? null : fs.subset("ThrottleWindowRequest"), node);
 		chkRequestThrottle = new MyRequestThrottle(throttleWindow, 5000, "CHK Request", fs == null ? null : fs.subset("CHKRequestThrottle"), 32768);
-		chkRequestStarter = new RequestStarter(core, chkRequestThrottle, "CHK Request starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localChkFetchBytesSentAverage, stats.localChkFetchBytesReceivedAverage, false);
+		chkRequestStarter = new RequestStarter(core, new ThrottleWindowManager(2.0, fs == null ? null : fs.subset("CHKRequestWindow"), node), "CHK Request starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localChkFetchBytesSentAverage, stats.localChkFetchBytesReceivedAverage);
 		chkFetchScheduler = new ClientRequestScheduler(false, false, random, chkRequestStarter, node, schedulerConfig, "CHKrequester");
 		chkRequestStarter.setScheduler(chkFetchScheduler);
 		chkRequestStarter.start();
 		//insertThrottle = new ChainedRequestThrottle(10000, 2.0F, requestThrottle);
 		// FIXME reenable the above
 		chkInsertThrottle = new MyRequestThrottle(throttleWindow, 20000, "CHK Insert", fs == null ? null : fs.subset("CHKInsertThrottle"), 32768);
-		chkInsertStarter = new RequestStarter(core, chkInsertThrottle, "CHK Insert starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localChkInsertBytesSentAverage, stats.localChkInsertBytesReceivedAverage, true);
+		chkInsertStarter = new RequestStarter(core, new ThrottleWindowManager(2.0, fs == null ? null : fs.subset("CHKInsertWindow"), node), "CHK Insert starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localChkInsertBytesSentAverage, stats.localChkInsertBytesReceivedAverage);
 		chkPutScheduler = new ClientRequestScheduler(true, false, random, chkInsertStarter, node, schedulerConfig, "CHKinserter");
 		chkInsertStarter.setScheduler(chkPutScheduler);
 		chkInsertStarter.start();
 
 		sskRequestThrottle = new MyRequestThrottle(throttleWindow, 5000, "SSK Request", fs == null ? null : fs.subset("SSKRequestThrottle"), 1024);
-		sskRequestStarter = new RequestStarter(core, sskRequestThrottle, "SSK Request starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localSskFetchBytesSentAverage, stats.localSskFetchBytesReceivedAverage, false);
+		sskRequestStarter = new RequestStarter(core, new ThrottleWindowManager(2.0, fs == null ? null : fs.subset("SSKRequestWindow"), node), "SSK Request starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localSskFetchBytesSentAverage, stats.localSskFetchBytesReceivedAverage);
 		sskFetchScheduler = new ClientRequestScheduler(false, true, random, sskRequestStarter, node, schedulerConfig, "SSKrequester");
 		sskRequestStarter.setScheduler(sskFetchScheduler);
 		sskRequestStarter.start();
 		//insertThrottle = new ChainedRequestThrottle(10000, 2.0F, requestThrottle);
 		// FIXME reenable the above
 		sskInsertThrottle = new MyRequestThrottle(throttleWindow, 20000, "SSK Insert", fs == null ? null : fs.subset("SSKInsertThrottle"), 1024);
-		sskInsertStarter = new RequestStarter(core, sskInsertThrottle, "SSK Insert starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localSskInsertBytesSentAverage, stats.localSskFetchBytesReceivedAverage, true);
+		sskInsertStarter = new RequestStarter(core, new ThrottleWindowManager(2.0, fs == null ? null : fs.subset("SSKInsertWindow"), node), "SSK Insert starter ("+portNumber+ ')', stats.requestOutputThrottle, stats.requestInputThrottle, stats.localSskInsertBytesSentAverage, stats.localSskFetchBytesReceivedAverage);
 		sskPutScheduler = new ClientRequestScheduler(true, true, random, sskInsertStarter, node, schedulerConfig, "SSKinserter");
 		sskInsertStarter.setScheduler(sskPutScheduler);
 		sskInsertStarter.start();
@@ -140,12 +140,14 @@ public class RequestStarterGroup {
 	}
 
 	public void requestCompleted(boolean isSSK, boolean isInsert) {
+		getStarter(isSSK, isInsert).window.requestCompleted();
 		throttleWindow.requestCompleted();
 		(isSSK ? throttleWindowSSK : throttleWindowCHK).requestCompleted();
 		(isInsert ? throttleWindowInsert : throttleWindowRequest).requestCompleted();
 	}
 	
 	public void rejectedOverload(boolean isSSK, boolean isInsert) {
+		getStarter(isSSK, isInsert).window.rejectedOverload();
 		throttleWindow.rejectedOverload();
 		(isSSK ? throttleWindowSSK : throttleWindowCHK).rejectedOverload();
 		(isInsert ? throttleWindowInsert : throttleWindowRequest).rejectedOverload();
@@ -163,6 +165,10 @@ public class RequestStarterGroup {
 		fs.put("SSKRequestThrottle", sskRequestThrottle.exportFieldSet());
 		fs.put("CHKInsertThrottle", chkInsertThrottle.exportFieldSet());
 		fs.put("SSKInsertThrottle", sskInsertThrottle.exportFieldSet());
+		fs.put("CHKRequestWindow", chkRequestStarter.window.exportFieldSet(false));
+		fs.put("CHKInsertWindow", chkInsertStarter.window.exportFieldSet(false));
+		fs.put("SSKRequestWindow", sskRequestStarter.window.exportFieldSet(false));
+		fs.put("SSKInsertWindow", sskInsertStarter.window.exportFieldSet(false));
 		return fs;
 	}
 	
@@ -188,6 +194,16 @@ public class RequestStarterGroup {
 		}
 	}
 
+	RequestStarter getStarter(boolean isSSK, boolean isInsert) {
+		if(isSSK) {
+			if(isInsert) return sskInsertStarter;
+			else return sskRequestStarter;
+		} else {
+			if(isInsert) return chkInsertStarter;
+			else return chkRequestStarter;
+		}
+	}
+	
 	public String statsPageLine(boolean isSSK, boolean isInsert) {
 		StringBuffer sb = new StringBuffer(100);
 		sb.append(isSSK ? "SSK" : "CHK");
@@ -196,11 +212,11 @@ public class RequestStarterGroup {
 		sb.append(" RTT=");
 		MyRequestThrottle throttle = getThrottle(isSSK, isInsert);
 		sb.append(TimeUtil.formatTime((long)throttle.getRTT(), 2, true));
-		sb.append(" delay=");
-		sb.append(TimeUtil.formatTime((long)throttle.getDelay(), 2, true));
-		sb.append(" bw=");
-		sb.append((long)throttle.getRate());
-		sb.append("B/sec");
+		sb.append(" running=");
+		RequestStarter starter = getStarter(isSSK, isInsert);
+		sb.append(starter.countRunning());
+		sb.append('/');
+		sb.append(starter.getMaxRunning());
 		return sb.toString();
 	}
 
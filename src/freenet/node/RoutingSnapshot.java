@@ -0,0 +1,258 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.node;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Immutable view of our connected peers, sorted by location, for routing.
+ *
+ * PeerManager builds one whenever the set of connected peers, or the location
+ * or version of one of them, changes, and throws it away on the next change.
+ * Finding the closest peer to a target is then a binary search followed by a
+ * walk outwards in both directions around the circular keyspace, visiting peers
+ * in order of increasing distance, so we can stop at the first one we are
+ * allowed to route to, and we don't allocate anything or parse any version
+ * strings on the way.
+ *
+ * Connection and backoff state are checked live on the peers we actually visit,
+ * because backoff is time-based and would make any cached copy stale the moment
+ * it expires.
+ */
+class RoutingSnapshot {
+
+	/** Peers, sorted by location */
+	private final PeerNode[] peers;
+	/** Location of each peer when the snapshot was taken, ascending */
+	final double[] locs;
+	/** Arbitrary build number of each peer, or -1 if unparseable */
+	final int[] buildNumbers;
+
+	RoutingSnapshot(PeerNode[] connectedPeers) {
+		int count = 0;
+		double[] l = new double[connectedPeers.length];
+		for(int i=0;i<connectedPeers.length;i++) {
+			l[i] = connectedPeers[i].getLocation();
+			if(!(l[i] < 0.0 || l[i] > 1.0)) count++;
+		}
+		PeerWithLocation[] sorted = new PeerWithLocation[count];
+		int x = 0;
+		for(int i=0;i<connectedPeers.length;i++) {
+			if(l[i] < 0.0 || l[i] > 1.0) continue;
+			sorted[x++] = new PeerWithLocation(connectedPeers[i], l[i]);
+		}
+		Arrays.sort(sorted);
+		peers = new PeerNode[count];
+		locs = new double[count];
+		buildNumbers = new int[count];
+		for(int i=0;i<count;i++) {
+			peers[i] = sorted[i].pn;
+			locs[i] = sorted[i].location;
+			int build;
+			try {
+				build = Version.getArbitraryBuildNumber(peers[i].getVersion());
+			} catch (NumberFormatException e) {
+				build = -1;
+			}
+			buildNumbers[i] = build;
+		}
+	}
+
+	/** For benchmarking: locations must be sorted. */
+	protected RoutingSnapshot(double[] sortedLocs, int[] buildNumbers) {
+		this.peers = null;
+		this.locs = sortedLocs;
+		this.buildNumbers = buildNumbers;
+	}
+
+	private static class PeerWithLocation implements Comparable {
+		final PeerNode pn;
+		final double location;
+
+		PeerWithLocation(PeerNode pn, double location) {
+			this.pn = pn;
+			this.location = location;
+		}
+
+		public int compareTo(Object o) {
+			double l = ((PeerWithLocation) o).location;
+			if(location < l) return -1;
+			if(location > l) return 1;
+			return 0;
+		}
+	}
+
+	int size() {
+		return locs.length;
+	}
+
+	PeerNode getPeer(int index) {
+		return peers[index];
+	}
+
+	/**
+	 * Find the closest peer to the target that we can route to.
+	 * @param source The node the request came from; we will not route back to it.
+	 * @param routedTo Peers we have already routed to. May be null.
+	 * @param maxDiff Don't return any peer further away than this from the target.
+	 * @param addUnpickedLocsTo If not null, add the locations of all the other peers
+	 * we could have picked, and remove the location of the one we did pick. Forces a
+	 * walk over every peer within maxDiff.
+	 * @return The index of the peer chosen, or -1.
+	 */
+	int closest(double target, Object source, Set routedTo, boolean ignoreBackedOff, int minVersion, double maxDiff, Vector addUnpickedLocsTo) {
+		int n = locs.length;
+		if(n == 0) return -1;
+		int right = Arrays.binarySearch(locs, target);
+		if(right < 0) right = -right - 1;
+		// Walk left from right-1 and right from right, wrapping, always taking the nearer.
+		int left = right - 1;
+		int best = -1;
+		double bestLoc = -2;
+		for(int visited=0;visited<n;visited++) {
+			int l = left < 0 ? left + n : left;
+			int r = right >= n ? right - n : right;
+			int i;
+			double diff;
+			double leftDiff = Location.distance(locs[l], target);
+			double rightDiff = Location.distance(locs[r], target);
+			if(rightDiff <= leftDiff) {
+				i = r;
+				diff = rightDiff;
+				right++;
+			} else {
+				i = l;
+				diff = leftDiff;
+				left--;
+			}
+			// Everything after this is further away
+			if(diff > maxDiff) break;
+			if(!isEligible(i, source, routedTo, ignoreBackedOff, minVersion)) continue;
+			if(best == -1) {
+				best = i;
+				bestLoc = locs[i];
+				if(addUnpickedLocsTo == null) return best;
+			} else {
+				Double d = new Double(locs[i]);
+				// Here we can directly compare double's because they aren't processed in any way, and are finite and (probably) nonzero.
+				if(!addUnpickedLocsTo.contains(d))
+					addUnpickedLocsTo.add(d);
+			}
+		}
+		if(addUnpickedLocsTo != null && best != -1)
+			addUnpickedLocsTo.remove(new Double(bestLoc));
+		return best;
+	}
+
+	/**
+	 * Can we route to the peer at the given index? Overridden by the benchmark.
+	 */
+	boolean isEligible(int i, Object source, Set routedTo, boolean ignoreBackedOff, int minVersion) {
+		PeerNode p = peers[i];
+		if(p == source) return false;
+		if(routedTo != null && routedTo.contains(p)) return false;
+		if(!p.isRoutable()) return false;
+		if((!ignoreBackedOff) && p.isRoutingBackedOff()) return false;
+		if(minVersion > 0 && buildNumbers[i] < minVersion) return false;
+		return true;
+	}
+
+	/**
+	 * Benchmark: routing decisions per second with 20, 100 and 500 peers, using a
+	 * snapshot versus scanning every peer as PeerManager used to.
+	 */
+	public static void main(String[] args) {
+		int[] sizes = new int[] { 20, 100, 500 };
+		int decisions = 200*1000;
+		Random r = new Random(1010101);
+		for(int s=0;s<sizes.length;s++) {
+			int n = sizes[s];
+			double[] locs = new double[n];
+			int[] builds = new int[n];
+			boolean[] backedOff = new boolean[n];
+			for(int i=0;i<n;i++) {
+				locs[i] = r.nextDouble();
+				builds[i] = 1000;
+				backedOff[i] = r.nextInt(10) == 0;
+			}
+			Arrays.sort(locs);
+			final boolean[] bo = backedOff;
+			RoutingSnapshot snapshot = new RoutingSnapshot(locs, builds) {
+				boolean isEligible(int i, Object source, Set routedTo, boolean ignoreBackedOff, int minVersion) {
+					if(routedTo != null && routedTo.contains(Benchmark.boxed[i])) return false;
+					if((!ignoreBackedOff) && bo[i]) return false;
+					return buildNumbers[i] >= minVersion;
+				}
+			};
+			Benchmark.box(n);
+			double[] targets = new double[1024];
+			Set[] routedTo = new Set[targets.length];
+			for(int i=0;i<targets.length;i++) {
+				targets[i] = r.nextDouble();
+				routedTo[i] = new HashSet();
+				int hops = r.nextInt(5);
+				for(int j=0;j<hops;j++)
+					routedTo[i].add(Benchmark.boxed[r.nextInt(n)]);
+			}
+			// Warm up, then time
+			for(int pass=0;pass<2;pass++) {
+				long start = System.currentTimeMillis();
+				long dummy = 0;
+				for(int i=0;i<decisions;i++) {
+					int t = i & (targets.length-1);
+					int best = snapshot.closest(targets[t], null, routedTo[t], false, 0, 2.0, null);
+					if(best == -1)
+						best = snapshot.closest(targets[t], null, routedTo[t], true, 0, 2.0, null);
+					dummy += best;
+				}
+				long snapshotTime = Math.max(1, System.currentTimeMillis() - start);
+				start = System.currentTimeMillis();
+				for(int i=0;i<decisions;i++) {
+					int t = i & (targets.length-1);
+					int best = Benchmark.scan(locs, bo, targets[t], routedTo[t], false);
+					if(best == -1)
+						best = Benchmark.scan(locs, bo, targets[t], routedTo[t], true);
+					dummy -= best;
+				}
+				long scanTime = Math.max(1, System.currentTimeMillis() - start);
+				if(dummy != 0)
+					System.err.println("Snapshot and scan disagree!");
+				if(pass == 1) {
+					System.out.println(n+" peers: snapshot: "+(decisions*1000L/snapshotTime)+" decisions/sec, scan: "+
+							(decisions*1000L/scanTime)+" decisions/sec");
+				}
+			}
+		}
+	}
+
+	private static class Benchmark {
+
+		static Integer[] boxed;
+
+		static void box(int n) {
+			boxed = new Integer[n];
+			for(int i=0;i<n;i++) boxed[i] = new Integer(i);
+		}
+
+		/** What PeerManager._closerPeer() did before we had snapshots. */
+		static int scan(double[] locs, boolean[] backedOff, double target, Set routedTo, boolean ignoreBackedOff) {
+			double bestDiff = Double.MAX_VALUE;
+			int best = -1;
+			for(int i=0;i<locs.length;i++) {
+				if(routedTo.contains(boxed[i])) continue;
+				if((!ignoreBackedOff) && backedOff[i]) continue;
+				double diff = Location.distance(locs[i], target);
+				if(diff < bestDiff) {
+					best = i;
+					bestDiff = diff;
+				}
+			}
+			return best;
+		}
+	}
+}
@@ -139,7 +139,7 @@ public class SSKInsertHandler implements Runnable, ByteCounter {
 		
 		try {
 			key.setPubKey(pubKey);
-			block = new SSKBlock(data, headers, key, false);
+			block = node.nodeStats.sskVerifier.verify(data, headers, key);
 		} catch (SSKVerifyException e1) {
 			Logger.error(this, "Invalid SSK from "+source, e1);
 			Message msg = DMT.createFNPDataInsertRejected(uid, DMT.DATA_INSERT_REJECTED_SSK_ERROR);
@@ -393,7 +393,7 @@ public class SSKInsertSender implements Runnable, AnyInsertSender, ByteCounter {
 					}
 					
 					try {
-						block = new SSKBlock(newData, newHeaders, myKey, false);
+						block = node.nodeStats.sskVerifier.verify(newData, newHeaders, myKey);
 					} catch (SSKVerifyException e) {
 						Logger.error(this, "Node sent us collision but got corrupt SSK!! from "+next+" on "+uid);
 						// Try next node, no way to tell this one about its mistake as it's stopped listening. FIXME should it?
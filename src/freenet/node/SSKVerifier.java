@@ -0,0 +1,181 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.node;
+
+import java.util.LinkedList;
+
+import freenet.keys.NodeSSK;
+import freenet.keys.SSKBlock;
+import freenet.keys.SSKVerifyException;
+import freenet.support.Logger;
+import freenet.support.OOMHandler;
+import freenet.support.math.TimeDecayingRunningAverage;
+
+/**
+ * Verifies SSK blocks on a fixed number of threads, one per CPU. Verification
+ * is expensive big-integer arithmetic; without this, a burst of SSK traffic
+ * would have every request and insert thread doing it at once, and everything
+ * else on the node would be starved of CPU.
+ *
+ * The queue is bounded. If it is full, the caller verifies the block itself, so
+ * a flood slows down the flooders. Before that, NodeStats.shouldRejectRequest()
+ * starts rejecting SSK requests and inserts when isOverloaded().
+ */
+public class SSKVerifier implements Runnable {
+
+	/** Maximum jobs queued per verifier thread */
+	static final int MAX_QUEUED_PER_THREAD = 16;
+	/** Reject new SSK requests when more than this many jobs per thread are queued */
+	static final int OVERLOAD_QUEUED_PER_THREAD = 4;
+
+	private final int threads;
+	private final LinkedList queue /* <Job> */;
+	/** Time from queueing to completion, in milliseconds */
+	private final TimeDecayingRunningAverage latency;
+	private long verified;
+	/** Verified on the caller's thread because the queue was full */
+	private long verifiedInline;
+	private static boolean logMINOR;
+
+	SSKVerifier(Node node) {
+		threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		queue = new LinkedList();
+		latency = new TimeDecayingRunningAverage(0, 60*1000, 0, 10*60*1000, node);
+		logMINOR = Logger.shouldLog(Logger.MINOR, this);
+	}
+
+	void start() {
+		for(int i=0;i<threads;i++) {
+			Thread t = new Thread(this, "SSK verifier #"+i);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	private static class Job {
+		final byte[] data;
+		final byte[] headers;
+		final NodeSSK key;
+		final long queuedTime;
+		SSKBlock block;
+		SSKVerifyException error;
+		/** Anything else thrown, to be rethrown on the caller's thread */
+		RuntimeException failure;
+		Error fatal;
+		boolean done;
+
+		Job(byte[] data, byte[] headers, NodeSSK key) {
+			this.data = data;
+			this.headers = headers;
+			this.key = key;
+			queuedTime = System.currentTimeMillis();
+		}
+
+		void run() {
+			try {
+				block = new SSKBlock(data, headers, key, false);
+			} catch (SSKVerifyException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				failure = e;
+			} catch (Error e) {
+				fatal = e;
+			} finally {
+				synchronized(this) {
+					done = true;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Verify an SSK block. Blocks until it has been verified.
+	 * @param key The key. Must have a pubkey.
+	 * @return The verified block.
+	 * @throws SSKVerifyException If the block is not valid for the key.
+	 */
+	public SSKBlock verify(byte[] data, byte[] headers, NodeSSK key) throws SSKVerifyException {
+		Job job = new Job(data, headers, key);
+		boolean inline = false;
+		synchronized(this) {
+			if(queue.size() >= threads * MAX_QUEUED_PER_THREAD) {
+				inline = true;
+				verifiedInline++;
+			} else {
+				queue.addLast(job);
+				notify();
+			}
+		}
+		if(inline) {
+			if(logMINOR) Logger.minor(this, "Queue full, verifying inline: "+key);
+			job.run();
+		} else {
+			synchronized(job) {
+				while(!job.done) {
+					try {
+						job.wait();
+					} catch (InterruptedException e) {
+						// Ignore
+					}
+				}
+			}
+		}
+		latency.report(System.currentTimeMillis() - job.queuedTime);
+		if(job.error != null) throw job.error;
+		if(job.failure != null) throw job.failure;
+		if(job.fatal != null) throw job.fatal;
+		return job.block;
+	}
+
+	public void run() {
+		while(true) {
+			Job job;
+			synchronized(this) {
+				while(queue.isEmpty()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Ignore
+					}
+				}
+				job = (Job) queue.removeFirst();
+				verified++;
+			}
+			job.run();
+			if(job.fatal instanceof OutOfMemoryError)
+				OOMHandler.handleOOM((OutOfMemoryError) job.fatal);
+		}
+	}
+
+	/**
+	 * @return True if the queue is long enough that we should stop accepting
+	 * SSK requests and inserts.
+	 */
+	public synchronized boolean isOverloaded() {
+		return queue.size() > threads * OVERLOAD_QUEUED_PER_THREAD;
+	}
+
+	public synchronized int getQueueLength() {
+		return queue.size();
+	}
+
+	/** Average time from queueing a block to it being verified, in milliseconds */
+	public double getAverageLatency() {
+		return latency.currentValue();
+	}
+
+	public synchronized long getVerifiedCount() {
+		return verified + verifiedInline;
+	}
+
+	public synchronized long getVerifiedInlineCount() {
+		return verifiedInline;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+}
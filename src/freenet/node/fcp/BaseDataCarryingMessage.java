@@ -1,5 +1,6 @@
 package freenet.node.fcp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -17,6 +18,11 @@ public abstract class BaseDataCarryingMessage extends FCPMessage {
 		writeData(os);
 	}
 
+	public void sendBinary(OutputStream os, ByteArrayOutputStream buf) throws IOException {
+		super.sendBinary(os, buf);
+		writeData(os);
+	}
+
 	protected abstract void writeData(OutputStream os) throws IOException;
 
 }
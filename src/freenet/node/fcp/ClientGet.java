@@ -6,6 +6,8 @@ package freenet.node.fcp;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashSet;
 
 import freenet.client.FetchContext;
@@ -28,6 +30,7 @@ import freenet.support.api.Bucket;
 import freenet.support.io.CannotCreateFromFieldSetException;
 import freenet.support.io.FileBucket;
 import freenet.support.io.NullBucket;
+import freenet.support.io.ProgressiveBucket;
 import freenet.support.io.SerializableToFieldSetBucketUtil;
 
 /**
@@ -47,6 +50,13 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 
 	// Verbosity bitmasks
 	private int VERBOSITY_SPLITFILE_PROGRESS = 1;
+	
+	/** Maximum size of a DataChunk for returntype=chunked */
+	static final int CHUNK_SIZE = 128*1024;
+	/** Maximum bytes of DataChunk's queued for the client but not yet sent, for returntype=chunked */
+	static final int MAX_CHUNK_BYTES_QUEUED = 4*CHUNK_SIZE;
+	/** Bytes of DataChunk's queued but not yet sent or discarded. Protected by this. */
+	private long chunkBytesQueued;
 
 	// Stuff waiting for reconnection
 	/** Did the request succeed? Valid if finished. */
@@ -164,6 +174,12 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 			else if(!(handler.allowDDAFrom(tempFile, true) && handler.allowDDAFrom(targetFile, true)))
 				throw new MessageInvalidException(ProtocolErrorMessage.DIRECT_DISK_ACCESS_DENIED, "Not allowed to download to "+tempFile+" or "+targetFile + ". You might need to do a " + TestDDARequestMessage.NAME + " first.", identifier, global);
 			ret = new FileBucket(message.tempFile, false, true, false, false, false);
+		} else if(returnType == ClientGetMessage.RETURN_TYPE_CHUNKED) {
+			targetFile = null;
+			tempFile = null;
+			// Fetch the segments in order, and send each one as soon as we have it.
+			fctx.streaming = true;
+			ret = new ProgressiveBucket(fctx.bucketFactory);
 		} else if(returnType == ClientGetMessage.RETURN_TYPE_NONE) {
 			targetFile = null;
 			tempFile = null;
@@ -321,6 +337,13 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 			synchronized(this) {
 				if(finished) return;
 			}
+			if(returnType == ClientGetMessage.RETURN_TYPE_CHUNKED) {
+				fctx.executor.execute(new Runnable() {
+					public void run() {
+						sendChunks();
+					}
+				}, "ClientGet chunk sender for "+identifier);
+			}
 			getter.start();
 			if(persistenceType != PERSIST_CONNECTION && !finished) {
 				FCPMessage msg = persistentTagMessage();
@@ -342,6 +365,105 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 		}
 	}
 
+	/**
+	 * For returntype=chunked: send the data to the client as it is written to the
+	 * ProgressiveBucket, followed by DataFound if the request succeeds. If it fails,
+	 * onFailure() frees the bucket, which wakes us up, and sends the GetFailed.
+	 */
+	private void sendChunks() {
+		boolean logMINOR = Logger.shouldLog(Logger.MINOR, this);
+		Bucket data = returnBucket;
+		InputStream is = null;
+		try {
+			is = data.getInputStream();
+			byte[] buf = new byte[CHUNK_SIZE];
+			long offset = 0;
+			while(true) {
+				synchronized(this) {
+					// Don't get too far ahead of a slow client. If the request fails,
+					// the bucket is freed and the read below throws.
+					while(chunkBytesQueued >= MAX_CHUNK_BYTES_QUEUED && !(finished && !succeeded)) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// Ignore
+						}
+					}
+				}
+				int read = is.read(buf);
+				if(read == -1) break;
+				// Send whatever else we already have with it, rather than lots of little chunks.
+				while(read < buf.length && is.available() > 0) {
+					int x = is.read(buf, read, buf.length - read);
+					if(x == -1) break;
+					read += x;
+				}
+				Bucket chunk = fctx.bucketFactory.makeBucket(read);
+				OutputStream os = chunk.getOutputStream();
+				try {
+					os.write(buf, 0, read);
+				} finally {
+					os.close();
+				}
+				DataChunkMessage msg = new DataChunkMessage(chunk, offset, identifier, global, this);
+				msg.setFreeOnSent();
+				synchronized(this) {
+					chunkBytesQueued += read;
+				}
+				// Chunked requests are always Persistence=connection.
+				if(!origHandler.outputHandler.queue(msg)) {
+					// Connection closed, chunk freed. onLostConnection() cancels the request.
+					if(logMINOR) Logger.minor(this, "Connection closed while sending data for "+identifier);
+					return;
+				}
+				offset += read;
+				if(logMINOR) Logger.minor(this, "Sent "+read+" bytes at "+(offset-read)+" for "+identifier);
+			}
+			boolean success;
+			synchronized(this) {
+				while(!finished) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Ignore
+					}
+				}
+				success = succeeded;
+			}
+			if(success)
+				trySendDataFoundOrGetFailed(null);
+		} catch (IOException e) {
+			boolean failed;
+			synchronized(this) {
+				failed = finished && !succeeded;
+			}
+			if(!failed) {
+				// Not just freed by onFailure()
+				Logger.error(this, "Failed to send data for "+identifier+" : "+e, e);
+				getter.cancel();
+				onFailure(new FetchException(FetchException.BUCKET_ERROR, e), null);
+			} else if(logMINOR)
+				Logger.minor(this, "Request failed while sending data for "+identifier+" : "+e);
+		} finally {
+			if(is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+			data.free();
+		}
+	}
+
+	/** Called when a DataChunk has been sent, or discarded because the connection closed. */
+	void onChunkDone(long length) {
+		synchronized(this) {
+			chunkBytesQueued -= length;
+			notifyAll();
+		}
+	}
+
 	public void onLostConnection() {
 		if(persistenceType == PERSIST_CONNECTION)
 			cancel();
@@ -388,6 +510,9 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 				if(persistenceType == PERSIST_CONNECTION)
 					adm.setFreeOnSent();
 				dontFree = true;
+			} else if(returnType == ClientGetMessage.RETURN_TYPE_CHUNKED) {
+				// sendChunks() sends the data and then DataFound, and frees the bucket.
+				dontFree = true;
 			/* 
 			 * } else if(returnType == ClientGetMessage.RETURN_TYPE_NONE) {
 				// Do nothing
@@ -416,8 +541,10 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 				this.foundDataMimeType = BinaryBlob.MIME_TYPE;
 			this.succeeded = true;
 			finished = true;
+			notifyAll();
 		}
-		trySendDataFoundOrGetFailed(null);
+		if(returnType != ClientGetMessage.RETURN_TYPE_CHUNKED)
+			trySendDataFoundOrGetFailed(null);
 
 		if(adm != null)
 			trySendAllDataMessage(adm, null);
@@ -499,9 +626,12 @@ public class ClientGet extends ClientRequest implements ClientCallback, ClientEv
 			succeeded = false;
 			getFailedMessage = new GetFailedMessage(e, identifier, global);
 			finished = true;
+			notifyAll();
 		}
 		if(Logger.shouldLog(Logger.MINOR, this))
 			Logger.minor(this, "Caught "+e, e);
+		if(returnType == ClientGetMessage.RETURN_TYPE_CHUNKED && returnBucket != null)
+			returnBucket.free(); // Wake up sendChunks()
 		trySendDataFoundOrGetFailed(null);
 		finish();
 		if(persistenceType != PERSIST_CONNECTION)
@@ -26,6 +26,7 @@ import freenet.support.SimpleFieldSet;
  * Identifier=Request Number One
  * Verbosity=0 // no status, just tell us when it's done
  * ReturnType=direct // return all at once over the FCP connection
+ *    (or chunked: return it over the FCP connection as DataChunk's, as it arrives)
  * MaxSize=100 // maximum size of returned data 
  * MaxTempSize=1000 // maximum size of intermediary data
  * MaxRetries=100 // automatic retry supported as an option
@@ -61,7 +62,7 @@ public class ClientGetMessage extends FCPMessage {
 	static final short RETURN_TYPE_DIRECT = 0; // over FCP
 	static final short RETURN_TYPE_NONE = 1; // not at all; to cache only; prefetch?
 	static final short RETURN_TYPE_DISK = 2; // to a file
-	static final short RETURN_TYPE_CHUNKED = 3; // FIXME implement: over FCP, as decoded
+	static final short RETURN_TYPE_CHUNKED = 3; // over FCP, in order as it is decoded
 	
 	public ClientGetMessage(SimpleFieldSet fs) throws MessageInvalidException {
 		short defaultPriority;
@@ -95,6 +96,11 @@ public class ClientGetMessage extends FCPMessage {
 			tempFile = null;
 			// default just below FProxy
 			defaultPriority = RequestStarter.IMMEDIATE_SPLITFILE_PRIORITY_CLASS;
+		} else if(returnType == RETURN_TYPE_CHUNKED) {
+			diskFile = null;
+			tempFile = null;
+			// the client is waiting for it, like direct
+			defaultPriority = RequestStarter.IMMEDIATE_SPLITFILE_PRIORITY_CLASS;
 		} else if(returnType == RETURN_TYPE_NONE) {
 			diskFile = null;
 			tempFile = null;
@@ -193,6 +199,13 @@ public class ClientGetMessage extends FCPMessage {
 			throw new MessageInvalidException(ProtocolErrorMessage.NOT_SUPPORTED, "Global requests must be persistent", identifier, global);
 		}
 		binaryBlob = Fields.stringToBool(fs.get("BinaryBlob"), false);
+		if(returnType == RETURN_TYPE_CHUNKED) {
+			// The data is sent as it arrives, so there is nothing to resume from.
+			if(persistenceType != ClientRequest.PERSIST_CONNECTION)
+				throw new MessageInvalidException(ProtocolErrorMessage.NOT_SUPPORTED, "ReturnType=chunked requires Persistence=connection", identifier, global);
+			if(binaryBlob)
+				throw new MessageInvalidException(ProtocolErrorMessage.NOT_SUPPORTED, "ReturnType=chunked cannot be used with BinaryBlob", identifier, global);
+		}
 	}
 
 	public SimpleFieldSet getFieldSet() {
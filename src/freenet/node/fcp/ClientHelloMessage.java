@@ -10,13 +10,18 @@ import freenet.support.SimpleFieldSet;
  *  ClientHello
  *  Name=Toad's Test Client
  *  ExpectedVersion=0.7.0
+ *  Framing=Binary // optional, default Text
  *  End
+ *
+ * If Framing=Binary, every message after the NodeHello, in both directions, uses
+ * binary framing (see FCPMessage.sendBinary()).
  */
 public class ClientHelloMessage extends FCPMessage {
 
 	public final static String NAME = "ClientHello";
 	String clientName;
 	String clientExpectedVersion;
+	boolean binaryFraming;
 	
 	public ClientHelloMessage(SimpleFieldSet fs) throws MessageInvalidException {
 		clientName = fs.get("Name");
@@ -26,12 +31,15 @@ public class ClientHelloMessage extends FCPMessage {
 		if(clientExpectedVersion == null)
 			throw new MessageInvalidException(ProtocolErrorMessage.MISSING_FIELD, "ClientHello must contain a ExpectedVersion field", null, false);
 		// FIXME check the expected version
+		binaryFraming = "Binary".equalsIgnoreCase(fs.get("Framing"));
 	}
 
 	public SimpleFieldSet getFieldSet() {
 		SimpleFieldSet sfs = new SimpleFieldSet(true);
 		sfs.putSingle("Name", clientName);
 		sfs.putSingle("ExpectedVersion", clientExpectedVersion);
+		if(binaryFraming)
+			sfs.putSingle("Framing", "Binary");
 		return sfs;
 	}
 
@@ -41,8 +49,10 @@ public class ClientHelloMessage extends FCPMessage {
 
 	public void run(FCPConnectionHandler handler, Node node) {
 		// We know the Hello is valid.
-		FCPMessage msg = new NodeHelloMessage(node, handler.connectionIdentifier);
+		FCPMessage msg = new NodeHelloMessage(node, handler.connectionIdentifier, binaryFraming);
 		handler.outputHandler.queue(msg);
+		if(binaryFraming)
+			handler.setBinaryFraming();
 		handler.setClientName(clientName);
 	}
 
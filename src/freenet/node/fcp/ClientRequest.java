@@ -135,12 +135,12 @@ public abstract class ClientRequest {
 		return Short.parseShort(string);
 	}
 
-	public static ClientRequest readAndRegister(BufferedReader br, FCPServer server) throws IOException {
+	public static ClientRequest readAndRegister(LineReader br, FCPServer server) throws IOException {
 		boolean logMINOR = Logger.shouldLog(Logger.MINOR, ClientRequest.class);
 		Runtime rt = Runtime.getRuntime();;
 		if(logMINOR)
 			Logger.minor(ClientRequest.class, rt.maxMemory()-rt.freeMemory()+" in use before loading request");
-		SimpleFieldSet fs = new SimpleFieldSet(br, false, false); // can get enormous
+		SimpleFieldSet fs = new SimpleFieldSet(br, Integer.MAX_VALUE, 4096, false, true, false, false); // can get enormous
 		String clientName = fs.get("ClientName");
 		boolean isGlobal = Fields.stringToBool(fs.get("Global"), false);
 		if(clientName == null && !isGlobal) {
@@ -240,14 +240,14 @@ public abstract class ClientRequest {
 	 * Write a persistent request to disk.
 	 * @throws IOException 
 	 */
-	public void write(BufferedWriter w) throws IOException {
+	public void write(OutputStream os) throws IOException {
 		if(persistenceType == ClientRequest.PERSIST_CONNECTION) {
 			Logger.error(this, "Not persisting as persistenceType="+persistenceType);
 			return;
 		}
 		// Persist the request to disk
 		SimpleFieldSet fs = getFieldSet();
-		fs.writeTo(w);
+		fs.writeTo(os);
 	}
 	
 	/**
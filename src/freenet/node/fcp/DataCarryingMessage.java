@@ -55,6 +55,14 @@ public abstract class DataCarryingMessage extends BaseDataCarryingMessage {
 		if(freeOnSent) bucket.free();
 	}
 	
+	/**
+	 * Called instead of sending the message if it will never be sent, because the
+	 * connection has closed.
+	 */
+	void discard() {
+		if(freeOnSent) bucket.free();
+	}
+	
 	String getEndString() {
 		return "Data";
 	}
@@ -0,0 +1,79 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.node.fcp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import freenet.node.Node;
+import freenet.support.SimpleFieldSet;
+import freenet.support.api.Bucket;
+
+/**
+ * Part of the data for a ClientGet with ReturnType=chunked, sent as soon as it has
+ * been fetched and decoded. The chunks are sent in order, and are followed by a
+ * DataFound when all of them have been sent, or by a GetFailed.
+ */
+public class DataChunkMessage extends DataCarryingMessage {
+
+	final long dataLength;
+	/** Offset of this chunk in the data */
+	final long offset;
+	final boolean global;
+	final String identifier;
+	/** Told when the chunk has been sent or discarded */
+	private final ClientGet parent;
+
+	public DataChunkMessage(Bucket bucket, long offset, String identifier, boolean global, ClientGet parent) {
+		this.bucket = bucket;
+		this.dataLength = bucket.size();
+		this.offset = offset;
+		this.identifier = identifier;
+		this.global = global;
+		this.parent = parent;
+	}
+
+	protected void writeData(OutputStream os) throws IOException {
+		try {
+			super.writeData(os);
+		} finally {
+			parent.onChunkDone(dataLength);
+		}
+	}
+
+	void discard() {
+		super.discard();
+		parent.onChunkDone(dataLength);
+	}
+
+	long dataLength() {
+		return dataLength;
+	}
+
+	public SimpleFieldSet getFieldSet() {
+		SimpleFieldSet fs = new SimpleFieldSet(true);
+		fs.putSingle("DataLength", Long.toString(dataLength));
+		fs.putSingle("Offset", Long.toString(offset));
+		fs.putSingle("Identifier", identifier);
+		if(global) fs.putSingle("Global", "true");
+		return fs;
+	}
+
+	public String getName() {
+		return "DataChunk";
+	}
+
+	public void run(FCPConnectionHandler handler, Node node) throws MessageInvalidException {
+		throw new MessageInvalidException(ProtocolErrorMessage.INVALID_MESSAGE, "DataChunk goes from server to client not the other way around", identifier, global);
+	}
+
+	String getIdentifier() {
+		return identifier;
+	}
+
+	boolean isGlobal() {
+		return global;
+	}
+
+}
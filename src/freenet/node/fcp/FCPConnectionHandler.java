@@ -59,6 +59,7 @@ public class FCPConnectionHandler {
 	private boolean inputClosed;
 	private boolean outputClosed;
 	private String clientName;
+	private boolean binaryFraming;
 	private FCPClient client;
 	final BucketFactory bf;
 	final HashMap requestsByIdentifier;
@@ -148,6 +149,15 @@ public class FCPConnectionHandler {
 			Logger.minor(this, "Set client name: "+name);
 	}
 	
+	/** Switch incoming messages to binary framing, after a ClientHello asking for it. */
+	synchronized void setBinaryFraming() {
+		binaryFraming = true;
+	}
+	
+	synchronized boolean isBinaryFraming() {
+		return binaryFraming;
+	}
+	
 	public String getClientName() {
 		return clientName;
 	}
@@ -4,19 +4,28 @@
 package freenet.node.fcp;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.SocketChannel;
 
 import org.tanukisoftware.wrapper.WrapperManager;
 
 import freenet.support.Logger;
 import freenet.support.OOMHandler;
 import freenet.support.SimpleFieldSet;
+import freenet.support.io.ChannelBufferedInputStream;
 import freenet.support.io.LineReadingInputStream;
 
 public class FCPConnectionInputHandler implements Runnable {
 
 	final FCPConnectionHandler handler;
+	/** Maximum size of a binary frame, excluding any trailing data */
+	static final int MAX_BINARY_FRAME_LENGTH = 256*1024;
+	/** Maximum number of fields in a binary frame */
+	static final int MAX_BINARY_FIELDS = 4096;
 	
 	FCPConnectionInputHandler(FCPConnectionHandler handler) {
 		this.handler = handler;
@@ -43,13 +52,22 @@ public class FCPConnectionInputHandler implements Runnable {
 	}
 	
 	public void realRun() throws IOException {
-		InputStream is = new BufferedInputStream(handler.sock.getInputStream(), 4096);
+		SocketChannel channel = handler.sock.getChannel();
+		// If we have a channel, read it directly: the socket adaptor's stream takes the
+		// channel's blocking lock on every read, which would stall the output thread.
+		// (No zero-copy to disk: temp buckets are encrypted, so the data has to pass
+		// through our buffers anyway.)
+		InputStream is = channel == null ? new BufferedInputStream(handler.sock.getInputStream(), 4096) :
+			new ChannelBufferedInputStream(channel, 4096);
 		LineReadingInputStream lis = new LineReadingInputStream(is);
+		DataInputStream dis = null;
+		byte[] frame = null;
 		
 		boolean firstMessage = true;
 		
 		while(true) {
 			SimpleFieldSet fs;
+			String messageType;
 			if(WrapperManager.hasShutdownHookBeenTriggered()) {
 				FCPMessage msg = new ProtocolErrorMessage(ProtocolErrorMessage.SHUTTING_DOWN,true,"The node is shutting down","Node",false);
 				handler.outputHandler.queue(msg);
@@ -61,13 +79,38 @@ public class FCPConnectionInputHandler implements Runnable {
 				return;
 			}
 			// Read a message
-			String messageType = lis.readLine(128, 128, true);
-			if(messageType == null) {
-				is.close();
-				return;
+			if(handler.isBinaryFraming()) {
+				if(dis == null) {
+					dis = new DataInputStream(lis);
+					frame = new byte[4096];
+				}
+				int length;
+				try {
+					length = dis.readInt();
+				} catch (EOFException e) {
+					is.close();
+					return;
+				}
+				if(length <= 0 || length > MAX_BINARY_FRAME_LENGTH)
+					throw new IOException("Invalid binary frame length: "+length);
+				if(frame.length < length)
+					frame = new byte[Math.max(length, frame.length*2)];
+				dis.readFully(frame, 0, length);
+				DataInputStream fdis = new DataInputStream(new ByteArrayInputStream(frame, 0, length));
+				messageType = fdis.readUTF();
+				fs = SimpleFieldSet.readBinary(fdis, MAX_BINARY_FIELDS, length, true);
+				fs.setEndMarker(fdis.readUTF());
+				if(fdis.available() != 0)
+					throw new IOException("Trailing garbage in binary frame for "+messageType);
+			} else {
+				messageType = lis.readLine(128, 128, true);
+				if(messageType == null) {
+					is.close();
+					return;
+				}
+				if(messageType.equals("")) continue;
+				fs = new SimpleFieldSet(lis, 4096, 128, true, true, true, true);
 			}
-			if(messageType.equals("")) continue;
-			fs = new SimpleFieldSet(lis, 4096, 128, true, true, true, true);
 			
 			// check for valid endmarker
 			if (fs.getEndMarker() != null && (!fs.getEndMarker().startsWith("End")) && (!"Data".equals(fs.getEndMarker()))) {
@@ -79,7 +122,7 @@ public class FCPConnectionInputHandler implements Runnable {
 			FCPMessage msg;
 			try {
 				if(Logger.shouldLog(Logger.DEBUG, this))
-					Logger.debug(this, "Incoming FCP message:\n"+messageType+'\n'+fs.toString());
+					Logger.debug(this, "Incoming "+(dis != null ? "binary " : "")+"FCP message:\n"+messageType+'\n'+fs.toString());
 				msg = FCPMessage.create(messageType, fs, handler.bf, handler.server.core.persistentTempBucketFactory);
 				if(msg == null) continue;
 			} catch (MessageInvalidException e) {
@@ -96,7 +139,8 @@ public class FCPConnectionInputHandler implements Runnable {
 			if(msg instanceof BaseDataCarryingMessage) {
 				// FIXME tidy up - coalesce with above and below try { } catch (MIE) {}'s?
 				try {
-					((BaseDataCarryingMessage)msg).readFrom(lis, handler.bf, handler.server);
+					// lis does not buffer anything itself.
+					((BaseDataCarryingMessage)msg).readFrom(is, handler.bf, handler.server);
 				} catch (MessageInvalidException e) {
 					FCPMessage err = new ProtocolErrorMessage(e.protocolCode, false, e.getMessage(), e.ident, e.global);
 					handler.outputHandler.queue(err);
@@ -4,21 +4,32 @@
 package freenet.node.fcp;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
 import java.util.LinkedList;
 
 import freenet.support.Logger;
 import freenet.support.OOMHandler;
+import freenet.support.io.ChannelBufferedOutputStream;
 
 public class FCPConnectionOutputHandler implements Runnable {
 
 	final FCPConnectionHandler handler;
 	final LinkedList outQueue;
+	/** Latest SimpleProgressMessage by progress key, for each one that is on outQueue. 
+	 * If another comes in before the first has been sent, we just replace it here, so
+	 * a client which can't keep up gets the latest progress rather than a backlog. */
+	private final HashMap pendingProgress;
+	/** Set once we have stopped sending. Protected by outQueue. */
+	private boolean closed;
 	
 	public FCPConnectionOutputHandler(FCPConnectionHandler handler) {
 		this.handler = handler;
 		this.outQueue = new LinkedList();
+		this.pendingProgress = new HashMap();
 	}
 
 	void start() {
@@ -36,12 +47,36 @@ public class FCPConnectionOutputHandler implements Runnable {
 		} catch (Throwable t) {
 			Logger.error(this, "Caught "+t, t);
 		}
+		discardQueue();
 		handler.close();
 		handler.closedOutput();
 	}
+
+	/** Free the data of any messages which we will now never send. */
+	private void discardQueue() {
+		FCPMessage[] msgs;
+		synchronized(outQueue) {
+			closed = true;
+			msgs = (FCPMessage[]) outQueue.toArray(new FCPMessage[outQueue.size()]);
+			outQueue.clear();
+			pendingProgress.clear();
+		}
+		for(int i=0;i<msgs.length;i++) {
+			if(msgs[i] instanceof DataCarryingMessage)
+				((DataCarryingMessage)msgs[i]).discard();
+		}
+	}
  
 	private void realRun() throws IOException {
-		OutputStream os = new BufferedOutputStream(handler.sock.getOutputStream(), 4096);
+		SocketChannel channel = handler.sock.getChannel();
+		// If we have a channel, write it directly: the socket adaptor's stream takes the
+		// channel's blocking lock on every write, so a blocked read would stall us.
+		// (No zero-copy from disk: temp buckets are encrypted, so the data has to pass
+		// through our buffers anyway.)
+		OutputStream os = channel == null ? new BufferedOutputStream(handler.sock.getOutputStream(), 4096) :
+			new ChannelBufferedOutputStream(channel, 4096);
+		// Only used once the client has asked for binary framing.
+		ByteArrayOutputStream frameBuffer = null;
 		while(true) {
 			FCPMessage msg;
 			synchronized(outQueue) {
@@ -57,10 +92,18 @@ public class FCPConnectionOutputHandler implements Runnable {
 						continue;
 					}
 					msg = (FCPMessage) outQueue.removeFirst();
+					if(msg instanceof SimpleProgressMessage)
+						msg = (FCPMessage) pendingProgress.remove(((SimpleProgressMessage)msg).getProgressKey());
 					break;
 				}
 			}
-			msg.send(os);
+			if(frameBuffer != null) {
+				msg.sendBinary(os, frameBuffer);
+			} else {
+				msg.send(os);
+				if(msg instanceof NodeHelloMessage && ((NodeHelloMessage)msg).binaryFraming)
+					frameBuffer = new ByteArrayOutputStream(4096);
+			}
 			if(handler.isClosed()) {
 				os.flush();
 				os.close();
@@ -69,14 +112,30 @@ public class FCPConnectionOutputHandler implements Runnable {
 		}
 	}
 
-	public void queue(FCPMessage msg) {
+	/**
+	 * Queue a message to be sent to the client.
+	 * @return False if the connection has closed, in which case the message has been
+	 * discarded.
+	 */
+	public boolean queue(FCPMessage msg) {
 		if(Logger.shouldLog(Logger.DEBUG, this))
 			Logger.debug(this, "Queueing "+msg, new Exception("debug"));
 		if(msg == null) throw new NullPointerException();
 		synchronized(outQueue) {
-			outQueue.add(msg);
-			outQueue.notifyAll();
+			if(!closed) {
+				if(msg instanceof SimpleProgressMessage) {
+					// Coalesce with the one already queued, if any.
+					if(pendingProgress.put(((SimpleProgressMessage)msg).getProgressKey(), msg) != null)
+						return true;
+				}
+				outQueue.add(msg);
+				outQueue.notifyAll();
+				return true;
+			}
 		}
+		if(msg instanceof DataCarryingMessage)
+			((DataCarryingMessage)msg).discard();
+		return false;
 	}
 
 }
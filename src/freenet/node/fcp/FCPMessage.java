@@ -1,5 +1,7 @@
 package freenet.node.fcp;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -14,15 +16,41 @@ public abstract class FCPMessage {
 	public void send(OutputStream os) throws IOException {
 		SimpleFieldSet sfs = getFieldSet();
 		sfs.setEndMarker(getEndString());
-		String msg = sfs.toString();
 		os.write((getName()+ '\n').getBytes("UTF-8"));
-		os.write(msg.getBytes("UTF-8"));
+		sfs.writeTo(os);
 		if(Logger.shouldLog(Logger.DEBUG, this)) {
 			Logger.debug(this, "Outgoing FCP message:\n"+getName()+'\n'+sfs.toString());
 			Logger.debug(this, "Being handled by "+this);
 		}
 	}
 
+	/**
+	 * Send the message using binary framing: an int length, followed by that many
+	 * bytes containing the message name (writeUTF), the fields (see
+	 * SimpleFieldSet.writeBinaryTo()) and the end marker (writeUTF). Any data
+	 * follows the frame, exactly as in the text protocol.
+	 * @param buf Scratch buffer for building the frame. Will be reset.
+	 */
+	public void sendBinary(OutputStream os, ByteArrayOutputStream buf) throws IOException {
+		SimpleFieldSet sfs = getFieldSet();
+		buf.reset();
+		DataOutputStream dos = new DataOutputStream(buf);
+		dos.writeUTF(getName());
+		sfs.writeBinaryTo(dos);
+		dos.writeUTF(getEndString());
+		dos.flush();
+		int length = buf.size();
+		os.write(length >>> 24);
+		os.write(length >>> 16);
+		os.write(length >>> 8);
+		os.write(length);
+		buf.writeTo(os);
+		if(Logger.shouldLog(Logger.DEBUG, this)) {
+			Logger.debug(this, "Outgoing binary FCP message:\n"+getName()+'\n'+sfs.toString());
+			Logger.debug(this, "Being handled by "+this);
+		}
+	}
+
 	String getEndString() {
 		return "EndMessage";
 	}
@@ -5,15 +5,11 @@ package freenet.node.fcp;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.BindException;
 import java.net.Socket;
 import java.util.Iterator;
@@ -46,6 +42,7 @@ import freenet.support.api.Bucket;
 import freenet.support.api.IntCallback;
 import freenet.support.api.LongCallback;
 import freenet.support.api.StringCallback;
+import freenet.support.io.LineReadingInputStream;
 
 /**
  * FCP server process.
@@ -117,7 +114,7 @@ public class FCPServer implements Runnable {
 		
 		NetworkInterface tempNetworkInterface = null;
 		try {
-			tempNetworkInterface = NetworkInterface.create(port, bindTo, allowedHosts, node.executor);
+			tempNetworkInterface = NetworkInterface.create(port, bindTo, allowedHosts, node.executor, true);
 		} catch (BindException be) {
 			Logger.error(this, "Couldn't bind to FCP Port "+bindTo+ ':' +port+". FCP Server not started.");
 			System.out.println("Couldn't bind to FCP Port "+bindTo+ ':' +port+". FCP Server not started.");
@@ -582,9 +579,8 @@ public class FCPServer implements Runnable {
 					FileOutputStream fos = new FileOutputStream(compressedTemp);
 					BufferedOutputStream bos = new BufferedOutputStream(fos);
 					GZIPOutputStream gos = new GZIPOutputStream(bos);
-					OutputStreamWriter osw = new OutputStreamWriter(gos, "UTF-8");
-					BufferedWriter w = new BufferedWriter(osw);
-					w.write(Integer.toString(persistentRequests.length)+ '\n');
+					BufferedOutputStream w = new BufferedOutputStream(gos, 65536);
+					w.write((Integer.toString(persistentRequests.length)+ '\n').getBytes("UTF-8"));
 					for(int i=0;i<persistentRequests.length;i++)
 						persistentRequests[i].write(w);
 					w.close();
@@ -654,9 +650,8 @@ public class FCPServer implements Runnable {
 	
 	private void loadPersistentRequests(InputStream is) throws IOException {
 		synchronized(persistenceSync) {
-			InputStreamReader ris = new InputStreamReader(is, "UTF-8");
-			BufferedReader br = new BufferedReader(ris);
-			String r = br.readLine();
+			LineReadingInputStream br = new LineReadingInputStream(is);
+			String r = br.readLine(32, 32, true);
 			int count;
 			try {
 				count = Integer.parseInt(r);
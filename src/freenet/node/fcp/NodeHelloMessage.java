@@ -17,6 +17,7 @@ import freenet.support.compress.Compressor;
  * FCPVersion=<protocol version>
  * Node=Fred
  * Version=0.7.0,401
+ * Framing=Binary // if the client asked for it
  * EndMessage
  */
 public class NodeHelloMessage extends FCPMessage {
@@ -29,10 +30,13 @@ public class NodeHelloMessage extends FCPMessage {
 	
 	private final Node node;
 	private final String id;
+	/** If true, this is the last text message on the connection */
+	final boolean binaryFraming;
 		
-	public NodeHelloMessage(final Node node, String id) {
+	public NodeHelloMessage(final Node node, String id, boolean binaryFraming) {
 		this.node = node;
 		this.id = id;
+		this.binaryFraming = binaryFraming;
 	}
 	
 	public SimpleFieldSet getFieldSet() {
@@ -49,6 +53,8 @@ public class NodeHelloMessage extends FCPMessage {
 		sfs.putSingle("CompressionCodecs", Integer.toString(Compressor.countCompressAlgorithms()));
 		sfs.putSingle("ConnectionIdentifier", id);
 		sfs.putSingle("NodeLanguage", L10n.getSelectedLanguage());
+		if(binaryFraming)
+			sfs.putSingle("Framing", "Binary");
 		return sfs;
 	}
 
@@ -12,11 +12,14 @@ public class SimpleProgressMessage extends FCPMessage {
 	private final String ident;
 	private final boolean global;
 	private final SplitfileProgressEvent event;
+	/** Identifies the request, for coalescing progress messages on a connection. */
+	private final String progressKey;
 	
 	public SimpleProgressMessage(String identifier, boolean global, SplitfileProgressEvent event) {
 		this.ident = identifier;
 		this.event = event;
 		this.global = global;
+		this.progressKey = global ? "G:"+identifier : "C:"+identifier;
 	}
 
 	public SimpleFieldSet getFieldSet() {
@@ -40,6 +43,10 @@ public class SimpleProgressMessage extends FCPMessage {
 		throw new MessageInvalidException(ProtocolErrorMessage.INVALID_MESSAGE, "SimpleProgress goes from server to client not the other way around", ident, global);
 	}
 
+	String getProgressKey() {
+		return progressKey;
+	}
+
 	public double getFraction() {
 		return (double) event.fetchedBlocks / (double) event.totalBlocks;
 	}
@@ -0,0 +1,386 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.node.simulator;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import freenet.crypt.DummyRandomSource;
+import freenet.crypt.RandomSource;
+import freenet.io.comm.VirtualNetwork;
+import freenet.keys.ClientCHKBlock;
+import freenet.keys.ClientKey;
+import freenet.keys.ClientKeyBlock;
+import freenet.keys.ClientSSKBlock;
+import freenet.keys.InsertableClientSSK;
+import freenet.node.Node;
+import freenet.node.NodeStarter;
+import freenet.node.Version;
+import freenet.support.Executor;
+import freenet.support.Logger;
+import freenet.support.PooledExecutor;
+import freenet.support.io.ArrayBucket;
+
+/**
+ * Load generator for measuring how many requests a node can handle.
+ *
+ * Creates a target node and a number of peers, each connected to the target
+ * and to its neighbours in a ring. Fills the peers with CHKs and SSKs, then
+ * runs a number of client threads against the target for a fixed time, each
+ * picking operations at random according to the configured mix:
+ * <ul>
+ * <li>chkRequests/sskRequests: the target fetches a preloaded key, ignoring its
+ * own store.</li>
+ * <li>chkInserts/sskInserts: the target inserts a new block.</li>
+ * <li>relays: a random peer fetches a preloaded CHK, ignoring its own store,
+ * which usually routes through the target.</li>
+ * </ul>
+ * Reports throughput, latency percentiles and failures per operation, and the
+ * target's thread count, heap use and number of garbage collections over the
+ * run. The workload is generated from a seed, so runs are comparable across
+ * releases (thread scheduling of course is not reproducible).
+ *
+ * Usage: RealNodeLoadTest [name=value ...], with the defaults:
+ * <pre>
+ * peers=10 threads=8 seconds=60 seed=0 preload=100
+ * chkRequests=40 chkInserts=20 sskRequests=20 sskInserts=10 relays=10
+ * transport=virtual latency=0 loss=0 bandwidth=0
+ * </pre>
+ * transport=udp uses real sockets on localhost; latency, loss and bandwidth
+ * only apply to the virtual transport.
+ */
+public class RealNodeLoadTest {
+
+    static final short MAX_HTL = (short)6;
+    static final int PORT_BASE = 5001;
+    /** Data size for CHK and SSK blocks */
+    static final int DATA_SIZE = 800;
+
+    static final int CHK_REQUEST = 0;
+    static final int CHK_INSERT = 1;
+    static final int SSK_REQUEST = 2;
+    static final int SSK_INSERT = 3;
+    static final int RELAY = 4;
+    static final String[] OP_NAMES = new String[] { "chkRequests", "chkInserts", "sskRequests", "sskInserts", "relays" };
+    static final int[] DEFAULT_MIX = new int[] { 40, 20, 20, 10, 10 };
+
+    private final Node target;
+    private final Node[] peers;
+    private final RandomSource random;
+    private final int[] mix;
+    private final int mixTotal;
+    /** Preloaded keys, for requests */
+    private final ClientKey[] chks;
+    private final ClientKey[] ssks;
+    private final OpStats[] stats;
+    /** All SSKs are under one keypair; generating a keypair per insert would dominate. */
+    private final InsertableClientSSK sskKey;
+    private volatile boolean running;
+    private int docNameCounter;
+
+    RealNodeLoadTest(Node target, Node[] peers, RandomSource random, int[] mix, int preload) {
+        this.target = target;
+        this.peers = peers;
+        this.random = random;
+        this.mix = mix;
+        int total = 0;
+        for(int i=0;i<mix.length;i++)
+            total += mix[i];
+        mixTotal = total;
+        chks = new ClientKey[preload];
+        ssks = new ClientKey[preload];
+        stats = new OpStats[OP_NAMES.length];
+        for(int i=0;i<stats.length;i++)
+            stats[i] = new OpStats(OP_NAMES[i]);
+        sskKey = InsertableClientSSK.createRandom(random, "load");
+    }
+
+    /** Latencies and failures for one kind of operation. */
+    static class OpStats {
+        final String name;
+        private long[] latencies = new long[1024];
+        private int count;
+        private int failures;
+
+        OpStats(String name) {
+            this.name = name;
+        }
+
+        synchronized void report(long latency, boolean success) {
+            if(count == latencies.length) {
+                long[] newLatencies = new long[latencies.length * 2];
+                System.arraycopy(latencies, 0, newLatencies, 0, count);
+                latencies = newLatencies;
+            }
+            latencies[count++] = latency;
+            if(!success) failures++;
+        }
+
+        synchronized String summary(long millis) {
+            if(count == 0) return name+": none";
+            long[] sorted = new long[count];
+            System.arraycopy(latencies, 0, sorted, 0, count);
+            Arrays.sort(sorted);
+            return name+": "+count+" ("+(count * 1000.0 / millis)+"/sec), "+failures+" failed, latency ms: p50 "+
+                percentile(sorted, 50)+" p90 "+percentile(sorted, 90)+" p99 "+percentile(sorted, 99)+" max "+sorted[count-1];
+        }
+
+        private static long percentile(long[] sorted, int p) {
+            int index = (int) Math.ceil(sorted.length * p / 100.0) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    /**
+     * Counts garbage collections: an unreachable object which, when finalized,
+     * counts one and creates another.
+     */
+    static class GCCounter {
+        static int collections;
+        static volatile boolean enabled;
+
+        static void start() {
+            enabled = true;
+            new GCCounter();
+        }
+
+        protected void finalize() {
+            if(!enabled) return;
+            synchronized(GCCounter.class) {
+                collections++;
+            }
+            new GCCounter();
+        }
+
+        static synchronized int getCollections() {
+            return collections;
+        }
+    }
+
+    /** Insert the keys the requests will fetch, through random peers. */
+    void preload() throws Exception {
+        for(int i=0;i<chks.length;i++) {
+            Node node = peers[random.nextInt(peers.length)];
+            ClientCHKBlock block = makeCHK(random);
+            node.clientCore.realPut(block, true);
+            chks[i] = block.getClientKey();
+            ClientSSKBlock sskBlock = makeSSK(random);
+            node.clientCore.realPut(sskBlock, true);
+            ssks[i] = sskBlock.getClientKey();
+        }
+    }
+
+    private ClientCHKBlock makeCHK(Random r) throws Exception {
+        byte[] data = new byte[DATA_SIZE];
+        r.nextBytes(data);
+        return ClientCHKBlock.encode(data, false, true, (short)-1, data.length);
+    }
+
+    private ClientSSKBlock makeSSK(Random r) throws Exception {
+        InsertableClientSSK key = sskKey;
+        String docName;
+        synchronized(this) {
+            docName = "load-"+(docNameCounter++);
+        }
+        InsertableClientSSK ssk = new InsertableClientSSK(docName, key.pubKeyHash, key.getPubKey(), key.privKey, key.cryptoKey, key.cryptoAlgorithm);
+        byte[] data = new byte[DATA_SIZE];
+        r.nextBytes(data);
+        return ssk.encode(new ArrayBucket(data), false, true, (short)-1, data.length, random);
+    }
+
+    private int pickOp(Random r) {
+        int x = r.nextInt(mixTotal);
+        for(int i=0;i<mix.length;i++) {
+            if(x < mix[i]) return i;
+            x -= mix[i];
+        }
+        throw new IllegalStateException();
+    }
+
+    private boolean doOp(int op, Random r) throws Exception {
+        ClientKeyBlock block;
+        switch(op) {
+        case CHK_REQUEST:
+            block = target.clientCore.realGetKey(chks[r.nextInt(chks.length)], false, true, true);
+            return block != null;
+        case CHK_INSERT:
+            target.clientCore.realPut(makeCHK(r), true);
+            return true;
+        case SSK_REQUEST:
+            block = target.clientCore.realGetKey(ssks[r.nextInt(ssks.length)], false, true, true);
+            return block != null;
+        case SSK_INSERT:
+            target.clientCore.realPut(makeSSK(r), true);
+            return true;
+        case RELAY:
+            Node node = peers[r.nextInt(peers.length)];
+            block = node.clientCore.realGetKey(chks[r.nextInt(chks.length)], false, true, true);
+            return block != null;
+        default:
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private class Client implements Runnable {
+        private final Random r;
+
+        Client(long seed) {
+            r = new Random(seed);
+        }
+
+        public void run() {
+            while(running) {
+                int op = pickOp(r);
+                long start = System.currentTimeMillis();
+                boolean success;
+                try {
+                    success = doOp(op, r);
+                } catch (Throwable t) {
+                    if(Logger.shouldLog(Logger.MINOR, this))
+                        Logger.minor(this, "Operation failed: "+OP_NAMES[op]+": "+t, t);
+                    success = false;
+                }
+                stats[op].report(System.currentTimeMillis() - start, success);
+            }
+        }
+    }
+
+    /**
+     * Run the client threads for the given time, sampling the target once a
+     * second, and print the results.
+     */
+    void run(int threadCount, int seconds, long seed) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for(int i=0;i<threadCount;i++)
+            threads[i] = new Thread(new Client(seed + i + 1), "Load test client #"+i);
+        running = true;
+        GCCounter.start();
+        int gcBefore = GCCounter.getCollections();
+        Runtime rt = Runtime.getRuntime();
+        long start = System.currentTimeMillis();
+        for(int i=0;i<threadCount;i++)
+            threads[i].start();
+        int maxThreads = 0;
+        long totalThreads = 0;
+        long maxHeap = 0;
+        int samples = 0;
+        long end = start + seconds * 1000L;
+        while(System.currentTimeMillis() < end) {
+            Thread.sleep(1000);
+            int activeThreads = target.nodeStats.getActiveThreadCount();
+            long heap = rt.totalMemory() - rt.freeMemory();
+            maxThreads = Math.max(maxThreads, activeThreads);
+            totalThreads += activeThreads;
+            maxHeap = Math.max(maxHeap, heap);
+            samples++;
+        }
+        running = false;
+        for(int i=0;i<threadCount;i++)
+            threads[i].join();
+        long time = System.currentTimeMillis() - start;
+        int gcs = GCCounter.getCollections() - gcBefore;
+        GCCounter.enabled = false;
+        System.out.println();
+        System.out.println("Load test results for build "+Version.buildNumber()+" r"+Version.cvsRevision+": "+threadCount+" clients for "+time+"ms");
+        int total = 0;
+        for(int i=0;i<stats.length;i++) {
+            System.out.println(stats[i].summary(time));
+            total += stats[i].count;
+        }
+        System.out.println("Total: "+total+" operations ("+(total * 1000.0 / time)+"/sec)");
+        System.out.println("Threads: average "+(samples == 0 ? 0 : totalThreads / samples)+", max "+maxThreads);
+        System.out.println("Heap: max "+(maxHeap / 1024)+"K, garbage collections: "+gcs);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int peerCount = 10;
+        int threadCount = 8;
+        int seconds = 60;
+        long seed = 0;
+        int preload = 100;
+        int[] mix = (int[]) DEFAULT_MIX.clone();
+        boolean virtual = true;
+        int latency = 0;
+        double loss = 0.0;
+        int bandwidth = 0;
+        for(int i=0;i<args.length;i++) {
+            int x = args[i].indexOf('=');
+            if(x < 0) {
+                System.err.println("Arguments are name=value, e.g. peers=10 threads=8 seconds=60 chkRequests=40 transport=virtual");
+                System.exit(1);
+            }
+            String name = args[i].substring(0, x);
+            String value = args[i].substring(x+1);
+            if(name.equals("peers")) peerCount = Integer.parseInt(value);
+            else if(name.equals("threads")) threadCount = Integer.parseInt(value);
+            else if(name.equals("seconds")) seconds = Integer.parseInt(value);
+            else if(name.equals("seed")) seed = Long.parseLong(value);
+            else if(name.equals("preload")) preload = Integer.parseInt(value);
+            else if(name.equals("transport")) virtual = !value.equals("udp");
+            else if(name.equals("latency")) latency = Integer.parseInt(value);
+            else if(name.equals("loss")) loss = Double.parseDouble(value);
+            else if(name.equals("bandwidth")) bandwidth = Integer.parseInt(value);
+            else {
+                boolean found = false;
+                for(int j=0;j<OP_NAMES.length;j++) {
+                    if(OP_NAMES[j].equals(name)) {
+                        mix[j] = Integer.parseInt(value);
+                        found = true;
+                    }
+                }
+                if(!found) {
+                    System.err.println("Unknown argument: "+name);
+                    System.exit(1);
+                }
+            }
+        }
+
+        String wd = "realNodeLoadTest";
+        new File(wd).mkdir();
+        NodeStarter.globalTestInit(wd); // ignore Random, using our own
+        Logger.setupStdoutLogging(Logger.ERROR, "");
+        DummyRandomSource random = new DummyRandomSource();
+        random.setSeed(seed);
+        VirtualNetwork network = null;
+        if(virtual) {
+            network = new VirtualNetwork(seed);
+            network.setLatency(latency);
+            network.setLossProbability(loss);
+            network.setBandwidth(bandwidth);
+        }
+        Executor executor = new PooledExecutor();
+        Node target = NodeStarter.createTestNode(PORT_BASE, wd, false, false, true, MAX_HTL, 0, random, executor, network);
+        Node[] peers = new Node[peerCount];
+        for(int i=0;i<peerCount;i++)
+            peers[i] = NodeStarter.createTestNode(PORT_BASE+1+i, wd, false, false, true, MAX_HTL, 0, random, executor, network);
+        // Everyone connects to the target, and to their neighbours
+        for(int i=0;i<peerCount;i++) {
+            target.connect(peers[i]);
+            peers[i].connect(target);
+            if(peerCount > 2) {
+                Node next = peers[(i+1) % peerCount];
+                peers[i].connect(next);
+                next.connect(peers[i]);
+            }
+        }
+        target.start(false);
+        for(int i=0;i<peerCount;i++)
+            peers[i].start(false);
+        System.out.println("Waiting for "+peerCount+" peers to connect...");
+        long deadline = System.currentTimeMillis() + 2*60*1000;
+        while(target.peers.countNonBackedOffPeers() < peerCount && System.currentTimeMillis() < deadline)
+            Thread.sleep(1000);
+        System.out.println("Connected to "+target.peers.countNonBackedOffPeers()+" peers");
+
+        RealNodeLoadTest test = new RealNodeLoadTest(target, peers, random, mix, preload);
+        System.out.println("Preloading "+preload+" CHKs and SSKs...");
+        test.preload();
+        test.run(threadCount, seconds, seed);
+        if(network != null)
+            System.out.println(network);
+        System.exit(0);
+    }
+
+}
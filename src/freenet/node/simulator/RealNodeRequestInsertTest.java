@@ -10,6 +10,7 @@ import freenet.crypt.DiffieHellman;
 import freenet.crypt.DummyRandomSource;
 import freenet.io.comm.PeerParseException;
 import freenet.io.comm.ReferenceSignatureVerificationException;
+import freenet.io.comm.VirtualNetwork;
 import freenet.keys.CHKEncodeException;
 import freenet.keys.ClientCHK;
 import freenet.keys.ClientCHKBlock;
@@ -32,6 +33,10 @@ import freenet.support.math.SimpleRunningAverage;
 
 /**
  * @author amphibian
+ * 
+ * Usage: RealNodeRequestInsertTest [number of nodes] [number of requests, 0 for no limit] [virtual [latency ms] [loss probability] [bytes/sec per node]]
+ * With "virtual", the nodes talk over an in-JVM VirtualNetwork rather than UDP
+ * sockets, as in RealNodeRoutingTest.
  */
 public class RealNodeRequestInsertTest {
 
@@ -39,6 +44,17 @@ public class RealNodeRequestInsertTest {
     static final short MAX_HTL = 5;
     
     public static void main(String[] args) throws FSParseException, PeerParseException, CHKEncodeException, InvalidThresholdException, NodeInitException, ReferenceSignatureVerificationException {
+        int numberOfNodes = NUMBER_OF_NODES;
+        if(args.length > 0) numberOfNodes = Integer.parseInt(args[0]);
+        int numberOfRequests = 0;
+        if(args.length > 1) numberOfRequests = Integer.parseInt(args[1]);
+        VirtualNetwork network = null;
+        if(args.length > 2 && args[2].equals("virtual")) {
+            network = new VirtualNetwork(0);
+            if(args.length > 3) network.setLatency(Integer.parseInt(args[3]));
+            if(args.length > 4) network.setLossProbability(Double.parseDouble(args[4]));
+            if(args.length > 5) network.setBandwidth(Integer.parseInt(args[5]));
+        }
         String wd = "realNodeRequestInsertTest";
         new File(wd).mkdir();
         NodeStarter.globalTestInit(wd); // ignore Random, using our own
@@ -49,34 +65,34 @@ public class RealNodeRequestInsertTest {
         System.out.println();
         DummyRandomSource random = new DummyRandomSource();
         DiffieHellman.init(random);
-        Node[] nodes = new Node[NUMBER_OF_NODES];
+        Node[] nodes = new Node[numberOfNodes];
         Logger.normal(RealNodeRoutingTest.class, "Creating nodes...");
         Executor executor = new PooledExecutor();
-        for(int i=0;i<NUMBER_OF_NODES;i++) {
+        for(int i=0;i<numberOfNodes;i++) {
             nodes[i] = 
-            	NodeStarter.createTestNode(5001+i, wd, false, true, true, MAX_HTL, 20 /* 5% */, random, executor);
+            	NodeStarter.createTestNode(5001+i, wd, false, true, true, MAX_HTL, 20 /* 5% */, random, executor, network);
             Logger.normal(RealNodeRoutingTest.class, "Created node "+i);
         }
-        SimpleFieldSet refs[] = new SimpleFieldSet[NUMBER_OF_NODES];
-        for(int i=0;i<NUMBER_OF_NODES;i++)
+        SimpleFieldSet refs[] = new SimpleFieldSet[numberOfNodes];
+        for(int i=0;i<numberOfNodes;i++)
             refs[i] = nodes[i].exportDarknetPublicFieldSet();
-        Logger.normal(RealNodeRoutingTest.class, "Created "+NUMBER_OF_NODES+" nodes");
+        Logger.normal(RealNodeRoutingTest.class, "Created "+numberOfNodes+" nodes");
         // Now link them up
         // Connect the set
-        for(int i=0;i<NUMBER_OF_NODES;i++) {
-            int next = (i+1) % NUMBER_OF_NODES;
-            int prev = (i+NUMBER_OF_NODES-1)%NUMBER_OF_NODES;
+        for(int i=0;i<numberOfNodes;i++) {
+            int next = (i+1) % numberOfNodes;
+            int prev = (i+numberOfNodes-1)%numberOfNodes;
             nodes[i].connect(nodes[next]);
             nodes[i].connect(nodes[prev]);
         }
         Logger.normal(RealNodeRoutingTest.class, "Connected nodes");
         // Now add some random links
-        for(int i=0;i<NUMBER_OF_NODES*5;i++) {
-            if(i % NUMBER_OF_NODES == 0)
+        for(int i=0;i<numberOfNodes*5;i++) {
+            if(i % numberOfNodes == 0)
                 Logger.normal(RealNodeRoutingTest.class, ""+i);
-            int length = (int)Math.pow(NUMBER_OF_NODES, random.nextDouble());
-            int nodeA = random.nextInt(NUMBER_OF_NODES);
-            int nodeB = (nodeA+length)%NUMBER_OF_NODES;
+            int length = (int)Math.pow(numberOfNodes, random.nextDouble());
+            int nodeA = random.nextInt(numberOfNodes);
+            int nodeB = (nodeA+length)%numberOfNodes;
             //System.out.println(""+nodeA+" -> "+nodeB);
             Node a = nodes[nodeA];
             Node b = nodes[nodeB];
@@ -86,7 +102,17 @@ public class RealNodeRequestInsertTest {
         
         Logger.normal(RealNodeRoutingTest.class, "Added random links");
         
-        for(int i=0;i<NUMBER_OF_NODES;i++)
+        try {
+            run(nodes, network, numberOfRequests, random);
+        } finally {
+            if(network != null) network.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static void run(Node[] nodes, VirtualNetwork network, int numberOfRequests, DummyRandomSource random) throws NodeInitException {
+        int numberOfNodes = nodes.length;
+        for(int i=0;i<numberOfNodes;i++)
             nodes[i].start(false);
         
         // Now sit back and watch the fireworks!
@@ -105,7 +131,7 @@ public class RealNodeRequestInsertTest {
             } catch (InterruptedException e) {
                 // Ignore
             }
-            for(int i=0;i<NUMBER_OF_NODES;i++) {
+            for(int i=0;i<numberOfNodes;i++) {
                 Logger.normal(RealNodeRoutingTest.class, "Cycle "+cycleNumber+" node "+i+": "+nodes[i].getLocation());
             }
             int newSwaps = LocationManager.swaps;
@@ -122,6 +148,8 @@ public class RealNodeRequestInsertTest {
             Logger.normal(RealNodeRoutingTest.class, "Swaps rejected (loop): "+LocationManager.swapsRejectedLoop);
             Logger.normal(RealNodeRoutingTest.class, "Swaps rejected (recognized ID):" +LocationManager.swapsRejectedRecognizedID);
             lastSwaps = newSwaps;
+            if(network != null)
+                Logger.normal(RealNodeRoutingTest.class, network.toString());
             // Do some (routed) test-pings
             for(int i=0;i<10;i++) {
                 try {
@@ -129,10 +157,10 @@ public class RealNodeRequestInsertTest {
                 } catch (InterruptedException e1) {
                 }
                 try {
-                Node randomNode = nodes[random.nextInt(NUMBER_OF_NODES)];
+                Node randomNode = nodes[random.nextInt(numberOfNodes)];
                 Node randomNode2 = randomNode;
                 while(randomNode2 == randomNode)
-                    randomNode2 = nodes[random.nextInt(NUMBER_OF_NODES)];
+                    randomNode2 = nodes[random.nextInt(numberOfNodes)];
                 Logger.normal(RealNodeRoutingTest.class, "Pinging "+randomNode2.getDarknetPortNumber()+" from "+randomNode.getDarknetPortNumber());
                 double loc2 = randomNode2.getLocation();
                 int hopsTaken = randomNode.routedPing(loc2);
@@ -162,9 +190,10 @@ public class RealNodeRequestInsertTest {
         System.out.println("Ping average > 98%, lets do some inserts/requests");
         System.out.println();
         int requestNumber = 0;
+        int requestSuccesses = 0;
         RunningAverage requestsAvg = new SimpleRunningAverage(100, 0.0);
         String baseString = System.currentTimeMillis() + " ";
-        while(true) {
+        while(numberOfRequests == 0 || requestNumber < numberOfRequests) {
             try {
                 requestNumber++;
                 try {
@@ -173,7 +202,7 @@ public class RealNodeRequestInsertTest {
                 }
                 String dataString = baseString + requestNumber;
                 // Pick random node to insert to
-                int node1 = random.nextInt(NUMBER_OF_NODES);
+                int node1 = random.nextInt(numberOfNodes);
                 Node randomNode = nodes[node1];
                 Logger.error(RealNodeRequestInsertTest.class,"Inserting: \""+dataString+"\" to "+node1);
                 byte[] data = dataString.getBytes();
@@ -192,7 +221,7 @@ public class RealNodeRequestInsertTest {
                 // Pick random node to request from
                 int node2;
                 do {
-                    node2 = random.nextInt(NUMBER_OF_NODES);
+                    node2 = random.nextInt(numberOfNodes);
                 } while(node2 == node1);
                 Node fetchNode = nodes[node2];
                 block = (ClientCHKBlock) fetchNode.clientCore.realGetKey((ClientKey) chk, false, true, false);
@@ -203,6 +232,7 @@ public class RealNodeRequestInsertTest {
                     byte[] results = block.memoryDecode();
                     requestsAvg.report(1.0);
                     if(Arrays.equals(results, data)) {
+                        requestSuccesses++;
                         Logger.error(RealNodeRequestInsertTest.class, "Fetch succeeded: "+new String(results));
                     } else {
                         Logger.error(RealNodeRequestInsertTest.class, "Returned invalid data!: "+new String(results));
@@ -212,5 +242,8 @@ public class RealNodeRequestInsertTest {
                 Logger.error(RealNodeRequestInsertTest.class, "Caught "+t, t);
             }
         }
+        System.out.println("Fetched "+requestSuccesses+" of "+requestNumber+" keys");
+        if(network != null)
+            System.out.println(network.toString());
     }
 }
@@ -9,6 +9,7 @@ import freenet.crypt.DiffieHellman;
 import freenet.crypt.DummyRandomSource;
 import freenet.io.comm.PeerParseException;
 import freenet.io.comm.ReferenceSignatureVerificationException;
+import freenet.io.comm.VirtualNetwork;
 import freenet.node.FSParseException;
 import freenet.node.LocationManager;
 import freenet.node.Node;
@@ -28,6 +29,10 @@ import freenet.support.math.SimpleRunningAverage;
  * Create a mesh of nodes and let them sort out their locations.
  * 
  * Then run some node-to-node searches.
+ * 
+ * Usage: RealNodeRoutingTest [number of nodes] [virtual [latency ms] [loss probability] [bytes/sec per node]]
+ * With "virtual", the nodes talk over an in-JVM VirtualNetwork rather than UDP
+ * sockets, which makes a thousand nodes feasible.
  */
 public class RealNodeRoutingTest {
 
@@ -38,36 +43,45 @@ public class RealNodeRoutingTest {
         Logger.setupStdoutLogging(Logger.NORMAL, "freenet.node.CPUAdjustingSwapRequestInterval:minor" /*"freenet.node.LocationManager:debug,freenet.node.FNPPacketManager:normal,freenet.io.comm.MessageCore:debug"*/);
         System.out.println("Routing test using real nodes:");
         System.out.println();
+        int numberOfNodes = NUMBER_OF_NODES;
+        if(args.length > 0) numberOfNodes = Integer.parseInt(args[0]);
+        VirtualNetwork network = null;
+        if(args.length > 1 && args[1].equals("virtual")) {
+            network = new VirtualNetwork(0);
+            if(args.length > 2) network.setLatency(Integer.parseInt(args[2]));
+            if(args.length > 3) network.setLossProbability(Double.parseDouble(args[3]));
+            if(args.length > 4) network.setBandwidth(Integer.parseInt(args[4]));
+        }
         String wd = "realNodeRequestInsertTest";
         new File(wd).mkdir();
         NodeStarter.globalTestInit(wd); // ignore Random, using our own
         DummyRandomSource random = new DummyRandomSource();
         DiffieHellman.init(random);
-        Node[] nodes = new Node[NUMBER_OF_NODES];
+        Node[] nodes = new Node[numberOfNodes];
         Logger.normal(RealNodeRoutingTest.class, "Creating nodes...");
         Executor executor = new PooledExecutor();
-        for(int i=0;i<NUMBER_OF_NODES;i++) {
+        for(int i=0;i<numberOfNodes;i++) {
             nodes[i] = 
-            	NodeStarter.createTestNode(5001+i, wd, false, true, true, MAX_HTL, 0 /* no dropped packets */, random, executor);
+            	NodeStarter.createTestNode(5001+i, wd, false, true, true, MAX_HTL, 0 /* no dropped packets */, random, executor, network);
             Logger.normal(RealNodeRoutingTest.class, "Created node "+i);
         }
-        Logger.normal(RealNodeRoutingTest.class, "Created "+NUMBER_OF_NODES+" nodes");
+        Logger.normal(RealNodeRoutingTest.class, "Created "+numberOfNodes+" nodes");
         // Now link them up
         // Connect the set
-        for(int i=0;i<NUMBER_OF_NODES;i++) {
-            int next = (i+1) % NUMBER_OF_NODES;
-            int prev = (i+NUMBER_OF_NODES-1)%NUMBER_OF_NODES;
+        for(int i=0;i<numberOfNodes;i++) {
+            int next = (i+1) % numberOfNodes;
+            int prev = (i+numberOfNodes-1)%numberOfNodes;
             nodes[i].connect(nodes[next]);
             nodes[i].connect(nodes[prev]);
         }
         Logger.normal(RealNodeRoutingTest.class, "Connected nodes");
         // Now add some random links
-        for(int i=0;i<NUMBER_OF_NODES*5;i++) {
-            if(i % NUMBER_OF_NODES == 0)
+        for(int i=0;i<numberOfNodes*5;i++) {
+            if(i % numberOfNodes == 0)
                 Logger.normal(RealNodeRoutingTest.class, ""+i);
-            int length = (int)Math.pow(NUMBER_OF_NODES, random.nextDouble());
-            int nodeA = random.nextInt(NUMBER_OF_NODES);
-            int nodeB = (nodeA+length)%NUMBER_OF_NODES;
+            int length = (int)Math.pow(numberOfNodes, random.nextDouble());
+            int nodeA = random.nextInt(numberOfNodes);
+            int nodeB = (nodeA+length)%numberOfNodes;
             //System.out.println(""+nodeA+" -> "+nodeB);
             Node a = nodes[nodeA];
             Node b = nodes[nodeB];
@@ -77,7 +91,16 @@ public class RealNodeRoutingTest {
 
         Logger.normal(RealNodeRoutingTest.class, "Added random links");
         
-        for(int i=0;i<NUMBER_OF_NODES;i++)
+        try {
+            run(nodes, network, random);
+        } finally {
+            if(network != null) network.shutdown();
+        }
+    }
+
+    private static void run(Node[] nodes, VirtualNetwork network, DummyRandomSource random) throws NodeInitException {
+        int numberOfNodes = nodes.length;
+        for(int i=0;i<numberOfNodes;i++)
             nodes[i].start(false);
         
         // Now sit back and watch the fireworks!
@@ -96,7 +119,7 @@ public class RealNodeRoutingTest {
             } catch (InterruptedException e) {
                 // Ignore
             }
-            for(int i=0;i<NUMBER_OF_NODES;i++) {
+            for(int i=0;i<numberOfNodes;i++) {
                 Logger.normal(RealNodeRoutingTest.class, "Cycle "+cycleNumber+" node "+i+": "+nodes[i].getLocation());
             }
             int newSwaps = LocationManager.swaps;
@@ -113,6 +136,8 @@ public class RealNodeRoutingTest {
             Logger.normal(RealNodeRoutingTest.class, "Swaps rejected (loop): "+LocationManager.swapsRejectedLoop);
             Logger.normal(RealNodeRoutingTest.class, "Swaps rejected (recognized ID):" +LocationManager.swapsRejectedRecognizedID);
             lastSwaps = newSwaps;
+            if(network != null)
+                Logger.normal(RealNodeRoutingTest.class, network.toString());
             // Do some (routed) test-pings
             for(int i=0;i<10;i++) {
                 try {
@@ -120,10 +145,10 @@ public class RealNodeRoutingTest {
                 } catch (InterruptedException e1) {
                 }
                 try {
-                Node randomNode = nodes[random.nextInt(NUMBER_OF_NODES)];
+                Node randomNode = nodes[random.nextInt(numberOfNodes)];
                 Node randomNode2 = randomNode;
                 while(randomNode2 == randomNode)
-                    randomNode2 = nodes[random.nextInt(NUMBER_OF_NODES)];
+                    randomNode2 = nodes[random.nextInt(numberOfNodes)];
                 Logger.normal(RealNodeRoutingTest.class, "Pinging "+randomNode2.getDarknetPortNumber()+" from "+randomNode.getDarknetPortNumber());
                 double loc2 = randomNode2.getLocation();
                 int hopsTaken = randomNode.routedPing(loc2);
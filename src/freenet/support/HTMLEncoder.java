@@ -3,6 +3,8 @@
  * http://www.gnu.org/ for further details of the GPL. */
 package freenet.support;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -27,6 +29,25 @@ public class HTMLEncoder {
 		encodeToBuffer(s.length(), s, sb);
 	}
 	
+	/**
+	 * Encode a string straight to a Writer, without building it in memory first.
+	 */
+	public static void encodeToWriter(String s, Writer w) throws IOException {
+		int n = s.length();
+		int start = 0;
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if(Character.isLetterOrDigit(c)) continue;
+			if(!charTable.containsKey(c)) continue;
+			if(i > start) w.write(s, start, i - start);
+			w.write('&');
+			w.write(charTable.get(c));
+			w.write(';');
+			start = i + 1;
+		}
+		if(n > start) w.write(s, start, n - start);
+	}
+	
 	private static void encodeToBuffer(int n, String s, StringBuffer sb) {
 		for (int i = 0; i < n; i++) {
 			char c = s.charAt(i);
@@ -1,5 +1,7 @@
 package freenet.support;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -156,14 +158,14 @@ public class HTMLNode {
 			tagBuffer.append('"');;
 		}
 		if (children.size() == 0) {
-			if (name.equals("textarea") || name.equals("div") || name.equals("a")) {
+			if (hasCloseTag()) {
                 tagBuffer.append("></").append(name).append('>');
 			} else {
 				tagBuffer.append(" />");
 			}
 		} else {
 			tagBuffer.append('>');
-			if(name.equals("div") || name.equals("form") || name.equals("input") || name.equals("script") || name.equals("table") || name.equals("tr") || name.equals("td")) {
+			if(newlineAfterOpen()) {
 				tagBuffer.append('\n');
 			}
 			for (int childIndex = 0, childCount = children.size(); childIndex < childCount; childIndex++) {
@@ -171,13 +173,76 @@ public class HTMLNode {
 				childNode.generate(tagBuffer);
 			}
 			tagBuffer.append("</").append(name).append('>');
-			if(name.equals("div") || name.equals("form") || name.equals("input") || name.equals("li") || name.equals("option") || name.equals("script") || name.equals("table") || name.equals("tr") || name.equals("td")) {
+			if(newlineAfterClose()) {
 				tagBuffer.append('\n');
 			}
 		}
 		return tagBuffer;
 	}
 
+	/**
+	 * Generate the HTML straight to a Writer, rather than building it in memory first.
+	 * For big pages; the output is the same as generate().
+	 */
+	public void generate(Writer writer) throws IOException {
+		if (name.equals("#")) {
+			HTMLEncoder.encodeToWriter(content, writer);
+			return;
+		}
+		if (name.equals("%")) {
+			writer.write(content);
+			return;
+		}
+		writer.write('<');
+		writer.write(name);
+		Set attributeSet = attributes.entrySet();
+		for (Iterator attributeIterator = attributeSet.iterator(); attributeIterator.hasNext();) {
+			Map.Entry attributeEntry = (Map.Entry) attributeIterator.next();
+			writer.write(' ');
+			HTMLEncoder.encodeToWriter((String) attributeEntry.getKey(), writer);
+			writer.write("=\"");
+			HTMLEncoder.encodeToWriter((String) attributeEntry.getValue(), writer);
+			writer.write('"');
+		}
+		if (children.size() == 0) {
+			if (hasCloseTag()) {
+				writer.write("></");
+				writer.write(name);
+				writer.write('>');
+			} else {
+				writer.write(" />");
+			}
+		} else {
+			writer.write('>');
+			if(newlineAfterOpen()) {
+				writer.write('\n');
+			}
+			for (int childIndex = 0, childCount = children.size(); childIndex < childCount; childIndex++) {
+				HTMLNode childNode = (HTMLNode) children.get(childIndex);
+				childNode.generate(writer);
+			}
+			writer.write("</");
+			writer.write(name);
+			writer.write('>');
+			if(newlineAfterClose()) {
+				writer.write('\n');
+			}
+		}
+	}
+
+	/** Tags which must not be written as <tag /> even if empty */
+	private boolean hasCloseTag() {
+		return name.equals("textarea") || name.equals("div") || name.equals("a");
+	}
+
+	private boolean newlineAfterOpen() {
+		return name.equals("div") || name.equals("form") || name.equals("input") || name.equals("script") || name.equals("table") || name.equals("tr") || name.equals("td");
+	}
+
+	private boolean newlineAfterClose() {
+		return name.equals("div") || name.equals("form") || name.equals("input") || name.equals("li") || name.equals("option") || name.equals("script") || name.equals("table") || name.equals("tr") || name.equals("td");
+	}
+
 	/**
 	 * Special HTML node for the DOCTYPE declaration. This node differs from a
 	 * normal HTML node in that it's child (and it should only have exactly one
@@ -209,6 +274,18 @@ public class HTMLNode {
 			return ((HTMLNode) children.get(0)).generate(tagBuffer);
 		}
 
+		/**
+		 * @see freenet.support.HTMLNode#generate(java.io.Writer)
+		 */
+		public void generate(Writer writer) throws IOException {
+			writer.write("<!DOCTYPE ");
+			writer.write(name);
+			writer.write(" PUBLIC \"");
+			writer.write(systemUri);
+			writer.write("\">\n");
+			((HTMLNode) children.get(0)).generate(writer);
+		}
+
 	}
 
 }
@@ -109,4 +109,9 @@ public class RandomGrabArray {
 	public synchronized boolean isEmpty() {
 		return index == 0;
 	}
+
+	/** Number of items, including any which have been cancelled but not yet removed. */
+	public synchronized int size() {
+		return index;
+	}
 }
@@ -7,11 +7,16 @@ import freenet.crypt.RandomSource;
 /**
  * Like RandomGrabArray, but there is an equal chance of any given client's requests being
  * returned.
+ * 
+ * The array of grabbers is copy-on-write, so removeRandom() only takes our lock to
+ * remove a grabber which has become empty; adding, and removing from different
+ * clients' grabbers, can go on at the same time.
  */
 public class SectoredRandomGrabArray implements RemoveRandom {
 
 	private final HashMap grabArraysByClient;
-	private RemoveRandomWithObject[] grabArrays;
+	/** Never modified, only replaced, with the lock held */
+	private volatile RemoveRandomWithObject[] grabArrays;
 	private final RandomSource rand;
 	
 	public SectoredRandomGrabArray(RandomSource rand) {
@@ -62,40 +67,55 @@ public class SectoredRandomGrabArray implements RemoveRandom {
 		grabArrays = newArrays;
 	}
 
-	public synchronized RandomGrabArrayItem removeRandom() {
+	public RandomGrabArrayItem removeRandom() {
 		boolean logMINOR = Logger.shouldLog(Logger.MINOR, this);
 		while(true) {
-			if(grabArrays.length == 0) return null;
-			int x = rand.nextInt(grabArrays.length);
-			RemoveRandomWithObject rga = grabArrays[x];
+			RemoveRandomWithObject[] arrays = grabArrays;
+			if(arrays.length == 0) return null;
+			int x = rand.nextInt(arrays.length);
+			RemoveRandomWithObject rga = arrays[x];
 			if(logMINOR)
-				Logger.minor(this, "Picked "+x+" of "+grabArrays.length+" : "+rga+" : "+rga.getObject());
+				Logger.minor(this, "Picked "+x+" of "+arrays.length+" : "+rga+" : "+rga.getObject());
 			RandomGrabArrayItem item = rga.removeRandom();
 			if(logMINOR)
-				Logger.minor(this, "RGA has picked "+x+"/"+grabArrays.length+": "+item+
+				Logger.minor(this, "RGA has picked "+x+"/"+arrays.length+": "+item+
 						(item==null ? "" : (" cancelled="+item.isCancelled()+")"))+" rga.isEmpty="+rga.isEmpty());
 			// Just because the item is cancelled does not necessarily mean the whole client is.
 			// E.g. a segment may return cancelled because it is decoding, that doesn't mean
 			// other segments are cancelled. So just go around the loop in that case.
-			if(rga.isEmpty() || (item == null)) {
-				if(logMINOR)
-					Logger.minor(this, "Removing grab array "+x+" : "+rga+" for "+rga.getObject()+" (is empty)");
-				Object client = rga.getObject();
-				grabArraysByClient.remove(client);
-				RemoveRandomWithObject[] newArray = new RemoveRandomWithObject[grabArrays.length-1];
-				if(x > 0)
-					System.arraycopy(grabArrays, 0, newArray, 0, x);
-				if(x < grabArrays.length-1)
-					System.arraycopy(grabArrays, x+1, newArray, x, grabArrays.length - (x+1));
-				grabArrays = newArray;
-			}
+			if(rga.isEmpty() || (item == null))
+				removeIfEmpty(rga);
 			if(item == null) continue;
 			if(item.isCancelled()) continue;
 			return item;
 		}
 	}
 
-	public synchronized boolean isEmpty() {
+	/**
+	 * Remove a grabber, unless something has been added to it since we found it
+	 * empty. add() adds to the grabber with our lock held, so it can't be lost.
+	 */
+	private synchronized void removeIfEmpty(RemoveRandomWithObject rga) {
+		if(!rga.isEmpty()) return;
+		RemoveRandomWithObject[] arrays = grabArrays;
+		int x;
+		for(x=0;x<arrays.length;x++)
+			if(arrays[x] == rga) break;
+		if(x == arrays.length) return; // Already removed
+		Object client = rga.getObject();
+		if(Logger.shouldLog(Logger.MINOR, this))
+			Logger.minor(this, "Removing grab array "+x+" : "+rga+" for "+client+" (is empty)");
+		if(grabArraysByClient.get(client) == rga)
+			grabArraysByClient.remove(client);
+		RemoveRandomWithObject[] newArray = new RemoveRandomWithObject[arrays.length-1];
+		if(x > 0)
+			System.arraycopy(arrays, 0, newArray, 0, x);
+		if(x < arrays.length-1)
+			System.arraycopy(arrays, x+1, newArray, x, arrays.length - (x+1));
+		grabArrays = newArray;
+	}
+
+	public boolean isEmpty() {
 		return grabArrays.length == 0;
 	}
 	
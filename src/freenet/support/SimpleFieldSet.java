@@ -2,12 +2,15 @@ package freenet.support;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -134,13 +137,19 @@ public class SimpleFieldSet {
      * blah=blah
      * blah=blah
      * End
+     * 
+     * This is the hot path for FCP messages and persistent requests, so we parse
+     * the bytes of each line directly: we split the key on MULTI_LEVEL_CHAR and
+     * look up each component in the canonical key cache without creating any
+     * substrings, and we only decode the value.
      * @param utfOrIso88591 If true, read as UTF-8, otherwise read as ISO-8859-1.
      */
     private void read(LineReader br, int maxLength, int bufferSize, boolean tolerant, boolean utfOrIso88591, boolean allowMultiple) throws IOException {
         boolean firstLine = true;
+        char[] chars = null;
         while(true) {
-            String line = br.readLine(maxLength, bufferSize, utfOrIso88591);
-            if(line == null) {
+            int length = br.readLineBytes(maxLength, bufferSize);
+            if(length == -1) {
                 if(firstLine) throw new EOFException();
                 if(tolerant)
                 	Logger.error(this, "No end marker");
@@ -148,23 +157,120 @@ public class SimpleFieldSet {
                 	throw new IOException("No end marker");
                 return;
             }
-            if((line.length() == 0) && tolerant) continue; // ignore
+            if((length == 0) && tolerant) continue; // ignore
             firstLine = false;
-            int index = line.indexOf(KEYVALUE_SEPARATOR_CHAR);
+            byte[] buf = br.getLineBuffer();
+            int index = -1;
+            for(int i=0;i<length;i++) {
+            	if(buf[i] == KEYVALUE_SEPARATOR_CHAR) {
+            		index = i;
+            		break;
+            	}
+            }
             if(index >= 0) {
                 // Mapping
-                String before = line.substring(0, index);
-                String after = line.substring(index+1);
+                SimpleFieldSet fs = this;
+                int segmentStart = 0;
+                for(int i=0;i<index;i++) {
+                	if(buf[i] == MULTI_LEVEL_CHAR) {
+                		String name = KeyCache.get(buf, segmentStart, i, utfOrIso88591);
+                		if(!shortLived) name = name.intern();
+                		fs = fs.makeSubset(name);
+                		segmentStart = i+1;
+                	}
+                }
+                String key = KeyCache.get(buf, segmentStart, index, utfOrIso88591);
+                if(!shortLived) key = key.intern();
+                int valueLength = length - index - 1;
+                if(chars == null || chars.length < valueLength)
+                	chars = new char[Math.max(valueLength, 128)];
+                String after = decode(buf, index+1, valueLength, utfOrIso88591, chars);
                 if(!shortLived) after = after.intern();
-                put(before, after, allowMultiple, false);
+                fs.putParsed(key, after, allowMultiple);
             } else {
-            	endMarker = line;
+            	endMarker = decode(buf, 0, length, utfOrIso88591, new char[length]);
             	return;
             }
             
         }
     }
     
+    /**
+     * Decode part of a line. Pure ASCII (and anything in ISO-8859-1) is decoded
+     * straight into the scratch buffer, avoiding the charset machinery.
+     */
+    private static String decode(byte[] buf, int offset, int length, boolean utf, char[] chars) throws UnsupportedEncodingException {
+    	for(int i=0;i<length;i++) {
+    		byte b = buf[offset+i];
+    		if(b < 0 && utf)
+    			return new String(buf, offset, length, "UTF-8");
+    		chars[i] = (char) (b & 0xFF);
+    	}
+    	return new String(chars, 0, length);
+    }
+    
+    /** Get or create a direct subset, while parsing. No need to lock, we are in the constructor. */
+    private SimpleFieldSet makeSubset(String name) {
+    	if(subsets == null)
+    		subsets = new HashMap();
+    	SimpleFieldSet fs = (SimpleFieldSet) subsets.get(name);
+    	if(fs == null) {
+    		fs = new SimpleFieldSet(shortLived);
+    		subsets.put(name, fs);
+    	}
+    	return fs;
+    }
+    
+    /** Set a direct value, while parsing. Same semantics as put(). */
+    private void putParsed(String key, String value, boolean allowMultiple) {
+    	String x = (String) values.get(key);
+    	if(x == null) {
+    		values.put(key, value);
+    	} else if(allowMultiple) {
+    		values.put(key, x + MULTI_VALUE_CHAR + value);
+    	}
+    }
+    
+    /**
+     * Canonical copies of the keys we have seen, so that parsing a key we have
+     * seen before (which is nearly all of them) allocates nothing, and parsed
+     * SimpleFieldSet's share the same key Strings. Fixed size, indexed by a hash
+     * of the bytes; a collision just replaces the old entry, so a client sending
+     * garbage keys can't make it grow. Not synchronized: Strings are immutable,
+     * so the worst a race can do is cause a miss.
+     */
+    static final class KeyCache {
+    	
+    	private static final int SIZE = 4096;
+    	private static final String[] keys = new String[SIZE];
+    	
+    	static String get(byte[] buf, int start, int end, boolean utf) throws UnsupportedEncodingException {
+    		int hash = 0;
+    		for(int i=start;i<end;i++) {
+    			byte b = buf[i];
+    			if(b < 0 && utf)
+    				return new String(buf, start, end - start, "UTF-8");
+    			hash = 31 * hash + (b & 0xFF);
+    		}
+    		int slot = (hash ^ (hash >>> 12)) & (SIZE - 1);
+    		String s = keys[slot];
+    		if(s != null && matches(s, buf, start, end)) return s;
+    		char[] chars = new char[end - start];
+    		for(int i=start;i<end;i++)
+    			chars[i-start] = (char) (buf[i] & 0xFF);
+    		s = new String(chars);
+    		keys[slot] = s;
+    		return s;
+    	}
+    	
+    	private static boolean matches(String s, byte[] buf, int start, int end) {
+    		if(s.length() != end - start) return false;
+    		for(int i=start;i<end;i++)
+    			if(s.charAt(i-start) != (char) (buf[i] & 0xFF)) return false;
+    		return true;
+    	}
+    }
+    
     public synchronized String get(String key) {
    		int idx = key.indexOf(MULTI_LEVEL_CHAR);
    		if(idx == -1)
@@ -384,6 +490,198 @@ public class SimpleFieldSet {
     	}
     }
     
+    /**
+     * Write the contents of the SimpleFieldSet to a stream, as UTF-8, without
+     * building the whole thing as a String first.
+     * Note: The caller *must* buffer the stream to avoid lousy performance!
+     */
+    public void writeTo(OutputStream os) throws IOException {
+    	writeTo(os, "", false, new byte[256]);
+    }
+    
+    private synchronized void writeTo(OutputStream os, String prefix, boolean noEndMarker, byte[] scratch) throws IOException {
+    	for(Iterator i = values.entrySet().iterator();i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            scratch = writeUTF8(os, prefix, scratch);
+            scratch = writeUTF8(os, (String) entry.getKey(), scratch);
+            os.write(KEYVALUE_SEPARATOR_CHAR);
+            scratch = writeUTF8(os, (String) entry.getValue(), scratch);
+            os.write('\n');
+    	}
+    	if(subsets != null) {
+    		for(Iterator i = subsets.entrySet().iterator();i.hasNext();) {
+    			Map.Entry entry = (Map.Entry) i.next();
+    			String key = (String) entry.getKey();
+    			SimpleFieldSet subset = (SimpleFieldSet) entry.getValue();
+    			if(subset == null) throw new NullPointerException();
+    			subset.writeTo(os, prefix+key+MULTI_LEVEL_CHAR, true, scratch);
+    		}
+    	}
+    	if(!noEndMarker) {
+    		scratch = writeUTF8(os, endMarker == null ? "End" : endMarker, scratch);
+    		os.write('\n');
+    	}
+    }
+    
+    /**
+     * Encode a string as UTF-8 into the scratch buffer (growing it if necessary)
+     * and write it.
+     * @return The scratch buffer, which may have been replaced by a larger one.
+     */
+    private static byte[] writeUTF8(OutputStream os, String s, byte[] scratch) throws IOException {
+    	int length = s.length();
+    	if(scratch.length < length * 3)
+    		scratch = new byte[length * 3];
+    	int x = 0;
+    	for(int i=0;i<length;i++) {
+    		char c = s.charAt(i);
+    		if(c < 0x80) {
+    			scratch[x++] = (byte) c;
+    		} else if(c < 0x800) {
+    			scratch[x++] = (byte) (0xC0 | (c >> 6));
+    			scratch[x++] = (byte) (0x80 | (c & 0x3F));
+    		} else if(c >= 0xD800 && c <= 0xDBFF && i + 1 < length) {
+    			// Surrogate pair: one 4 byte sequence
+    			int cp = 0x10000 + ((c - 0xD800) << 10) + (s.charAt(++i) - 0xDC00);
+    			scratch[x++] = (byte) (0xF0 | (cp >> 18));
+    			scratch[x++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+    			scratch[x++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+    			scratch[x++] = (byte) (0x80 | (cp & 0x3F));
+    		} else {
+    			scratch[x++] = (byte) (0xE0 | (c >> 12));
+    			scratch[x++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+    			scratch[x++] = (byte) (0x80 | (c & 0x3F));
+    		}
+    	}
+    	os.write(scratch, 0, x);
+    	return scratch;
+    }
+
+    /** Binary field types, see writeBinaryTo(). */
+    private static final byte BINARY_STRING = 0;
+    private static final byte BINARY_LONG = 1;
+    private static final byte BINARY_FALSE = 2;
+    private static final byte BINARY_TRUE = 3;
+
+    /**
+     * Write the contents of the SimpleFieldSet in a compact binary form: the
+     * number of fields, then for each field the full key (writeUTF), a type
+     * byte and the value. Values which are canonical decimal numbers or booleans
+     * are sent as such; anything else is sent as an int length followed by the
+     * UTF-8 bytes. The end marker is not included.
+     */
+    public synchronized void writeBinaryTo(DataOutputStream dos) throws IOException {
+    	dos.writeInt(countFields());
+    	writeBinaryTo(dos, "");
+    }
+
+    private synchronized int countFields() {
+    	int count = values.size();
+    	if(subsets != null) {
+    		for(Iterator i = subsets.values().iterator();i.hasNext();)
+    			count += ((SimpleFieldSet) i.next()).countFields();
+    	}
+    	return count;
+    }
+
+    private synchronized void writeBinaryTo(DataOutputStream dos, String prefix) throws IOException {
+    	for(Iterator i = values.entrySet().iterator();i.hasNext();) {
+    		Map.Entry entry = (Map.Entry) i.next();
+    		String key = (String) entry.getKey();
+    		dos.writeUTF(prefix.length() == 0 ? key : prefix + key);
+    		String value = (String) entry.getValue();
+    		if(value.equals("true")) {
+    			dos.writeByte(BINARY_TRUE);
+    		} else if(value.equals("false")) {
+    			dos.writeByte(BINARY_FALSE);
+    		} else if(isCanonicalLong(value)) {
+    			dos.writeByte(BINARY_LONG);
+    			dos.writeLong(Long.parseLong(value));
+    		} else {
+    			dos.writeByte(BINARY_STRING);
+    			byte[] buf = value.getBytes("UTF-8");
+    			dos.writeInt(buf.length);
+    			dos.write(buf);
+    		}
+    	}
+    	if(subsets != null) {
+    		for(Iterator i = subsets.entrySet().iterator();i.hasNext();) {
+    			Map.Entry entry = (Map.Entry) i.next();
+    			SimpleFieldSet subset = (SimpleFieldSet) entry.getValue();
+    			subset.writeBinaryTo(dos, prefix + entry.getKey() + MULTI_LEVEL_CHAR);
+    		}
+    	}
+    }
+
+    /**
+     * Is the string exactly what Long.toString() would produce for some value?
+     * Conservative: we don't bother with 19 digit numbers, which might overflow.
+     */
+    private static boolean isCanonicalLong(String s) {
+    	int length = s.length();
+    	int start = (length > 0 && s.charAt(0) == '-') ? 1 : 0;
+    	int digits = length - start;
+    	if(digits < 1 || digits > 18) return false;
+    	if(s.charAt(start) == '0' && (digits > 1 || start == 1)) return false;
+    	for(int i=start;i<length;i++) {
+    		char c = s.charAt(i);
+    		if(c < '0' || c > '9') return false;
+    	}
+    	return true;
+    }
+
+    /**
+     * Read a SimpleFieldSet written by writeBinaryTo().
+     * @param maxFields The maximum number of fields to accept.
+     * @param maxValueLength The maximum length in bytes of any one string value.
+     * @throws IOException If the data is truncated or invalid, or exceeds the limits.
+     */
+    public static SimpleFieldSet readBinary(DataInputStream dis, int maxFields, int maxValueLength, boolean shortLived) throws IOException {
+    	int count = dis.readInt();
+    	if(count < 0 || count > maxFields)
+    		throw new IOException("Too many fields: "+count);
+    	SimpleFieldSet fs = new SimpleFieldSet(shortLived);
+    	byte[] buf = null;
+    	char[] chars = null;
+    	for(int i=0;i<count;i++) {
+    		String key = dis.readUTF();
+    		byte type = dis.readByte();
+    		String value;
+    		switch(type) {
+    		case BINARY_STRING:
+    			int length = dis.readInt();
+    			if(length < 0 || length > maxValueLength)
+    				throw new IOException("Value too long for "+key+" : "+length);
+    			if(buf == null || buf.length < length) {
+    				buf = new byte[Math.max(length, 64)];
+    				chars = new char[buf.length];
+    			}
+    			dis.readFully(buf, 0, length);
+    			value = decode(buf, 0, length, true, chars);
+    			break;
+    		case BINARY_LONG:
+    			value = Long.toString(dis.readLong());
+    			break;
+    		case BINARY_FALSE:
+    			value = "false";
+    			break;
+    		case BINARY_TRUE:
+    			value = "true";
+    			break;
+    		default:
+    			throw new IOException("Unknown field type "+type+" for "+key);
+    		}
+    		if(key.length() == 0 || key.charAt(0) == MULTI_LEVEL_CHAR || key.charAt(key.length()-1) == MULTI_LEVEL_CHAR)
+    			throw new IOException("Invalid key: "+key);
+    		try {
+    			fs.putOverwrite(key, value);
+    		} catch (IllegalArgumentException e) {
+    			throw new IOException("Invalid value for "+key+" : "+e.getMessage());
+    		}
+    	}
+    	return fs;
+    }
+
     public void writeToOrdered(Writer w) throws IOException {
 		writeToOrdered(w, "", false);
 	}
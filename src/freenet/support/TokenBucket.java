@@ -76,8 +76,8 @@ public class TokenBucket {
 		if(tokens < max)
 			innerBlockingGrab(tokens);
 		else {
-			for(int i=0;i<tokens;i+=max) {
-				innerBlockingGrab(Math.min(tokens, max));
+			for(long i=0;i<tokens;i+=max) {
+				innerBlockingGrab(Math.min(tokens - i, max));
 			}
 		}
 	}
@@ -0,0 +1,17 @@
+package freenet.support.compress;
+
+import java.io.IOException;
+
+/**
+ * The output was too big, when decompressing to a stream. An IOException, so it
+ * can be thrown from OutputStream.write().
+ */
+public class CompressionOutputSizeIOException extends IOException {
+	private static final long serialVersionUID = -1;
+	public final long estimatedSize;
+
+	CompressionOutputSizeIOException(long sz) {
+		super(sz < 0 ? "Too big" : "Too big: "+sz+" bytes");
+		estimatedSize = sz;
+	}
+}
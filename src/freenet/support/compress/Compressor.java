@@ -1,6 +1,7 @@
 package freenet.support.compress;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import freenet.client.Metadata;
 import freenet.support.api.Bucket;
@@ -29,6 +30,18 @@ public abstract class Compressor {
 	 */
 	public abstract Bucket decompress(Bucket data, BucketFactory bucketFactory, long maxLength, long maxEstimateSizeLength, Bucket preferred) throws IOException, CompressionOutputSizeException;
 
+	/**
+	 * Get a stream which decompresses the data written to it, and writes the result to
+	 * another stream. Used to decompress data as it arrives, rather than waiting for all of it.
+	 * @param os The stream to write the decompressed data to. Closed when the returned stream is closed.
+	 * @param maxLength The maximum length to decompress. If more is present, write() or close()
+	 * will throw a CompressionOutputSizeIOException.
+	 * @param maxEstimateSizeLength If the data is too big, and this is >0, decompress up to this
+	 * many more bytes in order to try to get the data size.
+	 * @return A stream to write the compressed data to. close() throws if the data is incomplete.
+	 */
+	public abstract OutputStream decompressingOutputStream(OutputStream os, long maxLength, long maxEstimateSizeLength);
+
 	public short codecNumberForMetadata() {
 		return Metadata.COMPRESS_GZIP;
 	}
@@ -92,6 +92,10 @@ public class GzipCompressor extends Compressor {
 		}
 	}
 
+	public OutputStream decompressingOutputStream(OutputStream os, long maxLength, long maxCheckSizeLength) {
+		return new GzipDecompressingOutputStream(os, maxLength, maxCheckSizeLength);
+	}
+
 	public int decompress(byte[] dbuf, int i, int j, byte[] output) throws CompressionOutputSizeException {
 		// Didn't work with Inflater.
 		// FIXME fix sometimes to use Inflater - format issue?
@@ -0,0 +1,219 @@
+package freenet.support.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses gzip'ed data as it is written, and writes the result to another stream.
+ * The push equivalent of GZIPInputStream, so we can decompress data as it arrives
+ * rather than waiting for all of it.
+ */
+class GzipDecompressingOutputStream extends OutputStream {
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	/** Give up if the header is longer than this; it is normally 10 bytes */
+	private static final int MAX_HEADER_LENGTH = 1024*1024;
+
+	private static final int STATE_HEADER = 0;
+	private static final int STATE_DATA = 1;
+	private static final int STATE_TRAILER = 2;
+	private static final int STATE_DONE = 3;
+
+	private final OutputStream out;
+	private final long maxLength;
+	private final long maxCheckSizeLength;
+	private final Inflater inf;
+	private final CRC32 crc;
+	private final byte[] buffer;
+	private int state;
+	/** The header so far, until we have all of it */
+	private ByteArrayOutputStream header;
+	private final byte[] trailer;
+	private int trailerLength;
+	/** Bytes of decompressed data */
+	private long written;
+	private boolean closed;
+
+	/**
+	 * @param out The stream to write the decompressed data to.
+	 * @param maxLength The maximum length to decompress; we throw if more is present.
+	 * @param maxCheckSizeLength If the data is too big, and this is >0, decompress up to
+	 * this many more bytes in order to try to get the data size.
+	 */
+	GzipDecompressingOutputStream(OutputStream out, long maxLength, long maxCheckSizeLength) {
+		this.out = out;
+		this.maxLength = maxLength;
+		this.maxCheckSizeLength = maxCheckSizeLength;
+		inf = new Inflater(true);
+		crc = new CRC32();
+		buffer = new byte[4096];
+		trailer = new byte[8];
+		header = new ByteArrayOutputStream(16);
+		state = STATE_HEADER;
+	}
+
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	public void write(byte[] buf, int off, int len) throws IOException {
+		if(closed) throw new IOException("Already closed");
+		while(len > 0) {
+			switch(state) {
+			case STATE_HEADER:
+				int oldSize = header.size();
+				header.write(buf, off, len);
+				byte[] h = header.toByteArray();
+				int headerLength = parseHeader(h);
+				if(headerLength < 0) {
+					if(h.length > MAX_HEADER_LENGTH)
+						throw new IOException("GZIP header too long");
+					return;
+				}
+				header = null;
+				state = STATE_DATA;
+				int used = headerLength - oldSize;
+				off += used;
+				len -= used;
+				break;
+			case STATE_DATA:
+				int remaining = inflate(buf, off, len);
+				off += len - remaining;
+				len = remaining;
+				break;
+			case STATE_TRAILER:
+				int x = Math.min(len, trailer.length - trailerLength);
+				System.arraycopy(buf, off, trailer, trailerLength, x);
+				trailerLength += x;
+				off += x;
+				len -= x;
+				if(trailerLength == trailer.length) {
+					checkTrailer();
+					state = STATE_DONE;
+				}
+				break;
+			default:
+				// Ignore anything after the end, like GZIPInputStream.
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Parse the header.
+	 * @return The length of the header, or -1 if we don't have all of it yet.
+	 */
+	private int parseHeader(byte[] h) throws IOException {
+		if(h.length < 10) return -1;
+		if(((h[0] & 0xff) != 0x1f) || ((h[1] & 0xff) != 0x8b))
+			throw new IOException("Not in GZIP format");
+		if(h[2] != 8)
+			throw new IOException("Unsupported compression method");
+		int flags = h[3] & 0xff;
+		int pos = 10;
+		if((flags & FEXTRA) != 0) {
+			if(h.length < pos + 2) return -1;
+			pos += 2 + ((h[pos] & 0xff) | ((h[pos+1] & 0xff) << 8));
+		}
+		if((flags & FNAME) != 0) {
+			pos = skipString(h, pos);
+			if(pos < 0) return -1;
+		}
+		if((flags & FCOMMENT) != 0) {
+			pos = skipString(h, pos);
+			if(pos < 0) return -1;
+		}
+		if((flags & FHCRC) != 0)
+			pos += 2;
+		if(h.length < pos) return -1;
+		return pos;
+	}
+
+	/** Skip a zero-terminated string. Returns -1 if we don't have the end of it yet. */
+	private int skipString(byte[] h, int pos) {
+		for(int i=pos;i<h.length;i++)
+			if(h[i] == 0) return i+1;
+		return -1;
+	}
+
+	/**
+	 * Decompress some data.
+	 * @return The number of bytes not used because the compressed data ended.
+	 */
+	private int inflate(byte[] buf, int off, int len) throws IOException {
+		inf.setInput(buf, off, len);
+		while(true) {
+			int x;
+			try {
+				x = inf.inflate(buffer, 0, buffer.length);
+			} catch (DataFormatException e) {
+				throw new IOException("Invalid compressed data: "+e.getMessage());
+			}
+			if(x > 0) {
+				crc.update(buffer, 0, x);
+				output(x);
+			} else if(inf.finished()) {
+				state = STATE_TRAILER;
+				return inf.getRemaining();
+			} else if(inf.needsInput()) {
+				return 0;
+			} else if(inf.needsDictionary()) {
+				throw new IOException("Needs dictionary");
+			}
+		}
+	}
+
+	private void output(int x) throws IOException {
+		written += x;
+		if(written <= maxLength) {
+			out.write(buffer, 0, x);
+			return;
+		}
+		// Too big. Keep counting, so we can say how big, if we've been asked to.
+		if((maxCheckSizeLength <= 0) || (written > maxLength + maxCheckSizeLength))
+			throw new CompressionOutputSizeIOException(-1);
+	}
+
+	private void checkTrailer() throws IOException {
+		if(readInt(trailer, 0) != crc.getValue())
+			throw new IOException("Corrupt GZIP trailer");
+		if(readInt(trailer, 4) != (written & 0xffffffffL))
+			throw new IOException("Corrupt GZIP trailer");
+	}
+
+	private static long readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xffL) | ((buf[off+1] & 0xffL) << 8) | ((buf[off+2] & 0xffL) << 16) |
+				((buf[off+3] & 0xffL) << 24));
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Close the stream, and the stream we write to.
+	 * @throws IOException If the compressed data was incomplete.
+	 * @throws CompressionOutputSizeIOException If the decompressed data was too big.
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		try {
+			if(written > maxLength)
+				throw new CompressionOutputSizeIOException(written);
+			if(state != STATE_DONE)
+				throw new IOException("Unexpected end of GZIP data");
+		} finally {
+			inf.end();
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered InputStream reading from a blocking SocketChannel.
+ *
+ * We read from the channel directly rather than through Socket.getInputStream(),
+ * because on some JVMs the socket adaptor's streams synchronize on the channel's
+ * blocking lock, so a thread blocked reading would stop any other thread writing.
+ */
+public class ChannelBufferedInputStream extends BufferedInputStream {
+
+	public ChannelBufferedInputStream(SocketChannel channel, int size) {
+		super(new RawChannelInputStream(channel), size);
+	}
+
+	private static class RawChannelInputStream extends InputStream {
+
+		private final SocketChannel channel;
+
+		RawChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int x = read(b, 0, 1);
+			if(x <= 0) return -1;
+			return b[0] & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) return 0;
+			return channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+}
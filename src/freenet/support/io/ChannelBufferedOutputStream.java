@@ -0,0 +1,46 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered OutputStream writing to a blocking SocketChannel.
+ *
+ * See ChannelBufferedInputStream for why we don't use Socket.getOutputStream().
+ */
+public class ChannelBufferedOutputStream extends BufferedOutputStream {
+
+	public ChannelBufferedOutputStream(SocketChannel channel, int size) {
+		super(new RawChannelOutputStream(channel), size);
+	}
+
+	private static class RawChannelOutputStream extends OutputStream {
+
+		private final SocketChannel channel;
+
+		RawChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+			while(bb.hasRemaining())
+				channel.write(bb);
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+}
@@ -12,4 +12,18 @@ public interface LineReader {
 	 */
 	public String readLine(int maxLength, int bufferSize, boolean utf) throws IOException;
 	
+	/**
+	 * Read a \n or \r\n terminated line without decoding it. The line is left
+	 * in the buffer returned by getLineBuffer(), which is only valid until the
+	 * next read.
+	 * @return The length of the line in bytes, excluding the terminator, or -1
+	 * if we are at the end of the stream.
+	 */
+	public int readLineBytes(int maxLength, int bufferSize) throws IOException;
+	
+	/**
+	 * @return The buffer filled by the last readLineBytes().
+	 */
+	public byte[] getLineBuffer();
+	
 }
@@ -22,22 +22,35 @@ public class LineReadingInputStream extends FilterInputStream implements LineRea
 	 * Read a \n or \r\n terminated line of UTF-8 or ISO-8859-1.
 	 */
 	public String readLine(int maxLength, int bufferSize, boolean utf) throws IOException {
+		int ctr = readLineBytes(maxLength, bufferSize);
+		if(ctr == -1) return null;
+		if(ctr == 0) return "";
+		return new String(buf, 0, ctr, utf ? "UTF-8" : "ISO-8859-1");
+	}
+
+	public byte[] getLineBuffer() {
+		return buf;
+	}
+
+	public int readLineBytes(int maxLength, int bufferSize) throws IOException {
 		if(maxLength < bufferSize)
 			bufferSize = maxLength;
 		if(buf == null)
 			buf = new byte[Math.max(Math.min(128,maxLength), Math.min(1024, bufferSize))];
+		if(in.markSupported())
+			return readLineBytesBulk(maxLength);
 		int ctr = 0;
 		while(true) {
 			int x = read();
 			if(x == -1) {
-				if(ctr == 0) return null;
-				return new String(buf, 0, ctr, utf ? "UTF-8" : "ISO-8859-1");
+				if(ctr == 0) return -1;
+				return ctr;
 			}
 			// REDFLAG this is definitely safe with the above charsets, it may not be safe with some wierd ones. 
 			if(x == '\n') {
-				if(ctr == 0) return "";
+				if(ctr == 0) return 0;
 				if(buf[ctr-1] == '\r') ctr--;
-				return new String(buf, 0, ctr, utf ? "UTF-8" : "ISO-8859-1");
+				return ctr;
 			}
 			if(ctr >= maxLength) throw new TooLongException();
 			if(ctr >= buf.length) {
@@ -48,5 +61,49 @@ public class LineReadingInputStream extends FilterInputStream implements LineRea
 			buf[ctr++] = (byte)x;
 		}
 	}
+
+	/**
+	 * Read a line a buffer at a time rather than a byte at a time. We mark
+	 * before each read, and if we read past the end of the line, we reset and
+	 * skip just the bytes we used, so the rest of the stream (e.g. the data
+	 * after an FCP message) is left for the caller.
+	 * 
+	 * buf may be bigger than maxLength from an earlier call, so we never read
+	 * more than maxLength bytes plus the terminator.
+	 */
+	private int readLineBytesBulk(int maxLength) throws IOException {
+		// maxLength bytes of line plus the \n
+		int limit = (maxLength == Integer.MAX_VALUE) ? maxLength : maxLength + 1;
+		int ctr = 0;
+		while(true) {
+			if(ctr > maxLength) throw new TooLongException();
+			if(ctr >= buf.length) {
+				byte[] newBuf = new byte[(int) Math.min(buf.length * 2L, limit)];
+				System.arraycopy(buf, 0, newBuf, 0, buf.length);
+				buf = newBuf;
+			}
+			int toRead = Math.min(buf.length, limit) - ctr;
+			in.mark(toRead);
+			int x = in.read(buf, ctr, toRead);
+			if(x == -1) {
+				if(ctr == 0) return -1;
+				return ctr;
+			}
+			for(int i=ctr;i<ctr+x;i++) {
+				if(buf[i] == '\n') {
+					in.reset();
+					long skip = i - ctr + 1;
+					while(skip > 0) {
+						long skipped = in.skip(skip);
+						if(skipped <= 0) throw new IOException("Unable to skip after reset");
+						skip -= skipped;
+					}
+					if(i > 0 && buf[i-1] == '\r') i--;
+					return i;
+				}
+			}
+			ctr += x;
+		}
+	}
 	
 }
@@ -93,7 +93,14 @@ public class MultiReaderBucket {
 				}
 				return is.read(data);
 			}
-			
+
+			public final long skip(long n) throws IOException {
+				synchronized(MultiReaderBucket.this) {
+					if(freed || closed) throw new IOException("Already closed");
+				}
+				return is.skip(n);
+			}
+
 			public final void close() throws IOException {
 				is.close();
 			}
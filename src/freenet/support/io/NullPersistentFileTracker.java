@@ -34,4 +34,8 @@ public class NullPersistentFileTracker implements PersistentFileTracker {
 		return 0;
 	}
 
+	public SlabStore getSlabStore() {
+		return null;
+	}
+
 }
@@ -10,6 +10,7 @@ import java.lang.ref.SoftReference;
 
 import org.spaceroots.mantissa.random.MersenneTwister;
 
+import freenet.crypt.CTRMode;
 import freenet.crypt.PCFBMode;
 import freenet.crypt.RandomSource;
 import freenet.crypt.UnsupportedCipherException;
@@ -23,17 +24,34 @@ import freenet.support.api.Bucket;
  * A proxy Bucket which adds:
  * - Encryption with the supplied cipher, and a random, ephemeral key.
  * - Padding to the next PO2 size.
+ * 
+ * New data is encrypted with AES in counter mode, with a fresh IV every time the
+ * bucket is written, so we can encrypt whole arrays at once and seek without
+ * decrypting everything before the seek point. Buckets written by older versions
+ * used PCFB, and can still be read.
  */
 public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToFieldSetBucket {
 
+	/** Rijndael with 256 bit blocks, less the 8 byte block counter */
+	private static final int IV_LENGTH = 24;
+	/** Maximum amount of data to encrypt at once */
+	private static final int ENCRYPT_BUFFER_SIZE = 32*1024;
 	private final Bucket bucket;
 	private final int minPaddedSize;
 	private final RandomSource origRandom;
 	private SoftReference /* <Rijndael> */ aesRef;
 	/** The decryption key. */
 	private final byte[] key;
-	/** Broken (old) encryption? */
-	private final boolean brokenEncryption;
+	/** Old PCFB encryption, serialized without a CryptoType */
+	private static final int CRYPTO_PCFB_BROKEN = 0;
+	/** PCFB encryption */
+	private static final int CRYPTO_PCFB = 1;
+	/** Counter mode encryption */
+	private static final int CRYPTO_CTR = 2;
+	/** How the data is encrypted, one of the CRYPTO_ constants */
+	private int cryptoType;
+	/** The IV, for CRYPTO_CTR */
+	private byte[] iv;
 	private long dataLength;
 	private boolean readOnly;
 	private int lastOutputStream;
@@ -50,7 +68,9 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 		this.origRandom = origRandom;
 		this.bucket = bucket;
 		if(bucket.size() != 0) throw new IllegalArgumentException("Bucket must be empty");
-		brokenEncryption = false;
+		cryptoType = CRYPTO_CTR;
+		iv = new byte[IV_LENGTH];
+		origRandom.nextBytes(iv);
 		byte[] tempKey = new byte[32];
 		origRandom.nextBytes(tempKey);
 		this.key = tempKey;
@@ -76,7 +96,7 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 		this.dataLength = knownSize;
 		this.origRandom = origRandom;
 		this.bucket = bucket;
-		brokenEncryption = oldCrypto;
+		cryptoType = oldCrypto ? CRYPTO_PCFB_BROKEN : CRYPTO_PCFB;
 		if(key.length != 32) throw new IllegalArgumentException("Key wrong length: "+key.length);
 		this.key = key;
 		this.minPaddedSize = minSize;
@@ -101,9 +121,23 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 		tmp = fs.get("DecryptKey");
 		if(tmp == null)
 			throw new CannotCreateFromFieldSetException("No key");
-		brokenEncryption = fs.get("CryptoType") == null;
 		key = HexUtil.hexToBytes(tmp);
 		if(key.length != 32) throw new IllegalArgumentException("Key wrong length: "+key.length);
+		tmp = fs.get("CryptoType");
+		if(tmp == null)
+			cryptoType = CRYPTO_PCFB_BROKEN;
+		else if(tmp.equals("aes256"))
+			cryptoType = CRYPTO_PCFB;
+		else if(tmp.equals("aes256ctr")) {
+			cryptoType = CRYPTO_CTR;
+			tmp = fs.get("IV");
+			if(tmp == null)
+				throw new CannotCreateFromFieldSetException("No IV");
+			iv = HexUtil.hexToBytes(tmp);
+			if(iv.length != IV_LENGTH)
+				throw new CannotCreateFromFieldSetException("IV wrong length: "+iv.length);
+		} else
+			throw new CannotCreateFromFieldSetException("Unknown CryptoType: "+tmp);
 		tmp = fs.get("MinPaddedSize");
 		if(tmp == null)
 			minPaddedSize = 1024; // FIXME throw! back compatibility hack
@@ -121,50 +155,60 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 	public OutputStream getOutputStream() throws IOException {
 		if(readOnly) throw new IOException("Read only");
 		OutputStream os = bucket.getOutputStream();
+		// Never reuse an IV: the old data may still be around on disk.
+		byte[] newIV = new byte[IV_LENGTH];
+		origRandom.nextBytes(newIV);
 		synchronized(this) {
 			dataLength = 0;
+			cryptoType = CRYPTO_CTR;
+			iv = newIV;
 		}
-		return new PaddedEphemerallyEncryptedOutputStream(os, ++lastOutputStream);
+		return new PaddedEphemerallyEncryptedOutputStream(os, ++lastOutputStream, newIV);
 	}
 
 	private class PaddedEphemerallyEncryptedOutputStream extends OutputStream {
 
-		final PCFBMode pcfb;
+		final CTRMode ctr;
 		final OutputStream out;
 		final int streamNumber;
+		/** Buffer for encrypting, so we don't have to modify the caller's data */
+		private byte[] buffer;
+		private long ptr;
 		private boolean closed;
 		
-		public PaddedEphemerallyEncryptedOutputStream(OutputStream out, int streamNumber) {
+		public PaddedEphemerallyEncryptedOutputStream(OutputStream out, int streamNumber, byte[] iv) {
 			this.out = out;
 			dataLength = 0;
 			this.streamNumber = streamNumber;
 			Rijndael aes = getRijndael();
-			pcfb = PCFBMode.create(aes);
+			ctr = new CTRMode(aes, iv);
 		}
 		
 		public void write(int b) throws IOException {
-			if(closed) throw new IOException("Already closed!");
-			if(streamNumber != lastOutputStream)
-				throw new IllegalStateException("Writing to old stream in "+getName());
 			if((b < 0) || (b > 255))
 				throw new IllegalArgumentException();
-			int toWrite = pcfb.encipher(b);
-			synchronized(PaddedEphemerallyEncryptedBucket.this) {
-				out.write(toWrite);
-				dataLength++;
-			}
+			write(new byte[] { (byte) b }, 0, 1);
 		}
 		
 		public void write(byte[] buf, int offset, int length) throws IOException {
 			if(closed) throw new IOException("Already closed!");
 			if(streamNumber != lastOutputStream)
 				throw new IllegalStateException("Writing to old stream in "+getName());
-			byte[] enc = new byte[length];
-			System.arraycopy(buf, offset, enc, 0, length);
-			pcfb.blockEncipher(enc, 0, enc.length);
-			synchronized(PaddedEphemerallyEncryptedBucket.this) {
-				out.write(enc, 0, enc.length);
-				dataLength += enc.length;
+			if(buffer == null)
+				buffer = new byte[(int) Math.min(length, ENCRYPT_BUFFER_SIZE)];
+			while(length > 0) {
+				if(buffer.length < length && buffer.length < ENCRYPT_BUFFER_SIZE)
+					buffer = new byte[(int) Math.min(length, ENCRYPT_BUFFER_SIZE)];
+				int chunk = Math.min(length, buffer.length);
+				System.arraycopy(buf, offset, buffer, 0, chunk);
+				ctr.process(buffer, 0, chunk, ptr);
+				synchronized(PaddedEphemerallyEncryptedBucket.this) {
+					out.write(buffer, 0, chunk);
+					dataLength += chunk;
+				}
+				ptr += chunk;
+				offset += chunk;
+				length -= chunk;
 			}
 		}
 		
@@ -204,24 +248,44 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 	}
 
 	public InputStream getInputStream() throws IOException {
-		return new PaddedEphemerallyEncryptedInputStream(bucket.getInputStream());
+		int type;
+		byte[] curIV;
+		synchronized(this) {
+			type = cryptoType;
+			curIV = iv;
+		}
+		return new PaddedEphemerallyEncryptedInputStream(bucket.getInputStream(), type, curIV);
 	}
 
 	private class PaddedEphemerallyEncryptedInputStream extends InputStream {
 
 		final InputStream in;
+		/** Set if the data is in the old PCFB format */
 		final PCFBMode pcfb;
+		/** Set if the data is in counter mode */
+		final CTRMode ctr;
 		long ptr;
 		
-		public PaddedEphemerallyEncryptedInputStream(InputStream in) {
+		public PaddedEphemerallyEncryptedInputStream(InputStream in, int type, byte[] iv) {
 			this.in = in;
 			Rijndael aes = getRijndael();
-			pcfb = PCFBMode.create(aes);
+			if(type == CRYPTO_CTR) {
+				ctr = new CTRMode(aes, iv);
+				pcfb = null;
+			} else {
+				pcfb = PCFBMode.create(aes);
+				ctr = null;
+			}
 			ptr = 0;
 		}
 		
 		public int read() throws IOException {
-			if(ptr > dataLength) return -1;
+			if(ptr >= dataLength) return -1;
+			if(ctr != null) {
+				byte[] b = new byte[1];
+				if(read(b, 0, 1) <= 0) return -1;
+				return b[0] & 0xFF;
+			}
 			int x = in.read();
 			if(x == -1) return x;
 			ptr++;
@@ -242,8 +306,11 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 			length = Math.min(length, x);
 			int readBytes = in.read(buf, offset, length);
 			if(readBytes <= 0) return readBytes;
+			if(ctr != null)
+				ctr.process(buf, offset, readBytes, ptr);
+			else
+				pcfb.blockDecipher(buf, offset, readBytes);
 			ptr += readBytes;
-			pcfb.blockDecipher(buf, offset, readBytes);
 			return readBytes;
 		}
 
@@ -252,6 +319,18 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 		}
 		
 		public long skip(long bytes) throws IOException {
+			if(ctr != null) {
+				// Counter mode doesn't need the data before the new position.
+				bytes = Math.min(bytes, available());
+				long skipped = 0;
+				while(skipped < bytes) {
+					long x = in.skip(bytes - skipped);
+					if(x <= 0) break;
+					skipped += x;
+				}
+				ptr += skipped;
+				return skipped;
+			}
 			byte[] buf = new byte[(int)Math.min(4096, bytes)];
 			long skipped = 0;
 			while(skipped < bytes) {
@@ -364,8 +443,14 @@ public class PaddedEphemerallyEncryptedBucket implements Bucket, SerializableToF
 			return null;
 		}
 		fs.put("MinPaddedSize", minPaddedSize);
-		if(!brokenEncryption)
-			fs.putSingle("CryptoType", "aes256");
+		synchronized(this) {
+			if(cryptoType == CRYPTO_PCFB)
+				fs.putSingle("CryptoType", "aes256");
+			else if(cryptoType == CRYPTO_CTR) {
+				fs.putSingle("CryptoType", "aes256ctr");
+				fs.putSingle("IV", HexUtil.bytesToHex(iv));
+			}
+		}
 		return fs;
 	}
 
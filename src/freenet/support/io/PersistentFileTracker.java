@@ -30,5 +30,10 @@ public interface PersistentFileTracker {
 	public FilenameGenerator getGenerator();
 
 	public long getID(File file);
+
+	/**
+	 * Get the store for persistent SlabBucket's, or null if there isn't one.
+	 */
+	public SlabStore getSlabStore();
 	
 }
@@ -39,6 +39,9 @@ public class PersistentTempBucketFactory implements BucketFactory, PersistentFil
 	
 	/** Buckets to free */
 	private final LinkedList bucketsToFree;
+	
+	/** Slabs for small buckets */
+	private final SlabStore slabStore;
 
 	public PersistentTempBucketFactory(File dir, String prefix, RandomSource rand) throws IOException {
 		boolean logMINOR = Logger.shouldLog(Logger.MINOR, this);
@@ -73,6 +76,7 @@ public class PersistentTempBucketFactory implements BucketFactory, PersistentFil
 			}
 		}
 		bucketsToFree = new LinkedList();
+		slabStore = new SlabStore(this.dir, "freenet-slab-", true);
 	}
 	
 	public void register(File file) {
@@ -85,9 +89,10 @@ public class PersistentTempBucketFactory implements BucketFactory, PersistentFil
 	
 	/**
 	 * Called when boot-up is complete.
-	 * Deletes any old temp files still unclaimed.
+	 * Deletes any old temp files still unclaimed, and frees any unclaimed slab extents.
 	 */
 	public synchronized void completedInit() {
+		slabStore.completedInit();
 		Iterator i = originalFiles.iterator();
 		while(i.hasNext()) {
 			File f = (File) (i.next());
@@ -98,6 +103,8 @@ public class PersistentTempBucketFactory implements BucketFactory, PersistentFil
 	}
 
 	private Bucket makeRawBucket(long size) throws IOException {
+		if(size >= 0 && size <= SlabStore.MAX_BUCKET_SIZE)
+			return new SlabBucket(slabStore);
 		return new PersistentTempFileBucket(fg.makeRandomFilename(), fg);
 	}
 
@@ -144,4 +151,8 @@ public class PersistentTempBucketFactory implements BucketFactory, PersistentFil
 		return fg.getID(file);
 	}
 
+	public SlabStore getSlabStore() {
+		return slabStore;
+	}
+
 }
@@ -0,0 +1,235 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import freenet.support.api.Bucket;
+import freenet.support.api.BucketFactory;
+
+/**
+ * A bucket which can be read while it is still being written, e.g. to send a download
+ * to the client while it is still being fetched.
+ *
+ * The data is kept in a series of buckets from a BucketFactory, one for each time the
+ * writer calls flush(), so a reader only ever reads buckets which are complete, whatever
+ * kind of bucket they are. Readers block until more data has been flushed or the output
+ * stream has been closed. Freeing the bucket wakes them up with an IOException, so free it
+ * if whatever is writing to it fails.
+ */
+public class ProgressiveBucket implements Bucket {
+
+	private final BucketFactory bf;
+	/** Buckets which have been completely written, in order */
+	private final ArrayList chunks;
+	/** Total size of the chunks */
+	private long size;
+	private boolean outputOpened;
+	/** Has the output stream been closed? If so there will be no more chunks. */
+	private boolean complete;
+	private boolean freed;
+	private boolean readOnly;
+
+	public ProgressiveBucket(BucketFactory bf) {
+		this.bf = bf;
+		chunks = new ArrayList();
+	}
+
+	/**
+	 * Get the output stream. Can only be called once. Data becomes visible to readers when
+	 * the stream is flushed or closed.
+	 */
+	public synchronized OutputStream getOutputStream() throws IOException {
+		if(readOnly) throw new IOException("Read only");
+		if(freed) throw new IOException("Already freed");
+		if(outputOpened) throw new IOException("Can only be written once");
+		outputOpened = true;
+		return new ProgressiveOutputStream();
+	}
+
+	/**
+	 * Get a stream to read the data. Blocks when it has read everything which has been
+	 * flushed so far, until there is more, or the output stream is closed.
+	 */
+	public synchronized InputStream getInputStream() throws IOException {
+		if(freed) throw new IOException("Already freed");
+		return new ProgressiveInputStream();
+	}
+
+	public String getName() {
+		return "ProgressiveBucket";
+	}
+
+	/** The amount of data flushed so far. */
+	public synchronized long size() {
+		return size;
+	}
+
+	/** Has all the data been written? */
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	public synchronized boolean isReadOnly() {
+		return readOnly;
+	}
+
+	public synchronized void setReadOnly() {
+		readOnly = true;
+	}
+
+	public void free() {
+		Bucket[] toFree;
+		synchronized(this) {
+			if(freed) return;
+			freed = true;
+			toFree = (Bucket[]) chunks.toArray(new Bucket[chunks.size()]);
+			chunks.clear();
+			notifyAll();
+		}
+		for(int i=0;i<toFree.length;i++)
+			toFree[i].free();
+	}
+
+	/** Add a chunk which has been completely written, and wake up any readers. */
+	private synchronized boolean addChunk(Bucket chunk) {
+		if(freed) return false;
+		chunks.add(chunk);
+		size += chunk.size();
+		notifyAll();
+		return true;
+	}
+
+	private synchronized void setComplete() {
+		complete = true;
+		notifyAll();
+	}
+
+	private synchronized void checkFreed() throws IOException {
+		if(freed) throw new IOException("Freed");
+	}
+
+	/**
+	 * Wait for a chunk to be written.
+	 * @return The chunk, or null if the output stream has been closed and there are no more.
+	 * @throws IOException If the bucket is freed.
+	 */
+	private synchronized Bucket waitForChunk(int index) throws IOException {
+		while(true) {
+			checkFreed();
+			if(index < chunks.size()) return (Bucket) chunks.get(index);
+			if(complete) return null;
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				// Ignore
+			}
+		}
+	}
+
+	private class ProgressiveOutputStream extends OutputStream {
+
+		private Bucket chunk;
+		private OutputStream os;
+		private boolean closed;
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] buf, int offset, int length) throws IOException {
+			if(closed) throw new IOException("Already closed");
+			if(length == 0) return;
+			if(os == null) {
+				checkFreed();
+				chunk = bf.makeBucket(-1);
+				os = chunk.getOutputStream();
+			}
+			os.write(buf, offset, length);
+		}
+
+		/** Make everything written so far available to readers. */
+		public void flush() throws IOException {
+			if(closed) return;
+			commit();
+		}
+
+		private void commit() throws IOException {
+			if(os == null) return;
+			Bucket c = chunk;
+			chunk = null;
+			OutputStream o = os;
+			os = null;
+			o.close();
+			if(!addChunk(c)) {
+				c.free();
+				throw new IOException("Freed");
+			}
+		}
+
+		public void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			try {
+				commit();
+			} finally {
+				setComplete();
+			}
+		}
+	}
+
+	private class ProgressiveInputStream extends InputStream {
+
+		/** Index of the current chunk */
+		private int index;
+		private InputStream is;
+		/** Bytes read so far */
+		private long read;
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			if(read(b, 0, 1) <= 0) return -1;
+			return b[0] & 0xFF;
+		}
+
+		public int read(byte[] buf, int offset, int length) throws IOException {
+			if(length == 0) return 0;
+			while(true) {
+				checkFreed();
+				if(is != null) {
+					int x = is.read(buf, offset, length);
+					if(x > 0) {
+						read += x;
+						return x;
+					}
+					if(x == 0) throw new IOException("Returned zero from read()");
+					is.close();
+					is = null;
+					index++;
+				}
+				Bucket chunk = waitForChunk(index);
+				if(chunk == null) return -1;
+				is = chunk.getInputStream();
+			}
+		}
+
+		/** The number of bytes which can be read without blocking. */
+		public int available() {
+			synchronized(ProgressiveBucket.this) {
+				return (int) Math.min(Integer.MAX_VALUE, size - read);
+			}
+		}
+
+		public void close() throws IOException {
+			if(is != null) {
+				is.close();
+				is = null;
+			}
+		}
+	}
+
+}
@@ -67,6 +67,8 @@ public class SerializableToFieldSetBucketUtil {
 			return new DelayedFreeBucket(fs, random, f);
 		} else if(type.equals("PersistentTempFileBucket")) {
 			return PersistentTempFileBucket.create(fs, f);
+		} else if(type.equals("SlabBucket")) {
+			return SlabBucket.create(fs, f);
 		} else
 			throw new CannotCreateFromFieldSetException("Unrecognized type "+type);
 	}
@@ -0,0 +1,245 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import freenet.support.Logger;
+import freenet.support.SimpleFieldSet;
+import freenet.support.api.Bucket;
+
+/**
+ * A temp bucket stored in extents of a SlabStore. Extents are allocated as the
+ * data is written, and returned to the store when the bucket is freed.
+ */
+public class SlabBucket implements Bucket, SerializableToFieldSetBucket {
+
+	private final SlabStore store;
+	private int[] extents;
+	private int extentCount;
+	private long length;
+	private boolean readOnly;
+	private boolean freed;
+	/** Incremented by getOutputStream(), so old streams can't write any more */
+	private long restartCounter;
+
+	public SlabBucket(SlabStore store) {
+		this.store = store;
+		extents = new int[1];
+	}
+
+	private SlabBucket(SlabStore store, int[] extents, long length) {
+		this.store = store;
+		this.extents = extents;
+		this.extentCount = extents.length;
+		this.length = length;
+	}
+
+	public static Bucket create(SimpleFieldSet fs, PersistentFileTracker f) throws CannotCreateFromFieldSetException {
+		SlabStore store = f.getSlabStore();
+		if(store == null)
+			throw new CannotCreateFromFieldSetException("No slab store");
+		String tmp = fs.get("Length");
+		if(tmp == null) throw new CannotCreateFromFieldSetException("No length");
+		long length;
+		try {
+			length = Long.parseLong(tmp);
+		} catch (NumberFormatException e) {
+			throw new CannotCreateFromFieldSetException("Corrupt length "+tmp, e);
+		}
+		int[] extents = fs.getIntArray("Extents");
+		if(extents == null) extents = new int[0];
+		if(length < 0 || length > (long)extents.length * SlabStore.EXTENT_SIZE)
+			throw new CannotCreateFromFieldSetException("Invalid length "+length+" for "+extents.length+" extents");
+		if(!store.claim(extents))
+			throw new CannotCreateFromFieldSetException("Extents missing or already in use");
+		return new SlabBucket(store, extents, length);
+	}
+
+	public synchronized SimpleFieldSet toFieldSet() {
+		if(!store.isPersistent()) return null;
+		if(freed) {
+			Logger.error(this, "Cannot serialize because already freed: "+this);
+			return null;
+		}
+		SimpleFieldSet fs = new SimpleFieldSet(false);
+		fs.putSingle("Type", "SlabBucket");
+		fs.put("Length", length);
+		int[] e = new int[extentCount];
+		System.arraycopy(extents, 0, e, 0, extentCount);
+		fs.put("Extents", e);
+		return fs;
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		synchronized(this) {
+			if(freed) throw new IOException("Already freed");
+			if(readOnly) throw new IOException("Read only");
+			length = 0;
+			return new SlabOutputStream(++restartCounter);
+		}
+	}
+
+	public InputStream getInputStream() throws IOException {
+		synchronized(this) {
+			if(freed) throw new IOException("Already freed");
+		}
+		return new SlabInputStream();
+	}
+
+	public String getName() {
+		return "SlabBucket";
+	}
+
+	public synchronized long size() {
+		return length;
+	}
+
+	public synchronized boolean isReadOnly() {
+		return readOnly;
+	}
+
+	public synchronized void setReadOnly() {
+		readOnly = true;
+	}
+
+	public void free() {
+		int[] toFree;
+		int count;
+		synchronized(this) {
+			if(freed) return;
+			freed = true;
+			toFree = extents;
+			count = extentCount;
+			extents = null;
+			extentCount = 0;
+		}
+		for(int i=0;i<count;i++)
+			store.free(toFree[i]);
+	}
+
+	protected void finalize() {
+		if(!store.isPersistent())
+			free();
+	}
+
+	public synchronized String toString() {
+		return super.toString()+":length="+length+":extents="+extentCount;
+	}
+
+	/** Get the extent for a position, allocating it if we are writing. */
+	private synchronized int getExtent(long pos, long restart) throws IOException {
+		if(freed) throw new IOException("Already freed");
+		if(restart != restartCounter) throw new IllegalStateException("Writing to bucket after restart");
+		int index = (int) (pos / SlabStore.EXTENT_SIZE);
+		if(index < extentCount) return extents[index];
+		if(index != extentCount) throw new IllegalStateException("Not writing sequentially");
+		if(extentCount == extents.length) {
+			int[] newExtents = new int[extents.length * 2];
+			System.arraycopy(extents, 0, newExtents, 0, extentCount);
+			extents = newExtents;
+		}
+		int extent = store.allocate();
+		extents[extentCount++] = extent;
+		return extent;
+	}
+
+	private synchronized int getExtent(long pos) throws IOException {
+		if(freed) throw new IOException("Already freed");
+		return extents[(int) (pos / SlabStore.EXTENT_SIZE)];
+	}
+
+	private class SlabOutputStream extends OutputStream {
+
+		private final long restart;
+		private long pos;
+		private boolean closed;
+
+		SlabOutputStream(long restart) {
+			this.restart = restart;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			if(closed) throw new IOException("Already closed");
+			while(len > 0) {
+				int offset = (int) (pos % SlabStore.EXTENT_SIZE);
+				int chunk = Math.min(len, SlabStore.EXTENT_SIZE - offset);
+				store.write(getExtent(pos, restart), offset, buf, off, chunk);
+				pos += chunk;
+				off += chunk;
+				len -= chunk;
+				synchronized(SlabBucket.this) {
+					if(restart == restartCounter)
+						length = pos;
+				}
+			}
+		}
+
+		public void close() {
+			if(closed) return;
+			closed = true;
+			// If we have overwritten with something shorter, give back the extents we didn't use.
+			int needed = (int) ((pos + SlabStore.EXTENT_SIZE - 1) / SlabStore.EXTENT_SIZE);
+			int[] toFree = null;
+			int count = 0;
+			synchronized(SlabBucket.this) {
+				if(freed || restart != restartCounter || extentCount <= needed) return;
+				count = extentCount - needed;
+				toFree = new int[count];
+				System.arraycopy(extents, needed, toFree, 0, count);
+				extentCount = needed;
+			}
+			for(int i=0;i<count;i++)
+				store.free(toFree[i]);
+		}
+	}
+
+	private class SlabInputStream extends InputStream {
+
+		private long pos;
+		private boolean closed;
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			if(read(b, 0, 1) <= 0) return -1;
+			return b[0] & 0xFF;
+		}
+
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if(closed) throw new IOException("Already closed");
+			if(len == 0) return 0;
+			long remaining = size() - pos;
+			if(remaining <= 0) return -1;
+			int offset = (int) (pos % SlabStore.EXTENT_SIZE);
+			// One extent at a time
+			int chunk = (int) Math.min(Math.min(len, SlabStore.EXTENT_SIZE - offset), remaining);
+			store.read(getExtent(pos), offset, buf, off, chunk);
+			pos += chunk;
+			return chunk;
+		}
+
+		public long skip(long n) {
+			long remaining = size() - pos;
+			if(n > remaining) n = remaining;
+			if(n < 0) return 0;
+			pos += n;
+			return n;
+		}
+
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, size() - pos);
+		}
+
+		public void close() {
+			closed = true;
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import freenet.support.Logger;
+
+/**
+ * Temporary storage in a few large files ("slabs"), carved into fixed size
+ * extents. SlabBucket's are made of extents, so creating, writing and freeing a
+ * small temp bucket doesn't need any filesystem metadata operations: no file is
+ * created, opened, closed or deleted.
+ *
+ * Each slab is EXTENTS_PER_SLAB extents. We keep a bitmap of which extents are
+ * in use; a new slab is added when they are all used, and the last slab is
+ * removed when it is entirely free.
+ *
+ * If persistent, the slabs are kept across restarts, and every extent in them
+ * starts off in use. Persistent SlabBucket's claim their extents as they are
+ * restored (see SlabBucket.create()), and when completedInit() is called,
+ * anything unclaimed is freed. This is exactly what PersistentTempBucketFactory
+ * does with whole files.
+ */
+public class SlabStore {
+
+	public static final int EXTENT_SIZE = 32*1024;
+	/** Buckets expected to be larger than this should get a file of their own */
+	public static final long MAX_BUCKET_SIZE = 1024*1024;
+	static final int EXTENTS_PER_SLAB = 2048;
+	static final long SLAB_SIZE = (long)EXTENT_SIZE * EXTENTS_PER_SLAB;
+
+	private final File dir;
+	private final String prefix;
+	private final boolean persistent;
+	/** FileChannel for each slab */
+	private final ArrayList slabs;
+	/** Extents in use */
+	private final BitSet used;
+	/** Extents which were in use at startup and have not yet been claimed.
+	 * Null after completedInit(). */
+	private BitSet unclaimed;
+	/** No extents below this are free */
+	private int firstFree;
+	private int usedCount;
+
+	/**
+	 * @param dir The directory to keep the slabs in.
+	 * @param prefix The slab files are called prefix + index.
+	 * @param persistent If true, reopen the slabs from a previous run, and keep
+	 * them when we exit. If false, delete any old slabs.
+	 */
+	public SlabStore(File dir, String prefix, boolean persistent) throws IOException {
+		this.dir = dir;
+		this.prefix = prefix;
+		this.persistent = persistent;
+		slabs = new ArrayList();
+		used = new BitSet();
+		if(persistent) unclaimed = new BitSet();
+		for(int i=0;;i++) {
+			File f = getSlabFile(i);
+			if(!f.exists()) break;
+			if(!persistent) {
+				f.delete();
+				continue;
+			}
+			openSlab(f);
+			int start = i * EXTENTS_PER_SLAB;
+			for(int j=0;j<EXTENTS_PER_SLAB;j++) {
+				used.set(start + j);
+				unclaimed.set(start + j);
+			}
+			usedCount += EXTENTS_PER_SLAB;
+		}
+		firstFree = slabs.size() * EXTENTS_PER_SLAB;
+		if(slabs.size() > 0)
+			Logger.normal(this, "Reopened "+slabs.size()+" slabs in "+dir);
+	}
+
+	private File getSlabFile(int index) {
+		return new File(dir, prefix + index);
+	}
+
+	private void openSlab(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		if(raf.length() < SLAB_SIZE)
+			raf.setLength(SLAB_SIZE);
+		if(!persistent) f.deleteOnExit();
+		slabs.add(raf.getChannel());
+	}
+
+	/**
+	 * Allocate an extent.
+	 * @return The index of the extent.
+	 */
+	synchronized int allocate() throws IOException {
+		int extent = used.nextClearBit(firstFree);
+		if(extent >= slabs.size() * EXTENTS_PER_SLAB)
+			openSlab(getSlabFile(slabs.size()));
+		used.set(extent);
+		firstFree = extent + 1;
+		usedCount++;
+		return extent;
+	}
+
+	/**
+	 * Free an extent, and remove the last slab if it is now empty.
+	 */
+	synchronized void free(int extent) {
+		if(!used.get(extent)) {
+			Logger.error(this, "Freeing extent "+extent+" twice", new Exception("error"));
+			return;
+		}
+		used.clear(extent);
+		usedCount--;
+		if(extent < firstFree) firstFree = extent;
+		while(slabs.size() > 1) {
+			int last = slabs.size() - 1;
+			if(used.nextSetBit(last * EXTENTS_PER_SLAB) != -1) break;
+			FileChannel fc = (FileChannel) slabs.remove(last);
+			try {
+				fc.close();
+			} catch (IOException e) {
+				Logger.error(this, "Caught "+e+" closing slab "+last, e);
+			}
+			getSlabFile(last).delete();
+		}
+	}
+
+	/**
+	 * Claim extents for a persistent bucket being restored from disk.
+	 * @return False if any of the extents don't exist or have already been claimed.
+	 */
+	synchronized boolean claim(int[] extents) {
+		if(unclaimed == null) return false;
+		for(int i=0;i<extents.length;i++) {
+			if(extents[i] < 0 || !unclaimed.get(extents[i])) {
+				// Put back the ones we have taken
+				for(int j=0;j<i;j++)
+					unclaimed.set(extents[j]);
+				return false;
+			}
+			unclaimed.clear(extents[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Called when all persistent buckets have been restored. Frees every extent
+	 * that hasn't been claimed.
+	 */
+	public synchronized void completedInit() {
+		if(unclaimed == null) return;
+		BitSet toFree = unclaimed;
+		unclaimed = null;
+		int freed = 0;
+		for(int i=toFree.nextSetBit(0);i>=0;i=toFree.nextSetBit(i+1)) {
+			free(i);
+			freed++;
+		}
+		if(Logger.shouldLog(Logger.MINOR, this))
+			Logger.minor(this, "Freed "+freed+" unclaimed extents in "+dir+", "+usedCount+" in use in "+slabs.size()+" slabs");
+	}
+
+	private synchronized FileChannel getChannel(int extent) throws IOException {
+		int slab = extent / EXTENTS_PER_SLAB;
+		if(slab >= slabs.size())
+			throw new IOException("Extent "+extent+" does not exist");
+		return (FileChannel) slabs.get(slab);
+	}
+
+	/** Write within an extent. Doesn't need the lock, FileChannel positional writes are safe. */
+	void write(int extent, int offset, byte[] buf, int off, int len) throws IOException {
+		if(offset + len > EXTENT_SIZE) throw new IllegalArgumentException();
+		FileChannel fc = getChannel(extent);
+		ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+		long pos = (long)(extent % EXTENTS_PER_SLAB) * EXTENT_SIZE + offset;
+		while(bb.hasRemaining())
+			fc.write(bb, pos + bb.position() - off);
+	}
+
+	/** Read exactly len bytes from within an extent. */
+	void read(int extent, int offset, byte[] buf, int off, int len) throws IOException {
+		if(offset + len > EXTENT_SIZE) throw new IllegalArgumentException();
+		FileChannel fc = getChannel(extent);
+		ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+		long pos = (long)(extent % EXTENTS_PER_SLAB) * EXTENT_SIZE + offset;
+		while(bb.hasRemaining()) {
+			if(fc.read(bb, pos + bb.position() - off) < 0)
+				throw new EOFException("Slab truncated at extent "+extent);
+		}
+	}
+
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	/** Number of extents in use */
+	public synchronized int usedExtents() {
+		return usedCount;
+	}
+
+	public synchronized int slabCount() {
+		return slabs.size();
+	}
+
+}
@@ -0,0 +1,251 @@
+/* This code is part of Freenet. It is distributed under the GNU General
+ * Public License, version 2 (or at your option any later version). See
+ * http://www.gnu.org/ for further details of the GPL. */
+package freenet.support.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import freenet.support.Logger;
+import freenet.support.api.Bucket;
+
+/**
+ * A temp bucket which keeps its data in chunks of RAM borrowed from the
+ * TempBucketFactory, until it gets bigger than the factory's maximum RAM bucket
+ * size, or the factory runs out of RAM budget. Then we move the data to disk (a
+ * slab or file bucket) and carry on there. Most temp buckets are small and short
+ * lived, so this way they never touch the filesystem.
+ */
+class TempBucket implements Bucket {
+
+	private final TempBucketFactory factory;
+	/** Size hint, for the disk bucket */
+	private final long expectedSize;
+	/** The chunks, while we are in RAM */
+	private ArrayList chunks;
+	/** Bytes written to the chunks */
+	private long size;
+	/** The disk bucket, once we have migrated */
+	private Bucket backing;
+	private boolean readOnly;
+	private boolean freed;
+	/** Incremented by getOutputStream(), so old streams can't write any more */
+	private long restartCounter;
+
+	TempBucket(TempBucketFactory factory, long expectedSize) {
+		this.factory = factory;
+		this.expectedSize = expectedSize;
+		chunks = new ArrayList(2);
+	}
+
+	public synchronized OutputStream getOutputStream() throws IOException {
+		if(freed) throw new IOException("Already freed");
+		if(readOnly) throw new IOException("Read only");
+		restartCounter++;
+		if(backing != null) return backing.getOutputStream();
+		releaseChunks();
+		size = 0;
+		return new TempOutputStream(restartCounter);
+	}
+
+	public synchronized InputStream getInputStream() throws IOException {
+		if(freed) throw new IOException("Already freed");
+		if(backing != null) return backing.getInputStream();
+		return new TempInputStream();
+	}
+
+	public String getName() {
+		return "TempBucket";
+	}
+
+	public synchronized long size() {
+		if(backing != null) return backing.size();
+		return size;
+	}
+
+	public synchronized boolean isReadOnly() {
+		return readOnly;
+	}
+
+	public synchronized void setReadOnly() {
+		readOnly = true;
+		if(backing != null) backing.setReadOnly();
+	}
+
+	public void free() {
+		Bucket toFree;
+		synchronized(this) {
+			if(freed) return;
+			freed = true;
+			releaseChunks();
+			toFree = backing;
+			backing = null;
+		}
+		if(toFree != null) toFree.free();
+	}
+
+	protected void finalize() {
+		// Give back the RAM budget.
+		free();
+	}
+
+	public synchronized boolean isInRAM() {
+		return backing == null;
+	}
+
+	public synchronized String toString() {
+		return super.toString()+":size="+size+":backing="+backing;
+	}
+
+	private void releaseChunks() {
+		if(chunks.isEmpty()) return;
+		factory.returnChunks(chunks);
+		chunks.clear();
+	}
+
+	/**
+	 * Move everything to disk. Caller must hold the lock.
+	 * @return An OutputStream to the disk bucket, positioned after the data
+	 * written so far.
+	 */
+	private OutputStream migrate() throws IOException {
+		backing = factory.makeDiskBucket(expectedSize);
+		OutputStream os = backing.getOutputStream();
+		long remaining = size;
+		for(int i=0;i<chunks.size() && remaining > 0;i++) {
+			byte[] chunk = (byte[]) chunks.get(i);
+			int len = (int) Math.min(chunk.length, remaining);
+			os.write(chunk, 0, len);
+			remaining -= len;
+		}
+		releaseChunks();
+		factory.migrated();
+		if(Logger.shouldLog(Logger.MINOR, this))
+			Logger.minor(this, "Migrated "+size+" bytes to "+backing);
+		return os;
+	}
+
+	private class TempOutputStream extends OutputStream {
+
+		private final long restart;
+		/** Set once we have migrated to disk */
+		private OutputStream diskStream;
+		private boolean closed;
+
+		TempOutputStream(long restart) {
+			this.restart = restart;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] buf, int off, int len) throws IOException {
+			synchronized(TempBucket.this) {
+				if(closed) throw new IOException("Already closed");
+				if(freed) throw new IOException("Already freed");
+				if(restart != restartCounter) throw new IllegalStateException("Writing to bucket after restart");
+				if(diskStream == null) {
+					if(size + len <= factory.getMaxRAMBucketSize() && grow(size + len)) {
+						while(len > 0) {
+							byte[] chunk = (byte[]) chunks.get((int) (size / TempBucketFactory.CHUNK_SIZE));
+							int offset = (int) (size % TempBucketFactory.CHUNK_SIZE);
+							int chunkLen = Math.min(len, chunk.length - offset);
+							System.arraycopy(buf, off, chunk, offset, chunkLen);
+							size += chunkLen;
+							off += chunkLen;
+							len -= chunkLen;
+						}
+						return;
+					}
+					diskStream = migrate();
+				}
+			}
+			diskStream.write(buf, off, len);
+		}
+
+		/** Get enough chunks for the given size. Caller must hold the lock. */
+		private boolean grow(long newSize) {
+			while((long)chunks.size() * TempBucketFactory.CHUNK_SIZE < newSize) {
+				byte[] chunk = factory.takeChunk();
+				if(chunk == null) return false;
+				chunks.add(chunk);
+			}
+			return true;
+		}
+
+		public void flush() throws IOException {
+			OutputStream os;
+			synchronized(TempBucket.this) {
+				os = diskStream;
+			}
+			if(os != null) os.flush();
+		}
+
+		public void close() throws IOException {
+			OutputStream os;
+			synchronized(TempBucket.this) {
+				if(closed) return;
+				closed = true;
+				os = diskStream;
+			}
+			if(os != null) os.close();
+		}
+	}
+
+	private class TempInputStream extends InputStream {
+
+		private long pos;
+		/** Set if the bucket migrates to disk while we are reading */
+		private InputStream diskStream;
+		private boolean closed;
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			if(read(b, 0, 1) <= 0) return -1;
+			return b[0] & 0xFF;
+		}
+
+		public int read(byte[] buf, int off, int len) throws IOException {
+			InputStream is;
+			synchronized(TempBucket.this) {
+				if(closed) throw new IOException("Already closed");
+				if(freed) throw new IOException("Already freed");
+				if(len == 0) return 0;
+				if(diskStream == null && backing == null) {
+					if(pos >= size) return -1;
+					byte[] chunk = (byte[]) chunks.get((int) (pos / TempBucketFactory.CHUNK_SIZE));
+					int offset = (int) (pos % TempBucketFactory.CHUNK_SIZE);
+					int chunkLen = (int) Math.min(Math.min(len, chunk.length - offset), size - pos);
+					System.arraycopy(chunk, offset, buf, off, chunkLen);
+					pos += chunkLen;
+					return chunkLen;
+				}
+				if(diskStream == null) {
+					diskStream = backing.getInputStream();
+					long skip = pos;
+					while(skip > 0) {
+						long skipped = diskStream.skip(skip);
+						if(skipped <= 0) throw new IOException("Unable to skip to "+pos+" after migration");
+						skip -= skipped;
+					}
+				}
+				is = diskStream;
+			}
+			return is.read(buf, off, len);
+		}
+
+		public void close() throws IOException {
+			InputStream is;
+			synchronized(TempBucket.this) {
+				if(closed) return;
+				closed = true;
+				is = diskStream;
+			}
+			if(is != null) is.close();
+		}
+	}
+
+}
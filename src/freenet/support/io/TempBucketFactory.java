@@ -1,6 +1,8 @@
 package freenet.support.io;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import freenet.support.api.Bucket;
 import freenet.support.api.BucketFactory;
@@ -14,19 +16,50 @@ import freenet.support.api.BucketFactory;
 /**
  * Temporary Bucket Factory
  * 
+ * Buckets start off in RAM (see TempBucket), and move to disk if they get
+ * too big or if we run out of RAM budget. On disk, small buckets go in the slab
+ * store, and anything else gets a file of its own.
+ * 
  * @author giannij
  */
 public class TempBucketFactory implements BucketFactory {
 
 	private final FilenameGenerator filenameGenerator;
+	/** Where small buckets go. Can be null. */
+	private final SlabStore slabStore;
 	
 	public static long defaultIncrement = 4096;
 	
 	public static float DEFAULT_FACTOR = 1.25F;
 
+	/** RAM buckets are made of chunks of this size */
+	static final int CHUNK_SIZE = 4096;
+	/** Maximum number of spare chunks to keep for reuse */
+	private static final int MAX_POOLED_CHUNKS = 256;
+	
+	/** Spare chunks */
+	private final ArrayList chunkPool;
+	/** Total RAM that may be used by RAM buckets */
+	private long maxRAMUsed;
+	/** RAM buckets which get bigger than this move to disk */
+	private long maxRAMBucketSize;
+	/** RAM currently used by RAM buckets */
+	private long ramUsed;
+	/** Number of buckets created, and number that moved from RAM to disk */
+	private long bucketsCreated;
+	private long migrations;
+
 	// Storage accounting disabled by default.
-	public TempBucketFactory(FilenameGenerator filenameGenerator) {
+	/**
+	 * @param maxRAMUsed The total RAM budget for buckets which haven't moved to disk.
+	 * @param maxRAMBucketSize Buckets bigger than this move to disk.
+	 */
+	public TempBucketFactory(FilenameGenerator filenameGenerator, SlabStore slabStore, long maxRAMUsed, long maxRAMBucketSize) {
 		this.filenameGenerator = filenameGenerator;
+		this.slabStore = slabStore;
+		this.maxRAMUsed = maxRAMUsed;
+		this.maxRAMBucketSize = maxRAMBucketSize;
+		this.chunkPool = new ArrayList();
 	}
 
 	public Bucket makeBucket(long size) throws IOException {
@@ -38,10 +71,11 @@ public class TempBucketFactory implements BucketFactory {
 	}
 
 	/**
-	 * Create a temp bucket
+	 * Create a temp bucket. It will start off in RAM, if we have enough budget.
 	 * 
 	 * @param size
-	 *            Default size
+	 *            Default size. If it is known and small, the bucket will be
+	 *            kept in the slab store rather than in a file of its own.
 	 * @param factor
 	 *            Factor to increase size by when need more space
 	 * @return A temporary Bucket
@@ -49,11 +83,81 @@ public class TempBucketFactory implements BucketFactory {
 	 *                If it is not possible to create a temp bucket due to an
 	 *                I/O error
 	 */
-	public TempFileBucket makeBucket(long size, float factor, long increment)
+	public Bucket makeBucket(long size, float factor, long increment)
 		throws IOException {
+		synchronized(this) {
+			bucketsCreated++;
+			if(maxRAMBucketSize > 0 && (size < 0 || size <= maxRAMBucketSize) && ramUsed < maxRAMUsed)
+				return new TempBucket(this, size);
+		}
+		return makeDiskBucket(size);
+	}
+	
+	/**
+	 * Create a bucket on disk.
+	 * @param size The expected size, or -1 if not known.
+	 */
+	Bucket makeDiskBucket(long size) throws IOException {
+		if(slabStore != null && size >= 0 && size <= SlabStore.MAX_BUCKET_SIZE)
+			return new SlabBucket(slabStore);
 		long id = filenameGenerator.makeRandomFilename();
 
 		return new TempFileBucket(id, filenameGenerator);
 	}
+	
+	/**
+	 * Take a chunk of RAM for a TempBucket.
+	 * @return A chunk of CHUNK_SIZE bytes, or null if we are out of RAM budget.
+	 */
+	synchronized byte[] takeChunk() {
+		if(ramUsed + CHUNK_SIZE > maxRAMUsed) return null;
+		ramUsed += CHUNK_SIZE;
+		if(!chunkPool.isEmpty())
+			return (byte[]) chunkPool.remove(chunkPool.size()-1);
+		return new byte[CHUNK_SIZE];
+	}
+	
+	/** Give back chunks taken by takeChunk(). */
+	synchronized void returnChunks(List chunks) {
+		ramUsed -= (long)chunks.size() * CHUNK_SIZE;
+		for(int i=0;i<chunks.size() && chunkPool.size() < MAX_POOLED_CHUNKS;i++)
+			chunkPool.add(chunks.get(i));
+	}
+	
+	synchronized void migrated() {
+		migrations++;
+	}
+	
+	public synchronized long getMaxRAMBucketSize() {
+		return maxRAMBucketSize;
+	}
+	
+	public synchronized void setMaxRAMBucketSize(long size) {
+		maxRAMBucketSize = size;
+	}
+	
+	public synchronized long getMaxRAMUsed() {
+		return maxRAMUsed;
+	}
+	
+	public synchronized void setMaxRAMUsed(long size) {
+		maxRAMUsed = size;
+		if(chunkPool.size() * (long)CHUNK_SIZE > size)
+			chunkPool.clear();
+	}
+	
+	/** RAM currently used by buckets which haven't moved to disk */
+	public synchronized long getRAMUsed() {
+		return ramUsed;
+	}
+	
+	public synchronized long getBucketsCreated() {
+		return bucketsCreated;
+	}
+	
+	/** Number of buckets which started in RAM and moved to disk */
+	public synchronized long getMigrations() {
+		return migrations;
+	}
 
 }
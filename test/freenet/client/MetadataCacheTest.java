@@ -0,0 +1,93 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.client;
+
+import freenet.keys.FreenetURI;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.client.MetadataCache}.
+ */
+public class MetadataCacheTest extends TestCase {
+
+	private static Metadata makeMetadata(String name) {
+		return new Metadata(Metadata.ZIP_INTERNAL_REDIRECT, name, new ClientMetadata("text/plain"));
+	}
+
+	private static FreenetURI chk(int i) {
+		return new FreenetURI("CHK", "doc"+i);
+	}
+
+	/**
+	 * Tests get and put, and that only CHKs are cached.
+	 */
+	public void testGetAndPut() {
+		MetadataCache methodCache = new MetadataCache(10, 1000);
+		Metadata methodMeta = makeMetadata("a");
+		methodCache.put(chk(1), methodMeta, 100);
+		assertSame(methodMeta, methodCache.get(chk(1), 1000));
+		assertNull(methodCache.get(chk(2), 1000));
+		// Too big for the caller
+		assertNull(methodCache.get(chk(1), 99));
+		methodCache.put(new FreenetURI("SSK", "doc1"), methodMeta, 100);
+		assertNull(methodCache.get(new FreenetURI("SSK", "doc1"), 1000));
+		assertEquals(1, methodCache.size());
+		// Replacing an entry replaces its size
+		methodCache.put(chk(1), methodMeta, 200);
+		assertEquals(200, methodCache.bytesUsed());
+	}
+
+	/**
+	 * Tests that the least recently used entries are dropped to stay within both limits.
+	 */
+	public void testLimits() {
+		MetadataCache methodCache = new MetadataCache(3, 1000);
+		for(int i=0;i<3;i++)
+			methodCache.put(chk(i), makeMetadata("x"+i), 100);
+		// Use 0, so 1 is dropped first
+		assertNotNull(methodCache.get(chk(0), 1000));
+		methodCache.put(chk(3), makeMetadata("x3"), 100);
+		assertEquals(3, methodCache.size());
+		assertNull(methodCache.get(chk(1), 1000));
+		assertNotNull(methodCache.get(chk(0), 1000));
+		// Now by size: 0 was used last, so 2 goes, then 3
+		methodCache.put(chk(4), makeMetadata("x4"), 800);
+		assertEquals(1000, methodCache.bytesUsed());
+		assertNull(methodCache.get(chk(2), 1000));
+		methodCache.put(chk(5), makeMetadata("x5"), 50);
+		assertEquals(950, methodCache.bytesUsed());
+		assertNull(methodCache.get(chk(3), 1000));
+		assertNotNull(methodCache.get(chk(0), 1000));
+		assertNotNull(methodCache.get(chk(4), 1000));
+		// Bigger than the whole cache: not cached at all
+		methodCache.put(chk(6), makeMetadata("x6"), 2000);
+		assertNull(methodCache.get(chk(6), 10000));
+		assertEquals(3, methodCache.size());
+	}
+
+	/**
+	 * Tests that a clone can be made into an archive manifest without changing the original.
+	 */
+	public void testCloneIsIndependent() {
+		Metadata methodMeta = new Metadata(Metadata.SIMPLE_REDIRECT, chk(1), new ClientMetadata("application/zip"));
+		Metadata methodClone = (Metadata) methodMeta.clone();
+		methodClone.setArchiveManifest();
+		assertTrue(methodMeta.isSingleFileRedirect());
+		assertFalse(methodMeta.isArchiveManifest());
+		assertEquals("application/zip", methodMeta.getClientMetadata().getMIMEType());
+	}
+
+}
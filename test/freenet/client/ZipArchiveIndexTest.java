@@ -0,0 +1,141 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import freenet.support.io.ArrayBucket;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.client.ZipArchiveIndex}.
+ */
+public class ZipArchiveIndexTest extends TestCase {
+
+	private byte[] small;
+	private byte[] big;
+
+	protected void setUp() {
+		small = "Hello world!".getBytes();
+		big = new byte[100000];
+		for(int i=0;i<big.length;i++)
+			big[i] = (byte) (i % 251 + i / 1000);
+	}
+
+	private byte[] makeZip(String comment) throws IOException {
+		ByteArrayOutputStream methodBAOS = new ByteArrayOutputStream();
+		ZipOutputStream methodZOS = new ZipOutputStream(methodBAOS);
+		methodZOS.putNextEntry(new ZipEntry("dir/"));
+		methodZOS.closeEntry();
+		methodZOS.putNextEntry(new ZipEntry("dir/big.bin"));
+		methodZOS.write(big);
+		methodZOS.closeEntry();
+		ZipEntry methodStored = new ZipEntry("small.txt");
+		methodStored.setMethod(ZipEntry.STORED);
+		methodStored.setSize(small.length);
+		CRC32 methodCRC = new CRC32();
+		methodCRC.update(small);
+		methodStored.setCrc(methodCRC.getValue());
+		methodZOS.putNextEntry(methodStored);
+		methodZOS.write(small);
+		methodZOS.closeEntry();
+		if(comment != null) methodZOS.setComment(comment);
+		methodZOS.close();
+		return methodBAOS.toByteArray();
+	}
+
+	private byte[] extract(ZipArchiveIndex index, byte[] zip, String name) throws IOException {
+		ByteArrayOutputStream methodBAOS = new ByteArrayOutputStream();
+		assertTrue(index.extract(new ArrayBucket(zip), name, methodBAOS));
+		return methodBAOS.toByteArray();
+	}
+
+	/**
+	 * Tests reading the index and extracting stored and deflated files.
+	 */
+	public void testExtract() throws IOException {
+		byte[] methodZip = makeZip(null);
+		ZipArchiveIndex methodIndex = ZipArchiveIndex.read(new ArrayBucket(methodZip));
+		assertNotNull(methodIndex);
+		assertEquals(2, methodIndex.size());
+		assertTrue(methodIndex.contains("small.txt"));
+		assertTrue(methodIndex.contains("dir/big.bin"));
+		assertFalse(methodIndex.contains("dir/"));
+		assertFalse(methodIndex.contains("missing"));
+		assertEquals(small.length, methodIndex.getSize("small.txt"));
+		assertEquals(big.length, methodIndex.getSize("dir/big.bin"));
+		assertEquals(-1, methodIndex.getSize("missing"));
+		assertTrue(Arrays.equals(small, extract(methodIndex, methodZip, "small.txt")));
+		assertTrue(Arrays.equals(big, extract(methodIndex, methodZip, "dir/big.bin")));
+		assertFalse(methodIndex.extract(new ArrayBucket(methodZip), "missing", new ByteArrayOutputStream()));
+		assertEquals(2, methodIndex.getNames().size());
+	}
+
+	/**
+	 * Tests that the end of the central directory is found after an archive comment.
+	 */
+	public void testComment() throws IOException {
+		byte[] methodZip = makeZip("A comment which is longer than the end record");
+		ZipArchiveIndex methodIndex = ZipArchiveIndex.read(new ArrayBucket(methodZip));
+		assertNotNull(methodIndex);
+		assertTrue(Arrays.equals(small, extract(methodIndex, methodZip, "small.txt")));
+	}
+
+	/**
+	 * Tests that data which is not a ZIP, or has junk before it, gives no index.
+	 */
+	public void testNotZip() throws IOException {
+		assertNull(ZipArchiveIndex.read(new ArrayBucket(new byte[10])));
+		assertNull(ZipArchiveIndex.read(new ArrayBucket(big)));
+		byte[] methodZip = makeZip(null);
+		byte[] methodPrefixed = new byte[methodZip.length + 10];
+		System.arraycopy(methodZip, 0, methodPrefixed, 10, methodZip.length);
+		assertNull(ZipArchiveIndex.read(new ArrayBucket(methodPrefixed)));
+	}
+
+	/**
+	 * Tests that a corrupted file is detected by its CRC.
+	 */
+	public void testCorrupt() throws IOException {
+		byte[] methodZip = makeZip(null);
+		ZipArchiveIndex methodIndex = ZipArchiveIndex.read(new ArrayBucket(methodZip));
+		// Flip a bit in the stored file
+		int methodOffset = indexOf(methodZip, small);
+		assertTrue(methodOffset > 0);
+		methodZip[methodOffset] ^= 1;
+		try {
+			extract(methodIndex, methodZip, "small.txt");
+			fail("Corruption not detected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern) {
+		outer: for(int i=0;i<=data.length-pattern.length;i++) {
+			for(int j=0;j<pattern.length;j++)
+				if(data[i+j] != pattern[j]) continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+}
@@ -96,6 +96,34 @@ public class DSATest extends TestCase{
         assertTrue(DSA.verify(FIPS_DSA_PUBLIC_KEY,FIPS_DSA_SIGNATURE,FIPS_SHA1_M,false));
     }
     
+    /**
+     * Test of verify with the global group, which uses precomputed powers of
+     * the generator, and that it still rejects a wrong message. */
+    public void testVerifyGlobalGroup() {
+        DSAGroup aDSAgroup = Global.DSAgroupBigA;
+        DSAPrivateKey aDSAPrivKey = new DSAPrivateKey(aDSAgroup,randomSource);
+        DSAPublicKey aDSAPubKey = new DSAPublicKey(aDSAgroup,aDSAPrivKey);
+        BigInteger aMessage = new BigInteger(255,randomSource);
+        DSASignature aSignature = DSA.sign(aDSAgroup,aDSAPrivKey,aMessage,randomSource);
+        assertTrue(DSA.verify(aDSAPubKey,aSignature,aMessage,false));
+        assertFalse(DSA.verify(aDSAPubKey,aSignature,aMessage.add(BigInteger.ONE),false));
+    }
+    
+    /**
+     * Test that FixedBaseModPow gives the same results as modPow,
+     * including for exponents too big for its table. */
+    public void testFixedBaseModPow() {
+        DSAGroup aDSAgroup = Global.DSAgroupBigA;
+        FixedBaseModPow aTable = new FixedBaseModPow(aDSAgroup.getG(),aDSAgroup.getP(),64);
+        BigInteger[] exponents = new BigInteger[] { BigInteger.ZERO, BigInteger.ONE,
+                BigInteger.valueOf(63), BigInteger.valueOf(64),
+                BigInteger.ONE.shiftLeft(63), new BigInteger(64,randomSource),
+                new BigInteger(64,randomSource), new BigInteger(200,randomSource) };
+        for (int i = 0; i < exponents.length; i++)
+            assertEquals(aDSAgroup.getG().modPow(exponents[i],aDSAgroup.getP()),
+                    aTable.pow(exponents[i]));
+    }
+    
     /**
      * Test sign method consistency
      * It performs two signature of the same message
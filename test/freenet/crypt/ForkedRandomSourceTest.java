@@ -0,0 +1,67 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+
+package freenet.crypt;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for the {@link freenet.crypt.ForkedRandomSource} class.
+ */
+public class ForkedRandomSourceTest extends TestCase {
+
+	/**
+	 * Tests that two threads get different streams.
+	 */
+	public void testThreadsDiffer() throws InterruptedException {
+		final ForkedRandomSource methodRandom = new ForkedRandomSource(new DummyRandomSource());
+		final byte[] methodOther = new byte[64];
+		Thread methodThread = new Thread() {
+			public void run() {
+				methodRandom.nextBytes(methodOther);
+			}
+		};
+		methodThread.start();
+		methodThread.join();
+		byte[] methodMine = new byte[64];
+		methodRandom.nextBytes(methodMine);
+		assertFalse(Arrays.equals(methodMine, methodOther));
+		assertFalse(Arrays.equals(methodMine, new byte[64]));
+	}
+
+	/**
+	 * Tests draws which span the internal buffer, and bounded ints.
+	 */
+	public void testDraws() {
+		ForkedRandomSource methodRandom = new ForkedRandomSource(new DummyRandomSource());
+		byte[] methodFirst = new byte[ForkedRandomSource.BUFFER_SIZE + 100];
+		byte[] methodSecond = new byte[ForkedRandomSource.BUFFER_SIZE + 100];
+		methodRandom.nextBytes(methodFirst);
+		methodRandom.nextBytes(methodSecond);
+		assertFalse(Arrays.equals(methodFirst, methodSecond));
+		boolean[] methodSeen = new boolean[10];
+		for(int i=0;i<1000;i++) {
+			int methodValue = methodRandom.nextInt(10);
+			assertTrue(methodValue >= 0 && methodValue < 10);
+			methodSeen[methodValue] = true;
+		}
+		for(int i=0;i<methodSeen.length;i++)
+			assertTrue(methodSeen[i]);
+	}
+
+}
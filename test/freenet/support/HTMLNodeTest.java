@@ -15,6 +15,8 @@
  */
 package freenet.support;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -660,4 +662,23 @@ public class HTMLNodeTest extends TestCase {
 		
 	}
 
+	/**
+	 * Tests that generate(Writer) writes the same as generate(),
+	 * including encoding, special names and the doctype.
+	 */
+	public void testGenerate_toWriter() throws IOException {
+		HTMLNode methodHTMLNodeDoc = new HTMLNode.HTMLDoctype("html", "-//W3C//DTD XHTML 1.1//EN");
+		HTMLNode methodHTML = methodHTMLNodeDoc.addChild("html");
+		HTMLNode methodTable = methodHTML.addChild("table", "class", "a<b&\"c\"");
+		methodTable.addChild("tr").addChild("td", "x < y & \u00e8 > z");
+		methodHTML.addChild("div");
+		methodHTML.addChild("br");
+		methodHTML.addChild("%", "<b>raw</b>");
+		methodHTML.addChild("#", "plain text & more");
+		methodHTML.addChild("li", SAMPLE_NODE_CONTENT);
+		StringWriter methodWriter = new StringWriter();
+		methodHTMLNodeDoc.generate(methodWriter);
+		assertEquals(methodHTMLNodeDoc.generate(), methodWriter.toString());
+	}
+
 }
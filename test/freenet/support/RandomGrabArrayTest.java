@@ -0,0 +1,181 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import freenet.crypt.DummyRandomSource;
+import freenet.crypt.RandomSource;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.support.RandomGrabArray} and
+ * {@link freenet.support.SectoredRandomGrabArray}.
+ */
+public class RandomGrabArrayTest extends TestCase {
+
+	private static class Item implements RandomGrabArrayItem {
+		final Object client;
+		boolean cancelled;
+		private RandomGrabArray parent;
+
+		Item(Object client) {
+			this.client = client;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean canRemove() {
+			return true;
+		}
+
+		public boolean knowsParentGrabArray() {
+			return true;
+		}
+
+		public synchronized void setParentGrabArray(RandomGrabArray parent) {
+			this.parent = parent;
+		}
+
+		public synchronized RandomGrabArray getParentGrabArray() {
+			return parent;
+		}
+	}
+
+	private RandomSource random;
+
+	protected void setUp() {
+		random = new DummyRandomSource();
+		random.setSeed(0);
+	}
+
+	/**
+	 * Tests that every item is returned exactly once, and duplicates are ignored.
+	 */
+	public void testAddAndRemoveRandom() {
+		RandomGrabArray methodRGA = new RandomGrabArray(random);
+		Item[] methodItems = new Item[1000];
+		for(int i=0;i<methodItems.length;i++) {
+			methodItems[i] = new Item(null);
+			methodRGA.add(methodItems[i]);
+			methodRGA.add(methodItems[i]);
+			assertSame(methodRGA, methodItems[i].getParentGrabArray());
+		}
+		assertEquals(methodItems.length, methodRGA.size());
+		HashSet methodSeen = new HashSet();
+		for(int i=0;i<methodItems.length;i++) {
+			Item methodItem = (Item) methodRGA.removeRandom();
+			assertNotNull(methodItem);
+			assertTrue(methodSeen.add(methodItem));
+			assertNull(methodItem.getParentGrabArray());
+		}
+		assertNull(methodRGA.removeRandom());
+		assertTrue(methodRGA.isEmpty());
+	}
+
+	/**
+	 * Tests remove(), and that cancelled items are dropped rather than returned.
+	 */
+	public void testRemoveAndCancelled() {
+		RandomGrabArray methodRGA = new RandomGrabArray(random);
+		Item[] methodItems = new Item[100];
+		for(int i=0;i<methodItems.length;i++) {
+			methodItems[i] = new Item(null);
+			methodRGA.add(methodItems[i]);
+		}
+		for(int i=0;i<methodItems.length;i+=2)
+			methodRGA.remove(methodItems[i]);
+		for(int i=1;i<methodItems.length;i+=4)
+			methodItems[i].cancelled = true;
+		int methodCount = 0;
+		Item methodItem;
+		while((methodItem = (Item) methodRGA.removeRandom()) != null) {
+			assertFalse(methodItem.cancelled);
+			methodCount++;
+		}
+		assertEquals(25, methodCount);
+		assertTrue(methodRGA.isEmpty());
+	}
+
+	/**
+	 * Tests that each item is about equally likely to be chosen.
+	 */
+	public void testUniform() {
+		RandomGrabArray methodRGA = new RandomGrabArray(random);
+		Item[] methodItems = new Item[8];
+		for(int i=0;i<methodItems.length;i++) {
+			methodItems[i] = new Item(new Integer(i));
+			methodRGA.add(methodItems[i]);
+		}
+		int[] methodCounts = new int[methodItems.length];
+		for(int i=0;i<8000;i++) {
+			Item methodItem = (Item) methodRGA.removeRandom();
+			methodCounts[((Integer) methodItem.client).intValue()]++;
+			methodRGA.add(methodItem);
+		}
+		for(int i=0;i<methodCounts.length;i++)
+			assertTrue("Item "+i+" chosen "+methodCounts[i]+" times", methodCounts[i] > 800 && methodCounts[i] < 1200);
+	}
+
+	/**
+	 * Tests that nothing is lost or duplicated when several threads grab and
+	 * re-add items at once.
+	 */
+	public void testSectoredConcurrent() throws InterruptedException {
+		final SectoredRandomGrabArray methodSRGA = new SectoredRandomGrabArray(random);
+		final int methodTotal = 1000;
+		for(int i=0;i<methodTotal;i++) {
+			Item methodItem = new Item(new Integer(i % 10));
+			methodSRGA.add(methodItem.client, methodItem);
+		}
+		final List methodErrors = Collections.synchronizedList(new ArrayList());
+		Thread[] methodThreads = new Thread[4];
+		for(int i=0;i<methodThreads.length;i++) {
+			methodThreads[i] = new Thread() {
+				public void run() {
+					try {
+						for(int j=0;j<10000;j++) {
+							Item methodItem = (Item) methodSRGA.removeRandom();
+							methodSRGA.add(methodItem.client, methodItem);
+						}
+					} catch (Throwable aThrowable) {
+						methodErrors.add(aThrowable);
+					}
+				}
+			};
+			methodThreads[i].start();
+		}
+		for(int i=0;i<methodThreads.length;i++)
+			methodThreads[i].join();
+		if(!methodErrors.isEmpty()) {
+			Throwable methodError = (Throwable) methodErrors.get(0);
+			methodError.printStackTrace();
+			fail("Worker thread threw "+methodError+" ("+methodErrors.size()+" errors)");
+		}
+		HashSet methodSeen = new HashSet();
+		Item methodItem;
+		while((methodItem = (Item) methodSRGA.removeRandom()) != null)
+			assertTrue(methodSeen.add(methodItem));
+		assertEquals(methodTotal, methodSeen.size());
+		assertTrue(methodSRGA.isEmpty());
+	}
+
+}
@@ -16,13 +16,22 @@
 
 package freenet.support;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Iterator;
 
 import freenet.node.FSParseException;
+import freenet.support.io.LineReadingInputStream;
+import freenet.support.io.TooLongException;
 import junit.framework.TestCase;
 
 /**
@@ -698,4 +707,115 @@ public class SimpleFieldSetTest extends TestCase {
 		Iterator itr = methodSFS.keyIterator(methodPrefix);
 		assertTrue(areAllContainedKeys(SAMPLE_STRING_PAIRS,methodPrefix,itr));	
 	}
+	
+	/**
+	 * Tests SimpleFieldSet(LineReader,int,int,boolean,boolean,boolean,boolean)
+	 * constructor, with and without a mark()able stream underneath, and checks
+	 * that the data after the end marker is left in the stream.
+	 */
+	public void testSimpleFieldSet_LineReader() throws IOException {
+		String methodStringToParse = sfsReadyString(SAMPLE_STRING_PAIRS) + "\r\n" + "trailing data";
+		byte[] methodBytes = methodStringToParse.getBytes("UTF-8");
+		InputStream[] methodStreams = new InputStream[] {
+				new BufferedInputStream(new ByteArrayInputStream(methodBytes), 8),
+				new FilterInputStream(new ByteArrayInputStream(methodBytes)) {
+					public boolean markSupported() { return false; }
+				} };
+		for (int j = 0; j < methodStreams.length; j++) {
+			LineReadingInputStream methodLis = new LineReadingInputStream(methodStreams[j]);
+			SimpleFieldSet methodSFS = new SimpleFieldSet(methodLis, 1024, 16, false, true, false, true);
+			for (int i=0; i < SAMPLE_STRING_PAIRS.length; i++)
+				assertEquals(methodSFS.get(SAMPLE_STRING_PAIRS[i][0]),
+						SAMPLE_STRING_PAIRS[i][1]);
+			assertEquals(methodSFS.getEndMarker(),SAMPLE_END_MARKER);
+			assertEquals(methodLis.readLine(1024, 16, true),"trailing data");
+		}
+	}
+	
+	/**
+	 * Tests that writeTo(OutputStream) produces the same UTF-8 as toString(),
+	 * and that it parses back to the same values.
+	 */
+	public void testWriteTo_OutputStream() throws IOException {
+		SimpleFieldSet methodSFS = sfsFromSampleStringPairs();
+		methodSFS.putSingle("unicode.value", "s\u03b1mple \ud834\udd1e");
+		ByteArrayOutputStream methodBaos = new ByteArrayOutputStream();
+		methodSFS.writeTo(methodBaos);
+		byte[] methodBytes = methodBaos.toByteArray();
+		assertTrue(Arrays.equals(methodBytes, methodSFS.toString().getBytes("UTF-8")));
+		SimpleFieldSet methodParsed = new SimpleFieldSet(new LineReadingInputStream(
+				new ByteArrayInputStream(methodBytes)), 1024, 16, false, true, false, false);
+		assertEquals(methodParsed.toString(), methodSFS.toString());
+	}
+	
+	/**
+	 * Tests that a line exactly as long as the limit is accepted,
+	 * and a line one byte longer is not.
+	 */
+	public void testLineReader_MaxLength() throws IOException {
+		byte[] methodBytes = "0123456789\n0123456789a\n".getBytes("UTF-8");
+		LineReadingInputStream methodLis = new LineReadingInputStream(
+				new BufferedInputStream(new ByteArrayInputStream(methodBytes)));
+		assertEquals(methodLis.readLine(10, 4, true),"0123456789");
+		try {
+			methodLis.readLine(10, 4, true);
+			fail("Expected TooLongException");
+		} catch (TooLongException aException) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests that the limit still applies after a long line has grown
+	 * the line buffer beyond it.
+	 */
+	public void testLineReader_MaxLengthAfterLongLine() throws IOException {
+		StringBuffer methodLongLine = new StringBuffer();
+		for (int i = 0; i < 1000; i++)
+			methodLongLine.append((char)('a' + i % 26));
+		String methodShortLine = methodLongLine.substring(0, 128);
+		byte[] methodBytes = (methodLongLine + "\n" + methodShortLine + "\n" +
+				methodShortLine + "x\n").getBytes("UTF-8");
+		LineReadingInputStream methodLis = new LineReadingInputStream(
+				new BufferedInputStream(new ByteArrayInputStream(methodBytes)));
+		assertEquals(methodLis.readLine(32768, 128, true),methodLongLine.toString());
+		assertEquals(methodLis.readLine(128, 128, true),methodShortLine);
+		try {
+			methodLis.readLine(128, 128, true);
+			fail("Expected TooLongException");
+		} catch (TooLongException aException) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests writeBinaryTo(DataOutputStream) and readBinary(...): all values,
+	 * including ones that look like (but aren't quite) numbers, must come back
+	 * exactly as they were.
+	 */
+	public void testBinaryRoundTrip() throws IOException {
+		SimpleFieldSet methodSFS = sfsFromSampleStringPairs();
+		methodSFS.put("numbers.int", 1234);
+		methodSFS.put("numbers.negative", -5L);
+		methodSFS.put("numbers.max", Long.MAX_VALUE);
+		methodSFS.putSingle("numbers.leadingZero", "007");
+		methodSFS.putSingle("numbers.minusZero", "-0");
+		methodSFS.put("flags.on", true);
+		methodSFS.put("flags.off", false);
+		methodSFS.putSingle("flags.mixedCase", "True");
+		methodSFS.putSingle("unicode.value", "s\u03b1mple \ud834\udd1e");
+		methodSFS.putSingle("empty", "");
+		ByteArrayOutputStream methodBaos = new ByteArrayOutputStream();
+		methodSFS.writeBinaryTo(new DataOutputStream(methodBaos));
+		DataInputStream methodDis = new DataInputStream(new ByteArrayInputStream(methodBaos.toByteArray()));
+		SimpleFieldSet methodParsed = SimpleFieldSet.readBinary(methodDis, 1024, 1024, true);
+		assertEquals(0, methodDis.available());
+		assertEquals(methodSFS.toOrderedString(), methodParsed.toOrderedString());
+		try {
+			SimpleFieldSet.readBinary(new DataInputStream(new ByteArrayInputStream(methodBaos.toByteArray())), 3, 1024, true);
+			fail("Expected IOException: too many fields");
+		} catch (IOException anException) {
+			assertNotNull(anException);
+		}
+	}
 }
@@ -0,0 +1,134 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.support.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.support.compress.GzipCompressor}, in particular
+ * decompressing to a stream as the data is written.
+ */
+public class GzipCompressorTest extends TestCase {
+
+	private byte[] original;
+	private byte[] compressed;
+
+	protected void setUp() throws IOException {
+		Random methodRandom = new Random(0);
+		original = new byte[100000];
+		// Compressible, but not trivially
+		for(int i=0;i<original.length;i++)
+			original[i] = (byte) ('a' + methodRandom.nextInt(4));
+		compressed = gzip(original);
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+		GZIPOutputStream methodGzip = new GZIPOutputStream(methodBytes);
+		methodGzip.write(data);
+		methodGzip.close();
+		return methodBytes.toByteArray();
+	}
+
+	/** Write the data in chunks of the given size, then close. */
+	private static void writeInChunks(OutputStream os, byte[] data, int chunk) throws IOException {
+		for(int i=0;i<data.length;i+=chunk)
+			os.write(data, i, Math.min(chunk, data.length - i));
+		os.close();
+	}
+
+	/**
+	 * Tests that the data comes out intact however it is split up when written.
+	 */
+	public void testDecompressingOutputStream() throws IOException {
+		int[] methodChunks = new int[] { 1, 7, 4096, compressed.length };
+		for(int i=0;i<methodChunks.length;i++) {
+			ByteArrayOutputStream methodOut = new ByteArrayOutputStream();
+			OutputStream methodOS = Compressor.GZIP.decompressingOutputStream(methodOut, original.length, 0);
+			writeInChunks(methodOS, compressed, methodChunks[i]);
+			assertTrue("Chunk size "+methodChunks[i], Arrays.equals(original, methodOut.toByteArray()));
+		}
+	}
+
+	/**
+	 * Tests a header with a file name and extra field, and ignoring data after the end.
+	 */
+	public void testOptionalHeaderFields() throws IOException {
+		ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+		methodBytes.write(compressed, 0, 3);
+		methodBytes.write(compressed[3] | 4 | 8); // FEXTRA, FNAME
+		methodBytes.write(compressed, 4, 6);
+		methodBytes.write(new byte[] { 3, 0, 1, 2, 3 });
+		methodBytes.write("test.txt".getBytes("UTF-8"));
+		methodBytes.write(0);
+		methodBytes.write(compressed, 10, compressed.length - 10);
+		methodBytes.write(new byte[] { 1, 2, 3 });
+		ByteArrayOutputStream methodOut = new ByteArrayOutputStream();
+		OutputStream methodOS = Compressor.GZIP.decompressingOutputStream(methodOut, original.length, 0);
+		writeInChunks(methodOS, methodBytes.toByteArray(), 5);
+		assertTrue(Arrays.equals(original, methodOut.toByteArray()));
+	}
+
+	/**
+	 * Tests that too much data is refused, with the size if we are allowed to check it.
+	 */
+	public void testTooBig() throws IOException {
+		OutputStream methodOS = Compressor.GZIP.decompressingOutputStream(new ByteArrayOutputStream(), original.length - 1, 0);
+		try {
+			writeInChunks(methodOS, compressed, 4096);
+			fail("Should have been too big");
+		} catch (CompressionOutputSizeIOException e) {
+			assertEquals(-1, e.estimatedSize);
+		}
+		methodOS = Compressor.GZIP.decompressingOutputStream(new ByteArrayOutputStream(), original.length / 2, original.length);
+		try {
+			writeInChunks(methodOS, compressed, 4096);
+			fail("Should have been too big");
+		} catch (CompressionOutputSizeIOException e) {
+			assertEquals(original.length, e.estimatedSize);
+		}
+	}
+
+	/**
+	 * Tests that truncated or corrupted data is detected.
+	 */
+	public void testTruncatedAndCorrupt() throws IOException {
+		byte[] methodTruncated = new byte[compressed.length - 4];
+		System.arraycopy(compressed, 0, methodTruncated, 0, methodTruncated.length);
+		try {
+			writeInChunks(Compressor.GZIP.decompressingOutputStream(new ByteArrayOutputStream(), original.length, 0), methodTruncated, 4096);
+			fail("Should have detected truncation");
+		} catch (IOException e) {
+			// Expected
+		}
+		byte[] methodCorrupt = (byte[]) compressed.clone();
+		methodCorrupt[methodCorrupt.length - 8] ^= 1; // CRC
+		try {
+			writeInChunks(Compressor.GZIP.decompressingOutputStream(new ByteArrayOutputStream(), original.length, 0), methodCorrupt, 4096);
+			fail("Should have detected corruption");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.support.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import freenet.crypt.DummyRandomSource;
+import freenet.crypt.PCFBMode;
+import freenet.crypt.RandomSource;
+import freenet.crypt.UnsupportedCipherException;
+import freenet.crypt.ciphers.Rijndael;
+import freenet.support.HexUtil;
+import freenet.support.SimpleFieldSet;
+import freenet.support.api.Bucket;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.support.io.PaddedEphemerallyEncryptedBucket}.
+ */
+public class PaddedEphemerallyEncryptedBucketTest extends TestCase {
+
+	private final RandomSource random = new DummyRandomSource();
+
+	private byte[] sampleData(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private void write(Bucket bucket, byte[] data) throws IOException {
+		OutputStream os = bucket.getOutputStream();
+		// Odd sized writes, and a single byte, to cross cipher block boundaries
+		os.write(data[0] & 0xFF);
+		for(int i=1;i<data.length;i+=1000)
+			os.write(data, i, Math.min(1000, data.length-i));
+		os.close();
+	}
+
+	/**
+	 * Tests that data comes back intact, padded on disk and not in the clear.
+	 */
+	public void testWriteAndRead() throws IOException {
+		ArrayBucket methodUnderlying = new ArrayBucket();
+		PaddedEphemerallyEncryptedBucket methodBucket = new PaddedEphemerallyEncryptedBucket(methodUnderlying, 1024, random);
+		byte[] methodData = sampleData(5000);
+		write(methodBucket, methodData);
+		assertEquals(methodData.length, methodBucket.size());
+		assertEquals(8192, methodUnderlying.size());
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodBucket)));
+		byte[] methodRaw = BucketTools.toByteArray(methodUnderlying);
+		byte[] methodPrefix = new byte[methodData.length];
+		System.arraycopy(methodRaw, 0, methodPrefix, 0, methodPrefix.length);
+		assertFalse(Arrays.equals(methodData, methodPrefix));
+	}
+
+	/**
+	 * Tests that skipping to an offset gives the same data as reading up to it.
+	 */
+	public void testSkip() throws IOException {
+		PaddedEphemerallyEncryptedBucket methodBucket = new PaddedEphemerallyEncryptedBucket(new ArrayBucket(), 1024, random);
+		byte[] methodData = sampleData(10000);
+		write(methodBucket, methodData);
+		InputStream methodIS = methodBucket.getInputStream();
+		assertEquals(3333, methodIS.skip(3333));
+		byte[] methodRead = new byte[100];
+		assertEquals(100, methodIS.read(methodRead));
+		for(int i=0;i<methodRead.length;i++)
+			assertEquals(methodData[3333+i], methodRead[i]);
+		assertEquals(methodData.length-3433, methodIS.skip(1000000));
+		assertEquals(-1, methodIS.read());
+	}
+
+	/**
+	 * Tests that rewriting the bucket uses a new IV, and that the bucket can be
+	 * restored from its fieldset.
+	 */
+	public void testRewriteAndRestore() throws IOException, CannotCreateFromFieldSetException {
+		File methodFile = File.createTempFile("pebtest", ".tmp");
+		try {
+			FileBucket methodUnderlying = new FileBucket(methodFile, false, false, false, false, true);
+			PaddedEphemerallyEncryptedBucket methodBucket = new PaddedEphemerallyEncryptedBucket(methodUnderlying, 1024, random);
+			byte[] methodData = sampleData(2000);
+			write(methodBucket, methodData);
+			String methodFirstIV = methodBucket.toFieldSet().get("IV");
+			byte[] methodFirstRaw = BucketTools.toByteArray(methodUnderlying);
+			write(methodBucket, methodData);
+			SimpleFieldSet methodFS = methodBucket.toFieldSet();
+			assertEquals("aes256ctr", methodFS.get("CryptoType"));
+			assertFalse(methodFirstIV.equals(methodFS.get("IV")));
+			byte[] methodSecondRaw = BucketTools.toByteArray(methodUnderlying);
+			byte[] methodPrefix = new byte[methodData.length];
+			System.arraycopy(methodFirstRaw, 0, methodPrefix, 0, methodPrefix.length);
+			byte[] methodSecondPrefix = new byte[methodData.length];
+			System.arraycopy(methodSecondRaw, 0, methodSecondPrefix, 0, methodSecondPrefix.length);
+			assertFalse(Arrays.equals(methodPrefix, methodSecondPrefix));
+
+			Bucket methodRestored = SerializableToFieldSetBucketUtil.create(methodFS, random, new NullPersistentFileTracker());
+			assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodRestored)));
+		} finally {
+			methodFile.delete();
+		}
+	}
+
+	/**
+	 * Tests that buckets written in the old PCFB format can still be read.
+	 */
+	public void testReadOldFormat() throws IOException, UnsupportedCipherException, CannotCreateFromFieldSetException {
+		byte[] methodKey = new byte[32];
+		random.nextBytes(methodKey);
+		byte[] methodData = sampleData(3000);
+		Rijndael methodAES = new Rijndael(256, 256, false);
+		methodAES.initialize(methodKey);
+		byte[] methodPadded = new byte[4096];
+		System.arraycopy(methodData, 0, methodPadded, 0, methodData.length);
+		PCFBMode.create(methodAES).blockEncipher(methodPadded, 0, methodData.length);
+		File methodFile = File.createTempFile("pebtest", ".tmp");
+		try {
+			FileBucket methodUnderlying = new FileBucket(methodFile, false, false, false, false, true);
+			BucketTools.copyFrom(methodUnderlying, new ByteArrayInputStream(methodPadded), -1);
+
+			SimpleFieldSet methodFS = new SimpleFieldSet(false);
+			methodFS.putSingle("Type", "PaddedEphemerallyEncryptedBucket");
+			methodFS.put("DataLength", methodData.length);
+			methodFS.putSingle("DecryptKey", HexUtil.bytesToHex(methodKey));
+			methodFS.put("MinPaddedSize", 1024);
+			methodFS.putSingle("CryptoType", "aes256");
+			methodFS.put("Underlying", methodUnderlying.toFieldSet());
+			Bucket methodBucket = SerializableToFieldSetBucketUtil.create(methodFS, random, new NullPersistentFileTracker());
+			assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodBucket)));
+			assertEquals("aes256", ((PaddedEphemerallyEncryptedBucket)methodBucket).toFieldSet().get("CryptoType"));
+		} finally {
+			methodFile.delete();
+		}
+	}
+
+}
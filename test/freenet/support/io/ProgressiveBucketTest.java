@@ -0,0 +1,156 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.support.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.support.io.ProgressiveBucket}.
+ */
+public class ProgressiveBucketTest extends TestCase {
+
+	private ProgressiveBucket bucket;
+
+	protected void setUp() {
+		bucket = new ProgressiveBucket(new ArrayBucketFactory());
+	}
+
+	/** Read from a stream on another thread, so we can check whether it blocks. */
+	private class Reader extends Thread {
+		final InputStream is;
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		boolean eof;
+		IOException error;
+
+		Reader() throws IOException {
+			is = bucket.getInputStream();
+			setDaemon(true);
+		}
+
+		public void run() {
+			byte[] buf = new byte[100];
+			try {
+				int x;
+				while((x = is.read(buf)) != -1) {
+					synchronized(this) {
+						data.write(buf, 0, x);
+						notifyAll();
+					}
+				}
+				synchronized(this) {
+					eof = true;
+					notifyAll();
+				}
+			} catch (IOException e) {
+				synchronized(this) {
+					error = e;
+					notifyAll();
+				}
+			}
+		}
+
+		synchronized void waitFor(int bytes) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while(data.size() < bytes && !eof && error == null && System.currentTimeMillis() < end)
+				wait(100);
+		}
+
+		synchronized void waitForEnd() throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while(!eof && error == null && System.currentTimeMillis() < end)
+				wait(100);
+		}
+	}
+
+	/**
+	 * Tests that a reader sees each flushed chunk, but nothing unflushed, and gets
+	 * the end of the data only when the writer closes.
+	 */
+	public void testReadWhileWriting() throws Exception {
+		Reader methodReader = new Reader();
+		methodReader.start();
+		OutputStream methodOS = bucket.getOutputStream();
+		byte[] methodData = new byte[1000];
+		for(int i=0;i<methodData.length;i++)
+			methodData[i] = (byte) i;
+
+		methodOS.write(methodData, 0, 300);
+		Thread.sleep(100);
+		assertEquals(0, methodReader.data.size());
+		assertEquals(0, bucket.size());
+
+		methodOS.flush();
+		methodReader.waitFor(300);
+		assertEquals(300, methodReader.data.size());
+		assertEquals(300, bucket.size());
+		assertFalse(methodReader.eof);
+
+		methodOS.write(methodData, 300, 700);
+		methodOS.close();
+		methodReader.waitForEnd();
+		assertTrue(methodReader.eof);
+		assertTrue(bucket.isComplete());
+		assertTrue(Arrays.equals(methodData, methodReader.data.toByteArray()));
+
+		// A new reader reads it all from the start
+		byte[] methodCopy = new byte[methodData.length];
+		assertEquals(methodData.length, BucketTools.toByteArray(bucket, methodCopy));
+		assertTrue(Arrays.equals(methodData, methodCopy));
+	}
+
+	/**
+	 * Tests that freeing the bucket wakes up a blocked reader with an error.
+	 */
+	public void testFreeWakesReader() throws Exception {
+		Reader methodReader = new Reader();
+		methodReader.start();
+		OutputStream methodOS = bucket.getOutputStream();
+		methodOS.write(new byte[10]);
+		methodOS.flush();
+		methodReader.waitFor(10);
+		bucket.free();
+		methodReader.waitForEnd();
+		assertNotNull(methodReader.error);
+		assertFalse(methodReader.eof);
+		try {
+			methodOS.write(new byte[10]);
+			methodOS.flush();
+			fail("Should not be able to write after free()");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests that the bucket can only be written once.
+	 */
+	public void testWriteOnce() throws IOException {
+		bucket.getOutputStream().close();
+		try {
+			bucket.getOutputStream();
+			fail("Should only be able to write once");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
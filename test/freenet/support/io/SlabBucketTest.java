@@ -0,0 +1,126 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.support.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import freenet.support.SimpleFieldSet;
+import freenet.support.api.Bucket;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.support.io.SlabBucket} and
+ * {@link freenet.support.io.SlabStore}.
+ */
+public class SlabBucketTest extends TestCase {
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("slabtest", ".dir");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	protected void tearDown() {
+		File[] files = dir.listFiles();
+		for(int i=0;i<files.length;i++)
+			files[i].delete();
+		dir.delete();
+	}
+
+	private byte[] sampleData(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private void write(Bucket bucket, byte[] data) throws IOException {
+		OutputStream os = bucket.getOutputStream();
+		// Odd sized writes, to cross extent boundaries
+		for(int i=0;i<data.length;i+=1000)
+			os.write(data, i, Math.min(1000, data.length-i));
+		os.close();
+	}
+
+	/**
+	 * Tests that data spanning several extents comes back intact.
+	 */
+	public void testWriteAndRead() throws IOException {
+		SlabStore methodStore = new SlabStore(dir, "slab-", false);
+		Bucket methodBucket = new SlabBucket(methodStore);
+		byte[] methodData = sampleData(3*SlabStore.EXTENT_SIZE + 17);
+		write(methodBucket, methodData);
+		assertEquals(methodData.length, methodBucket.size());
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodBucket)));
+		assertEquals(4, methodStore.usedExtents());
+	}
+
+	/**
+	 * Tests that overwriting with less data, and freeing, give back the extents.
+	 */
+	public void testOverwriteAndFree() throws IOException {
+		SlabStore methodStore = new SlabStore(dir, "slab-", false);
+		Bucket methodBucket = new SlabBucket(methodStore);
+		write(methodBucket, sampleData(3*SlabStore.EXTENT_SIZE));
+		byte[] methodData = sampleData(100);
+		write(methodBucket, methodData);
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodBucket)));
+		assertEquals(1, methodStore.usedExtents());
+		methodBucket.free();
+		assertEquals(0, methodStore.usedExtents());
+		Bucket methodOther = new SlabBucket(methodStore);
+		write(methodOther, methodData);
+		assertEquals(1, methodStore.usedExtents());
+	}
+
+	/**
+	 * Tests that a persistent bucket can be restored from its fieldset after a
+	 * restart, and that unclaimed extents are freed by completedInit().
+	 */
+	public void testPersistentRestore() throws IOException, CannotCreateFromFieldSetException {
+		SlabStore methodStore = new SlabStore(dir, "slab-", true);
+		methodStore.completedInit();
+		SlabBucket methodKept = new SlabBucket(methodStore);
+		SlabBucket methodLost = new SlabBucket(methodStore);
+		byte[] methodData = sampleData(2*SlabStore.EXTENT_SIZE + 5);
+		write(methodKept, methodData);
+		write(methodLost, sampleData(10));
+		SimpleFieldSet methodFS = methodKept.toFieldSet();
+
+		final SlabStore methodRestarted = new SlabStore(dir, "slab-", true);
+		PersistentFileTracker methodTracker = new NullPersistentFileTracker() {
+			public SlabStore getSlabStore() {
+				return methodRestarted;
+			}
+		};
+		Bucket methodRestored = SerializableToFieldSetBucketUtil.create(methodFS, null, methodTracker);
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodRestored)));
+		try {
+			SerializableToFieldSetBucketUtil.create(methodFS, null, methodTracker);
+			fail("Expected CannotCreateFromFieldSetException: extents claimed twice");
+		} catch (CannotCreateFromFieldSetException anException) {
+			assertNotNull(anException);
+		}
+		methodRestarted.completedInit();
+		assertEquals(3, methodRestarted.usedExtents());
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package freenet.support.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import freenet.support.api.Bucket;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link freenet.support.io.TempBucketFactory} RAM buckets.
+ */
+public class TempBucketFactoryTest extends TestCase {
+
+	private File dir;
+	private SlabStore store;
+
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("tempbuckettest", ".dir");
+		dir.delete();
+		dir.mkdir();
+		store = new SlabStore(dir, "slab-", false);
+	}
+
+	protected void tearDown() {
+		File[] files = dir.listFiles();
+		for(int i=0;i<files.length;i++)
+			files[i].delete();
+		dir.delete();
+	}
+
+	private TempBucketFactory createFactory(long maxRAMUsed, long maxRAMBucketSize) throws IOException {
+		return new TempBucketFactory(new FilenameGenerator(null, false, dir, "temp-"), store, maxRAMUsed, maxRAMBucketSize);
+	}
+
+	private byte[] sampleData(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private void write(Bucket bucket, byte[] data) throws IOException {
+		OutputStream os = bucket.getOutputStream();
+		for(int i=0;i<data.length;i+=1000)
+			os.write(data, i, Math.min(1000, data.length-i));
+		os.close();
+	}
+
+	/**
+	 * Tests that a small bucket stays in RAM, and gives back its RAM when freed.
+	 */
+	public void testSmallBucketStaysInRAM() throws IOException {
+		TempBucketFactory methodFactory = createFactory(1024*1024, 64*1024);
+		Bucket methodBucket = methodFactory.makeBucket(10000);
+		byte[] methodData = sampleData(10000);
+		write(methodBucket, methodData);
+		assertTrue(((TempBucket)methodBucket).isInRAM());
+		assertEquals(0, store.usedExtents());
+		assertEquals(3*TempBucketFactory.CHUNK_SIZE, methodFactory.getRAMUsed());
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodBucket)));
+		methodBucket.free();
+		assertEquals(0, methodFactory.getRAMUsed());
+		assertEquals(0, methodFactory.getMigrations());
+	}
+
+	/**
+	 * Tests that a bucket which grows too big moves to disk, even while
+	 * it is being read.
+	 */
+	public void testBigBucketMigrates() throws IOException {
+		TempBucketFactory methodFactory = createFactory(1024*1024, 64*1024);
+		Bucket methodBucket = methodFactory.makeBucket(50*1000);
+		byte[] methodData = sampleData(100*1000);
+		OutputStream methodOS = methodBucket.getOutputStream();
+		methodOS.write(methodData, 0, 5000);
+		InputStream methodIS = methodBucket.getInputStream();
+		byte[] methodRead = new byte[methodData.length];
+		assertEquals(100, methodIS.read(methodRead, 0, 100));
+		methodOS.write(methodData, 5000, methodData.length-5000);
+		methodOS.close();
+		assertFalse(((TempBucket)methodBucket).isInRAM());
+		assertEquals(1, methodFactory.getMigrations());
+		assertEquals(0, methodFactory.getRAMUsed());
+		int methodOffset = 100;
+		while(methodOffset < methodRead.length) {
+			int methodCount = methodIS.read(methodRead, methodOffset, methodRead.length-methodOffset);
+			assertTrue(methodCount > 0);
+			methodOffset += methodCount;
+		}
+		assertTrue(Arrays.equals(methodData, methodRead));
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodBucket)));
+		methodBucket.free();
+		assertEquals(0, store.usedExtents());
+	}
+
+	/**
+	 * Tests that buckets move to disk when the RAM budget runs out.
+	 */
+	public void testBudgetExhausted() throws IOException {
+		TempBucketFactory methodFactory = createFactory(2*TempBucketFactory.CHUNK_SIZE, 64*1024);
+		Bucket methodFirst = methodFactory.makeBucket(1000);
+		write(methodFirst, sampleData(2*TempBucketFactory.CHUNK_SIZE));
+		assertTrue(((TempBucket)methodFirst).isInRAM());
+		Bucket methodSecond = methodFactory.makeBucket(1000);
+		assertFalse(methodSecond instanceof TempBucket);
+		methodFirst.free();
+		Bucket methodThird = methodFactory.makeBucket(1000);
+		byte[] methodData = sampleData(3*TempBucketFactory.CHUNK_SIZE);
+		write(methodThird, methodData);
+		assertFalse(((TempBucket)methodThird).isInRAM());
+		assertTrue(Arrays.equals(methodData, BucketTools.toByteArray(methodThird)));
+	}
+
+}